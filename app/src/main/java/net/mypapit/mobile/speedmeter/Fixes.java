@@ -0,0 +1,39 @@
+package net.mypapit.mobile.speedmeter;
+
+import android.location.Location;
+import android.os.Build;
+import android.os.SystemClock;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+
+/**
+ * Copies platform {@link Location} objects into the engine's reusable {@link Fix} records.
+ */
+final class Fixes {
+
+    private Fixes() {
+    }
+
+    /**
+     * Fills {@code fix} from {@code location}.
+     *
+     * @return the fix that was passed in
+     */
+    static Fix read(Location location, Fix fix) {
+        long elapsedNanos;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            elapsedNanos = location.getElapsedRealtimeNanos();
+        } else {
+            elapsedNanos = SystemClock.elapsedRealtime() * 1000000L;
+        }
+        fix.set(elapsedNanos, location.getTime(),
+                location.getLatitude(), location.getLongitude(),
+                location.hasSpeed() ? location.getSpeed() : Float.NaN,
+                location.hasBearing() ? location.getBearing() : Float.NaN,
+                location.hasAccuracy() ? location.getAccuracy() : Float.NaN);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && location.hasSpeedAccuracy()) {
+            fix.setSpeedAccuracy(location.getSpeedAccuracyMetersPerSecond());
+        }
+        return fix;
+    }
+}
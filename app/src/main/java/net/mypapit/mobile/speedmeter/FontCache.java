@@ -0,0 +1,40 @@
+package net.mypapit.mobile.speedmeter;
+
+import android.content.Context;
+import android.graphics.Typeface;
+
+import androidx.core.os.TraceCompat;
+
+import java.util.HashMap;
+
+/**
+ * Typefaces loaded from assets, shared by every view and activity instance of the process.
+ * Loading parses the whole font file, which would otherwise be repeated by every activity
+ * creation, including each rotation.
+ */
+final class FontCache {
+
+    static final String LCD = "font/lcdn.ttf";
+
+    private static final HashMap<String, Typeface> sTypefaces = new HashMap<>();
+
+    private FontCache() {
+    }
+
+    /**
+     * @param asset path of the font within the assets
+     */
+    static synchronized Typeface get(Context context, String asset) {
+        Typeface typeface = sTypefaces.get(asset);
+        if (typeface == null) {
+            TraceCompat.beginSection("FontCache.load");
+            try {
+                typeface = Typeface.createFromAsset(context.getApplicationContext().getAssets(), asset);
+            } finally {
+                TraceCompat.endSection();
+            }
+            sTypefaces.put(asset, typeface);
+        }
+        return typeface;
+    }
+}
@@ -0,0 +1,138 @@
+package net.mypapit.mobile.speedmeter;
+
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.View;
+
+import net.mypapit.mobile.speedmeter.engine.GlyphCells;
+
+/**
+ * A segment-display style readout drawn with the bundled LCD font. The view has a fixed number
+ * of equally wide cells, so its size never depends on the text: updates copy characters into
+ * the cells and invalidate only the ones that changed, and never request a layout pass.
+ */
+public class LcdDigitView extends View {
+
+    private static final String MEASURE_CHARS = "0123456789-.,:ABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    private final Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final GlyphCells cells;
+    private float cellWidth;
+    private int cellHeight;
+    private float baseline;
+
+    public LcdDigitView(Context context) {
+        this(context, null);
+    }
+
+    public LcdDigitView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        TypedArray a = context.obtainStyledAttributes(attrs, R.styleable.LcdDigitView);
+        int count = a.getInt(R.styleable.LcdDigitView_cells, 5);
+        float textSize = a.getDimension(R.styleable.LcdDigitView_android_textSize,
+                TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 18,
+                        getResources().getDisplayMetrics()));
+        int color = a.getColor(R.styleable.LcdDigitView_android_textColor, 0xff00ee00);
+        CharSequence text = a.getText(R.styleable.LcdDigitView_android_text);
+        a.recycle();
+
+        cells = new GlyphCells(count);
+        paint.setColor(color);
+        paint.setTextSize(textSize);
+        if (!isInEditMode()) {
+            paint.setTypeface(FontCache.get(context, FontCache.LCD));
+        }
+        measureCells();
+        if (text != null) {
+            cells.set(text);
+        }
+    }
+
+    private void measureCells() {
+        float widest = 0;
+        for (int i = 0; i < MEASURE_CHARS.length(); i++) {
+            widest = Math.max(widest, paint.measureText(MEASURE_CHARS, i, i + 1));
+        }
+        cellWidth = widest;
+        Paint.FontMetrics metrics = paint.getFontMetrics();
+        cellHeight = (int) Math.ceil(metrics.descent - metrics.ascent);
+        baseline = -metrics.ascent;
+    }
+
+    /**
+     * Shows {@code length} chars of {@code text}. Does not keep a reference to the array.
+     */
+    public void setChars(char[] text, int length) {
+        invalidateCells(cells.set(text, 0, length));
+    }
+
+    /**
+     * Shows a constant label, such as a status message.
+     */
+    public void setText(CharSequence text) {
+        invalidateCells(cells.set(text));
+    }
+
+    public void setText(int resId) {
+        setText(getResources().getText(resId));
+    }
+
+    /**
+     * Redraws all cells in another color; the size stays the same.
+     */
+    public void setTextColor(int color) {
+        if (paint.getColor() != color) {
+            paint.setColor(color);
+            invalidate();
+        }
+    }
+
+    /**
+     * @return the text currently shown, without the blank cells used for alignment
+     */
+    public CharSequence getText() {
+        char[] chars = cells.chars();
+        int start = 0;
+        while (start < chars.length && chars[start] == ' ') {
+            start++;
+        }
+        return new String(chars, start, chars.length - start);
+    }
+
+    private void invalidateCells(long dirty) {
+        if (dirty == 0L) {
+            return;
+        }
+        int first = Long.numberOfTrailingZeros(dirty);
+        int last = 63 - Long.numberOfLeadingZeros(dirty);
+        int left = getPaddingLeft();
+        int top = getPaddingTop();
+        invalidate(left + (int) (first * cellWidth), top,
+                left + (int) Math.ceil((last + 1) * cellWidth), top + cellHeight);
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int width = getPaddingLeft() + getPaddingRight() + (int) Math.ceil(cells.count() * cellWidth);
+        int height = getPaddingTop() + getPaddingBottom() + cellHeight;
+        setMeasuredDimension(resolveSize(width, widthMeasureSpec),
+                resolveSize(height, heightMeasureSpec));
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        char[] chars = cells.chars();
+        float left = getPaddingLeft();
+        float y = getPaddingTop() + baseline;
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] != ' ') {
+                float x = left + i * cellWidth + (cellWidth - paint.measureText(chars, i, 1)) / 2;
+                canvas.drawText(chars, i, 1, x, y, paint);
+            }
+        }
+    }
+}
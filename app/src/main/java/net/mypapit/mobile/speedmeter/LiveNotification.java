@@ -0,0 +1,175 @@
+package net.mypapit.mobile.speedmeter;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.widget.RemoteViews;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.TaskStackBuilder;
+
+import net.mypapit.mobile.speedmeter.engine.DecimalText;
+import net.mypapit.mobile.speedmeter.engine.Snapshot;
+import net.mypapit.mobile.speedmeter.engine.SpeedUnit;
+import net.mypapit.mobile.speedmeter.engine.TextSlot;
+import net.mypapit.mobile.speedmeter.engine.UpdateThrottle;
+import net.mypapit.mobile.speedmeter.engine.metrics.Counter;
+import net.mypapit.mobile.speedmeter.engine.metrics.Metrics;
+
+/**
+ * The ongoing notification, showing the speed, max speed and trip distance while the app is
+ * in the background. Each post is a call into the system server and a redraw of the shade, so
+ * it is only posted when one of the shown texts changes, and at most
+ * {@link #MAX_POSTS_PER_SECOND} times a second; changes in between are folded into one post of
+ * the latest texts.
+ * <p>
+ * The builder, with its channel, icon and intent, is made once. The texts go into fresh
+ * {@link RemoteViews} per post: a reused one keeps every text ever set on it and sends them
+ * all with each post. All calls are made on the main thread.
+ */
+final class LiveNotification implements SpeedService.Listener {
+
+    static final int MAX_POSTS_PER_SECOND = 1;
+
+    private static final int TEXT_CAPACITY = DecimalText.MAX_LENGTH + 8;
+
+    private final Context mContext;
+    private final NotificationManager mManager;
+    private final NotificationCompat.Builder mBuilder;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final UpdateThrottle mThrottle = new UpdateThrottle(MAX_POSTS_PER_SECOND);
+    private final Counter mPosted;
+    private final Counter mHeldBack;
+
+    // the texts shown, compared with each snapshot
+    private final TextSlot mSpeed = new TextSlot(TEXT_CAPACITY);
+    private final TextSlot mMaxSpeed = new TextSlot(TEXT_CAPACITY);
+    private final TextSlot mDistance = new TextSlot(TEXT_CAPACITY);
+    private String mUnit = SpeedUnit.label(SpeedUnit.KMH);
+    /** Shown instead of the speed until the next snapshot, null if none */
+    private String mStatus = "STDBY";
+    private boolean mShowing;
+
+    private final Runnable mPostHeldBack = new Runnable() {
+        @Override
+        public void run() {
+            if (mShowing && mThrottle.due(SystemClock.elapsedRealtimeNanos())) {
+                post();
+            }
+        }
+    };
+
+    LiveNotification(Context context, Metrics metrics) {
+        mContext = context;
+        mManager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        mPosted = metrics.counter("notification.posted");
+        mHeldBack = metrics.counter("notification.held_back");
+        SpeedService.createNotificationChannel(context);
+
+        Intent resultIntent = new Intent(context, MainActivity.class);
+        resultIntent.addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
+        stackBuilder.addParentStack(MainActivity.class);
+        stackBuilder.addNextIntent(resultIntent);
+        PendingIntent resultPendingIntent = stackBuilder.getPendingIntent(0,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+
+        mBuilder = new NotificationCompat.Builder(context, SpeedService.CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_stat_notification)
+                .setContentTitle(context.getString(R.string.notification_title))
+                .setContentIntent(resultPendingIntent)
+                .setStyle(new NotificationCompat.DecoratedCustomViewStyle())
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setShowWhen(false);
+    }
+
+    /**
+     * Sets the unit label shown after the speed; it is posted with the next change.
+     */
+    void setUnitType(int unitType) {
+        mUnit = SpeedUnit.label(unitType);
+    }
+
+    /**
+     * Starts posting changes.
+     *
+     * @return the notification with the texts known so far, to post or start the foreground with
+     */
+    Notification start() {
+        mShowing = true;
+        mThrottle.reset();
+        mThrottle.changed(SystemClock.elapsedRealtimeNanos());
+        mPosted.increment();
+        return build();
+    }
+
+    /**
+     * Stops posting changes; the caller cancels the notification.
+     */
+    void stop() {
+        mShowing = false;
+        mHandler.removeCallbacks(mPostHeldBack);
+    }
+
+    @Override
+    public void onSnapshot(Snapshot snapshot) {
+        mSpeed.copyFrom(snapshot.speedText);
+        mMaxSpeed.copyFrom(snapshot.maxSpeedText);
+        mDistance.copyFrom(snapshot.distanceText);
+        if (mSpeed.isChanged() || mMaxSpeed.isChanged() || mDistance.isChanged() || mStatus != null) {
+            mSpeed.clearChanged();
+            mMaxSpeed.clearChanged();
+            mDistance.clearChanged();
+            mStatus = null;
+            changed();
+        }
+    }
+
+    @Override
+    public void onProviderChanged(boolean enabled) {
+        mStatus = enabled ? "STDBY" : "NOFIX";
+        changed();
+    }
+
+    @Override
+    public void onReplayChanged(boolean replaying) {
+    }
+
+    private void changed() {
+        if (!mShowing) {
+            return;
+        }
+        long wait = mThrottle.changed(SystemClock.elapsedRealtimeNanos());
+        if (wait == 0) {
+            post();
+            return;
+        }
+        mHeldBack.increment();
+        if (wait != UpdateThrottle.PENDING) {
+            // rounded up: the throttle does not let a post through early
+            mHandler.postDelayed(mPostHeldBack, (wait + 999999L) / 1000000L);
+        }
+    }
+
+    private void post() {
+        mManager.notify(SpeedService.NOTIFICATION_ID, build());
+        mPosted.increment();
+    }
+
+    private Notification build() {
+        RemoteViews views = new RemoteViews(mContext.getPackageName(), R.layout.notification_live);
+        views.setTextViewText(R.id.notificationSpeed, mStatus != null ? mStatus : mSpeed.toString());
+        views.setTextViewText(R.id.notificationUnit, mStatus != null ? "" : mUnit);
+        views.setTextViewText(R.id.notificationMaxSpeed,
+                mContext.getString(R.string.notification_max_speed, mMaxSpeed.toString()));
+        views.setTextViewText(R.id.notificationDistance, mDistance.toString());
+        return mBuilder.setCustomContentView(views).build();
+    }
+}
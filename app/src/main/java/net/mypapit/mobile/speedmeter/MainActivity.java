@@ -23,20 +23,22 @@ OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
 IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  */
 import android.Manifest;
-import android.annotation.SuppressLint;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
+import android.content.ComponentName;
 import android.content.Context;
 //import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.graphics.Typeface;
-import android.location.Location;
-import android.location.LocationListener;
-import android.location.LocationManager;
-import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.IBinder;
+import android.os.Process;
+import android.os.SystemClock;
 //import android.os.PowerManager;
 import android.preference.PreferenceManager;
 import android.util.Log;
@@ -49,14 +51,21 @@ import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.app.AppCompatDialog;
 import androidx.core.app.NotificationCompat;
 import androidx.core.app.TaskStackBuilder;
+import androidx.core.content.ContextCompat;
+import androidx.core.os.TraceCompat;
 
-import java.text.NumberFormat;
+import net.mypapit.mobile.speedmeter.engine.Snapshot;
+import net.mypapit.mobile.speedmeter.engine.SpeedFilters;
+import net.mypapit.mobile.speedmeter.engine.SpeedUnit;
+import net.mypapit.mobile.speedmeter.engine.TextSlot;
+import net.mypapit.mobile.speedmeter.engine.timing.GateIndex;
+
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 
@@ -64,21 +73,59 @@ public class MainActivity extends AppCompatActivity {
 
 
     public static final String TAG = "speedmeter";
-    private TextView tvSpeed, tvUnit, tvLat, tvLon, tvAccuracy, tvHeading, tvMaxSpeed;
-    private static final String[] unit = {"km/h", "mph", "meter/sec", "knots"};
+    /** Async trace section from the first activity creation of the process to the first speed shown */
+    private static final String TRACE_FIRST_SPEED = "firstSpeed";
+    /** Uptime of the first activity creation, 0 before it and -1 once a speed was shown */
+    private static long sFirstSpeedStart;
+    private static final long METRICS_REFRESH_MILLIS = 1000;
+    private static final int COLOR_NORMAL = 0xff00ee00;
+    private static final int COLOR_OVERSPEED = 0xffee0000;
+    private LcdDigitView tvSpeed, tvMaxSpeed, tvLat, tvLon;
+    private TextView tvUnit, tvAccuracy, tvHeading;
+    private TextView tvDistance, tvAverage, tvP95, tvSpeedLimit, tvLap, tvBestLap, tvRun;
+    private TextView tvMetrics;
+    private boolean mShowMetrics;
+    /** Set when quitting, so that stopping shows no notification, which would restart the service */
+    private boolean mQuitting;
     private int unitType;
+    // set up when first needed, which is not on the way to the first frame
     private NotificationCompat.Builder mbuilder;
     private NotificationManager mnotice;
-    private double maxSpeed = -100.0;
+    private SpeedService mService;
+    // the last snapshot shown, compared against each new one to find changed fields
+    private final Snapshot mDisplayed = new Snapshot();
+    // set when the fields show status text instead of the last snapshot
+    private boolean mShowingStatus = true;
     private MainActivity activity;
 
     private SharedPreferences prefs;
     private boolean mHasPermissions;
+    private boolean mPromptedLocation;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        TraceCompat.beginSection("MainActivity.onCreate");
         super.onCreate(savedInstanceState);
+        if (sFirstSpeedStart == 0) {
+            sFirstSpeedStart = SystemClock.elapsedRealtime();
+            TraceCompat.beginAsyncSection(TRACE_FIRST_SPEED, 0);
+        }
+        // with the permission granted the service starts tracking as soon as it is created,
+        // not only once it is bound, and subscribes on its own thread
+        mHasPermissions = ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
+                == PackageManager.PERMISSION_GRANTED;
+        Intent intent = new Intent(this, SpeedService.class);
+        if (mHasPermissions) {
+            intent.setAction(SpeedService.ACTION_START_TRACKING);
+        }
+        // started as well as bound, so that tracking continues after unbinding in onStop
+        startService(intent);
+        // the preferences file is read on a thread of its own meanwhile
+        prefs = PreferenceManager.getDefaultSharedPreferences(this);
+
+        TraceCompat.beginSection("setContentView");
         setContentView(R.layout.activity_main);
+        TraceCompat.endSection();
         tvSpeed = findViewById(R.id.tvSpeed);
         tvMaxSpeed = findViewById(R.id.tvMaxSpeed);
         tvUnit = findViewById(R.id.tvUnitc);
@@ -86,47 +133,31 @@ public class MainActivity extends AppCompatActivity {
         tvLon = findViewById(R.id.tvLon);
         tvAccuracy = findViewById(R.id.tvAccuracy);
         tvHeading = findViewById(R.id.tvHeading);
-        Typeface font = Typeface.createFromAsset(getBaseContext().getAssets(), "font/lcdn.ttf");
-        tvSpeed.setTypeface(font);
-        tvLat.setTypeface(font);
-        tvLon.setTypeface(font);
+        tvDistance = findViewById(R.id.tvDistance);
+        tvAverage = findViewById(R.id.tvAverage);
+        tvP95 = findViewById(R.id.tvP95);
+        tvSpeedLimit = findViewById(R.id.tvSpeedLimit);
+        tvLap = findViewById(R.id.tvLap);
+        tvBestLap = findViewById(R.id.tvBestLap);
+        tvRun = findViewById(R.id.tvRun);
+        tvMetrics = findViewById(R.id.tvMetrics);
+        // already loaded by the LCD digit views
+        Typeface font = FontCache.get(this, FontCache.LCD);
         tvHeading.setTypeface(font);
         tvAccuracy.setTypeface(font);
-        tvMaxSpeed.setTypeface(font);
+        tvDistance.setTypeface(font);
+        tvAverage.setTypeface(font);
+        tvP95.setTypeface(font);
+        tvSpeedLimit.setTypeface(font);
+        tvLap.setTypeface(font);
+        tvBestLap.setTypeface(font);
+        tvRun.setTypeface(font);
 
         activity = this;
-        //for handling notification
-        mbuilder = new NotificationCompat.Builder(this);
-        mnotice = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
-
-        prefs = PreferenceManager.getDefaultSharedPreferences(this);
 
         unitType = Integer.parseInt(prefs.getString("unit", "1"));
-        tvUnit.setText(unit[unitType - 1]);
-
-        if (savedInstanceState !=null) {
-            maxSpeed = savedInstanceState.getDouble("maxspeed",-100.0);
-        }
-
-        if (!this.isLocationEnabled(this)) {
-            //show dialog if Location Services is not enabled
-
-            AlertDialog.Builder builder = new AlertDialog.Builder(this);
-            builder.setTitle(R.string.gps_not_found_title);  // GPS not found
-            builder.setMessage(R.string.gps_not_found_message); // Want to enable?
-            builder.setPositiveButton(R.string.yes, (dialogInterface, i) -> {
-                Intent intent = new Intent(android.provider.Settings.ACTION_LOCATION_SOURCE_SETTINGS);
-                intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-                activity.startActivity(intent);
-            });
-
-            //if no - bring user to selecting Static Location Activity
-            builder.setNegativeButton(R.string.no, (dialog, which) ->
-                    Toast.makeText(activity, "Please enable Location-based service / GPS", Toast.LENGTH_LONG).show()
-            );
-            builder.create().show();
-        }
-
+        tvUnit.setText(SpeedUnit.label(unitType));
+        mShowMetrics = prefs.getBoolean("debugOverlay", false);
 
         //PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
         //PowerManager.WakeLock wakeLock = pm.newWakeLock(PowerManager.SCREEN_DIM_WAKE_LOCK, "My wakelook");
@@ -134,33 +165,106 @@ public class MainActivity extends AppCompatActivity {
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
 
         tvSpeed.setOnTouchListener((view, motionEvent) -> {
-            Intent intent = new Intent(getApplicationContext(), SettingsActivity.class);
-            startActivity(intent);
+            Intent settings = new Intent(getApplicationContext(), SettingsActivity.class);
+            startActivity(settings);
             return false;
         });
+        TraceCompat.endSection();
     }
-    SpeedTask m_speedTask;
 
-    protected void onSaveInstanceState(@NonNull Bundle bundle){
-        super.onSaveInstanceState(bundle);
-        bundle.putDouble("maxspeed",maxSpeed);
-    }
+    /**
+     * Offers to open the location settings. Shown the first time the service reports the GPS
+     * provider disabled, which it checks off the main thread.
+     */
+    private void promptLocationSettings() {
+        if (mPromptedLocation) {
+            return;
+        }
+        mPromptedLocation = true;
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.gps_not_found_title);  // GPS not found
+        builder.setMessage(R.string.gps_not_found_message); // Want to enable?
+        builder.setPositiveButton(R.string.yes, (dialogInterface, i) -> {
+            Intent intent = new Intent(android.provider.Settings.ACTION_LOCATION_SOURCE_SETTINGS);
+            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            activity.startActivity(intent);
+        });
 
-    protected void onRestoreInstanceState(Bundle bundle){
-        super.onRestoreInstanceState(bundle);
-        maxSpeed = bundle.getDouble("maxspeed",-100.0);
+        //if no - bring user to selecting Static Location Activity
+        builder.setNegativeButton(R.string.no, (dialog, which) ->
+                Toast.makeText(activity, "Please enable Location-based service / GPS", Toast.LENGTH_LONG).show()
+        );
+        builder.create().show();
     }
 
     PermissionsFragment.Listener permissionListener = new PermissionsFragment.Listener() {
         @Override
         public void permissionsGranted() {
             mHasPermissions = true;
-            if(m_speedTask == null) {
-                m_speedTask = new SpeedTask(activity);
-                m_speedTask.execute("string");
+            if (mService != null) {
+                mService.startTracking();
             }
         }
     };
+
+    private final SpeedService.Listener speedListener = new SpeedService.Listener() {
+        @Override
+        public void onSnapshot(Snapshot snapshot) {
+            mDisplayed.copyFrom(snapshot);
+            render(mDisplayed);
+        }
+
+        @Override
+        public void onProviderChanged(boolean enabled) {
+            mShowingStatus = true;
+            if (enabled) {
+                tvSpeed.setText("STDBY");
+                tvMaxSpeed.setText(R.string.nil);
+            } else {
+                tvSpeed.setText("NOFIX");
+                tvMaxSpeed.setText("NOGPS");
+                promptLocationSettings();
+            }
+            tvLat.setText("LATITUDE");
+            tvLon.setText("LONGITUDE");
+            tvHeading.setText("HEADING");
+            tvAccuracy.setText("ACCURACY");
+            tvSpeedLimit.setText("");
+            showOverspeed(false);
+        }
+
+        @Override
+        public void onReplayChanged(boolean replaying) {
+            Toast.makeText(activity, replaying ? R.string.replay_started : R.string.replay_stopped,
+                    Toast.LENGTH_SHORT).show();
+            supportInvalidateOptionsMenu();
+        }
+    };
+
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            mService = ((SpeedService.LocalBinder) binder).getService();
+            applySettings();
+            mService.addListener(speedListener);
+            mService.setVisible(true);
+            mService.hideNotification();
+            if (mHasPermissions) {
+                mService.startTracking();
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            mService = null;
+        }
+    };
+
+    protected void onStart() {
+        super.onStart();
+        // started in onCreate already
+        bindService(new Intent(this, SpeedService.class), serviceConnection, Context.BIND_AUTO_CREATE);
+    }
     protected void onResume() {
         super.onResume();
         if (!mHasPermissions) {
@@ -174,55 +278,82 @@ public class MainActivity extends AppCompatActivity {
         }
         prefs = PreferenceManager.getDefaultSharedPreferences(this);
         unitType = Integer.parseInt(prefs.getString("unit", "1"));
-        maxSpeed = prefs.getFloat("maxspeed",-100.0f);
 
-        tvUnit.setText(unit[unitType - 1]);
+        tvUnit.setText(SpeedUnit.label(unitType));
 
-        if (maxSpeed > 0){
-
-            float multiplier = 3.6f;
-
-            switch (unitType) {
-                case 1:
-                    multiplier = 3.6f;
-                    break;
-                case 2:
-                    multiplier = 2.25f;
-                    break;
-                case 3:
-                    multiplier = 1.0f;
-                    break;
+        if (mService != null) {
+            applySettings();
+        }
+        removeNotification();
+        showMetrics(mShowMetrics);
+    }
 
-                case 4:
-                    multiplier = 1.943856f;
-                    break;
+    /**
+     * Pushes the settings to the service, which re-publishes the snapshot when they change
+     * what is displayed.
+     */
+    private void applySettings() {
+        mService.setUnitType(unitType);
+        mService.setSpeedFilter(prefs.getString("speedFilter", SpeedFilters.BALANCED));
+        mService.setNmeaInput(prefs.getBoolean("nmeaInput", false));
+        mService.setTelemetry(prefs.getString("telemetry", SpeedService.TELEMETRY_OFF));
+        mService.setRunSpeeds(parseRunSpeeds(prefs.getString("runSpeeds", "")));
+    }
 
+    /**
+     * @return the speeds in a comma separated list, ascending; null if it is empty or not
+     *         a list of positive numbers, for the defaults of the unit
+     */
+    private static float[] parseRunSpeeds(String text) {
+        String[] fields = text.split(",");
+        float[] speeds = new float[fields.length];
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                speeds[i] = Float.parseFloat(fields[i].trim());
+                if (!(speeds[i] > 0)) {
+                    return null;
+                }
             }
-            NumberFormat numberFormat = NumberFormat.getNumberInstance();
-            numberFormat.setMaximumFractionDigits(0);
-            tvMaxSpeed.setText(numberFormat.format(maxSpeed * multiplier));
+        } catch (NumberFormatException e) {
+            return null;
         }
-        removeNotification();
+        Arrays.sort(speeds);
+        return speeds;
     }
+
     protected void onStop() {
         super.onStop();
-        displayNotification();
+        if (!mQuitting) {
+            displayNotification();
+        }
+        if (mService != null) {
+            mService.setVisible(false);
+            mService.removeListener(speedListener);
+            unbindService(serviceConnection);
+            mService = null;
+        }
     }
 
     protected void onPause() {
         super.onPause();
-
-        float tempMaxpeed;
-        try {
-            tempMaxpeed=Float.parseFloat(tvMaxSpeed.getText().toString());
-        } catch (java.lang.NumberFormatException nfe) {
-            tempMaxpeed=0.0f;
+        tvMetrics.removeCallbacks(mRefreshMetrics);
+        // the service owns the max speed and trip statistics, in meters/second, and writes
+        // them out on a background thread
+        if (mService != null) {
+            mService.saveState();
         }
-
-        prefs.edit().putFloat("maxSpeed",tempMaxpeed);
     }
 
     private  void displayNotification() {
+        if (mService != null) {
+            // the service keeps it up to date with the speed, max speed and distance
+            mService.showNotification();
+            return;
+        }
+        if (mbuilder == null) {
+            SpeedService.createNotificationChannel(this);
+            mbuilder = new NotificationCompat.Builder(this, SpeedService.CHANNEL_ID);
+        }
         mbuilder.setSmallIcon(R.drawable.ic_stat_notification);
         mbuilder.setContentTitle("SpeedoMeter is running...");
         mbuilder.setContentText("Click to view");
@@ -238,11 +369,79 @@ public class MainActivity extends AppCompatActivity {
         PendingIntent resultPendingIntent = stackBuilder.getPendingIntent(0, PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
         mbuilder.setContentIntent(resultPendingIntent);
 
-        mnotice.notify(1337, mbuilder.build());
+        getNotificationManager().notify(SpeedService.NOTIFICATION_ID, mbuilder.build());
     }
 
     private void removeNotification() {
-        mnotice.cancel(1337);
+        if (mService != null) {
+            mService.hideNotification();
+        }
+        getNotificationManager().cancel(SpeedService.NOTIFICATION_ID);
+    }
+
+    /**
+     * Redraws the metrics overlay once a second while it is shown. Formatting the report
+     * allocates, which is fine for a debugging aid but is why it is not updated per fix.
+     */
+    private final Runnable mRefreshMetrics = new Runnable() {
+        @Override
+        public void run() {
+            if (mService != null) {
+                tvMetrics.setText(mService.getMetrics().toString());
+            }
+            tvMetrics.postDelayed(this, METRICS_REFRESH_MILLIS);
+        }
+    };
+
+    private void showMetrics(boolean show) {
+        mShowMetrics = show;
+        tvMetrics.removeCallbacks(mRefreshMetrics);
+        tvMetrics.setVisibility(show ? View.VISIBLE : View.GONE);
+        if (show) {
+            mRefreshMetrics.run();
+        }
+    }
+
+    /**
+     * Writes the metrics and the diagnostics log to a file in the app's external files
+     * directory, where it can be pulled with adb without root.
+     */
+    private void dumpDiagnostics() {
+        if (mService == null) {
+            return;
+        }
+        File directory = getExternalFilesDir(null);
+        if (directory == null) {
+            directory = getFilesDir();
+        }
+        File file = new File(directory, "diagnostics-" + System.currentTimeMillis() + ".txt");
+        Context app = getApplicationContext();
+        mService.dumpDiagnostics(file, written -> {
+            if (written != null) {
+                Toast.makeText(app, app.getString(R.string.diagnostics_dumped, written.getPath()), Toast.LENGTH_LONG).show();
+            } else {
+                Toast.makeText(app, R.string.diagnostics_dump_failed, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    /**
+     * Places a timing gate where the vehicle is, across its direction of travel.
+     */
+    private void addGate(int type) {
+        if (mService == null) {
+            return;
+        }
+        Context app = getApplicationContext();
+        mService.addGate(type, placed -> Toast.makeText(app,
+                placed ? R.string.gate_placed : R.string.gate_not_placed, Toast.LENGTH_SHORT).show());
+    }
+
+    private NotificationManager getNotificationManager() {
+        if (mnotice == null) {
+            mnotice = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        }
+        return mnotice;
     }
 
     private void showDialog() throws NameNotFoundException {
@@ -271,6 +470,15 @@ public class MainActivity extends AppCompatActivity {
       return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        boolean replaying = mService != null && mService.isReplaying();
+        menu.findItem(R.id.action_replay).setTitle(replaying ? R.string.action_stop_replay : R.string.action_replay);
+        menu.findItem(R.id.action_performance_run).setChecked(mService != null && mService.isRunArmed());
+        menu.findItem(R.id.action_debug_overlay).setChecked(mShowMetrics);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
 
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
@@ -283,9 +491,53 @@ public class MainActivity extends AppCompatActivity {
             intent.setClass(this, SettingsActivity.class);
             startActivity(intent);
             return true;
+        } else if (item.getItemId() == R.id.action_history) {
+            startActivity(new Intent(this, TripHistoryActivity.class));
+            return true;
+        } else if (item.getItemId() == R.id.action_share) {
+            new AlertDialog.Builder(this)
+                    .setTitle(R.string.action_share)
+                    .setItems(R.array.exportFormats, (dialog, which) ->
+                            TripExport.shareLatest(activity, which))
+                    .show();
+            return true;
+        } else if (item.getItemId() == R.id.action_replay) {
+            if (mService != null) {
+                if (mService.isReplaying()) {
+                    mService.stopReplay();
+                } else {
+                    mService.startReplay();
+                }
+            }
+            return true;
+        } else if (item.getItemId() == R.id.action_set_start_finish) {
+            addGate(GateIndex.START_FINISH);
+            return true;
+        } else if (item.getItemId() == R.id.action_add_split) {
+            addGate(GateIndex.SPLIT);
+            return true;
+        } else if (item.getItemId() == R.id.action_clear_gates) {
+            if (mService != null) {
+                mService.clearGates();
+            }
+            return true;
+        } else if (item.getItemId() == R.id.action_performance_run) {
+            if (mService != null) {
+                mService.setRunArmed(!mService.isRunArmed());
+            }
+            return true;
+        } else if (item.getItemId() == R.id.action_debug_overlay) {
+            showMetrics(!mShowMetrics);
+            prefs.edit().putBoolean("debugOverlay", mShowMetrics).apply();
+            return true;
+        } else if (item.getItemId() == R.id.action_dump_diagnostics) {
+            dumpDiagnostics();
+            return true;
         } else if (item.getItemId() == R.id.action_quit) {
+            // the service saves the session and trip as it is destroyed, once unbound in onStop
+            mQuitting = true;
+            stopService(new Intent(this, SpeedService.class));
             this.finish();
-            System.exit(0);
             return true;
         } else if (item.getItemId() == R.id.action_about) {
             try {
@@ -299,185 +551,68 @@ public class MainActivity extends AppCompatActivity {
         return super.onOptionsItemSelected(item);
     }
 
-    private class SpeedTask extends AsyncTask<String, Void, String> {
-        final MainActivity activity;
-        float speed = 0.0f;
-        double lat;
-        LocationManager locationManager;
-
-        public SpeedTask(MainActivity activity) {
-            this.activity = activity;
+    /**
+     * Copies the fields of a processed snapshot into the views. Only text that changed since
+     * the last render is pushed, unless the views currently show status text.
+     */
+    private void render(Snapshot snapshot) {
+        boolean all = mShowingStatus;
+        mShowingStatus = false;
+        render(tvSpeed, snapshot.speedText, all);
+        render(tvMaxSpeed, snapshot.maxSpeedText, all);
+        render(tvAccuracy, snapshot.accuracyText, all);
+        render(tvHeading, snapshot.headingText, all);
+        render(tvLat, snapshot.latitudeText, all);
+        render(tvLon, snapshot.longitudeText, all);
+        render(tvDistance, snapshot.distanceText, all);
+        render(tvAverage, snapshot.averageSpeedText, all);
+        render(tvP95, snapshot.p95SpeedText, all);
+        render(tvSpeedLimit, snapshot.speedLimitText, all);
+        render(tvLap, snapshot.lapText, all);
+        render(tvBestLap, snapshot.bestLapText, all);
+        render(tvRun, snapshot.runText, all);
+        if (all || snapshot.isOverspeedChanged()) {
+            showOverspeed(snapshot.overspeed);
         }
-
-        @Override
-        protected String doInBackground(String... params) {
-            locationManager = (LocationManager) activity.getSystemService(Context.LOCATION_SERVICE);
-
-
-            return null;
-
+        snapshot.clearChanged();
+        if (sFirstSpeedStart > 0 && snapshot.elapsedNanos != 0) {
+            reportFirstSpeed();
         }
+    }
 
-        @SuppressLint("MissingPermission")
-        protected void onPostExecute(String result) {
-            tvUnit.setText(unit[unitType - 1]);
-            LocationListener listener = new LocationListener() {
-                float filtSpeed;
-                float localspeed;
-
-                @SuppressLint("SetTextI18n")
-                @Override
-                public void onLocationChanged(Location location) {
-                    speed = location.getSpeed();
-                    float multiplier = 3.6f;
-
-                    switch (unitType) {
-                        case 1:
-                            multiplier = 3.6f;
-                            break;
-                        case 2:
-                            multiplier = 2.25f;
-                            break;
-                        case 3:
-                            multiplier = 1.0f;
-                            break;
-
-                        case 4:
-                            multiplier = 1.943856f;
-                            break;
-
-                    }
-
-                    if (maxSpeed < speed) {
-                        maxSpeed = speed;
-                    }
-
-
-                    localspeed = speed * multiplier;
-
-                    filtSpeed = filter(filtSpeed, localspeed, 2);
-
-
-
-                    NumberFormat numberFormat = NumberFormat.getNumberInstance();
-                    numberFormat.setMaximumFractionDigits(0);
-
-
-
-                    lat = location.getLatitude();
-                    //speed=(float) location.getLatitude();
-                    Log.d(TAG, "Speed " + localspeed + "latitude: " + lat + " longitude: " + location.getLongitude());
-                    tvSpeed.setText(numberFormat.format(filtSpeed));
-
-                    tvMaxSpeed.setText(numberFormat.format(maxSpeed * multiplier));
-
-                    if (location.hasAltitude()) {
-                        tvAccuracy.setText(numberFormat.format(location.getAccuracy()) + " m");
-                    } else {
-                        tvAccuracy.setText(R.string.nil);
-                    }
-
-                    numberFormat.setMaximumFractionDigits(0);
-
-
-                    if (location.hasBearing()) {
-
-                        double bearing = location.getBearing();
-                        String strBearing = "NIL";
-                        if (bearing < 20.0) {
-                            strBearing = "North";
-                        } else if (bearing < 65.0) {
-                            strBearing = "North-East";
-                        } else if (bearing < 110.0) {
-                            strBearing = "East";
-                        } else if (bearing < 155.0) {
-                            strBearing = "South-East";
-                        } else if (bearing < 200.0) {
-                            strBearing = "South";
-                        } else if (bearing < 250.0) {
-                            strBearing = "South-West";
-                        } else if (bearing < 290.0) {
-                            strBearing = "West";
-                        } else if (bearing < 345.0) {
-                            strBearing = "North-West";
-                        } else if (bearing < 361.0) {
-                            strBearing = "North";
-                        }
-
-                        tvHeading.setText(strBearing);
-                    } else {
-                        tvHeading.setText(R.string.nil);
-                    }
-
-                    NumberFormat nf = NumberFormat.getInstance();
-
-                    nf.setMaximumFractionDigits(4);
-
-
-                    tvLat.setText(nf.format(location.getLatitude()));
-                    tvLon.setText(nf.format(location.getLongitude()));
-
-
-                }
-
-                @Override
-                public void onStatusChanged(String provider, int status, Bundle extras) {
-                    // TODO Auto-generated method stub
-
-                }
-
-                @Override
-                public void onProviderEnabled(String provider) {
-                    tvSpeed.setText("STDBY");
-                    tvMaxSpeed.setText(R.string.nil);
-
-                    tvLat.setText("LATITUDE");
-                    tvLon.setText("LONGITUDE");
-                    tvHeading.setText("HEADING");
-                    tvAccuracy.setText("ACCURACY");
-
-                }
-
-                @Override
-                public void onProviderDisabled(String provider) {
-                    tvSpeed.setText("NOFIX");
-                    tvMaxSpeed.setText("NOGPS");
-                    tvLat.setText("LATITUDE");
-                    tvLon.setText("LONGITUDE");
-                    tvHeading.setText("HEADING");
-                    tvAccuracy.setText("ACCURACY");
-
-
-                }
-
-            };
-
-            if(mHasPermissions)
-                locationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, 0, 0, listener);
+    /**
+     * Marks the end of startup: the first speed computed from a fix is on screen. Shows up as
+     * the "firstSpeed" trace section, as "Fully drawn" in the activity manager log and in the
+     * log line read by benchmark/measure-startup.sh.
+     */
+    private void reportFirstSpeed() {
+        long millis = SystemClock.elapsedRealtime() - sFirstSpeedStart;
+        sFirstSpeedStart = -1;
+        TraceCompat.endAsyncSection(TRACE_FIRST_SPEED, 0);
+        reportFullyDrawn();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            Log.i(TAG, "first speed " + millis + " ms after onCreate, "
+                    + (SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime()) + " ms after process start");
+        } else {
+            Log.i(TAG, "first speed " + millis + " ms after onCreate");
         }
+    }
+
+    private void showOverspeed(boolean overspeed) {
+        int color = overspeed ? COLOR_OVERSPEED : COLOR_NORMAL;
+        tvSpeed.setTextColor(color);
+        tvSpeedLimit.setTextColor(color);
+    }
 
-        /**
-         * Simple recursive filter
-         *
-         * @param prev Previous value of filter
-         * @param curr New input value into filter
-         * @return New filtered value
-         */
-        private float filter(final float prev, final float curr, final int ratio) {
-            // If first time through, initialise digital filter with current values
-            if (Float.isNaN(prev))
-                return curr;
-            // If current value is invalid, return previous filtered value
-            if (Float.isNaN(curr))
-                return prev;
-            // Calculate new filtered value
-            return (float) (curr / ratio + prev * (1.0 - 1.0 / ratio));
+    private static void render(TextView view, TextSlot text, boolean force) {
+        if (force || text.isChanged()) {
+            view.setText(text.chars(), 0, text.length());
         }
     }
 
-    private boolean isLocationEnabled(Context iContext) {
-        LocationManager locationManager = (LocationManager)
-                iContext.getSystemService(Context.LOCATION_SERVICE);
-        return locationManager.isProviderEnabled(LocationManager.GPS_PROVIDER);
+    private static void render(LcdDigitView view, TextSlot text, boolean force) {
+        if (force || text.isChanged()) {
+            view.setChars(text.chars(), text.length());
+        }
     }
 }
@@ -0,0 +1,1525 @@
+package net.mypapit.mobile.speedmeter;
+
+import android.annotation.SuppressLint;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.ServiceInfo;
+import android.database.sqlite.SQLiteException;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.media.AudioManager;
+import android.media.ToneGenerator;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.location.LocationRequest;
+import android.location.OnNmeaMessageListener;
+import android.os.BatteryManager;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+import net.mypapit.mobile.speedmeter.engine.DecimalText;
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.FixBatch;
+import net.mypapit.mobile.speedmeter.engine.FixPipeline;
+import net.mypapit.mobile.speedmeter.engine.HeadingFilter;
+import net.mypapit.mobile.speedmeter.engine.ProviderArbiter;
+import net.mypapit.mobile.speedmeter.engine.SamplingScheduler;
+import net.mypapit.mobile.speedmeter.engine.Snapshot;
+import net.mypapit.mobile.speedmeter.engine.SpeedEngine;
+import net.mypapit.mobile.speedmeter.engine.SpeedFilters;
+import net.mypapit.mobile.speedmeter.engine.SpeedUnit;
+import net.mypapit.mobile.speedmeter.engine.SyntheticTrace;
+import net.mypapit.mobile.speedmeter.engine.history.TripSummary;
+import net.mypapit.mobile.speedmeter.engine.log.RingLog;
+import net.mypapit.mobile.speedmeter.engine.metrics.Counter;
+import net.mypapit.mobile.speedmeter.engine.metrics.FixArrivals;
+import net.mypapit.mobile.speedmeter.engine.metrics.LatencyHistogram;
+import net.mypapit.mobile.speedmeter.engine.metrics.Metrics;
+import net.mypapit.mobile.speedmeter.engine.nmea.NmeaParser;
+import net.mypapit.mobile.speedmeter.engine.replay.ReplayEngine;
+import net.mypapit.mobile.speedmeter.engine.replay.ReplayStats;
+import net.mypapit.mobile.speedmeter.engine.replay.SyntheticTraceSource;
+import net.mypapit.mobile.speedmeter.engine.replay.TraceSource;
+import net.mypapit.mobile.speedmeter.engine.replay.TraceSources;
+import net.mypapit.mobile.speedmeter.engine.session.SessionState;
+import net.mypapit.mobile.speedmeter.engine.session.SessionStore;
+import net.mypapit.mobile.speedmeter.engine.telemetry.TelemetryPublisher;
+import net.mypapit.mobile.speedmeter.engine.timing.GateFile;
+import net.mypapit.mobile.speedmeter.engine.timing.GateIndex;
+import net.mypapit.mobile.speedmeter.engine.timing.LapTimer;
+import net.mypapit.mobile.speedmeter.engine.timing.PerformanceTimer;
+import net.mypapit.mobile.speedmeter.engine.timing.RunFile;
+import net.mypapit.mobile.speedmeter.engine.track.TrackFiles;
+import net.mypapit.mobile.speedmeter.engine.track.TrackReader;
+import net.mypapit.mobile.speedmeter.engine.track.TrackWriter;
+import net.mypapit.mobile.speedmeter.engine.zone.ZoneIndex;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Owns the one location subscription of the app and runs fix processing on its own thread,
+ * independent of any activity. Clients bind to it and register a {@link Listener} to receive
+ * snapshots on the main thread. While no activity is visible the service runs in the
+ * foreground so tracking continues behind the ongoing notification.
+ */
+public class SpeedService extends Service {
+
+    private static final String TAG = MainActivity.TAG + "Service";
+    public static final int NOTIFICATION_ID = 1337;
+    public static final String CHANNEL_ID = "tracking";
+    /** Start action that also starts tracking; send it only once the location permission is granted */
+    static final String ACTION_START_TRACKING = "net.mypapit.mobile.speedmeter.action.START_TRACKING";
+    /** A trip whose track was written to this recently is continued rather than a new one started */
+    private static final long RESUME_TRIP_MILLIS = 15 * 60 * 1000L;
+    /** Length of the synthetic drive replayed when there is no trip to replay */
+    private static final int DEMO_FIXES = 600;
+    /** Platform fixes are used again when no NMEA fix has arrived for this long */
+    private static final long NMEA_TIMEOUT_NANOS = 3000000000L;
+    /** Interval requested from the network provider, which fills in until the receiver has a fix */
+    private static final long NETWORK_INTERVAL_MILLIS = 5000L;
+    /** Interval requested from the fused provider, at balanced power */
+    private static final long FUSED_INTERVAL_MILLIS = 1000L;
+    /** A held back batch is processed early once it holds this many fixes */
+    private static final int MAX_BATCH = 120;
+    /** While fixes arrive the session state is saved at least this often */
+    private static final long SAVE_INTERVAL_NANOS = 30000000000L;
+    private static final String SESSION_FILE = "session";
+    /** Diagnostics records kept in memory; an hour of fixes at 1 Hz in debuggable builds */
+    private static final int LOG_RECORDS = 4096;
+    /** While fixes arrive the diagnostics log is written to LOG_FILE at least this often */
+    private static final long LOG_FLUSH_INTERVAL_NANOS = 300000000000L;
+    private static final String LOG_FILE = "diagnostics.txt";
+    /** Road segments with speed limits, looked for in the external, then the private files directory */
+    static final String ZONE_FILE = "zones.spz";
+    /** Timing gates, see GateFile, kept in the external files directory if there is one */
+    static final String GATE_FILE = "gates.csv";
+    /** Performance runs, see RunFile, one file each, next to the gates */
+    static final String RUN_DIR = "runs";
+    private static final int ALERT_MILLIS = 400;
+    /** Telemetry modes, the values of the telemetry setting */
+    static final String TELEMETRY_OFF = "off";
+    /** For displays on this device only */
+    static final String TELEMETRY_LOCAL = "local";
+    /** For displays anywhere on the network the device is on */
+    static final String TELEMETRY_LAN = "lan";
+
+    /**
+     * Receives processed fixes. All calls are made on the main thread.
+     */
+    interface Listener {
+        /**
+         * @param snapshot latest display state; owned by the service, copy what must be kept
+         */
+        void onSnapshot(Snapshot snapshot);
+
+        void onProviderChanged(boolean enabled);
+
+        /**
+         * @param replaying true while snapshots come from a replayed trace rather than the receiver
+         */
+        void onReplayChanged(boolean replaying);
+    }
+
+    class LocalBinder extends Binder {
+        SpeedService getService() {
+            return SpeedService.this;
+        }
+    }
+
+    private final IBinder mBinder = new LocalBinder();
+    private final Metrics mMetrics = new Metrics();
+    private final TelemetryPublisher mTelemetry = new TelemetryPublisher(mMetrics);
+    private String mTelemetryMode = TELEMETRY_OFF;
+    private final RingLog mLog = new RingLog(LOG_RECORDS);
+    private final int mLogFix = mLog.define("fix lat=%.6f lon=%.6f speed=%.2f m/s accuracy=%.1f m");
+    private final int mLogBatch = mLog.define("batch of %d fixes");
+    private final int mLogSubscribe = mLog.define("subscribe interval=%d ms distance=%.0f m delay=%d ms held=%d");
+    private final int mLogProvider = mLog.define("provider enabled=%d");
+    private final int mLogSource = mLog.define("fix source=%d accuracy=%.1f m (0 gps, 1 fused, 2 network)");
+    private final int mLogNmea = mLog.define("nmea input=%d");
+    private final int mLogTrack = mLog.define("track opened, resumed=%d distance=%.0f m");
+    private final int mLogTrackFailed = mLog.define("track write failed, recording stopped");
+    private final int mLogSessionFailed = mLog.define("session state not saved");
+    private final int mLogReplay = mLog.define("replay started");
+    private final int mLogReplayEnd = mLog.define("replay finished, %d fixes in %.1f s");
+    private final int mLogZones = mLog.define("zones loaded, %d segments");
+    private final int mLogOverspeed = mLog.define("overspeed, limit %.1f m/s speed %.1f m/s");
+    private final int mLogGates = mLog.define("%d timing gates");
+    private final int mLogLap = mLog.define("lap %d: %.2f s");
+    private final int mLogTelemetry = mLog.define("telemetry port=%d (0 off)");
+    private final int mLogHistory = mLog.define("%d trips imported into the history");
+    private final int mLogRunArmed = mLog.define("performance run armed=%d");
+    private final int mLogRun = mLog.define("run ended, events=%d, first target %.2f s, last %.2f s");
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<Listener> mListeners = new ArrayList<>();
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    /** Writes files nothing waits for: session state and metrics dumps */
+    private HandlerThread mIoThread;
+    private Handler mIoHandler;
+    private Executor mExecutor;
+    private LocationManager mLocationManager;
+    private SensorManager mSensorManager;
+    /** Rotation vector sensor for the heading at low speed, null if the device has none */
+    private Sensor mRotationSensor;
+
+    // owned by the processing thread
+    private SpeedEngine mEngine;
+    private FixPipeline mPipeline;
+    private final Fix mFix = new Fix();
+    private final FixBatch mBatch = new FixBatch(MAX_BATCH);
+    /** Fixes are held back in mBatch because the platform cannot batch them itself */
+    private boolean mBuffering;
+    private final SamplingScheduler mScheduler = new SamplingScheduler();
+    private boolean mTracking;
+    private String mSpeedFilter = SpeedFilters.BALANCED;
+    private ReplayEngine mReplay;
+    private TraceSource mReplaySource;
+    private boolean mNmeaInput;
+    private NmeaInput mNmeaListener;
+    private final NmeaParser mNmeaParser = new NmeaParser();
+    private long mLastNmeaFixNanos;
+    private boolean mHasNmeaFix;
+    private SessionStore mSessionStore;
+    private final SessionState mSession = new SessionState();
+    private long mLastSaveNanos;
+    private long mLastLogFlushNanos;
+    private long mLogFlushedCount;
+    private final FixArrivals mArrivals = new FixArrivals(mMetrics);
+    private final ProviderArbiter mArbiter = new ProviderArbiter(mMetrics);
+    /** Sources whose providers are enabled, by bit */
+    private int mEnabledSources;
+    /** Listening to the network, fused and passive providers besides the receiver */
+    private boolean mSecondarySources;
+    private final LatencyHistogram mProcessTime = mMetrics.histogram("fix.process");
+    private boolean mVisible = true;
+    private boolean mSensorRegistered;
+    private final float[] mRotationVector = new float[4];
+    private final float[] mRotationMatrix = new float[9];
+    /** Null without a zone file */
+    private ZoneIndex mZones;
+    private boolean mOverspeed;
+    /** Shared by the live and the replay engine */
+    private final GateIndex mGates = new GateIndex();
+    /** Timing events of the live engine seen so far */
+    private int mLapEvents;
+    private int mRunEvents;
+    /** Trip summaries waiting to be written; used on the I/O thread only */
+    private final List<TripSummary> mHistoryQueue = new ArrayList<>();
+    private final Runnable mWriteHistory = this::writeHistory;
+    /** Set on the main thread */
+    private boolean mRunArmed;
+    /** Created on the first alert; null if audio is unavailable */
+    private ToneGenerator mAlertTone;
+    /** When the fixes processed last reached the service, on the elapsed realtime clock */
+    private long mArrivalNanos;
+
+    // handed from the processing thread to the main thread
+    private final Snapshot mPublished = new Snapshot();
+    private final AtomicBoolean mDeliveryPending = new AtomicBoolean();
+    private boolean mHasPublished;
+    private long mPublishedArrivalNanos;
+    private final LatencyHistogram mToScreen = mMetrics.histogram("fix.to_screen");
+    private final Counter mNmeaSuperseded = mMetrics.counter("fix.superseded_by_nmea");
+    private final Counter mPublishedCount = mMetrics.counter("snapshot.published");
+    private final Counter mDeliveredCount = mMetrics.counter("snapshot.delivered");
+
+    // owned by the main thread
+    private final Snapshot mDelivered = new Snapshot();
+    private boolean mHasDelivered;
+    /** Delivers even an unchanged snapshot, after listeners were shown something else */
+    private boolean mDeliverAll;
+    /** Null before Android 4.1, where deliveries are posted to the main thread instead */
+    private Choreographer mChoreographer;
+    private Choreographer.FrameCallback mDeliverFrame;
+    private boolean mForeground;
+    /** Created when first shown, off the way to the first displayed speed; main thread only */
+    private LiveNotification mNotification;
+    private int mNotificationUnit = SpeedUnit.KMH;
+    private boolean mReplaying;
+    /** Last reported by postProviderChanged, repeated to listeners that register later */
+    private boolean mProviderDisabled;
+
+    private final ProviderListener mGpsListener = new ProviderListener(LocationManager.GPS_PROVIDER);
+    private final ProviderListener mNetworkListener = new ProviderListener(LocationManager.NETWORK_PROVIDER);
+    private final ProviderListener mFusedListener = new ProviderListener("fused");
+    /** Fixes other apps requested, from whichever provider made them */
+    private final ProviderListener mPassiveListener = new ProviderListener(LocationManager.PASSIVE_PROVIDER);
+
+    private final Runnable mDeliver = new Runnable() {
+        @Override
+        public void run() {
+            mDeliveryPending.set(false);
+            long arrivalNanos;
+            synchronized (mPublished) {
+                if (!mHasPublished) {
+                    return;
+                }
+                mDelivered.copyFrom(mPublished);
+                arrivalNanos = mPublishedArrivalNanos;
+            }
+            // fixes whose text rounds to what is on screen cost no layout or draw
+            if (mHasDelivered && !mDeliverAll && !mDelivered.isChanged()) {
+                return;
+            }
+            mDelivered.clearChanged();
+            mHasDelivered = true;
+            mDeliverAll = false;
+            for (int i = 0; i < mListeners.size(); i++) {
+                mListeners.get(i).onSnapshot(mDelivered);
+            }
+            mDeliveredCount.increment();
+            // the views just changed are drawn in this same frame
+            if (arrivalNanos != 0 && !mListeners.isEmpty()) {
+                mToScreen.record(SystemClock.elapsedRealtimeNanos() - arrivalNanos);
+            }
+        }
+    };
+
+    private final BroadcastReceiver mBatteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+            int plugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+            if (level >= 0 && scale > 0
+                    && mScheduler.setBattery(level * 100 / scale, plugged != 0, now()) && mTracking) {
+                subscribe();
+            }
+        }
+    };
+
+    private final SensorEventListener mRotationListener = new SensorEventListener() {
+        @Override
+        public void onSensorChanged(SensorEvent event) {
+            // some devices report more values than getRotationMatrixFromVector accepts
+            System.arraycopy(event.values, 0, mRotationVector, 0, Math.min(event.values.length, 4));
+            SensorManager.getRotationMatrixFromVector(mRotationMatrix, mRotationVector);
+            if (mEngine.updateHeading(HeadingFilter.azimuth(mRotationMatrix), event.timestamp) && mReplay == null) {
+                publish();
+            }
+        }
+
+        @Override
+        public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        }
+    };
+
+    /**
+     * Receives the fixes of one provider on the processing thread and passes those the
+     * arbiter takes on to the pipeline. Each provider has a listener of its own, as requesting
+     * again with a listener replaces its request.
+     */
+    private final class ProviderListener implements LocationListener {
+        /** Fixes of the receiver itself, whose arrivals are measured */
+        private final boolean mReceiver;
+
+        ProviderListener(String provider) {
+            mReceiver = LocationManager.GPS_PROVIDER.equals(provider);
+        }
+
+        @Override
+        public void onLocationChanged(Location location) {
+            long now = SystemClock.elapsedRealtimeNanos();
+            int source = ProviderArbiter.source(location.getProvider());
+            if (supersededByNmea(source, now)) {
+                return;
+            }
+            if (!offer(source, Fixes.read(location, mFix), now, mReceiver)) {
+                return;
+            }
+            mArrivalNanos = now;
+            if (mBuffering) {
+                mBatch.add().copyFrom(mFix);
+                if (mBatch.size() == 1) {
+                    mHandler.postDelayed(mFlushBatch, mScheduler.getMaxDelayMillis());
+                } else if (mBatch.size() >= MAX_BATCH) {
+                    flushBatch();
+                }
+                return;
+            }
+            process(mFix);
+        }
+
+        @Override
+        public void onLocationChanged(@NonNull List<Location> locations) {
+            // batched delivery, Android 12 and later
+            long now = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < locations.size(); i++) {
+                Location location = locations.get(i);
+                int source = ProviderArbiter.source(location.getProvider());
+                if (!supersededByNmea(source, now) && offer(source, Fixes.read(location, mFix), now, mReceiver)) {
+                    mBatch.add().copyFrom(mFix);
+                }
+            }
+            if (!mBatch.isEmpty()) {
+                mArrivalNanos = now;
+                flushBatch();
+            }
+        }
+
+        /**
+         * @return whether a fix of the receiver's epoch already went through the pipeline from
+         *         its NMEA sentences, counted as superseded
+         */
+        private boolean supersededByNmea(int source, long now) {
+            if (source == ProviderArbiter.GPS && mHasNmeaFix && now - mLastNmeaFixNanos < NMEA_TIMEOUT_NANOS) {
+                mNmeaSuperseded.increment();
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) {
+        }
+
+        @Override
+        public void onProviderEnabled(String provider) {
+            setSourceEnabled(ProviderArbiter.source(provider), true);
+        }
+
+        @Override
+        public void onProviderDisabled(String provider) {
+            setSourceEnabled(ProviderArbiter.source(provider), false);
+        }
+    }
+
+    /**
+     * Feeds the processing thread with fixes parsed from the receiver's raw sentences, which
+     * arrive before the platform has built a {@link Location} from them.
+     */
+    @RequiresApi(Build.VERSION_CODES.N)
+    private final class NmeaInput implements OnNmeaMessageListener {
+        @Override
+        public void onNmeaMessage(String message, long timestamp) {
+            long now = SystemClock.elapsedRealtimeNanos();
+            if (mNmeaParser.parse(message) == NmeaParser.RMC && mNmeaParser.readFix(mFix, now)) {
+                mHasNmeaFix = true;
+                mLastNmeaFixNanos = now;
+                if (offer(ProviderArbiter.GPS, mFix, now, true)) {
+                    mArrivalNanos = now;
+                    process(mFix);
+                }
+            }
+        }
+    }
+
+    private final Runnable mFlushBatch = this::flushBatch;
+
+    /**
+     * Measures the arrival of a fix and asks the arbiter whether to process it.
+     *
+     * @param receiver whether the fix came straight from the receiver
+     */
+    private boolean offer(int source, Fix fix, long now, boolean receiver) {
+        if (receiver) {
+            mArrivals.record(now, fix.elapsedNanos, expectedIntervalNanos());
+        }
+        int selected = mArbiter.getSelected();
+        if (!mArbiter.offer(source, fix, now)) {
+            return false;
+        }
+        if (source != selected) {
+            mLog.log(RingLog.INFO, mLogSource, source, fix.hasAccuracy ? fix.accuracy : Double.NaN);
+        }
+        return true;
+    }
+
+    /**
+     * Reports the providers disabled once none of the known ones is left, and enabled again
+     * with the first.
+     */
+    private void setSourceEnabled(int source, boolean enabled) {
+        if (source < 0) {
+            return;
+        }
+        int before = mEnabledSources;
+        mEnabledSources = enabled ? before | 1 << source : before & ~(1 << source);
+        if ((before == 0) != (mEnabledSources == 0)) {
+            postProviderChanged(enabled);
+        }
+    }
+
+    private void logFix(Fix fix) {
+        if (mLog.isLoggable(RingLog.DEBUG)) {
+            mLog.log(RingLog.DEBUG, mLogFix, fix.latitude, fix.longitude,
+                    fix.hasSpeed ? fix.speed : Double.NaN, fix.hasAccuracy ? fix.accuracy : Double.NaN);
+        }
+    }
+
+    /**
+     * Runs a live fix through the pipeline. Runs on the processing thread.
+     */
+    private void process(Fix fix) {
+        logFix(fix);
+        long start = System.nanoTime();
+        int result = mPipeline.process(fix);
+        mProcessTime.record(System.nanoTime() - start);
+        onProcessed(result);
+    }
+
+    /**
+     * Runs the fixes held back in the batch through the pipeline in one pass.
+     */
+    private void flushBatch() {
+        mHandler.removeCallbacks(mFlushBatch);
+        if (mBatch.isEmpty()) {
+            return;
+        }
+        if (mLog.isLoggable(RingLog.DEBUG)) {
+            mLog.log(RingLog.DEBUG, mLogBatch, mBatch.size());
+            for (int i = 0; i < mBatch.size(); i++) {
+                logFix(mBatch.get(i));
+            }
+        }
+        long start = System.nanoTime();
+        int result = mPipeline.process(mBatch);
+        // recorded per fix, each with its share of the batch
+        long perFix = (System.nanoTime() - start) / mBatch.size();
+        for (int i = 0; i < mBatch.size(); i++) {
+            mProcessTime.record(perFix);
+        }
+        // cleared first: a re-subscription flushes again
+        mBatch.clear();
+        onProcessed(result);
+    }
+
+    private void onProcessed(int result) {
+        if (mReplay == null) {
+            publish();
+        }
+        updateOverspeed();
+        logLaps();
+        saveRun();
+        if ((result & FixPipeline.TRACK_FAILED) != 0) {
+            Log.e(TAG, "track write failed, recording stopped", mPipeline.takeTrackError());
+            mLog.log(RingLog.ERROR, mLogTrackFailed);
+        }
+        if ((result & FixPipeline.RESUBSCRIBE) != 0) {
+            subscribe();
+        }
+        updateHeadingSensor();
+        if (SystemClock.elapsedRealtimeNanos() - mLastSaveNanos >= SAVE_INTERVAL_NANOS) {
+            saveSession();
+        }
+        if (SystemClock.elapsedRealtimeNanos() - mLastLogFlushNanos >= LOG_FLUSH_INTERVAL_NANOS) {
+            flushLog();
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mThread = new HandlerThread("SpeedService", Process.THREAD_PRIORITY_DISPLAY);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mExecutor = mHandler::post;
+        // per-fix records only where someone is debugging
+        if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+            mLog.setLevel(RingLog.DEBUG);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            mChoreographer = Choreographer.getInstance();
+            mDeliverFrame = frameTimeNanos -> mDeliver.run();
+        }
+        mLocationManager = (LocationManager) getSystemService(Context.LOCATION_SERVICE);
+        mSensorManager = (SensorManager) getSystemService(Context.SENSOR_SERVICE);
+        mRotationSensor = mSensorManager.getDefaultSensor(Sensor.TYPE_ROTATION_VECTOR);
+        mEngine = new SpeedEngine(DecimalText.getInstance());
+        mEngine.setGates(mGates);
+        mPipeline = new FixPipeline(mEngine, mScheduler);
+        // storage is slow and nothing waits for it
+        mIoThread = new HandlerThread("SpeedServiceIO", Process.THREAD_PRIORITY_BACKGROUND);
+        mIoThread.start();
+        mIoHandler = new Handler(mIoThread.getLooper());
+        mHandler.post(this::loadSession);
+        mHandler.post(this::loadZones);
+        mHandler.post(this::loadGates);
+        mHandler.post(this::importHistory);
+        // delivered on the processing thread, which owns the scheduler
+        registerReceiver(mBatteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED), null, mHandler);
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_START_TRACKING.equals(intent.getAction())) {
+            startTracking();
+        }
+        // started so that tracking outlives unbinding; never restarted without the activity
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return mBinder;
+    }
+
+    @Override
+    public void onDestroy() {
+        unregisterReceiver(mBatteryReceiver);
+        mHandler.post(() -> {
+            if (mTracking) {
+                mLocationManager.removeUpdates(mGpsListener);
+                updateSecondarySources(false);
+                mTracking = false;
+            }
+            flushBatch();
+            mNmeaInput = false;
+            updateNmeaInput();
+            updateHeadingSensor();
+            if (mReplay != null) {
+                finishReplay();
+            }
+            saveSession();
+            closeTrack();
+            try {
+                mSessionStore.flush();
+            } catch (IOException e) {
+                Log.e(TAG, "cannot save session state", e);
+            }
+            mTelemetry.close();
+            flushLog();
+            mIoThread.quitSafely();
+            if (mAlertTone != null) {
+                mAlertTone.release();
+            }
+            if (mZones != null) {
+                try {
+                    mZones.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "cannot close zones", e);
+                }
+            }
+        });
+        mThread.quitSafely();
+        mMainHandler.removeCallbacks(mDeliver);
+        if (mChoreographer != null) {
+            mChoreographer.removeFrameCallback(mDeliverFrame);
+        }
+        super.onDestroy();
+    }
+
+    /**
+     * Subscribes to location updates unless already subscribed. Call once the location
+     * permission has been granted. Listeners are told if no location provider is on; the
+     * check is a call into the system, kept off the main thread.
+     */
+    void startTracking() {
+        mHandler.post(() -> {
+            if (!mTracking) {
+                openTrack();
+                mArbiter.start(SystemClock.elapsedRealtimeNanos());
+                mEnabledSources = 0;
+                for (int source = 0; source < ProviderArbiter.SOURCES; source++) {
+                    if (mLocationManager.isProviderEnabled(ProviderArbiter.name(source))) {
+                        mEnabledSources |= 1 << source;
+                    }
+                }
+                subscribe();
+                if (mEnabledSources == 0) {
+                    postProviderChanged(false);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the directory holding the recorded trip tracks
+     */
+    static File getTripsDirectory(Context context) {
+        return new File(context.getFilesDir(), "trips");
+    }
+
+    /**
+     * Opens the track of the current trip: the latest one if it was written to recently, which
+     * also recovers it if the process died while recording, otherwise a new one.
+     */
+    private void openTrack() {
+        File directory = getTripsDirectory(this);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.e(TAG, "cannot create " + directory);
+            return;
+        }
+        long now = System.currentTimeMillis();
+        File file = TrackFiles.latest(directory);
+        mEngine.resetTrip();
+        boolean resumed = file != null && now - file.lastModified() <= RESUME_TRIP_MILLIS;
+        if (!resumed) {
+            file = TrackFiles.newTrack(directory, now);
+        } else {
+            // the track has every fix, including those after the session state was last saved
+            try (TrackReader reader = new TrackReader(file)) {
+                mEngine.addTripTrack(reader, SpeedFilters.create(mSpeedFilter));
+            } catch (IOException e) {
+                Log.w(TAG, "cannot rebuild trip statistics from " + file, e);
+                if (mSession.tripStartTime == TrackFiles.startTime(file)) {
+                    mEngine.getTripStats().copyFrom(mSession.tripStats);
+                }
+            }
+        }
+        try {
+            mPipeline.setTrack(TrackWriter.open(file, now));
+        } catch (IOException e) {
+            Log.e(TAG, "cannot open track " + file, e);
+        }
+        mLog.log(RingLog.INFO, mLogTrack, resumed ? 1 : 0, mEngine.getTripStats().getDistance());
+        saveSession();
+    }
+
+    private void loadSession() {
+        mSessionStore = new SessionStore(new File(getFilesDir(), SESSION_FILE), mIoHandler::post);
+        try {
+            if (mSessionStore.load(mSession) && mSession.maxSpeed > mEngine.getMaxSpeed()) {
+                mEngine.setMaxSpeed(mSession.maxSpeed);
+                publish();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "cannot read session state", e);
+        }
+    }
+
+    /**
+     * Opens the zone file, if there is one, so that speed limits are shown and alerted on.
+     */
+    private void loadZones() {
+        File file = null;
+        File external = getExternalFilesDir(null);
+        if (external != null && new File(external, ZONE_FILE).isFile()) {
+            file = new File(external, ZONE_FILE);
+        } else if (new File(getFilesDir(), ZONE_FILE).isFile()) {
+            file = new File(getFilesDir(), ZONE_FILE);
+        }
+        if (file == null) {
+            return;
+        }
+        try {
+            mZones = ZoneIndex.open(file);
+            mEngine.setZones(mZones);
+            mLog.log(RingLog.INFO, mLogZones, mZones.size());
+        } catch (IOException e) {
+            Log.w(TAG, "cannot open zones " + file, e);
+        }
+    }
+
+    private File getGateFile() {
+        File external = getExternalFilesDir(null);
+        return new File(external != null ? external : getFilesDir(), GATE_FILE);
+    }
+
+    /**
+     * Reads the timing gates placed before, or copied there, if any.
+     */
+    private void loadGates() {
+        File file = getGateFile();
+        if (!file.isFile()) {
+            return;
+        }
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            GateFile.read(in, mGates);
+        } catch (IOException e) {
+            Log.w(TAG, "cannot read gates " + file, e);
+        }
+        mLog.log(RingLog.INFO, mLogGates, mGates.size());
+    }
+
+    /**
+     * Hands the gates to the I/O thread to be written. Runs on the processing thread.
+     */
+    private void saveGates() {
+        StringBuilder text = new StringBuilder();
+        try {
+            GateFile.write(text, mGates);
+        } catch (IOException e) {
+            // not thrown by a StringBuilder
+            throw new IllegalStateException(e);
+        }
+        File file = getGateFile();
+        mIoHandler.post(() -> {
+            try (Writer out = new FileWriter(file)) {
+                out.write(text.toString());
+            } catch (IOException e) {
+                Log.e(TAG, "cannot write gates " + file, e);
+            }
+        });
+    }
+
+    /**
+     * Places a timing gate 30 m wide at the live position, square to the direction of travel.
+     * Laps are timed afresh from then on.
+     *
+     * @param type {@link GateIndex#START_FINISH} or {@link GateIndex#SPLIT}
+     * @param done called on the main thread with whether the gate was placed; it is not
+     *             without a fix and a direction of travel
+     */
+    void addGate(int type, GateCallback done) {
+        mHandler.post(() -> {
+            Snapshot snapshot = mEngine.snapshot();
+            double heading = mEngine.getHeading();
+            boolean placed = snapshot.elapsedNanos != 0 && !Double.isNaN(heading);
+            if (placed) {
+                mGates.addAcross(type, snapshot.latitude, snapshot.longitude, heading, GateIndex.DEFAULT_WIDTH);
+                mLog.log(RingLog.INFO, mLogGates, mGates.size());
+                saveGates();
+            }
+            mMainHandler.post(() -> done.onGatePlaced(placed));
+        });
+    }
+
+    interface GateCallback {
+        void onGatePlaced(boolean placed);
+    }
+
+    /**
+     * Removes all timing gates.
+     */
+    void clearGates() {
+        mHandler.post(() -> {
+            mGates.clear();
+            mLog.log(RingLog.INFO, mLogGates, 0);
+            saveGates();
+        });
+    }
+
+    /**
+     * Logs the laps completed by the live engine. Runs on the processing thread.
+     */
+    private void logLaps() {
+        LapTimer timer = mEngine.getLapTimer();
+        if (timer.getEvents() == mLapEvents) {
+            return;
+        }
+        mLapEvents = timer.getEvents();
+        if (timer.getLastEvent() == LapTimer.LAP) {
+            mLog.log(RingLog.INFO, mLogLap, timer.getLaps(), timer.getLastLapNanos() / 1e9);
+        }
+    }
+
+    /**
+     * Hands a performance run that timed any target to the I/O thread to be written, with its
+     * fixes, named by its start on the wall clock. Runs on the processing thread.
+     */
+    private void saveRun() {
+        PerformanceTimer timer = mEngine.getPerformanceTimer();
+        if (timer.getEvents() == mRunEvents) {
+            return;
+        }
+        mRunEvents = timer.getEvents();
+        if ((timer.getLastEvent() & (PerformanceTimer.FINISHED | PerformanceTimer.ABORTED)) == 0) {
+            return;
+        }
+        long first = PerformanceTimer.NONE;
+        long last = PerformanceTimer.NONE;
+        for (int i = 0; i < timer.getSpeedTargetCount() + timer.getDistanceTargetCount(); i++) {
+            long nanos = i < timer.getSpeedTargetCount() ? timer.getSpeedNanos(i)
+                    : timer.getDistanceNanos(i - timer.getSpeedTargetCount());
+            if (nanos != PerformanceTimer.NONE) {
+                first = first == PerformanceTimer.NONE ? nanos : Math.min(first, nanos);
+                last = Math.max(last, nanos);
+            }
+        }
+        mLog.log(RingLog.INFO, mLogRun, timer.getLastEvent(), first / 1e9, last / 1e9);
+        if (first == PerformanceTimer.NONE) {
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        try {
+            RunFile.write(text, timer);
+        } catch (IOException e) {
+            // not thrown by a StringBuilder
+            throw new IllegalStateException(e);
+        }
+        File external = getExternalFilesDir(null);
+        File dir = new File(external != null ? external : getFilesDir(), RUN_DIR);
+        String name = String.format(Locale.US, "run-%d.csv", timer.getFixes().get(0).time);
+        mIoHandler.post(() -> {
+            File file = new File(dir, name);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                Log.e(TAG, "cannot create " + dir);
+                return;
+            }
+            try (Writer out = new FileWriter(file)) {
+                out.write(text.toString());
+            } catch (IOException e) {
+                Log.e(TAG, "cannot write run " + file, e);
+            }
+        });
+    }
+
+    /**
+     * Beeps when the live speed goes over the limit. Runs on the processing thread.
+     */
+    private void updateOverspeed() {
+        Snapshot snapshot = mEngine.snapshot();
+        if (snapshot.overspeed == mOverspeed) {
+            return;
+        }
+        mOverspeed = snapshot.overspeed;
+        if (!mOverspeed) {
+            return;
+        }
+        mLog.log(RingLog.INFO, mLogOverspeed, snapshot.speedLimit, snapshot.filteredSpeed);
+        if (mAlertTone == null) {
+            try {
+                mAlertTone = new ToneGenerator(AudioManager.STREAM_NOTIFICATION, ToneGenerator.MAX_VOLUME);
+            } catch (RuntimeException e) {
+                Log.w(TAG, "cannot play overspeed alerts", e);
+                return;
+            }
+        }
+        mAlertTone.startTone(ToneGenerator.TONE_PROP_BEEP2, ALERT_MILLIS);
+    }
+
+    /**
+     * Hands the max speed and trip statistics to the session store, which writes them on its
+     * own thread. Runs on the processing thread.
+     */
+    private void saveSession() {
+        TrackWriter track = mPipeline.getTrack();
+        mSession.maxSpeed = mEngine.getMaxSpeed();
+        mSession.tripStartTime = track != null ? track.getStartTime() : 0L;
+        mSession.tripStats.copyFrom(mEngine.getTripStats());
+        mSession.savedAt = System.currentTimeMillis();
+        mSessionStore.save(mSession);
+        if (track != null) {
+            TripSummary trip = new TripSummary();
+            trip.startTime = track.getStartTime();
+            mEngine.getTripSummarizer().fill(trip, mEngine.getTripStats());
+            mIoHandler.post(() -> queueHistory(trip));
+        }
+        mLastSaveNanos = SystemClock.elapsedRealtimeNanos();
+        IOException error = mSessionStore.takeError();
+        if (error != null) {
+            Log.e(TAG, "cannot save session state", error);
+            mLog.log(RingLog.ERROR, mLogSessionFailed);
+        }
+    }
+
+    /**
+     * Adds the trips recorded before there was a trip history to it. Runs on the processing
+     * thread.
+     */
+    private void importHistory() {
+        File directory = getTripsDirectory(this);
+        String speedFilter = mSpeedFilter;
+        mIoHandler.post(() -> {
+            try {
+                int added = TripHistory.get(this).importTracks(directory, speedFilter);
+                mLog.log(RingLog.INFO, mLogHistory, added);
+            } catch (SQLiteException e) {
+                Log.e(TAG, "cannot import trips into the history", e);
+            }
+        });
+    }
+
+    /**
+     * Queues the summary of the current trip for the history; summaries queued meanwhile are
+     * written in one transaction, the latest of each trip only. Runs on the I/O thread.
+     */
+    private void queueHistory(TripSummary trip) {
+        for (int i = 0; i < mHistoryQueue.size(); i++) {
+            if (mHistoryQueue.get(i).startTime == trip.startTime) {
+                mHistoryQueue.set(i, trip);
+                return;
+            }
+        }
+        mHistoryQueue.add(trip);
+        // the I/O thread no longer takes posts once quitting in onDestroy; the last trip is then written now
+        if (mHistoryQueue.size() == 1 && !mIoHandler.post(mWriteHistory)) {
+            writeHistory();
+        }
+    }
+
+    private void writeHistory() {
+        try {
+            TripHistory.get(this).write(mHistoryQueue);
+        } catch (SQLiteException e) {
+            Log.e(TAG, "cannot write the trip history", e);
+        }
+        mHistoryQueue.clear();
+    }
+
+    /**
+     * Saves the session state without waiting for storage, e.g. when the activity pauses.
+     */
+    void saveState() {
+        mHandler.post(this::saveSession);
+    }
+
+    private void closeTrack() {
+        TrackWriter track = mPipeline.getTrack();
+        if (track == null) {
+            return;
+        }
+        mPipeline.setTrack(null);
+        try {
+            track.close();
+        } catch (IOException e) {
+            Log.e(TAG, "cannot close track", e);
+        }
+    }
+
+    /**
+     * Replays the latest recorded trip in real time through a pipeline of its own, or a short
+     * synthetic drive if nothing has been recorded yet. Live fixes keep being processed and
+     * recorded but are not shown until the replay ends or is stopped.
+     */
+    void startReplay() {
+        mHandler.post(() -> {
+            if (mReplay != null) {
+                finishReplay();
+            }
+            File track = TrackFiles.latest(getTripsDirectory(this));
+            TraceSource source;
+            try {
+                source = track != null ? TraceSources.open(track)
+                        : new SyntheticTraceSource(new SyntheticTrace(1.0, 7L), DEMO_FIXES);
+            } catch (IOException e) {
+                Log.e(TAG, "cannot open " + track + " for replay", e);
+                return;
+            }
+            SpeedEngine engine = new SpeedEngine(DecimalText.getInstance());
+            engine.setUnitType(mEngine.getUnitType());
+            engine.setFilter(SpeedFilters.create(mSpeedFilter));
+            engine.setZones(mZones);
+            engine.setGates(mGates);
+            mReplaySource = source;
+            mReplay = new ReplayEngine(source, new FixPipeline(engine, new SamplingScheduler()),
+                    ReplayEngine.REALTIME, 1.0);
+            mLog.log(RingLog.INFO, mLogReplay);
+            postReplayChanged(true);
+            mHandler.post(mReplayStep);
+        });
+    }
+
+    void stopReplay() {
+        mHandler.post(() -> {
+            if (mReplay != null) {
+                finishReplay();
+            }
+        });
+    }
+
+    private final Runnable mReplayStep = new Runnable() {
+        @Override
+        public void run() {
+            if (mReplay == null) {
+                return;
+            }
+            long wait;
+            try {
+                wait = mReplay.step(System.nanoTime());
+            } catch (IOException e) {
+                Log.e(TAG, "replay failed", e);
+                wait = ReplayEngine.END;
+            }
+            if (wait == ReplayEngine.END) {
+                finishReplay();
+                return;
+            }
+            publish();
+            mHandler.postDelayed(this, (wait + 999999L) / 1000000L);
+        }
+    };
+
+    private void finishReplay() {
+        mHandler.removeCallbacks(mReplayStep);
+        ReplayStats stats = mReplay.getStats();
+        Log.i(TAG, String.format(Locale.US, "replayed %d fixes in %.1f s, digest %016x",
+                stats.getFixCount(), stats.getWallNanos() / 1e9, stats.getDigest()));
+        mLog.log(RingLog.INFO, mLogReplayEnd, stats.getFixCount(), stats.getWallNanos() / 1e9);
+        mReplay = null;
+        try {
+            mReplaySource.close();
+        } catch (IOException e) {
+            Log.w(TAG, "cannot close replay source", e);
+        }
+        mReplaySource = null;
+        publish();
+        postReplayChanged(false);
+    }
+
+    /**
+     * (Re-)subscribes with the interval, distance and batching delay chosen by the sampling
+     * scheduler. Requesting again with the same listener replaces the previous request.
+     * <p>
+     * On Android 12 and later the platform batches fixes while the delay allows, and the
+     * receiver can leave the CPU asleep until a batch is due. Earlier versions deliver every
+     * fix, and they are held back here instead so that processing, recording and publishing
+     * still run once per batch. A zero delay, whenever the speed is on screen, flushes what
+     * was held back and returns to processing each fix as it arrives.
+     */
+    @SuppressLint("MissingPermission")
+    private void subscribe() {
+        flushBatch();
+        // the interval may change; the gap to the next fix is no miss
+        mArrivals.restart();
+        long maxDelay = mScheduler.getMaxDelayMillis();
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                LocationRequest request = new LocationRequest.Builder(mScheduler.getIntervalMillis())
+                        .setQuality(LocationRequest.QUALITY_HIGH_ACCURACY)
+                        .setMinUpdateDistanceMeters(mScheduler.getMinDistance())
+                        .setMaxUpdateDelayMillis(maxDelay)
+                        .build();
+                mLocationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER, request,
+                        mExecutor, mGpsListener);
+                mBuffering = false;
+            } else {
+                mLocationManager.requestLocationUpdates(LocationManager.GPS_PROVIDER,
+                        mScheduler.getIntervalMillis(), mScheduler.getMinDistance(),
+                        mGpsListener, mHandler.getLooper());
+                mBuffering = maxDelay > 0;
+            }
+            mArbiter.setSchedule(mScheduler.getIntervalMillis() * 1000000L, maxDelay * 1000000L);
+            // batching and a minimum distance mean nobody is watching or nothing moves
+            updateSecondarySources(maxDelay == 0 && mScheduler.getMinDistance() == 0);
+            mTracking = true;
+            mLog.log(RingLog.INFO, mLogSubscribe, mScheduler.getIntervalMillis(), mScheduler.getMinDistance(),
+                    maxDelay, mBuffering ? 1 : 0);
+        } catch (SecurityException e) {
+            Log.e(TAG, "location permission missing", e);
+        }
+        updateNmeaInput();
+    }
+
+    /**
+     * Listens to the network, fused and passive providers besides the receiver, or stops. They
+     * show a position long before the receiver's first fix and keep it up where the receiver
+     * loses the sky; the arbiter decides which fixes are used. The fused provider is only
+     * requested on Android 12 and later, where it is part of the platform.
+     */
+    @SuppressLint("MissingPermission")
+    private void updateSecondarySources(boolean wanted) {
+        if (wanted == mSecondarySources) {
+            return;
+        }
+        if (wanted) {
+            List<String> providers = mLocationManager.getAllProviders();
+            if (providers.contains(LocationManager.NETWORK_PROVIDER)) {
+                mLocationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER,
+                        NETWORK_INTERVAL_MILLIS, 0.0f, mNetworkListener, mHandler.getLooper());
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S
+                    && providers.contains(LocationManager.FUSED_PROVIDER)) {
+                LocationRequest request = new LocationRequest.Builder(FUSED_INTERVAL_MILLIS)
+                        .setQuality(LocationRequest.QUALITY_BALANCED_POWER_ACCURACY)
+                        .build();
+                mLocationManager.requestLocationUpdates(LocationManager.FUSED_PROVIDER, request,
+                        mExecutor, mFusedListener);
+            }
+            mLocationManager.requestLocationUpdates(LocationManager.PASSIVE_PROVIDER, 0L, 0.0f,
+                    mPassiveListener, mHandler.getLooper());
+        } else {
+            mLocationManager.removeUpdates(mNetworkListener);
+            mLocationManager.removeUpdates(mFusedListener);
+            mLocationManager.removeUpdates(mPassiveListener);
+        }
+        mSecondarySources = wanted;
+    }
+
+    /**
+     * Switches the raw NMEA input path on or off. It needs Android 7; on older versions only
+     * platform fixes are used.
+     */
+    void setNmeaInput(boolean enabled) {
+        mHandler.post(() -> {
+            mNmeaInput = enabled;
+            if (mTracking) {
+                updateNmeaInput();
+            }
+        });
+    }
+
+    @SuppressLint("MissingPermission")
+    private void updateNmeaInput() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) {
+            return;
+        }
+        // raw sentences would defeat batching, and nobody is watching then anyway
+        boolean wanted = mNmeaInput && mTracking && mScheduler.getMaxDelayMillis() == 0;
+        if (wanted && mNmeaListener == null) {
+            NmeaInput listener = new NmeaInput();
+            try {
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                    mLocationManager.addNmeaListener(mHandler::post, listener);
+                } else {
+                    mLocationManager.addNmeaListener(listener, mHandler);
+                }
+                mNmeaListener = listener;
+                mNmeaParser.reset();
+                mLog.log(RingLog.INFO, mLogNmea, 1);
+            } catch (SecurityException e) {
+                Log.e(TAG, "location permission missing", e);
+            }
+        } else if (!wanted && mNmeaListener != null) {
+            mLocationManager.removeNmeaListener(mNmeaListener);
+            mNmeaListener = null;
+            mHasNmeaFix = false;
+            mLog.log(RingLog.INFO, mLogNmea, 0);
+        }
+    }
+
+    /**
+     * Starts or stops the telemetry feed for companion displays, see TelemetryPublisher.
+     *
+     * @param mode {@link #TELEMETRY_OFF}, {@link #TELEMETRY_LOCAL} or {@link #TELEMETRY_LAN}
+     */
+    void setTelemetry(String mode) {
+        mHandler.post(() -> {
+            if (mode.equals(mTelemetryMode)) {
+                return;
+            }
+            mTelemetryMode = mode;
+            mTelemetry.close();
+            if (TELEMETRY_OFF.equals(mode)) {
+                mLog.log(RingLog.INFO, mLogTelemetry, 0);
+                return;
+            }
+            try {
+                // a literal, not looked up; getLoopbackAddress needs Android 4.4
+                InetSocketAddress address = TELEMETRY_LAN.equals(mode)
+                        ? new InetSocketAddress(TelemetryPublisher.DEFAULT_PORT)
+                        : new InetSocketAddress(InetAddress.getByName("127.0.0.1"), TelemetryPublisher.DEFAULT_PORT);
+                mTelemetry.start(address);
+                mLog.log(RingLog.INFO, mLogTelemetry, mTelemetry.getLocalPort());
+            } catch (IOException e) {
+                Log.e(TAG, "cannot start telemetry", e);
+            }
+        });
+    }
+
+    /**
+     * Arms or disarms performance runs. While armed, fixes are asked for at the highest rate
+     * whatever else the scheduler would choose.
+     */
+    void setRunArmed(boolean armed) {
+        mRunArmed = armed;
+        mHandler.post(() -> {
+            mEngine.setRunArmed(armed);
+            mLog.log(RingLog.INFO, mLogRunArmed, armed ? 1 : 0);
+            if (mScheduler.setRealtime(armed, now()) && mTracking) {
+                subscribe();
+            }
+        });
+    }
+
+    /**
+     * Sets the speed targets of performance runs.
+     *
+     * @param speeds in the display unit, ascending; null for the defaults of the unit
+     */
+    void setRunSpeeds(float[] speeds) {
+        mHandler.post(() -> mEngine.setRunTargets(speeds, null));
+    }
+
+    /**
+     * Tells the sampling scheduler whether the speed is on screen.
+     */
+    void setVisible(boolean visible) {
+        mHandler.post(() -> {
+            mVisible = visible;
+            if (mScheduler.setVisible(visible, now()) && mTracking) {
+                subscribe();
+            }
+            updateHeadingSensor();
+        });
+    }
+
+    /**
+     * Listens to the rotation vector sensor while the heading is on screen and slow enough for
+     * the engine to use it. The sensor is asked for the rate the engine decimates to.
+     */
+    private void updateHeadingSensor() {
+        boolean wanted = mRotationSensor != null && mTracking && mVisible && mEngine.wantsHeadingSensor();
+        if (wanted == mSensorRegistered) {
+            return;
+        }
+        if (wanted) {
+            mSensorRegistered = mSensorManager.registerListener(mRotationListener, mRotationSensor,
+                    (int) (HeadingFilter.SENSOR_PERIOD_NANOS / 1000L), mHandler);
+            if (!mSensorRegistered) {
+                Log.w(TAG, "cannot listen to the rotation vector sensor");
+                mRotationSensor = null;
+            }
+        } else {
+            mSensorManager.unregisterListener(mRotationListener);
+            mSensorRegistered = false;
+        }
+    }
+
+    private static long now() {
+        return SystemClock.elapsedRealtime() * 1000000L;
+    }
+
+    /**
+     * @return interval fixes should arrive at, or 0 while a minimum distance lets them pause
+     */
+    private long expectedIntervalNanos() {
+        return mScheduler.getMinDistance() > 0 ? 0L : mScheduler.getIntervalMillis() * 1000000L;
+    }
+
+    /**
+     * @return latency and throughput instruments of the live pipeline, safe to read from any thread
+     */
+    Metrics getMetrics() {
+        return mMetrics;
+    }
+
+    /**
+     * Writes the current metrics and the diagnostics log to a text file on a background thread.
+     *
+     * @param done called on the main thread with the file written, or null if writing failed
+     */
+    void dumpDiagnostics(File file, DiagnosticsDumpCallback done) {
+        mIoHandler.post(() -> {
+            File result = writeDiagnostics(file) ? file : null;
+            mMainHandler.post(() -> done.onDumped(result));
+        });
+    }
+
+    interface DiagnosticsDumpCallback {
+        void onDumped(File file);
+    }
+
+    /**
+     * Replaces LOG_FILE in the private files directory with the current diagnostics, if
+     * anything was logged since it was last written, so that they outlive the process.
+     * Runs on the processing thread; the writing is done on the I/O thread.
+     */
+    private void flushLog() {
+        mLastLogFlushNanos = SystemClock.elapsedRealtimeNanos();
+        long count = mLog.getCount();
+        if (count == mLogFlushedCount) {
+            return;
+        }
+        mLogFlushedCount = count;
+        File file = new File(getFilesDir(), LOG_FILE);
+        mIoHandler.post(() -> writeDiagnostics(file));
+    }
+
+    /**
+     * Runs on the I/O thread.
+     */
+    private boolean writeDiagnostics(File file) {
+        try (Writer out = new FileWriter(file)) {
+            out.write("# " + Build.MANUFACTURER + " " + Build.MODEL + ", Android " + Build.VERSION.RELEASE
+                    + ", uptime " + SystemClock.elapsedRealtime() / 1000 + " s, written "
+                    + String.format(Locale.US, "%tF %<tT", System.currentTimeMillis()) + "\n");
+            mMetrics.writeTo(out);
+            out.write("# log, seconds before written\n");
+            mLog.writeTo(out);
+            return true;
+        } catch (IOException e) {
+            Log.e(TAG, "cannot write " + file, e);
+            return false;
+        }
+    }
+
+    void addListener(Listener listener) {
+        if (!mListeners.contains(listener)) {
+            mListeners.add(listener);
+        }
+        if (mHasDelivered) {
+            listener.onSnapshot(mDelivered);
+        }
+        if (mProviderDisabled) {
+            listener.onProviderChanged(false);
+        }
+    }
+
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    void setUnitType(int unitType) {
+        mNotificationUnit = unitType;
+        if (mNotification != null) {
+            mNotification.setUnitType(unitType);
+        }
+        mHandler.post(() -> {
+            if (mEngine.getUnitType() != unitType) {
+                mEngine.setUnitType(unitType);
+                if (mReplay != null) {
+                    mReplay.getPipeline().getEngine().setUnitType(unitType);
+                }
+                publish();
+            }
+        });
+    }
+
+    void setSpeedFilter(String speedFilter) {
+        mHandler.post(() -> {
+            // set on every resume; a new filter would start over without its state
+            if (speedFilter.equals(mSpeedFilter)) {
+                return;
+            }
+            mSpeedFilter = speedFilter;
+            mEngine.setFilter(SpeedFilters.create(speedFilter));
+        });
+    }
+
+    /**
+     * Registers the channel of the ongoing notification; a foreground service notification
+     * without a valid channel is rejected on Android 8 and later.
+     */
+    static void createNotificationChannel(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                    context.getString(R.string.notification_channel), NotificationManager.IMPORTANCE_LOW);
+            context.getSystemService(NotificationManager.class).createNotificationChannel(channel);
+        }
+    }
+
+    /**
+     * Shows the ongoing notification with the live speed, and keeps the service running in the
+     * foreground behind it if the platform allows. Call as the app leaves the screen.
+     */
+    void showNotification() {
+        if (mNotification == null) {
+            // registers the channel and builds the intent, so not done in onCreate
+            mNotification = new LiveNotification(this, mMetrics);
+            mNotification.setUnitType(mNotificationUnit);
+        }
+        // delivers the latest snapshot first, so the notification starts out with it
+        addListener(mNotification);
+        Notification notification = mNotification.start();
+        if (!enterForeground(notification)) {
+            ((NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE)).notify(NOTIFICATION_ID, notification);
+        }
+    }
+
+    void hideNotification() {
+        if (mNotification != null) {
+            removeListener(mNotification);
+            mNotification.stop();
+        }
+        exitForeground();
+    }
+
+    /**
+     * Keeps the service running in the foreground behind the given notification.
+     *
+     * @return false if the platform refused the foreground start; the notification is not shown
+     */
+    private boolean enterForeground(Notification notification) {
+        try {
+            // started so that unbinding leaves it running
+            startService(new Intent(this, SpeedService.class));
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_LOCATION);
+            } else {
+                startForeground(NOTIFICATION_ID, notification);
+            }
+        } catch (IllegalStateException e) {
+            // Android 8+ refuses background service starts, and 12+ foreground starts, once the
+            // app is considered background
+            Log.w(TAG, "could not enter foreground", e);
+            return false;
+        }
+        mForeground = true;
+        return true;
+    }
+
+    private void exitForeground() {
+        if (mForeground) {
+            stopForeground(true);
+            mForeground = false;
+        }
+    }
+
+    /**
+     * Hands the snapshot on display, live or replayed, to the main thread. Runs on the
+     * processing thread and never waits for the main thread, beyond the copy.
+     * <p>
+     * Delivery happens at the next display frame, so any number of fixes published within
+     * one frame, as after a stall, are rendered once with the latest of them. A frame whose
+     * snapshot shows the same text as the last one is not delivered at all.
+     */
+    private void publish() {
+        Snapshot snapshot = mReplay != null ? mReplay.getPipeline().getEngine().snapshot() : mEngine.snapshot();
+        synchronized (mPublished) {
+            mPublished.copyFrom(snapshot);
+            mHasPublished = true;
+            mPublishedArrivalNanos = mReplay != null ? 0L : mArrivalNanos;
+        }
+        mPublishedCount.increment();
+        // never waits for the displays
+        mTelemetry.publish(snapshot, SystemClock.elapsedRealtimeNanos());
+        if (mDeliveryPending.compareAndSet(false, true)) {
+            if (mChoreographer != null) {
+                // safe to call from any thread; the callback runs on the main thread
+                mChoreographer.postFrameCallback(mDeliverFrame);
+            } else {
+                mMainHandler.post(mDeliver);
+            }
+        }
+    }
+
+    private void postReplayChanged(boolean replaying) {
+        mMainHandler.post(() -> {
+            mReplaying = replaying;
+            for (int i = 0; i < mListeners.size(); i++) {
+                mListeners.get(i).onReplayChanged(replaying);
+            }
+        });
+    }
+
+    /**
+     * @return whether a replay is running, as last reported to the listeners
+     */
+    boolean isReplaying() {
+        return mReplaying;
+    }
+
+    boolean isRunArmed() {
+        return mRunArmed;
+    }
+
+    private void postProviderChanged(boolean enabled) {
+        mLog.log(RingLog.INFO, mLogProvider, enabled ? 1 : 0);
+        mMainHandler.post(() -> {
+            // the listeners replace the speed with status text until the next delivery
+            mDeliverAll = true;
+            mProviderDisabled = !enabled;
+            for (int i = 0; i < mListeners.size(); i++) {
+                mListeners.get(i).onProviderChanged(enabled);
+            }
+        });
+    }
+}
@@ -0,0 +1,88 @@
+package net.mypapit.mobile.speedmeter;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import androidx.core.content.FileProvider;
+
+import net.mypapit.mobile.speedmeter.engine.export.TrackExporter;
+import net.mypapit.mobile.speedmeter.engine.track.TrackFiles;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Exports the latest trip into the cache directory on a background thread and offers it to
+ * other apps through the share sheet.
+ */
+final class TripExport {
+
+    private static final String TAG = MainActivity.TAG + "Export";
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+    // only used on the executor thread
+    private static TrackExporter sExporter;
+
+    private TripExport() {
+    }
+
+    /**
+     * @param format one of the {@link TrackExporter} formats
+     */
+    static void shareLatest(Context context, int format) {
+        Context app = context.getApplicationContext();
+        File track = TrackFiles.latest(SpeedService.getTripsDirectory(app));
+        if (track == null) {
+            Toast.makeText(app, R.string.no_trip, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Handler main = new Handler(Looper.getMainLooper());
+        EXECUTOR.execute(() -> {
+            File out;
+            try {
+                out = export(app, track, format);
+            } catch (IOException e) {
+                Log.e(TAG, "export of " + track + " failed", e);
+                main.post(() -> Toast.makeText(app, R.string.export_failed, Toast.LENGTH_LONG).show());
+                return;
+            }
+            main.post(() -> share(app, out, format));
+        });
+    }
+
+    private static File export(Context app, File track, int format) throws IOException {
+        File directory = new File(app.getCacheDir(), "exports");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create " + directory);
+        }
+        String name = track.getName();
+        File out = new File(directory, name.substring(0, name.length() - TrackFiles.EXTENSION.length())
+                + TrackExporter.extension(format));
+        if (sExporter == null) {
+            sExporter = new TrackExporter();
+        }
+        try (FileOutputStream stream = new FileOutputStream(out)) {
+            sExporter.export(track, format, stream.getChannel());
+        }
+        return out;
+    }
+
+    private static void share(Context app, File file, int format) {
+        Uri uri = FileProvider.getUriForFile(app, app.getPackageName() + ".fileprovider", file);
+        Intent send = new Intent(Intent.ACTION_SEND);
+        send.setType(TrackExporter.mimeType(format));
+        send.putExtra(Intent.EXTRA_STREAM, uri);
+        send.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+        Intent chooser = Intent.createChooser(send, app.getString(R.string.action_share));
+        chooser.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+        app.startActivity(chooser);
+    }
+}
@@ -0,0 +1,219 @@
+package net.mypapit.mobile.speedmeter;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.util.Log;
+
+import net.mypapit.mobile.speedmeter.engine.SpeedFilters;
+import net.mypapit.mobile.speedmeter.engine.history.TripSummarizer;
+import net.mypapit.mobile.speedmeter.engine.history.TripSummary;
+import net.mypapit.mobile.speedmeter.engine.history.TripTable;
+import net.mypapit.mobile.speedmeter.engine.track.TrackFiles;
+import net.mypapit.mobile.speedmeter.engine.track.TrackReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The trip history database, see TripTable. It is in write-ahead logging mode, so the history
+ * can be read while the service writes, and every write of several trips is one transaction.
+ * One instance is shared by the process; every call does I/O and is made off the main thread.
+ */
+final class TripHistory extends SQLiteOpenHelper {
+
+    private static final String TAG = MainActivity.TAG + "History";
+    private static final String NAME = "history.db";
+    /** Trips written a transaction when importing tracks */
+    static final int BATCH = 100;
+
+    private static TripHistory sInstance;
+
+    static synchronized TripHistory get(Context context) {
+        if (sInstance == null) {
+            sInstance = new TripHistory(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private TripHistory(Context context) {
+        super(context, NAME, null, TripTable.VERSION);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL(TripTable.CREATE);
+        db.execSQL(TripTable.CREATE_DISTANCE_INDEX);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // only one version so far
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+            db.enableWriteAheadLogging();
+        }
+    }
+
+    /**
+     * Inserts or replaces trips, in one transaction.
+     */
+    void write(List<TripSummary> trips) {
+        SQLiteDatabase db = getWritableDatabase();
+        SQLiteStatement upsert = db.compileStatement(TripTable.UPSERT);
+        db.beginTransaction();
+        try {
+            for (TripSummary trip : trips) {
+                upsert.bindLong(1, trip.startTime);
+                upsert.bindLong(2, trip.endTime);
+                upsert.bindDouble(3, trip.distance);
+                upsert.bindLong(4, trip.movingMillis);
+                upsert.bindLong(5, trip.stoppedMillis);
+                upsert.bindDouble(6, trip.maxSpeed);
+                upsert.bindDouble(7, trip.averageSpeed);
+                bindOptional(upsert, 8, trip.p95Speed);
+                bindOptional(upsert, 9, trip.minLatitude);
+                bindOptional(upsert, 10, trip.minLongitude);
+                bindOptional(upsert, 11, trip.maxLatitude);
+                bindOptional(upsert, 12, trip.maxLongitude);
+                upsert.bindLong(13, trip.points);
+                upsert.bindString(14, trip.polyline);
+                upsert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            upsert.close();
+        }
+    }
+
+    private static void bindOptional(SQLiteStatement statement, int index, double value) {
+        if (Double.isNaN(value)) {
+            statement.bindNull(index);
+        } else {
+            statement.bindDouble(index, value);
+        }
+    }
+
+    /**
+     * Reads the totals of the trips after one, newest or longest first.
+     *
+     * @param after the last trip of the previous page, null for the first page
+     * @return number of trips added; fewer than {@code limit} at the end
+     */
+    int readPage(boolean byDistance, TripSummary after, int limit, List<TripSummary> out) {
+        String startTime = Long.toString(after != null ? after.startTime : Long.MAX_VALUE);
+        String distance = Double.toString(after != null ? after.distance : Double.MAX_VALUE);
+        String count = Integer.toString(limit);
+        SQLiteDatabase db = getReadableDatabase();
+        int read = 0;
+        try (Cursor cursor = byDistance
+                ? db.rawQuery(TripTable.PAGE_BY_DISTANCE, new String[] {distance, distance, startTime, count})
+                : db.rawQuery(TripTable.PAGE_BY_TIME, new String[] {startTime, count})) {
+            TripTable.Row row = new CursorRow(cursor);
+            while (cursor.moveToNext()) {
+                TripSummary trip = new TripSummary();
+                TripTable.readTotals(row, 0, trip);
+                trip.polyline = null;
+                out.add(trip);
+                read++;
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Reads the route and bounds of a trip into its summary.
+     *
+     * @return false if the trip is not in the history
+     */
+    boolean readRoute(TripSummary trip) {
+        try (Cursor cursor = getReadableDatabase().rawQuery(TripTable.ROUTE,
+                new String[] {Long.toString(trip.startTime)})) {
+            if (!cursor.moveToFirst()) {
+                return false;
+            }
+            TripTable.Row row = new CursorRow(cursor);
+            trip.minLatitude = row.getDouble(0);
+            trip.minLongitude = row.getDouble(1);
+            trip.maxLatitude = row.getDouble(2);
+            trip.maxLongitude = row.getDouble(3);
+            trip.points = cursor.getInt(4);
+            trip.polyline = cursor.getString(5);
+            return true;
+        }
+    }
+
+    /**
+     * Summarizes the recorded tracks that are not in the history yet, such as those recorded
+     * before there was one, and writes them in batches of {@link #BATCH}.
+     *
+     * @param speedFilter the filter to judge moving with, see SpeedFilters
+     * @return number of trips added
+     */
+    int importTracks(File directory, String speedFilter) {
+        Set<Long> known = new HashSet<>();
+        try (Cursor cursor = getReadableDatabase().rawQuery(TripTable.START_TIMES, null)) {
+            while (cursor.moveToNext()) {
+                known.add(cursor.getLong(0));
+            }
+        }
+        List<TripSummary> batch = new ArrayList<>(BATCH);
+        int added = 0;
+        for (File file : TrackFiles.list(directory)) {
+            if (known.contains(TrackFiles.startTime(file))) {
+                continue;
+            }
+            TripSummary trip = new TripSummary();
+            try (TrackReader reader = new TrackReader(file)) {
+                TripSummarizer.summarize(reader, SpeedFilters.create(speedFilter), trip);
+            } catch (IOException e) {
+                Log.w(TAG, "cannot summarize " + file, e);
+                continue;
+            }
+            batch.add(trip);
+            if (batch.size() == BATCH) {
+                write(batch);
+                added += batch.size();
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            write(batch);
+            added += batch.size();
+        }
+        return added;
+    }
+
+    private static final class CursorRow implements TripTable.Row {
+        private final Cursor cursor;
+
+        CursorRow(Cursor cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public long getLong(int column) {
+            return cursor.getLong(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return cursor.isNull(column) ? Double.NaN : cursor.getDouble(column);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package net.mypapit.mobile.speedmeter;
+
+import android.content.SharedPreferences;
+import android.database.sqlite.SQLiteException;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+
+import net.mypapit.mobile.speedmeter.engine.SpeedUnit;
+import net.mypapit.mobile.speedmeter.engine.history.TripSummary;
+
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Lists the recorded trips, newest or longest first. Trips are read a page at a time on a
+ * background thread as the list is scrolled towards its end, so that opening the history
+ * costs the same with thousands of trips as with a few.
+ */
+public class TripHistoryActivity extends AppCompatActivity {
+
+    private static final String TAG = MainActivity.TAG + "History";
+    private static final int PAGE_SIZE = 50;
+
+    private final List<TripSummary> mTrips = new ArrayList<>();
+    private final TripAdapter mAdapter = new TripAdapter();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private HandlerThread mQueryThread;
+    private Handler mQueryHandler;
+    private TextView mEmpty;
+    private boolean mByDistance;
+    private boolean mLoading;
+    private boolean mComplete;
+    /** Changes with the order, so that pages of the previous order are dropped */
+    private int mGeneration;
+    private int mUnitType;
+    private DateFormat mDateFormat;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_history);
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+        mUnitType = Integer.parseInt(prefs.getString("unit", "1"));
+        mByDistance = savedInstanceState != null && savedInstanceState.getBoolean("byDistance");
+        mDateFormat = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT);
+        mEmpty = findViewById(R.id.tvNoTrips);
+        ListView list = findViewById(R.id.listTrips);
+        list.setAdapter(mAdapter);
+        list.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int first, int visible, int total) {
+                // the next page is read while half a page is still left to scroll through
+                if (first + visible >= total - PAGE_SIZE / 2) {
+                    loadPage();
+                }
+            }
+        });
+        mQueryThread = new HandlerThread("TripHistory", Process.THREAD_PRIORITY_BACKGROUND);
+        mQueryThread.start();
+        mQueryHandler = new Handler(mQueryThread.getLooper());
+        loadPage();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean("byDistance", mByDistance);
+    }
+
+    @Override
+    protected void onDestroy() {
+        mQueryThread.quit();
+        super.onDestroy();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.history, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_sort_distance).setChecked(mByDistance);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_sort_distance) {
+            mByDistance = !mByDistance;
+            mGeneration++;
+            mTrips.clear();
+            mAdapter.notifyDataSetChanged();
+            mLoading = false;
+            mComplete = false;
+            loadPage();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Reads the page after the trips shown, unless one is being read or all have been.
+     */
+    private void loadPage() {
+        if (mLoading || mComplete) {
+            return;
+        }
+        mLoading = true;
+        int generation = mGeneration;
+        boolean byDistance = mByDistance;
+        TripSummary after = mTrips.isEmpty() ? null : mTrips.get(mTrips.size() - 1);
+        TripHistory history = TripHistory.get(this);
+        mQueryHandler.post(() -> {
+            List<TripSummary> page = new ArrayList<>(PAGE_SIZE);
+            try {
+                history.readPage(byDistance, after, PAGE_SIZE, page);
+            } catch (SQLiteException e) {
+                Log.e(TAG, "cannot read the trip history", e);
+            }
+            mMainHandler.post(() -> showPage(generation, page));
+        });
+    }
+
+    private void showPage(int generation, List<TripSummary> page) {
+        if (generation != mGeneration || isFinishing()) {
+            return;
+        }
+        mLoading = false;
+        mComplete = page.size() < PAGE_SIZE;
+        mTrips.addAll(page);
+        mAdapter.notifyDataSetChanged();
+        mEmpty.setVisibility(mTrips.isEmpty() ? View.VISIBLE : View.GONE);
+    }
+
+    private String formatTotals(TripSummary trip) {
+        float multiplier = SpeedUnit.multiplier(mUnitType);
+        String unit = " " + SpeedUnit.label(mUnitType);
+        String distance = String.format(Locale.getDefault(), "%.1f%s",
+                trip.distance * SpeedUnit.distanceMultiplier(mUnitType), SpeedUnit.distanceSuffix(mUnitType));
+        long seconds = (trip.movingMillis + trip.stoppedMillis) / 1000L;
+        String duration = String.format(Locale.getDefault(), "%d:%02d:%02d",
+                seconds / 3600L, seconds / 60L % 60L, seconds % 60L);
+        return getString(R.string.trip_totals, distance, duration,
+                String.format(Locale.getDefault(), "%.0f%s", trip.averageSpeed * multiplier, unit),
+                String.format(Locale.getDefault(), "%.0f%s", trip.maxSpeed * multiplier, unit));
+    }
+
+    private final class TripAdapter extends BaseAdapter {
+
+        @Override
+        public int getCount() {
+            return mTrips.size();
+        }
+
+        @Override
+        public TripSummary getItem(int position) {
+            return mTrips.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return mTrips.get(position).startTime;
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            View view = convertView != null ? convertView
+                    : LayoutInflater.from(parent.getContext())
+                    .inflate(android.R.layout.simple_list_item_2, parent, false);
+            TripSummary trip = mTrips.get(position);
+            ((TextView) view.findViewById(android.R.id.text1)).setText(mDateFormat.format(new Date(trip.startTime)));
+            ((TextView) view.findViewById(android.R.id.text2)).setText(formatTotals(trip));
+            return view;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+#!/bin/sh
+# Measures cold start of the installed app on the connected device: the activity manager's
+# time to the first frame, and the time to the first displayed speed reported by the app
+# ("Fully drawn" and its own log line). Needs a GPS fix, or a mock location, and the location
+# permission already granted. For each run the app is force-stopped first, so every start is
+# a cold one.
+#
+#   benchmark/measure-startup.sh [runs]
+#
+# Record a trace of the same start with the "firstSpeed", "MainActivity.onCreate",
+# "setContentView" and "FontCache.load" sections using e.g.
+#   python3 systrace.py -a net.mypapit.mobile.speedmeter -o startup.html am view
+set -e
+
+PACKAGE=net.mypapit.mobile.speedmeter
+ACTIVITY=$PACKAGE/.MainActivity
+RUNS=${1:-10}
+TIMEOUT=60
+
+first_frame=""
+first_speed=""
+run=1
+while [ "$run" -le "$RUNS" ]; do
+    adb shell am force-stop $PACKAGE
+    adb logcat -c
+    total=$(adb shell am start -W -n $ACTIVITY | tr -d '\r' | sed -n 's/^TotalTime: //p')
+    speed=""
+    waited=0
+    while [ -z "$speed" ] && [ "$waited" -lt "$TIMEOUT" ]; do
+        sleep 1
+        waited=$((waited + 1))
+        speed=$(adb logcat -d -s speedmeter:I | tr -d '\r' \
+            | sed -n 's/.*first speed [0-9]* ms after onCreate, \([0-9]*\) ms after process start.*/\1/p' | head -n 1)
+    done
+    drawn=$(adb logcat -d | tr -d '\r' | sed -n "s/.*Fully drawn $ACTIVITY: +\(.*\)/\1/p" | head -n 1)
+    echo "run $run: first frame ${total:-?} ms, first speed ${speed:-timeout} ms, fully drawn ${drawn:-?}"
+    first_frame="$first_frame $total"
+    [ -n "$speed" ] && first_speed="$first_speed $speed"
+    run=$((run + 1))
+done
+
+median() {
+    echo "$@" | tr ' ' '\n' | grep . | sort -n | awk '{ v[NR] = $1 } END { if (NR) print v[int((NR + 1) / 2)]; else print "?" }'
+}
+echo "median of $RUNS: first frame $(median $first_frame) ms, first speed $(median $first_speed) ms"
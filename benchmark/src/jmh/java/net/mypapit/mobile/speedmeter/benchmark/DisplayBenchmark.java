@@ -0,0 +1,61 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.DecimalText;
+import net.mypapit.mobile.speedmeter.engine.GlyphCells;
+import net.mypapit.mobile.speedmeter.engine.Snapshot;
+import net.mypapit.mobile.speedmeter.engine.SpeedEngine;
+import net.mypapit.mobile.speedmeter.engine.TextSlot;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Work done per fix to hand the speed, max speed and position text to the four LCD readouts.
+ * {@code cells} is the path used by LcdDigitView; the returned mask counts the glyph cells that
+ * would be redrawn.
+ */
+@State(Scope.Thread)
+public class DisplayBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int rateHz;
+
+    private FixStream stream;
+    private SpeedEngine engine;
+    private final GlyphCells speed = new GlyphCells(5);
+    private final GlyphCells maxSpeed = new GlyphCells(5);
+    private final GlyphCells latitude = new GlyphCells(9);
+    private final GlyphCells longitude = new GlyphCells(9);
+
+    @Setup
+    public void setUp() {
+        stream = new FixStream(rateHz);
+        engine = new SpeedEngine(DecimalText.getInstance());
+    }
+
+    @Benchmark
+    public long cells() {
+        Snapshot s = engine.process(stream.next());
+        long dirty = set(speed, s.speedText)
+                | set(maxSpeed, s.maxSpeedText)
+                | set(latitude, s.latitudeText)
+                | set(longitude, s.longitudeText);
+        s.clearChanged();
+        return dirty;
+    }
+
+    @Benchmark
+    public String[] strings() {
+        Snapshot s = engine.process(stream.next());
+        // what TextView.setText(CharSequence) needs: one String per field
+        return new String[]{s.speedText.toString(), s.maxSpeedText.toString(),
+                s.latitudeText.toString(), s.longitudeText.toString()};
+    }
+
+    private static long set(GlyphCells cells, TextSlot text) {
+        return text.isChanged() ? cells.set(text.chars(), 0, text.length()) : 0L;
+    }
+}
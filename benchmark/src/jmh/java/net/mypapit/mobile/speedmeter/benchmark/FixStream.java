@@ -0,0 +1,30 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.SyntheticTrace;
+
+/**
+ * A pre-generated synthetic drive that benchmarks cycle through, so that trace generation is
+ * not part of the measured work.
+ */
+final class FixStream {
+
+    /** Long enough to cover several stop/drive cycles at the lowest rate */
+    private static final int LENGTH = 1 << 12;
+
+    private final Fix[] fixes = new Fix[LENGTH];
+    private int position;
+
+    FixStream(int rateHz) {
+        SyntheticTrace trace = new SyntheticTrace(rateHz, 42L);
+        for (int i = 0; i < LENGTH; i++) {
+            fixes[i] = trace.next(new Fix());
+        }
+    }
+
+    Fix next() {
+        Fix fix = fixes[position];
+        position = (position + 1) & (LENGTH - 1);
+        return fix;
+    }
+}
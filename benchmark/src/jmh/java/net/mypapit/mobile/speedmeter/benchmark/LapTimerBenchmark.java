@@ -0,0 +1,59 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.timing.Circuit;
+import net.mypapit.mobile.speedmeter.engine.timing.GateIndex;
+import net.mypapit.mobile.speedmeter.engine.timing.LapTimer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Lap timing per fix on laps of a {@link Circuit} at 1 Hz, with its three gates and with
+ * thousands more spread over a region 50 km across. The cost should hardly depend on the
+ * number of gates, and nothing should be allocated.
+ */
+@State(Scope.Thread)
+public class LapTimerBenchmark {
+
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180.0;
+
+    @Param({"3", "3000", "30000"})
+    public int gates;
+
+    private Circuit circuit;
+    private LapTimer timer;
+    private final Fix fix = new Fix();
+    private int position;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        GateIndex index = new GateIndex();
+        Circuit.addGates(index);
+        Random random = new Random(1L);
+        while (index.size() < gates) {
+            index.addAcross(GateIndex.SPLIT,
+                    Circuit.LATITUDE + (random.nextDouble() - 0.5) * 50000.0 / METERS_PER_DEGREE,
+                    Circuit.LONGITUDE + (random.nextDouble() - 0.5) * 50000.0 / Circuit.lonMeters(),
+                    random.nextDouble() * 360.0, GateIndex.DEFAULT_WIDTH);
+        }
+        circuit = new Circuit(50, 1.0, Circuit.NOISE, 2L);
+        timer = new LapTimer(index);
+    }
+
+    @Benchmark
+    public int update() {
+        if (position == circuit.size) {
+            // from the first lap again, on the clock of the fixes
+            position = 0;
+            timer.reset();
+        }
+        return timer.update(circuit.fix(position++, fix));
+    }
+}
@@ -0,0 +1,126 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import java.text.NumberFormat;
+
+/**
+ * The per-fix code of the original {@code MainActivity.SpeedTask} listener, kept verbatim as
+ * the baseline the engine is measured against.
+ */
+final class Legacy {
+
+    private Legacy() {
+    }
+
+    static float multiplier(int unitType) {
+        float multiplier = 3.6f;
+
+        switch (unitType) {
+            case 1:
+                multiplier = 3.6f;
+                break;
+            case 2:
+                multiplier = 2.25f;
+                break;
+            case 3:
+                multiplier = 1.0f;
+                break;
+
+            case 4:
+                multiplier = 1.943856f;
+                break;
+
+        }
+        return multiplier;
+    }
+
+    static String bearing(double bearing) {
+        String strBearing = "NIL";
+        if (bearing < 20.0) {
+            strBearing = "North";
+        } else if (bearing < 65.0) {
+            strBearing = "North-East";
+        } else if (bearing < 110.0) {
+            strBearing = "East";
+        } else if (bearing < 155.0) {
+            strBearing = "South-East";
+        } else if (bearing < 200.0) {
+            strBearing = "South";
+        } else if (bearing < 250.0) {
+            strBearing = "South-West";
+        } else if (bearing < 290.0) {
+            strBearing = "West";
+        } else if (bearing < 345.0) {
+            strBearing = "North-West";
+        } else if (bearing < 361.0) {
+            strBearing = "North";
+        }
+        return strBearing;
+    }
+
+    /**
+     * Simple recursive filter
+     *
+     * @param prev Previous value of filter
+     * @param curr New input value into filter
+     * @return New filtered value
+     */
+    static float filter(final float prev, final float curr, final int ratio) {
+        // If first time through, initialise digital filter with current values
+        if (Float.isNaN(prev))
+            return curr;
+        // If current value is invalid, return previous filtered value
+        if (Float.isNaN(curr))
+            return prev;
+        // Calculate new filtered value
+        return (float) (curr / ratio + prev * (1.0 - 1.0 / ratio));
+    }
+
+    /**
+     * The text the old listener pushed into its six TextViews, plus the debug log line.
+     */
+    static final class Output {
+        String speed;
+        String maxSpeed;
+        String accuracy;
+        String heading;
+        String latitude;
+        String longitude;
+        String log;
+    }
+
+    /**
+     * State the old listener kept between fixes.
+     */
+    static final class Listener {
+        final Output output = new Output();
+        int unitType = 1;
+        double maxSpeed = -100.0;
+        float filtSpeed;
+        float localspeed;
+
+        Output onLocationChanged(float speed, double lat, double lon, float accuracy,
+                                 boolean hasBearing, float bearing) {
+            float multiplier = multiplier(unitType);
+            if (maxSpeed < speed) {
+                maxSpeed = speed;
+            }
+            localspeed = speed * multiplier;
+            filtSpeed = filter(filtSpeed, localspeed, 2);
+
+            NumberFormat numberFormat = NumberFormat.getNumberInstance();
+            numberFormat.setMaximumFractionDigits(0);
+
+            output.log = "Speed " + localspeed + "latitude: " + lat + " longitude: " + lon;
+            output.speed = numberFormat.format(filtSpeed);
+            output.maxSpeed = numberFormat.format(maxSpeed * multiplier);
+            output.accuracy = numberFormat.format(accuracy) + " m";
+            output.heading = hasBearing ? bearing(bearing) : "NIL";
+
+            NumberFormat nf = NumberFormat.getInstance();
+            nf.setMaximumFractionDigits(4);
+            output.latitude = nf.format(lat);
+            output.longitude = nf.format(lon);
+            return output;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.metrics.Counter;
+import net.mypapit.mobile.speedmeter.engine.metrics.FixArrivals;
+import net.mypapit.mobile.speedmeter.engine.metrics.LatencyHistogram;
+import net.mypapit.mobile.speedmeter.engine.metrics.Metrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * What the metrics cost on the per-fix path: one histogram record, one counter increment and
+ * the arrival bookkeeping the service does for every fix. None of them should allocate.
+ */
+@State(Scope.Thread)
+public class MetricsBenchmark {
+
+    private LatencyHistogram histogram;
+    private Counter counter;
+    private FixArrivals arrivals;
+    private long nanos;
+
+    @Setup
+    public void setUp() {
+        Metrics metrics = new Metrics();
+        histogram = metrics.histogram("process");
+        counter = metrics.counter("published");
+        arrivals = new FixArrivals(metrics);
+    }
+
+    @Benchmark
+    public void histogramRecord() {
+        nanos += 997;
+        histogram.record(nanos & 0xfffffL);
+    }
+
+    @Benchmark
+    public void counterIncrement() {
+        counter.increment();
+    }
+
+    @Benchmark
+    public void fixArrival() {
+        nanos += 1000000000L;
+        arrivals.record(nanos + (nanos & 0xffffffL), nanos, 1000000000L);
+    }
+}
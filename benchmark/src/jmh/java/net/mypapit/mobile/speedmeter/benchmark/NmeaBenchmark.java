@@ -0,0 +1,149 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.SyntheticTrace;
+import net.mypapit.mobile.speedmeter.engine.nmea.NmeaParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Locale;
+
+/**
+ * Parsing one NMEA sentence: {@link NmeaParser} against a conventional parser built on
+ * {@code String.split} and {@code Double.parseDouble}. The sentences cycle through the GGA,
+ * GSA, RMC and VTG of each epoch of a synthetic drive, as a receiver emits them.
+ */
+@State(Scope.Thread)
+public class NmeaBenchmark {
+
+    private static final int EPOCHS = 1024;
+
+    private String[] sentences;
+    private int position;
+    private final NmeaParser parser = new NmeaParser();
+    private final SplitParser split = new SplitParser();
+    private final Fix fix = new Fix();
+
+    @Setup
+    public void setUp() {
+        sentences = generate(EPOCHS);
+    }
+
+    private String nextSentence() {
+        String s = sentences[position];
+        position = (position + 1) % sentences.length;
+        return s;
+    }
+
+    @Benchmark
+    public Fix parser() {
+        if (parser.parse(nextSentence()) == NmeaParser.RMC) {
+            parser.readFix(fix, 0L);
+        }
+        return fix;
+    }
+
+    @Benchmark
+    public double splitBaseline() {
+        return split.parse(nextSentence());
+    }
+
+    /**
+     * Generates the GGA, GSA, RMC and VTG sentences of a synthetic drive at 1 Hz.
+     */
+    static String[] generate(int epochs) {
+        SyntheticTrace trace = new SyntheticTrace(1.0, 3L);
+        Fix f = new Fix();
+        String[] out = new String[epochs * 4];
+        for (int i = 0; i < epochs; i++) {
+            trace.next(f);
+            long seconds = f.time / 1000 % 86400;
+            String time = String.format(Locale.US, "%02d%02d%02d.00",
+                    seconds / 3600, seconds / 60 % 60, seconds % 60);
+            String lat = coordinate(f.latitude, 2, 'N', 'S');
+            String lon = coordinate(f.longitude, 3, 'E', 'W');
+            float hdop = f.accuracy / NmeaParser.UERE;
+            out[i * 4] = checksum(String.format(Locale.US, "GPGGA,%s,%s,%s,1,09,%.1f,58.2,M,-2.4,M,,", time, lat, lon, hdop));
+            out[i * 4 + 1] = checksum(String.format(Locale.US, "GPGSA,A,3,02,05,07,09,13,16,20,26,29,,,,1.9,%.1f,1.2", hdop));
+            out[i * 4 + 2] = checksum(String.format(Locale.US, "GPRMC,%s,A,%s,%s,%.2f,%.1f,140717,,,A", time, lat, lon,
+                    f.speed / 0.514444, f.bearing));
+            out[i * 4 + 3] = checksum(String.format(Locale.US, "GPVTG,%.1f,T,,M,%.2f,N,%.2f,K,A",
+                    f.bearing, f.speed / 0.514444, f.speed * 3.6));
+        }
+        return out;
+    }
+
+    private static String coordinate(double value, int degreeDigits, char positive, char negative) {
+        double abs = Math.abs(value);
+        int degrees = (int) abs;
+        return String.format(Locale.US, "%0" + degreeDigits + "d%07.4f,%c",
+                degrees, (abs - degrees) * 60.0, value < 0 ? negative : positive);
+    }
+
+    private static String checksum(String body) {
+        int sum = 0;
+        for (int i = 0; i < body.length(); i++) {
+            sum ^= body.charAt(i);
+        }
+        return String.format(Locale.US, "$%s*%02X", body, sum);
+    }
+
+    /**
+     * The conventional approach: substring the checksum, split into fields and parse each
+     * number into a new object.
+     */
+    static final class SplitParser {
+
+        double latitude;
+        double longitude;
+        double speed;
+        double course;
+        double hdop;
+        int satellites;
+
+        double parse(String sentence) {
+            int star = sentence.indexOf('*');
+            if (!sentence.startsWith("$") || star < 0) {
+                return Double.NaN;
+            }
+            String body = sentence.substring(1, star);
+            int sum = 0;
+            for (char c : body.toCharArray()) {
+                sum ^= c;
+            }
+            if (sum != Integer.parseInt(sentence.substring(star + 1), 16)) {
+                return Double.NaN;
+            }
+            String[] f = body.split(",");
+            String type = f[0].substring(2);
+            if (type.equals("GGA")) {
+                latitude = coordinate(f[2], f[3]);
+                longitude = coordinate(f[4], f[5]);
+                satellites = Integer.parseInt(f[7]);
+                hdop = Double.parseDouble(f[8]);
+            } else if (type.equals("RMC")) {
+                latitude = coordinate(f[3], f[4]);
+                longitude = coordinate(f[5], f[6]);
+                speed = Double.parseDouble(f[7]) * 0.514444;
+                course = Double.parseDouble(f[8]);
+            } else if (type.equals("VTG")) {
+                course = Double.parseDouble(f[1]);
+                speed = Double.parseDouble(f[5]) * 0.514444;
+            } else if (type.equals("GSA")) {
+                hdop = Double.parseDouble(f[f.length - 2]);
+            }
+            return speed;
+        }
+
+        private static double coordinate(String value, String hemisphere) {
+            int dot = value.indexOf('.');
+            double degrees = Double.parseDouble(value.substring(0, dot - 2));
+            double minutes = Double.parseDouble(value.substring(dot - 2));
+            double result = degrees + minutes / 60.0;
+            return hemisphere.equals("S") || hemisphere.equals("W") ? -result : result;
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.DecimalText;
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.Snapshot;
+import net.mypapit.mobile.speedmeter.engine.SpeedEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of handling one complete fix, from raw values to display text, for the original
+ * listener and for {@link SpeedEngine}.
+ */
+@State(Scope.Thread)
+public class PipelineBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int rateHz;
+
+    private FixStream stream;
+    private Legacy.Listener legacy;
+    private SpeedEngine engine;
+
+    @Setup
+    public void setUp() {
+        stream = new FixStream(rateHz);
+        legacy = new Legacy.Listener();
+        engine = new SpeedEngine(DecimalText.getInstance());
+    }
+
+    @Benchmark
+    public Legacy.Output legacyListener() {
+        Fix fix = stream.next();
+        return legacy.onLocationChanged(fix.speed, fix.latitude, fix.longitude, fix.accuracy,
+                fix.hasBearing, fix.bearing);
+    }
+
+    @Benchmark
+    public Snapshot engine() {
+        return engine.process(stream.next());
+    }
+}
@@ -0,0 +1,54 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.log.RingLog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * What logging a fix costs: the string the app used to build for {@code Log.d} on every fix,
+ * against a {@link RingLog} record with the level enabled and disabled. The record should not
+ * allocate either way.
+ */
+@State(Scope.Thread)
+public class RingLogBenchmark {
+
+    private final FixStream fixes = new FixStream(1);
+    private RingLog enabled;
+    private RingLog disabled;
+    private int event;
+
+    @Setup
+    public void setUp() {
+        enabled = new RingLog(4096);
+        enabled.setLevel(RingLog.DEBUG);
+        event = enabled.define("fix lat=%.6f lon=%.6f speed=%.2f m/s accuracy=%.1f m");
+        disabled = new RingLog(4096);
+        disabled.define("fix lat=%.6f lon=%.6f speed=%.2f m/s accuracy=%.1f m");
+    }
+
+    @Benchmark
+    public String concatenated() {
+        Fix fix = fixes.next();
+        return "Speed " + fix.speed + "latitude: " + fix.latitude + " longitude: " + fix.longitude;
+    }
+
+    @Benchmark
+    public void ringEnabled() {
+        Fix fix = fixes.next();
+        if (enabled.isLoggable(RingLog.DEBUG)) {
+            enabled.log(RingLog.DEBUG, event, fix.latitude, fix.longitude, fix.speed, fix.accuracy);
+        }
+    }
+
+    @Benchmark
+    public void ringDisabled() {
+        Fix fix = fixes.next();
+        if (disabled.isLoggable(RingLog.DEBUG)) {
+            disabled.log(RingLog.DEBUG, event, fix.latitude, fix.longitude, fix.speed, fix.accuracy);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.Compass;
+import net.mypapit.mobile.speedmeter.engine.DecimalText;
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.KalmanSpeedFilter;
+import net.mypapit.mobile.speedmeter.engine.RatioSpeedFilter;
+import net.mypapit.mobile.speedmeter.engine.SpeedUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.NumberFormat;
+
+/**
+ * Individual stages of the per-fix path, original implementation next to its replacement.
+ */
+@State(Scope.Thread)
+public class StageBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int rateHz;
+
+    private FixStream stream;
+    private int unitType;
+    private float filtered = Float.NaN;
+    private final KalmanSpeedFilter kalman = new KalmanSpeedFilter(KalmanSpeedFilter.BALANCED, true);
+    private DecimalText decimalText;
+    private final char[] buffer = new char[DecimalText.MAX_LENGTH];
+
+    @Setup
+    public void setUp() {
+        stream = new FixStream(rateHz);
+        decimalText = DecimalText.getInstance();
+    }
+
+    @Benchmark
+    public float filter() {
+        filtered = RatioSpeedFilter.filter(filtered, stream.next().speed * 3.6f, 2);
+        return filtered;
+    }
+
+    @Benchmark
+    public float kalmanFilter() {
+        return kalman.update(stream.next());
+    }
+
+    @Benchmark
+    public String bearingLadder() {
+        return Legacy.bearing(stream.next().bearing);
+    }
+
+    @Benchmark
+    public int compassSector() {
+        return Compass.sector(stream.next().bearing);
+    }
+
+    @Benchmark
+    public float unitSwitch() {
+        unitType = (unitType & 3) + 1;
+        return stream.next().speed * Legacy.multiplier(unitType);
+    }
+
+    @Benchmark
+    public float unitTable() {
+        unitType = (unitType & 3) + 1;
+        return stream.next().speed * SpeedUnit.multiplier(unitType);
+    }
+
+    @Benchmark
+    public String numberFormat() {
+        Fix fix = stream.next();
+        NumberFormat nf = NumberFormat.getInstance();
+        nf.setMaximumFractionDigits(4);
+        return nf.format(fix.latitude);
+    }
+
+    @Benchmark
+    public char[] decimalText() {
+        decimalText.format(stream.next().latitude, 4, buffer, 0);
+        return buffer;
+    }
+}
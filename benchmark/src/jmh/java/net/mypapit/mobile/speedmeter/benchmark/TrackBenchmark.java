@@ -0,0 +1,48 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.track.TrackWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Cost of appending one fix to a memory-mapped track, including the periodic force().
+ */
+@State(Scope.Thread)
+public class TrackBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int rateHz;
+
+    private FixStream stream;
+    private File file;
+    private TrackWriter writer;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws IOException {
+        stream = new FixStream(rateHz);
+        file = File.createTempFile("track", ".trk");
+        file.delete();
+        writer = TrackWriter.open(file, 0L);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws IOException {
+        writer.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public long append() throws IOException {
+        writer.append(stream.next());
+        return writer.size();
+    }
+}
@@ -0,0 +1,66 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.zone.SpeedLimitMonitor;
+import net.mypapit.mobile.speedmeter.engine.zone.ZoneGrid;
+import net.mypapit.mobile.speedmeter.engine.zone.ZoneIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Speed limit lookups in a memory-mapped zone file of 320,800 road segments: a tree search
+ * at a random position, and the per-fix work of {@link SpeedLimitMonitor} on a drive along
+ * the streets, where the segment of the previous fix usually still matches. Neither should
+ * allocate.
+ */
+@State(Scope.Thread)
+public class ZoneBenchmark {
+
+    private static final int POSITIONS = 1 << 16;
+
+    private File file;
+    private ZoneIndex index;
+    private SpeedLimitMonitor monitor;
+    private double[] random;
+    private double[] drive;
+    private final Fix fix = new Fix();
+    private int position;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        ZoneGrid grid = new ZoneGrid(400);
+        file = File.createTempFile("zones", ".spz");
+        grid.build().write(file);
+        index = ZoneIndex.open(file);
+        monitor = new SpeedLimitMonitor(index);
+        random = grid.randomPositions(1L, POSITIONS);
+        drive = grid.drivePositions(2L, POSITIONS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        index.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public int nearest() {
+        int i = position++ & (POSITIONS - 1);
+        return index.nearest(random[2 * i], random[2 * i + 1], SpeedLimitMonitor.MATCH_DISTANCE);
+    }
+
+    @Benchmark
+    public boolean monitorDrive() {
+        int i = position++ & (POSITIONS - 1);
+        fix.set(position * 1000000000L, position * 1000L, drive[2 * i], drive[2 * i + 1], 15.0f, Float.NaN, 5.0f);
+        return monitor.update(fix, 15.0f);
+    }
+}
@@ -0,0 +1,90 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.DecimalText;
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.FixBatch;
+import net.mypapit.mobile.speedmeter.engine.FixPipeline;
+import net.mypapit.mobile.speedmeter.engine.SamplingScheduler;
+import net.mypapit.mobile.speedmeter.engine.SpeedEngine;
+import net.mypapit.mobile.speedmeter.engine.SyntheticTrace;
+import net.mypapit.mobile.speedmeter.engine.track.TrackWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Compares the cost per fix of processing synthetic batches through
+ * {@link FixPipeline#process(FixBatch)} with processing the same fixes one at a time, each
+ * writing a track. Run with {@code ./gradlew :benchmark:compareBatching}.
+ */
+public final class BatchComparison {
+
+    private static final int FIXES = 4 * 3600;
+    private static final int ROUNDS = 20;
+    private static final Fix[] FIXES_OF_TRIP = new Fix[FIXES];
+
+    static {
+        SyntheticTrace trace = new SyntheticTrace(1.0, 21L);
+        for (int i = 0; i < FIXES; i++) {
+            FIXES_OF_TRIP[i] = trace.next(new Fix());
+        }
+    }
+
+    private BatchComparison() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("batch size  per-fix ns/fix  batched ns/fix");
+        for (int batchSize : new int[]{1, 30, 120}) {
+            run(batchSize);
+        }
+    }
+
+    private static void run(int batchSize) throws IOException {
+        File single = File.createTempFile("single", ".trk");
+        File batched = File.createTempFile("batched", ".trk");
+        long singleNanos = Long.MAX_VALUE;
+        long batchNanos = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            FixPipeline a = pipeline(single);
+            FixPipeline b = pipeline(batched);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < FIXES; i++) {
+                a.process(FIXES_OF_TRIP[i]);
+            }
+            singleNanos = Math.min(singleNanos, System.nanoTime() - start);
+
+            FixBatch batch = new FixBatch(batchSize);
+            long elapsed = 0;
+            for (int i = 0; i < FIXES; ) {
+                batch.clear();
+                for (int j = 0; j < batchSize && i < FIXES; j++, i++) {
+                    batch.add().copyFrom(FIXES_OF_TRIP[i]);
+                }
+                long t0 = System.nanoTime();
+                b.process(batch);
+                elapsed += System.nanoTime() - t0;
+            }
+            batchNanos = Math.min(batchNanos, elapsed);
+
+            a.getTrack().close();
+            b.getTrack().close();
+        }
+        single.delete();
+        batched.delete();
+        System.out.println(String.format(Locale.US, "%10d  %14.0f  %14.0f", batchSize,
+                singleNanos / (double) FIXES, batchNanos / (double) FIXES));
+    }
+
+    private static FixPipeline pipeline(File track) throws IOException {
+        track.delete();
+        FixPipeline pipeline = new FixPipeline(new SpeedEngine(DecimalText.getInstance()), new SamplingScheduler());
+        TrackWriter writer = TrackWriter.open(track, 0L);
+        // flushing to storage would dominate the timings
+        writer.setForceInterval(Long.MAX_VALUE);
+        pipeline.setTrack(writer);
+        return pipeline;
+    }
+}
@@ -0,0 +1,58 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.zone.ZoneBuilder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Converts road segments with speed limits from CSV into a zone file for the app. Each line
+ * holds one straight segment, {@code lat1,lon1,lat2,lon2,limit} with the limit in km/h; blank
+ * lines and lines starting with {@code #} are skipped. Run with
+ * {@code ./gradlew :benchmark:buildZones -Pinput=<csv> -Poutput=zones.spz}.
+ */
+public final class BuildZones {
+
+    private BuildZones() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: BuildZones <input.csv> <output.spz>");
+            System.exit(2);
+        }
+        ZoneBuilder builder = new ZoneBuilder();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                new FileInputStream(args[0]), StandardCharsets.UTF_8))) {
+            int number = 0;
+            String line;
+            while ((line = in.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(",");
+                if (fields.length != 5) {
+                    throw new IOException(args[0] + ":" + number + ": expected 5 fields");
+                }
+                try {
+                    builder.add(Double.parseDouble(fields[0].trim()), Double.parseDouble(fields[1].trim()),
+                            Double.parseDouble(fields[2].trim()), Double.parseDouble(fields[3].trim()),
+                            Float.parseFloat(fields[4].trim()) / 3.6f);
+                } catch (NumberFormatException e) {
+                    throw new IOException(args[0] + ":" + number + ": " + e.getMessage());
+                }
+            }
+        }
+        File output = new File(args[1]);
+        builder.write(output);
+        System.out.println(String.format(Locale.US, "%d segments written to %s, %d bytes",
+                builder.size(), output, output.length()));
+    }
+}
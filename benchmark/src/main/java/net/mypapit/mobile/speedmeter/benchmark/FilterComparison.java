@@ -0,0 +1,141 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.SpeedFilter;
+import net.mypapit.mobile.speedmeter.engine.SpeedFilters;
+import net.mypapit.mobile.speedmeter.engine.SyntheticTrace;
+import net.mypapit.mobile.speedmeter.engine.TripStats;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the speed filters on synthetic drives where the true speed is known. For every
+ * filter and fix rate it prints the RMS error, the display lag (the time shift that best
+ * aligns the output with the true speed) and, while stopped, the mean readout, its jitter and
+ * the share of fixes that would count as moving in {@link TripStats}. A second table parks
+ * for ten minutes with positions scattered as widely as their accuracy says, 68% within it,
+ * which is where speeds derived from positions read high.
+ * <p>
+ * Run with {@code ./gradlew :benchmark:compareFilters}.
+ */
+public final class FilterComparison {
+
+    private static final String[] FILTERS = {
+            SpeedFilters.LEGACY, SpeedFilters.RESPONSIVE, SpeedFilters.BALANCED, SpeedFilters.SMOOTH
+    };
+    private static final int[] RATES = {1, 10};
+    private static final double DURATION_SECONDS = 3600.0;
+    private static final double MAX_LAG_SECONDS = 5.0;
+    private static final double PARKED_SECONDS = 600.0;
+    private static final float PARKED_ACCURACY = 5.0f;
+    /** Horizontal accuracy is the radius holding 68% of fixes, 1.51 sigma of each axis */
+    private static final double SIGMAS_PER_ACCURACY = 1.51;
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180.0;
+
+    private FilterComparison() {
+    }
+
+    public static void main(String[] args) {
+        System.out.println("filter       rate  rms(m/s)  lag(s)  stopped mean(m/s)  jitter(m/s)  moving(%)");
+        for (int rate : RATES) {
+            for (String name : FILTERS) {
+                report(name, rate);
+            }
+        }
+        System.out.println();
+        System.out.println("parked       rate  mean(m/s)  max(m/s)  moving(%)");
+        for (int rate : RATES) {
+            for (String name : FILTERS) {
+                reportParked(name, rate);
+            }
+        }
+    }
+
+    private static void reportParked(String name, int rate) {
+        int count = (int) (PARKED_SECONDS * rate);
+        long interval = 1000000000L / rate;
+        double sigma = PARKED_ACCURACY / SIGMAS_PER_ACCURACY;
+        Random random = new Random(3L);
+        SpeedFilter filter = SpeedFilters.create(name);
+        Fix fix = new Fix();
+        double sum = 0;
+        double max = 0;
+        int moving = 0;
+        for (int i = 0; i < count; i++) {
+            double north = random.nextGaussian() * sigma;
+            double east = random.nextGaussian() * sigma;
+            float speed = (float) Math.max(0.0, random.nextGaussian() * 0.4);
+            fix.set(i * interval, i * interval / 1000000L, 3.0 + north / METERS_PER_DEGREE,
+                    101.0 + east / (METERS_PER_DEGREE * Math.cos(Math.toRadians(3.0))), speed, Float.NaN,
+                    PARKED_ACCURACY);
+            float filtered = filter.update(fix);
+            float output = Float.isNaN(filtered) ? 0.0f : filtered;
+            sum += output;
+            max = Math.max(max, output);
+            if (output >= TripStats.MOVING_SPEED) {
+                moving++;
+            }
+        }
+        System.out.println(String.format(Locale.US, "%-12s %4d  %9.3f  %8.3f  %9.2f",
+                name, rate, sum / count, max, 100.0 * moving / count));
+    }
+
+    private static void report(String name, int rate) {
+        int count = (int) (DURATION_SECONDS * rate);
+        float[] truth = new float[count];
+        float[] output = new float[count];
+        SyntheticTrace trace = new SyntheticTrace(rate, 7L);
+        SpeedFilter filter = SpeedFilters.create(name);
+        Fix fix = new Fix();
+        for (int i = 0; i < count; i++) {
+            trace.next(fix);
+            truth[i] = (float) trace.getTrueSpeed();
+            float filtered = filter.update(fix);
+            output[i] = Float.isNaN(filtered) ? 0.0f : filtered;
+        }
+
+        double bestRms = Double.MAX_VALUE;
+        int bestShift = 0;
+        for (int shift = 0; shift <= MAX_LAG_SECONDS * rate; shift++) {
+            double rms = rms(truth, output, shift);
+            if (rms < bestRms) {
+                bestRms = rms;
+                bestShift = shift;
+            }
+        }
+
+        double sum = 0;
+        double sumSquares = 0;
+        int stopped = 0;
+        int stoppedMoving = 0;
+        for (int i = 0; i < count; i++) {
+            if (truth[i] == 0.0f) {
+                sum += output[i];
+                sumSquares += output[i] * output[i];
+                stopped++;
+                if (output[i] >= TripStats.MOVING_SPEED) {
+                    stoppedMoving++;
+                }
+            }
+        }
+        double mean = stopped > 0 ? sum / stopped : 0;
+        double jitter = stopped > 0 ? Math.sqrt(Math.max(0, sumSquares / stopped - mean * mean)) : 0;
+
+        System.out.println(String.format(Locale.US, "%-12s %4d  %8.3f  %6.2f  %17.3f  %11.3f  %9.2f",
+                name, rate, rms(truth, output, 0), bestShift / (double) rate, mean, jitter,
+                stopped > 0 ? 100.0 * stoppedMoving / stopped : 0.0));
+    }
+
+    /**
+     * RMS difference between the output and the truth delayed by {@code shift} samples.
+     */
+    private static double rms(float[] truth, float[] output, int shift) {
+        double sum = 0;
+        for (int i = shift; i < output.length; i++) {
+            double d = output[i] - truth[i - shift];
+            sum += d * d;
+        }
+        return Math.sqrt(sum / (output.length - shift));
+    }
+}
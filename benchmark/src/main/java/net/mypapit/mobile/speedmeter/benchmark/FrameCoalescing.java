@@ -0,0 +1,124 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.DecimalText;
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.Snapshot;
+import net.mypapit.mobile.speedmeter.engine.SpeedEngine;
+import net.mypapit.mobile.speedmeter.engine.SyntheticTrace;
+import net.mypapit.mobile.speedmeter.engine.TextSlot;
+
+import java.util.Locale;
+
+/**
+ * Counts the main-thread work a 10 Hz receiver causes: render passes (each one a layout and
+ * draw) and text views updated per second, and how often the speed digits flip back to what
+ * they showed less than a second earlier. Every 30 s the receiver stalls for 2 s and then
+ * delivers the held fixes in one burst.
+ * <p>
+ * Compared are delivering every fix as it comes with plainly rounded digits, as the app used
+ * to; delivering once per 60 Hz display frame; and per frame with the digit hysteresis of
+ * {@link SpeedEngine}. Run with {@code ./gradlew :benchmark:compareFrameCoalescing}.
+ */
+public final class FrameCoalescing {
+
+    private static final double RATE_HZ = 10.0;
+    private static final long DURATION_NANOS = 3600 * 1000000000L;
+    private static final long FRAME_NANOS = 1000000000L / 60;
+    private static final long STALL_EVERY_NANOS = 30 * 1000000000L;
+    private static final long STALL_NANOS = 2 * 1000000000L;
+
+    private FrameCoalescing() {
+    }
+
+    public static void main(String[] args) {
+        System.out.println("delivery                  passes/s  views/s  speed flips/min");
+        run("every fix, plain digits", false, false);
+        run("per frame, plain digits", true, false);
+        run("per frame, hysteresis", true, true);
+    }
+
+    private static void run(String name, boolean perFrame, boolean hysteresis) {
+        DecimalText format = DecimalText.getInstance();
+        SpeedEngine engine = new SpeedEngine(format);
+        SyntheticTrace trace = new SyntheticTrace(RATE_HZ, 3L);
+        Fix fix = new Fix();
+        Snapshot displayed = new Snapshot();
+        FlipCounter flips = new FlipCounter();
+        long passes = 0;
+        long views = 0;
+        boolean pending = false;
+        long nextFrame = 0;
+
+        for (long t = 0; t < DURATION_NANOS; t += trace.getIntervalNanos()) {
+            // fixes of a stall arrive together at its end
+            long phase = t % STALL_EVERY_NANOS;
+            long arrival = phase < STALL_NANOS ? t - phase + STALL_NANOS : t;
+            Snapshot snapshot = engine.process(trace.next(fix));
+            if (!hysteresis) {
+                snapshot.speedText.setNumber(format, snapshot.displaySpeed, 0);
+                if (snapshot.hasAccuracy) {
+                    snapshot.accuracyText.setNumber(format, snapshot.accuracy, 0, " m");
+                }
+            }
+            if (!perFrame) {
+                displayed.copyFrom(snapshot);
+                passes++;
+                views += render(displayed, flips, arrival);
+                continue;
+            }
+            // frames that passed before this fix arrived deliver what was published by then
+            while (nextFrame <= arrival) {
+                if (pending) {
+                    pending = false;
+                    if (displayed.isChanged()) {
+                        passes++;
+                        views += render(displayed, flips, nextFrame);
+                    }
+                }
+                nextFrame += FRAME_NANOS;
+            }
+            displayed.copyFrom(snapshot);
+            pending = true;
+        }
+
+        double seconds = DURATION_NANOS / 1e9;
+        System.out.println(String.format(Locale.US, "%-24s %9.2f %8.2f %16.2f",
+                name, passes / seconds, views / seconds, flips.count * 60 / seconds));
+    }
+
+    /**
+     * @return number of views whose text changed
+     */
+    private static int render(Snapshot snapshot, FlipCounter flips, long nanos) {
+        int views = changed(snapshot.speedText) + changed(snapshot.maxSpeedText)
+                + changed(snapshot.accuracyText) + changed(snapshot.headingText)
+                + changed(snapshot.latitudeText) + changed(snapshot.longitudeText)
+                + changed(snapshot.distanceText) + changed(snapshot.averageSpeedText)
+                + changed(snapshot.p95SpeedText);
+        if (snapshot.speedText.isChanged()) {
+            flips.shown(snapshot.speedText.toString(), nanos);
+        }
+        snapshot.clearChanged();
+        return views;
+    }
+
+    private static int changed(TextSlot text) {
+        return text.isChanged() ? 1 : 0;
+    }
+
+    private static final class FlipCounter {
+        private String previous;
+        private String current;
+        private long changedNanos = Long.MIN_VALUE;
+        private long count;
+
+        void shown(String text, long nanos) {
+            if (text.equals(previous) && nanos - changedNanos < 1000000000L) {
+                count++;
+            }
+            previous = current;
+            current = text;
+            changedNanos = nanos;
+        }
+    }
+}
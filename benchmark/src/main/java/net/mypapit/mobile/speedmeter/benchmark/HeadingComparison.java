@@ -0,0 +1,248 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.Compass;
+import net.mypapit.mobile.speedmeter.engine.DecimalText;
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.HeadingFilter;
+import net.mypapit.mobile.speedmeter.engine.SpeedEngine;
+import net.mypapit.mobile.speedmeter.engine.SyntheticTrace;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares the shown compass point with the true direction of travel, stopped, slow and fast:
+ * the raw bearing through the old uneven sectors, through the even ones, the smoothed bearing,
+ * and the smoothed bearing with a rotation-vector stream. Runs on synthetic drives at 1 Hz,
+ * which only turn while cruising, and on town driving that turns at every junction, at walking
+ * pace after a stop. The synthetic sensor runs at 25 Hz and reports the heading of a device
+ * mounted 20 degrees off the direction of travel, with noise and a slowly wandering magnetic
+ * error. Run with {@code ./gradlew :benchmark:compareHeading}.
+ */
+public final class HeadingComparison {
+
+    private static final long DURATION_NANOS = 3 * 3600 * 1000000000L;
+    private static final long SENSOR_INTERVAL_NANOS = 40000000L;
+    private static final double MOUNT_OFFSET = 20.0;
+    private static final long[] SEEDS = {11L, 12L, 13L};
+
+    private static final int RAW_LADDER = 0;
+    private static final int RAW = 1;
+    private static final int FILTERED = 2;
+    private static final int FUSED = 3;
+    private static final String[] NAMES = {
+            "raw bearing, old sectors", "raw bearing", "smoothed bearing", "smoothed + sensor"
+    };
+
+    private HeadingComparison() {
+    }
+
+    public static void main(String[] args) {
+        for (int junctions = 0; junctions <= 1; junctions++) {
+            System.out.println();
+            System.out.println(junctions == 0 ? "drives" : "junctions");
+            System.out.println("                           correct point, % of fixes    NIL %   changes/min  sensor");
+            System.out.println("method                     stopped    slow    fast                            samples/min");
+            for (int method = RAW_LADDER; method <= FUSED; method++) {
+                run(method, junctions != 0);
+            }
+        }
+    }
+
+    private static void run(int method, boolean junctions) {
+        Band stopped = new Band();
+        Band slow = new Band();
+        Band fast = new Band();
+        long changes = 0;
+        long nil = 0;
+        long fixes = 0;
+        long samples = 0;
+        for (long seed : SEEDS) {
+            Drive trace = junctions ? new Junctions(seed) : new Trace(new SyntheticTrace(1.0, seed));
+            SpeedEngine engine = new SpeedEngine(DecimalText.getInstance());
+            Random random = new Random(seed);
+            Fix fix = new Fix();
+            int shown = Compass.NONE;
+            long sensorNanos = 0;
+            double magnetic = 0.0;
+            for (long t = 0; t < DURATION_NANOS; t += trace.getIntervalNanos()) {
+                trace.next(fix);
+                // sensor samples up to this fix, facing where the vehicle heads
+                if (method == FUSED) {
+                    for (; sensorNanos < t + trace.getIntervalNanos(); sensorNanos += SENSOR_INTERVAL_NANOS) {
+                        magnetic += random.nextGaussian() * 0.05;
+                        magnetic = Math.max(-6.0, Math.min(6.0, magnetic));
+                        if (engine.wantsHeadingSensor()) {
+                            samples++;
+                            engine.updateHeading(trace.getTrueBearing() - MOUNT_OFFSET + magnetic
+                                    + random.nextGaussian() * 4.0, sensorNanos);
+                        }
+                    }
+                }
+                int sector;
+                if (method == RAW_LADDER) {
+                    sector = fix.hasBearing ? ladder(fix.bearing) : Compass.NONE;
+                } else if (method == RAW) {
+                    sector = fix.hasBearing ? Compass.sector(fix.bearing) : Compass.NONE;
+                } else {
+                    sector = engine.process(fix).heading;
+                }
+                double speed = trace.getTrueSpeed();
+                Band band = speed == 0.0 ? stopped : speed < HeadingFilter.HIGH_SPEED ? slow : fast;
+                band.fixes++;
+                if (sector == Compass.sector(trace.getTrueBearing())) {
+                    band.correct++;
+                }
+                if (sector != shown) {
+                    changes++;
+                    shown = sector;
+                }
+                if (sector == Compass.NONE) {
+                    nil++;
+                }
+                fixes++;
+            }
+        }
+        double minutes = SEEDS.length * DURATION_NANOS / 60e9;
+        System.out.println(String.format(Locale.US, "%-24s %8.1f %7.1f %7.1f %9.1f %10.2f %10.1f",
+                NAMES[method], stopped.percent(), slow.percent(), fast.percent(),
+                100.0 * nil / fixes, changes / minutes, samples / minutes));
+    }
+
+    /**
+     * The sectors the app used to map bearings through.
+     */
+    private static int ladder(double bearing) {
+        if (bearing < 20.0) {
+            return 0;
+        } else if (bearing < 65.0) {
+            return 1;
+        } else if (bearing < 110.0) {
+            return 2;
+        } else if (bearing < 155.0) {
+            return 3;
+        } else if (bearing < 200.0) {
+            return 4;
+        } else if (bearing < 250.0) {
+            return 5;
+        } else if (bearing < 290.0) {
+            return 6;
+        } else if (bearing < 345.0) {
+            return 7;
+        }
+        return 0;
+    }
+
+    private interface Drive {
+        long getIntervalNanos();
+
+        Fix next(Fix fix);
+
+        double getTrueSpeed();
+
+        double getTrueBearing();
+    }
+
+    private static final class Trace implements Drive {
+        private final SyntheticTrace trace;
+
+        Trace(SyntheticTrace trace) {
+            this.trace = trace;
+        }
+
+        @Override
+        public long getIntervalNanos() {
+            return trace.getIntervalNanos();
+        }
+
+        @Override
+        public Fix next(Fix fix) {
+            return trace.next(fix);
+        }
+
+        @Override
+        public double getTrueSpeed() {
+            return trace.getTrueSpeed();
+        }
+
+        @Override
+        public double getTrueBearing() {
+            return trace.getTrueBearing();
+        }
+    }
+
+    /**
+     * Stops at a junction, turns 90 degrees left or right while pulling away, and drives on to
+     * the next one; speed and bearing noise as in {@link SyntheticTrace}.
+     */
+    private static final class Junctions implements Drive {
+        private static final long INTERVAL_NANOS = 1000000000L;
+
+        private final Random random;
+        private long elapsedNanos;
+        private double speed;
+        private double bearing = 90.0;
+        private double phaseSeconds = -10.0;
+        private double turn;
+
+        Junctions(long seed) {
+            random = new Random(seed);
+        }
+
+        @Override
+        public long getIntervalNanos() {
+            return INTERVAL_NANOS;
+        }
+
+        @Override
+        public Fix next(Fix fix) {
+            elapsedNanos += INTERVAL_NANOS;
+            phaseSeconds += 1.0;
+            if (phaseSeconds < 0.0) {
+                // waiting
+                speed = 0.0;
+            } else if (phaseSeconds < 6.0) {
+                // turning out of the junction
+                if (phaseSeconds == 0.0) {
+                    turn = random.nextBoolean() ? 15.0 : -15.0;
+                }
+                speed = Math.min(3.0, speed + 0.6);
+                bearing = (bearing + turn + 360.0) % 360.0;
+            } else if (phaseSeconds < 20.0) {
+                speed = Math.min(12.0, speed + 1.5);
+            } else if (speed > 0.0) {
+                speed = Math.max(0.0, speed - 2.5);
+            } else {
+                phaseSeconds = -5.0 - random.nextInt(20);
+            }
+            double observedSpeed = Math.max(0.0, speed + random.nextGaussian() * 0.4);
+            float observedBearing = Float.NaN;
+            if (observedSpeed > 0.2) {
+                double spread = 2.0 + Math.toDegrees(Math.atan2(0.4, speed));
+                observedBearing = (float) ((bearing + random.nextGaussian() * spread + 720.0) % 360.0);
+            }
+            fix.set(elapsedNanos, elapsedNanos / 1000000L, 3.139, 101.6869, (float) observedSpeed,
+                    observedBearing, 5.0f);
+            return fix;
+        }
+
+        @Override
+        public double getTrueSpeed() {
+            return speed;
+        }
+
+        @Override
+        public double getTrueBearing() {
+            return bearing;
+        }
+    }
+
+    private static final class Band {
+        long fixes;
+        long correct;
+
+        double percent() {
+            return fixes == 0 ? 0.0 : 100.0 * correct / fixes;
+        }
+    }
+}
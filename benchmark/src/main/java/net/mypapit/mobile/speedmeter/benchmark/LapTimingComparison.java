@@ -0,0 +1,199 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.replay.TraceSource;
+import net.mypapit.mobile.speedmeter.engine.replay.TraceSources;
+import net.mypapit.mobile.speedmeter.engine.timing.Circuit;
+import net.mypapit.mobile.speedmeter.engine.timing.GateIndex;
+import net.mypapit.mobile.speedmeter.engine.timing.GateSearch;
+import net.mypapit.mobile.speedmeter.engine.timing.LapTimer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Compares lap timing on laps of a synthetic {@link Circuit}: the interpolated crossing times
+ * against the true ones and the times of the fixes that detected them, at 1, 5 and 10 Hz, and
+ * at 1 Hz without position error, which leaves the error of the interpolation itself. The gate
+ * tests and time per fix are reported for 3 to 30,000 gates spread over a region, next to a
+ * test of every gate. Run with {@code ./gradlew :benchmark:compareLapTiming};
+ * {@code -Ptrace=<file>} also times the laps of a recorded trace at a start/finish gate placed
+ * where it first drives faster than 5 m/s.
+ */
+public final class LapTimingComparison {
+
+    private static final int LAPS = 30;
+    private static final double[] RATES = {1.0, 5.0, 10.0};
+    private static final int[] GATE_COUNTS = {3, 30, 300, 3000, 30000};
+    /** Side of the region the extra gates are spread over, in meters */
+    private static final double REGION = 50000.0;
+
+    /** Keeps the full search from being optimized away */
+    private static volatile int sink;
+
+    private LapTimingComparison() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("rate    crossings   interpolated error ms    fix time error ms     lap time error ms");
+        System.out.println("                     mean    p95    max      mean    p95    max      mean    max");
+        compareAccuracy(1.0, 0.0);
+        for (double rate : RATES) {
+            compareAccuracy(rate, Circuit.NOISE);
+        }
+        System.out.println();
+        // warms up the code timed
+        timeGates(GATE_COUNTS[0], false);
+        System.out.println("gates     tests/fix   ns/fix   every gate ns/fix");
+        for (int count : GATE_COUNTS) {
+            timeGates(count, true);
+        }
+        if (args.length > 0 && !args[0].isEmpty()) {
+            System.out.println();
+            timeTrace(new File(args[0]));
+        }
+    }
+
+    private static void compareAccuracy(double rate, double noise) {
+        Circuit circuit = new Circuit(LAPS, rate, noise, 5L);
+        GateIndex gates = new GateIndex();
+        Circuit.addGates(gates);
+        LapTimer timer = new LapTimer(gates);
+        Fix fix = new Fix();
+        long[] interpolated = new long[circuit.crossings + 8];
+        long[] detected = new long[interpolated.length];
+        long[] lapTimes = new long[LAPS + 8];
+        int events = 0;
+        int laps = 0;
+        for (int i = 0; i < circuit.size; i++) {
+            int event = timer.update(circuit.fix(i, fix));
+            if (event != 0 && events < interpolated.length) {
+                interpolated[events] = timer.getLastCrossingNanos();
+                detected[events] = fix.elapsedNanos;
+                events++;
+                if (event == LapTimer.LAP && laps < lapTimes.length) {
+                    lapTimes[laps++] = timer.getLastLapNanos();
+                }
+            }
+        }
+        long[] interpolatedErrors = new long[events];
+        long[] detectedErrors = new long[events];
+        for (int k = 0; k < Math.min(events, circuit.crossings); k++) {
+            interpolatedErrors[k] = Math.abs(interpolated[k] - circuit.crossingNanos[k]);
+            detectedErrors[k] = Math.abs(detected[k] - circuit.crossingNanos[k]);
+        }
+        long[] lapErrors = new long[laps];
+        long previousStart = -1L;
+        int lap = 0;
+        for (int k = 0; k < circuit.crossings && lap < laps; k++) {
+            if (circuit.crossingGates[k] == 0) {
+                if (previousStart >= 0) {
+                    lapErrors[lap] = Math.abs(lapTimes[lap] - (circuit.crossingNanos[k] - previousStart));
+                    lap++;
+                }
+                previousStart = circuit.crossingNanos[k];
+            }
+        }
+        System.out.println(String.format(Locale.US, "%2.0f Hz%s %4d/%-4d   %7.1f %6.1f %6.1f   %7.1f %6.1f %6.1f   %7.1f %6.1f",
+                rate, noise == 0.0 ? "*" : " ", events, circuit.crossings, mean(interpolatedErrors), percentile(interpolatedErrors, 0.95),
+                percentile(interpolatedErrors, 1.0), mean(detectedErrors), percentile(detectedErrors, 0.95),
+                percentile(detectedErrors, 1.0), mean(lapErrors), percentile(lapErrors, 1.0)));
+    }
+
+    private static void timeGates(int count, boolean print) {
+        GateIndex gates = new GateIndex();
+        Circuit.addGates(gates);
+        Circuit.addRandomGates(gates, count - gates.size(), REGION, count);
+        LapTimer timer = new LapTimer(gates);
+        Circuit circuit = new Circuit(50, 1.0, Circuit.NOISE, 9L);
+        Fix fix = new Fix();
+        long fixes = 0;
+        long tests = 0;
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 20; round++) {
+            timer.reset();
+            long before = gates.getTests();
+            long start = System.nanoTime();
+            for (int i = 0; i < circuit.size; i++) {
+                timer.update(circuit.fix(i, fix));
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            tests = gates.getTests() - before;
+            fixes = circuit.size;
+        }
+        GateSearch search = new GateSearch(gates);
+        long bestAll = Long.MAX_VALUE;
+        int found = 0;
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 1; i < circuit.size; i++) {
+                for (int g = 0; g < search.size(); g++) {
+                    if (search.crosses(g, circuit.latitudes[i - 1], circuit.longitudes[i - 1], circuit.latitudes[i],
+                            circuit.longitudes[i])) {
+                        found++;
+                    }
+                }
+            }
+            bestAll = Math.min(bestAll, System.nanoTime() - start);
+        }
+        double testsPerFix = (double) tests / fixes;
+        sink += found;
+        if (print) {
+            System.out.println(String.format(Locale.US, "%6d %11.2f %8.0f %12.0f", count, testsPerFix,
+                    (double) best / fixes, (double) bestAll / fixes));
+        }
+    }
+
+    /**
+     * Times the laps of a recorded trace at a start/finish gate where it first drives fast.
+     */
+    private static void timeTrace(File file) throws IOException {
+        GateIndex gates = new GateIndex();
+        LapTimer timer = new LapTimer(gates);
+        Fix fix = new Fix();
+        int fixes = 0;
+        try (TraceSource source = TraceSources.open(file)) {
+            while (source.next(fix)) {
+                fixes++;
+                if (gates.size() == 0 && fix.hasBearing && fix.speed > 5.0f) {
+                    gates.addAcross(GateIndex.START_FINISH, fix.latitude, fix.longitude, fix.bearing,
+                            GateIndex.DEFAULT_WIDTH);
+                    System.out.println(String.format(Locale.US, "%s: start/finish at %.6f, %.6f heading %.0f",
+                            file.getName(), fix.latitude, fix.longitude, fix.bearing));
+                }
+                if (timer.update(fix) == LapTimer.LAP) {
+                    System.out.println(String.format(Locale.US, "lap %d: %.2f s", timer.getLaps(),
+                            timer.getLastLapNanos() / 1e9));
+                }
+            }
+        }
+        System.out.println(String.format(Locale.US, "%d fixes, %d laps, best %s", fixes, timer.getLaps(),
+                timer.getBestLapNanos() == LapTimer.NONE ? "none"
+                        : String.format(Locale.US, "%.2f s", timer.getBestLapNanos() / 1e9)));
+    }
+
+    /**
+     * @return mean of nanosecond values, in milliseconds
+     */
+    private static double mean(long[] nanos) {
+        long total = 0;
+        for (long n : nanos) {
+            total += n;
+        }
+        return nanos.length == 0 ? 0.0 : total / 1e6 / nanos.length;
+    }
+
+    /**
+     * @return a percentile of nanosecond values, in milliseconds
+     */
+    private static double percentile(long[] nanos, double fraction) {
+        if (nanos.length == 0) {
+            return 0.0;
+        }
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1)] / 1e6;
+    }
+}
@@ -0,0 +1,34 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.NotificationPosts;
+import net.mypapit.mobile.speedmeter.engine.UpdateThrottle;
+
+import java.util.Locale;
+
+/**
+ * Counts the {@link NotificationPosts} an hour's drive causes at 1 and 10 Hz. Compared are
+ * posting every snapshot; posting when the shown speed, max speed or distance changes; and
+ * posting those changes through an {@link UpdateThrottle} of 1 and 2 posts a second. Run with
+ * {@code ./gradlew :benchmark:compareNotificationThrottling}.
+ */
+public final class NotificationThrottling {
+
+    private NotificationThrottling() {
+    }
+
+    public static void main(String[] args) {
+        System.out.println("rate   policy               posts/min  max posts/60 s  max wait ms");
+        for (double rate : new double[] {1.0, 10.0}) {
+            print(rate, "every snapshot", NotificationPosts.run(rate, false, 0));
+            print(rate, "on change", NotificationPosts.run(rate, true, 0));
+            for (int perSecond = 1; perSecond <= 2; perSecond++) {
+                print(rate, "on change, " + perSecond + "/s", NotificationPosts.run(rate, true, perSecond));
+            }
+        }
+    }
+
+    private static void print(double rateHz, String name, NotificationPosts.Result result) {
+        System.out.println(String.format(Locale.US, "%4.0f   %-20s %9.1f %15d %12.0f",
+                rateHz, name, result.postsPerMinute, result.maxPerMinute, result.maxWaitNanos / 1e6));
+    }
+}
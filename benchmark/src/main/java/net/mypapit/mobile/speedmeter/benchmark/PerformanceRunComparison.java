@@ -0,0 +1,105 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.DecimalText;
+import net.mypapit.mobile.speedmeter.engine.FixBatch;
+import net.mypapit.mobile.speedmeter.engine.SpeedEngine;
+import net.mypapit.mobile.speedmeter.engine.timing.LaunchRuns;
+import net.mypapit.mobile.speedmeter.engine.timing.PerformanceTimer;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Compares performance run timing on synthetic {@link LaunchRuns} at constant acceleration and
+ * with the acceleration falling off as a car's does, with and without noise on the speed. The
+ * errors of 0-100 km/h, 0-60 mph, the eighth and the quarter mile, and of the quarter mile
+ * trap speed, are compared with those of reading the times at the fixes, at 1, 5, 10 and
+ * 25 Hz. Also reports the time per fix of the {@link PerformanceTimer} and of the engine with
+ * the mode armed. Run with {@code ./gradlew :benchmark:comparePerformanceRun}.
+ */
+public final class PerformanceRunComparison {
+
+    private static final double[] RATES = {1.0, 5.0, 10.0, 25.0};
+    private static final int RUNS = 200;
+    private static final String[] TARGET_NAMES = {"0-100 km/h", "0-60 mph", "1/8 mile", "1/4 mile", "trap mm/s"};
+
+    /** Keeps the timed loops from being optimized away */
+    private static volatile long sink;
+
+    private PerformanceRunComparison() {
+    }
+
+    public static void main(String[] args) {
+        System.out.println("profile         rate  target         interpolated error ms    at the fixes error ms");
+        System.out.println("                                      mean    p95    max       mean    p95    max");
+        for (double rate : RATES) {
+            print("constant", rate, LaunchRuns.measure(new LaunchRuns.ConstantAcceleration(4.0), rate, 0.0, RUNS));
+        }
+        for (double rate : RATES) {
+            print("car", rate, LaunchRuns.measure(new LaunchRuns.FallingAcceleration(7.0, 75.0), rate, 0.0, RUNS));
+        }
+        for (double rate : RATES) {
+            print("car, noise", rate, LaunchRuns.measure(new LaunchRuns.FallingAcceleration(7.0, 75.0), rate,
+                    LaunchRuns.SPEED_NOISE, RUNS));
+        }
+        System.out.println();
+        timeUpdates();
+    }
+
+    private static void print(String profile, double rateHz, LaunchRuns.Errors errors) {
+        for (int t = 0; t <= LaunchRuns.TARGETS; t++) {
+            double[] a = errors.interpolated[t];
+            double[] b = errors.atFixes[t];
+            System.out.println(String.format(Locale.US, "%-15s %4s  %-11s %8.1f %6.1f %6.1f   %8.1f %6.1f %6.1f",
+                    t == 0 ? profile : "", t == 0 ? String.format(Locale.US, "%.0f", rateHz) : "", TARGET_NAMES[t],
+                    mean(a), a[(int) (RUNS * 0.95)], a[RUNS - 1], mean(b), b[(int) (RUNS * 0.95)], b[RUNS - 1]));
+        }
+    }
+
+    private static void timeUpdates() {
+        FixBatch fixes = new FixBatch(1024);
+        LaunchRuns.generate(new LaunchRuns.FallingAcceleration(7.0, 75.0), 25.0, LaunchRuns.STANDING_SECONDS,
+                LaunchRuns.SPEED_NOISE, new Random(9L), fixes);
+        PerformanceTimer timer = LaunchRuns.newTimer();
+        SpeedEngine engine = new SpeedEngine(DecimalText.getInstance());
+        double best = Double.MAX_VALUE;
+        double bestEngine = Double.MAX_VALUE;
+        double bestArmed = Double.MAX_VALUE;
+        for (int round = 0; round < 30; round++) {
+            long start = System.nanoTime();
+            for (int k = 0; k < 20; k++) {
+                timer.arm();
+                for (int i = 0; i < fixes.size(); i++) {
+                    sink += timer.update(fixes.get(i));
+                }
+                timer.disarm();
+            }
+            best = Math.min(best, (System.nanoTime() - start) / (20.0 * fixes.size()));
+            for (int armed = 0; armed < 2; armed++) {
+                engine.setRunArmed(armed == 1);
+                start = System.nanoTime();
+                for (int k = 0; k < 20; k++) {
+                    for (int i = 0; i < fixes.size(); i++) {
+                        sink += engine.process(fixes.get(i)).runState;
+                    }
+                }
+                double perFix = (System.nanoTime() - start) / (20.0 * fixes.size());
+                if (armed == 1) {
+                    bestArmed = Math.min(bestArmed, perFix);
+                } else {
+                    bestEngine = Math.min(bestEngine, perFix);
+                }
+            }
+        }
+        System.out.println(String.format(Locale.US, "timer %.0f ns/fix; engine %.0f ns/fix, %.0f ns/fix armed",
+                best, bestEngine, bestArmed));
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0.0;
+        for (double v : values) {
+            sum += v;
+        }
+        return sum / values.length;
+    }
+}
@@ -0,0 +1,37 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.ProviderArbiter;
+import net.mypapit.mobile.speedmeter.engine.ProviderStreams;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Feeds the simulated {@link ProviderStreams} of a cold start, an urban canyon and two
+ * providers of equal accuracy to the receiver alone, every fix as it comes and the
+ * {@link ProviderArbiter}. Reports when the display first shows a fix, how long it shows none
+ * younger than 6 s, how much of the time it shows a speed, the mean accuracy of what it shows
+ * and how often the source changes. Run with
+ * {@code ./gradlew :benchmark:compareProviderArbitration}.
+ */
+public final class ProviderArbitration {
+
+    private ProviderArbitration() {
+    }
+
+    public static void main(String[] args) {
+        System.out.println("scenario     strategy        first s  blind s  speed %  accuracy m  switches   fixes");
+        run("cold start", ProviderStreams.coldStart());
+        run("canyon", ProviderStreams.canyon());
+        run("flapping", ProviderStreams.flapping());
+    }
+
+    private static void run(String scenario, List<ProviderStreams.Event> events) {
+        for (int strategy = 0; strategy < ProviderStreams.STRATEGIES.length; strategy++) {
+            ProviderStreams.Result result = ProviderStreams.run(events, strategy);
+            System.out.println(String.format(Locale.US, "%-12s %-14s %8.1f %8.1f %8.1f %11.1f %9d %7d",
+                    scenario, ProviderStreams.STRATEGIES[strategy], result.firstNanos / 1e9, result.blindNanos / 1e9,
+                    result.speedShare * 100.0, result.meanAccuracy, result.switches, result.fixes));
+        }
+    }
+}
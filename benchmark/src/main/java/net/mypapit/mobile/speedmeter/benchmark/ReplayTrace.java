@@ -0,0 +1,86 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.DecimalText;
+import net.mypapit.mobile.speedmeter.engine.FixPipeline;
+import net.mypapit.mobile.speedmeter.engine.SamplingScheduler;
+import net.mypapit.mobile.speedmeter.engine.SpeedEngine;
+import net.mypapit.mobile.speedmeter.engine.SpeedFilters;
+import net.mypapit.mobile.speedmeter.engine.StageTimer;
+import net.mypapit.mobile.speedmeter.engine.SyntheticTrace;
+import net.mypapit.mobile.speedmeter.engine.replay.ReplayEngine;
+import net.mypapit.mobile.speedmeter.engine.replay.ReplayStats;
+import net.mypapit.mobile.speedmeter.engine.replay.SyntheticTraceSource;
+import net.mypapit.mobile.speedmeter.engine.replay.TraceSource;
+import net.mypapit.mobile.speedmeter.engine.replay.TraceSources;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Replays a trace through the app's processing pipeline on the JVM and prints throughput,
+ * per-stage latency and a digest of the results; equal digests mean equal output.
+ * <p>
+ * Usage: {@code ReplayTrace [trace] [--mode realtime|afap|<factor>x] [--filter <name>]}.
+ * The trace may be an app track, a GPX file or an NMEA log; without one, a two hour synthetic
+ * drive is replayed. The default mode is as fast as possible. Run with
+ * {@code ./gradlew :benchmark:replay -Ptrace=<file> -Pmode=10x}.
+ */
+public final class ReplayTrace {
+
+    private ReplayTrace() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        String path = null;
+        String modeName = "afap";
+        String filter = SpeedFilters.BALANCED;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--mode") && i + 1 < args.length) {
+                modeName = args[++i];
+            } else if (args[i].equals("--filter") && i + 1 < args.length) {
+                filter = args[++i];
+            } else if (!args[i].isEmpty()) {
+                path = args[i];
+            }
+        }
+
+        int mode;
+        double speedUp = 1.0;
+        if (modeName.equals("realtime")) {
+            mode = ReplayEngine.REALTIME;
+        } else if (modeName.equals("afap")) {
+            mode = ReplayEngine.AS_FAST_AS_POSSIBLE;
+        } else if (modeName.endsWith("x")) {
+            mode = ReplayEngine.ACCELERATED;
+            speedUp = Double.parseDouble(modeName.substring(0, modeName.length() - 1));
+        } else {
+            throw new IllegalArgumentException("unknown mode " + modeName);
+        }
+
+        SpeedEngine engine = new SpeedEngine(DecimalText.getInstance());
+        engine.setFilter(SpeedFilters.create(filter));
+        FixPipeline pipeline = new FixPipeline(engine, new SamplingScheduler());
+        TraceSource source = path != null ? TraceSources.open(new File(path))
+                : new SyntheticTraceSource(new SyntheticTrace(1.0, 7L), 7200);
+        ReplayStats stats;
+        try {
+            stats = new ReplayEngine(source, pipeline, mode, speedUp).run();
+        } finally {
+            source.close();
+        }
+
+        System.out.println(String.format(Locale.US, "trace      %s", path != null ? path : "synthetic 2h @ 1 Hz"));
+        System.out.println(String.format(Locale.US, "mode       %s, filter %s", modeName, filter));
+        System.out.println(String.format(Locale.US, "fixes      %d over %.1f s of trace in %.3f s",
+                stats.getFixCount(), stats.getTraceNanos() / 1e9, stats.getWallNanos() / 1e9));
+        System.out.println(String.format(Locale.US, "throughput %.0f fixes/s", stats.getFixesPerSecond()));
+        StageTimer stages = stats.getStages();
+        for (int i = 0; i < stages.size(); i++) {
+            System.out.println(String.format(Locale.US, "  %-10s mean %8.0f ns  max %10d ns  (%d)",
+                    stages.name(i), stages.meanNanos(i), stages.maxNanos(i), stages.count(i)));
+        }
+        System.out.println(String.format(Locale.US, "max speed  %.2f m/s", stats.getMaxSpeed()));
+        System.out.println(String.format(Locale.US, "digest     %016x", stats.getDigest()));
+    }
+}
@@ -0,0 +1,110 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.DecimalText;
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.SamplingScheduler;
+import net.mypapit.mobile.speedmeter.engine.Snapshot;
+import net.mypapit.mobile.speedmeter.engine.SpeedEngine;
+import net.mypapit.mobile.speedmeter.engine.SyntheticTrace;
+
+import java.util.Locale;
+
+/**
+ * Drives {@link SamplingScheduler} with a synthetic two hour drive and a simulated provider
+ * that honours the requested interval and minimum distance, and reports how many fixes were
+ * delivered compared with subscribing at (0 ms, 0 m) for the whole trip.
+ * <p>
+ * The screen is on for the first and last half hour and off in between; the battery drains
+ * from 60% to 10% without a charger. The run is deterministic. Run with
+ * {@code ./gradlew :benchmark:simulateSampling}.
+ */
+public final class SamplingSimulation {
+
+    private static final double DURATION_SECONDS = 7200.0;
+    private static final double EARTH_RADIUS = 6371008.8;
+
+    private SamplingSimulation() {
+    }
+
+    public static void main(String[] args) {
+        System.out.println("receiver  baseline  adaptive  saved  resubscribes  tier share %"
+                + " (realtime/cruise/background/stationary/idle)");
+        for (int rate : new int[]{1, 5, 10}) {
+            run(rate);
+        }
+    }
+
+    private static void run(int rateHz) {
+        SyntheticTrace trace = new SyntheticTrace(rateHz, 11L);
+        SamplingScheduler scheduler = new SamplingScheduler();
+        SpeedEngine engine = new SpeedEngine(DecimalText.getInstance());
+        Fix fix = new Fix();
+        long[] tierNanos = new long[5];
+
+        long baseline = 0;
+        long delivered = 0;
+        int resubscribes = 0;
+        boolean visible = true;
+        int battery = -1;
+        boolean hasDelivered = false;
+        long lastNanos = 0;
+        double lastLatitude = 0;
+        double lastLongitude = 0;
+        long previousNanos = 0;
+
+        int count = (int) (DURATION_SECONDS * rateHz);
+        for (int i = 0; i < count; i++) {
+            trace.next(fix);
+            long now = fix.elapsedNanos;
+            double seconds = now / 1e9;
+            tierNanos[scheduler.getTier()] += now - previousNanos;
+            previousNanos = now;
+            baseline++;
+
+            boolean shouldBeVisible = seconds < 1800 || seconds >= 5400;
+            if (shouldBeVisible != visible) {
+                visible = shouldBeVisible;
+                if (scheduler.setVisible(visible, now)) {
+                    resubscribes++;
+                }
+            }
+            int percent = (int) (60 - 50 * seconds / DURATION_SECONDS);
+            if (percent != battery) {
+                battery = percent;
+                if (scheduler.setBattery(percent, false, now)) {
+                    resubscribes++;
+                }
+            }
+
+            if (hasDelivered) {
+                long interval = scheduler.getIntervalMillis() * 1000000L;
+                double moved = distance(lastLatitude, lastLongitude, fix.latitude, fix.longitude);
+                if (now - lastNanos < interval || moved < scheduler.getMinDistance()) {
+                    continue;
+                }
+            }
+            hasDelivered = true;
+            lastNanos = now;
+            lastLatitude = fix.latitude;
+            lastLongitude = fix.longitude;
+            delivered++;
+
+            Snapshot snapshot = engine.process(fix);
+            if (scheduler.onFix(fix, snapshot.filteredSpeed)) {
+                resubscribes++;
+            }
+        }
+
+        long total = previousNanos;
+        System.out.println(String.format(Locale.US, "%5d Hz  %8d  %8d  %4.0f%%  %12d  %.0f/%.0f/%.0f/%.0f/%.0f",
+                rateHz, baseline, delivered, 100.0 * (baseline - delivered) / baseline, resubscribes,
+                100.0 * tierNanos[0] / total, 100.0 * tierNanos[1] / total, 100.0 * tierNanos[2] / total,
+                100.0 * tierNanos[3] / total, 100.0 * tierNanos[4] / total));
+    }
+
+    private static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double x = Math.toRadians(lon2 - lon1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS;
+    }
+}
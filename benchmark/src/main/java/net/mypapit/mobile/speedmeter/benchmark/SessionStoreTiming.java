@@ -0,0 +1,76 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.SpeedFilter;
+import net.mypapit.mobile.speedmeter.engine.SpeedFilters;
+import net.mypapit.mobile.speedmeter.engine.SyntheticTrace;
+import net.mypapit.mobile.speedmeter.engine.session.SessionState;
+import net.mypapit.mobile.speedmeter.engine.session.SessionStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reports what a {@link SessionStore} save of a two hour trip costs the calling thread
+ * compared with writing synchronously, and how many writes a burst of saves is coalesced into.
+ * Run with {@code ./gradlew :benchmark:timeSessionStore}.
+ */
+public final class SessionStoreTiming {
+
+    private static final int FIXES = 2 * 3600;
+    private static final int SAVES = 2000;
+
+    private SessionStoreTiming() {
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        File directory = Files.createTempDirectory("session").toFile();
+        File file = new File(directory, "session");
+        SessionState state = trip();
+
+        SessionStore store = new SessionStore(file, Runnable::run);
+        long syncNanos = Long.MAX_VALUE;
+        for (int i = 0; i < 20; i++) {
+            long start = System.nanoTime();
+            state.savedAt = i;
+            store.save(state);
+            syncNanos = Math.min(syncNanos, System.nanoTime() - start);
+        }
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        SessionStore async = new SessionStore(file, executor);
+        long start = System.nanoTime();
+        for (int i = 0; i < SAVES; i++) {
+            state.savedAt = i;
+            async.save(state);
+        }
+        long asyncNanos = (System.nanoTime() - start) / SAVES;
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        System.out.println(String.format(Locale.US,
+                "synchronous write %.2f ms, save() %d ns on the caller, %d saves coalesced into %d writes",
+                syncNanos / 1e6, asyncNanos, SAVES, async.getWriteCount()));
+
+        file.delete();
+        directory.delete();
+    }
+
+    private static SessionState trip() {
+        SessionState state = new SessionState();
+        SyntheticTrace trace = new SyntheticTrace(1.0, 5L);
+        SpeedFilter filter = SpeedFilters.create(SpeedFilters.BALANCED);
+        Fix fix = new Fix();
+        for (int i = 0; i < FIXES; i++) {
+            trace.next(fix);
+            state.tripStats.update(fix, filter.update(fix));
+        }
+        state.maxSpeed = state.tripStats.getMaxSpeed();
+        state.tripStartTime = 1700000000000L;
+        state.savedAt = 1700000000000L + FIXES * 1000L;
+        return state;
+    }
+}
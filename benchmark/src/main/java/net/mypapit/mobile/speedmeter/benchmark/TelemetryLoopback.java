@@ -0,0 +1,50 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.telemetry.LoopbackRun;
+import net.mypapit.mobile.speedmeter.engine.telemetry.TelemetryClient;
+import net.mypapit.mobile.speedmeter.engine.telemetry.TelemetryPublisher;
+
+import java.util.Locale;
+
+/**
+ * Times a {@link TelemetryPublisher} on the loopback interface with a TCP and a UDP
+ * {@link TelemetryClient}, and a third TCP client that reads nothing until publishing ends.
+ * Snapshots are published as fast as one thread can, for the throughput, and then at 1 kHz, a
+ * hundred times the fastest receiver, to time the way to the clients. Reports the frames each
+ * client got and lost, their latency, and what publishing costs in wall and CPU time. Run with
+ * {@code ./gradlew :benchmark:timeTelemetry}.
+ */
+public final class TelemetryLoopback {
+
+    private static final long SECOND = 1000000000L;
+
+    private TelemetryLoopback() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.out.println("run        published/s  ring drops  client    frames/s  lost  p50 us  p99 us  max us"
+                + "  publish p50/p99 us  cpu p99 us");
+        print("flat out", LoopbackRun.run(0, SECOND));
+        print("1 kHz", LoopbackRun.run(SECOND / 1000, 3 * SECOND));
+    }
+
+    private static void print(String name, LoopbackRun run) {
+        double seconds = (double) run.elapsedNanos / SECOND;
+        print(name, run.published / seconds, run.dropped, "tcp", run.tcp, seconds, run);
+        print("", Double.NaN, -1, "udp", run.udp, seconds, null);
+        print("", Double.NaN, -1, "stalled", run.stalled, seconds, null);
+        System.out.println(String.format(Locale.US, "%-10s frames dropped for slow clients: %d", "", run.lagging));
+    }
+
+    private static void print(String name, double publishedPerSecond, long dropped, String client,
+                              LoopbackRun.Reader reader, double seconds, LoopbackRun run) {
+        System.out.println(String.format(Locale.US, "%-10s %11s %11s  %-8s %9.0f %5d %7.1f %7.1f %7.1f %s",
+                name, Double.isNaN(publishedPerSecond) ? "" : String.format(Locale.US, "%.0f", publishedPerSecond),
+                dropped < 0 ? "" : Long.toString(dropped), client, reader.count / seconds, reader.lost,
+                reader.latency.percentileNanos(0.5) / 1e3, reader.latency.percentileNanos(0.99) / 1e3,
+                reader.latency.getMaxNanos() / 1e3,
+                run == null ? "" : String.format(Locale.US, "  %7.2f/%-8.2f %12.2f",
+                        run.publishCost.percentileNanos(0.5) / 1e3, run.publishCost.percentileNanos(0.99) / 1e3,
+                        run.publishCpu.percentileNanos(0.99) / 1e3)));
+    }
+}
@@ -0,0 +1,47 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.SyntheticTrace;
+import net.mypapit.mobile.speedmeter.engine.track.TrackWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Records synthetic trips to track files and compares their size with CSV holding the same
+ * fields at the same precision. Run with {@code ./gradlew :benchmark:compareTrackSize}.
+ */
+public final class TrackSizeComparison {
+
+    private TrackSizeComparison() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.out.println("trip         fixes   track bytes  bytes/fix   csv bytes  ratio");
+        run(1, 4);
+        run(10, 4);
+        run(1, 24);
+    }
+
+    private static void run(int rateHz, int hours) throws IOException {
+        File file = File.createTempFile("trip", ".trk");
+        file.delete();
+        SyntheticTrace trace = new SyntheticTrace(rateHz, 5L);
+        Fix fix = new Fix();
+        long csv = 0;
+        int count = hours * 3600 * rateHz;
+        try (TrackWriter writer = TrackWriter.open(file, 0L)) {
+            for (int i = 0; i < count; i++) {
+                trace.next(fix);
+                writer.append(fix);
+                csv += String.format(Locale.US, "%d,%.7f,%.7f,%.2f,%.2f,%.1f\n", fix.time,
+                        fix.latitude, fix.longitude, fix.speed, fix.bearing, fix.accuracy).length();
+            }
+        }
+        long size = file.length();
+        file.delete();
+        System.out.println(String.format(Locale.US, "%2dh @ %2d Hz  %7d  %12d  %9.1f  %10d  %5.1fx",
+                hours, rateHz, count, size, size / (double) count, csv, csv / (double) size));
+    }
+}
@@ -0,0 +1,208 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.SyntheticTrace;
+import net.mypapit.mobile.speedmeter.engine.TripStats;
+import net.mypapit.mobile.speedmeter.engine.history.RouteSimplifier;
+import net.mypapit.mobile.speedmeter.engine.history.TripDatabase;
+import net.mypapit.mobile.speedmeter.engine.history.TripSummarizer;
+import net.mypapit.mobile.speedmeter.engine.history.TripSummary;
+import net.mypapit.mobile.speedmeter.engine.history.TripTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Times the trip history. Reports the size of the simplified route and the time per fix of
+ * {@link TripSummarizer} for a ten hour drive at 10 Hz, which reaches the cap on points.
+ * <p>
+ * The database part runs the app's schema and statements, {@link TripTable}, on SQLite in
+ * write-ahead logging mode with 10,000 trips: it reports the trips inserted a second with a
+ * transaction per trip and in batches of 100 as the app imports them, and the time per page of
+ * 50 trips newest and longest first, read from where the previous page ended, next to reading
+ * by offset. Run with {@code ./gradlew :benchmark:timeTripHistory}.
+ */
+public final class TripHistoryTiming {
+
+    private static final int TRIPS = 10000;
+    private static final int BATCH = 100;
+    private static final int PAGE_SIZE = 50;
+
+    /** Keeps the timed loops from being optimized away */
+    private static volatile long sink;
+
+    private TripHistoryTiming() {
+    }
+
+    public static void main(String[] args) throws IOException, SQLException {
+        List<String> routes = timeSummaries();
+        System.out.println();
+        // sqlite-jdbc comes with the benchmark's runtime class path; without it this fails
+        try (Connection db = DriverManager.getConnection("jdbc:sqlite:" + tempFile("history", ".db").getPath())) {
+            timeDatabase(db, routes);
+        }
+    }
+
+    /**
+     * @return routes of drives of different lengths, to fill the database with
+     */
+    private static List<String> timeSummaries() {
+        TripSummarizer summarizer = new TripSummarizer();
+        SyntheticTrace trace = new SyntheticTrace(10.0, 26L);
+        int longFixes = 360000;
+        Fix[] longDrive = new Fix[longFixes];
+        for (int i = 0; i < longFixes; i++) {
+            longDrive[i] = trace.next(new Fix());
+        }
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            summarizer.reset();
+            long start = System.nanoTime();
+            for (Fix f : longDrive) {
+                summarizer.update(f);
+            }
+            best = Math.min(best, (System.nanoTime() - start) / (double) longFixes);
+        }
+        TripSummary longTrip = new TripSummary();
+        long start = System.nanoTime();
+        summarizer.fill(longTrip, new TripStats());
+        long fillNanos = System.nanoTime() - start;
+        System.out.println(String.format(Locale.US, "10 h at 10 Hz: %d fixes, %d points of at most %d, %d bytes, "
+                        + "tolerance %.0f m; %.0f ns/fix, summary filled in %d us", longFixes, longTrip.points,
+                RouteSimplifier.MAX_POINTS + 1, longTrip.polyline.length(), summarizer.getRoute().getTolerance(),
+                best, fillNanos / 1000L));
+
+        List<String> routes = new ArrayList<>();
+        routes.add(longTrip.polyline);
+        Fix fix = new Fix();
+        for (int i = 0; i < 9; i++) {
+            summarizer.reset();
+            trace = new SyntheticTrace(1.0, 100L + i);
+            for (int k = 0; k < 300 * (i + 1); k++) {
+                summarizer.update(trace.next(fix));
+            }
+            TripSummary trip = new TripSummary();
+            summarizer.fill(trip, new TripStats());
+            routes.add(trip.polyline);
+        }
+        return routes;
+    }
+
+    private static void timeDatabase(Connection db, List<String> routes) throws SQLException {
+        TripDatabase.create(db);
+        TripSummary[] trips = TripDatabase.trips(TRIPS, routes, 25L);
+
+        int single = 500;
+        long start = System.nanoTime();
+        try (PreparedStatement upsert = db.prepareStatement(TripTable.UPSERT)) {
+            for (int i = 0; i < single; i++) {
+                TripDatabase.bind(upsert, trips[i]);
+                upsert.executeUpdate();
+                db.commit();
+            }
+        }
+        double singleRate = single / ((System.nanoTime() - start) / 1e9);
+        start = System.nanoTime();
+        try (PreparedStatement upsert = db.prepareStatement(TripTable.UPSERT)) {
+            for (int i = single; i < TRIPS; i++) {
+                TripDatabase.bind(upsert, trips[i]);
+                upsert.executeUpdate();
+                if ((i - single + 1) % BATCH == 0 || i == TRIPS - 1) {
+                    db.commit();
+                }
+            }
+        }
+        double batchRate = (TRIPS - single) / ((System.nanoTime() - start) / 1e9);
+        System.out.println(String.format(Locale.US, "insert: %.0f trips/s a transaction each, %.0f trips/s in batches of %d",
+                singleRate, batchRate, BATCH));
+
+        System.out.println();
+        System.out.println("page of 50          first ms   p50 ms   p99 ms   max ms   last ms");
+        for (int round = 0; round < 3; round++) {
+            boolean last = round == 2;
+            walk(db, false, last, "newest, keyset");
+            walk(db, true, last, "longest, keyset");
+            walkByOffset(db, last, "newest, offset");
+        }
+    }
+
+    /**
+     * Reads every page as the history screen does, each from the last trip of the one before.
+     */
+    private static void walk(Connection db, boolean byDistance, boolean print, String name) throws SQLException {
+        List<Long> nanos = new ArrayList<>();
+        long[] startTimes = new long[PAGE_SIZE];
+        TripSummary row = new TripSummary();
+        TripSummary after = null;
+        try (PreparedStatement page = db.prepareStatement(byDistance ? TripTable.PAGE_BY_DISTANCE
+                : TripTable.PAGE_BY_TIME)) {
+            while (true) {
+                long start = System.nanoTime();
+                int read = TripDatabase.readPage(page, byDistance, after, PAGE_SIZE, startTimes, 0, row);
+                nanos.add(System.nanoTime() - start);
+                sink += startTimes[0];
+                if (read < PAGE_SIZE) {
+                    break;
+                }
+                if (after == null) {
+                    after = new TripSummary();
+                }
+                after.copyFrom(row);
+            }
+        }
+        report(print, name, nanos);
+    }
+
+    private static void walkByOffset(Connection db, boolean print, String name) throws SQLException {
+        List<Long> nanos = new ArrayList<>();
+        try (PreparedStatement page = db.prepareStatement("SELECT " + TripTable.TOTALS + " FROM " + TripTable.TABLE
+                + " ORDER BY " + TripTable.START_TIME + " DESC LIMIT ? OFFSET ?")) {
+            for (int offset = 0; offset < TRIPS; offset += PAGE_SIZE) {
+                long start = System.nanoTime();
+                page.setInt(1, PAGE_SIZE);
+                page.setInt(2, offset);
+                try (ResultSet rows = page.executeQuery()) {
+                    while (rows.next()) {
+                        sink += rows.getLong(1);
+                    }
+                }
+                nanos.add(System.nanoTime() - start);
+            }
+        }
+        report(print, name, nanos);
+    }
+
+    private static void report(boolean print, String name, List<Long> nanos) {
+        if (!print) {
+            return;
+        }
+        long[] sorted = new long[nanos.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = nanos.get(i);
+        }
+        long first = sorted[0];
+        long last = sorted[sorted.length - 1];
+        Arrays.sort(sorted);
+        System.out.println(String.format(Locale.US, "%-18s %8.3f %8.3f %8.3f %8.3f %9.3f", name, first / 1e6,
+                sorted[sorted.length / 2] / 1e6, sorted[(int) (sorted.length * 0.99)] / 1e6,
+                sorted[sorted.length - 1] / 1e6, last / 1e6));
+    }
+
+    private static File tempFile(String prefix, String suffix) throws IOException {
+        File file = Files.createTempFile(prefix, suffix).toFile();
+        file.deleteOnExit();
+        new File(file.getPath() + "-wal").deleteOnExit();
+        new File(file.getPath() + "-shm").deleteOnExit();
+        return file;
+    }
+}
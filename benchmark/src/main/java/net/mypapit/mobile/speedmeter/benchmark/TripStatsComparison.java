@@ -0,0 +1,105 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.SpeedFilter;
+import net.mypapit.mobile.speedmeter.engine.SpeedFilters;
+import net.mypapit.mobile.speedmeter.engine.SyntheticTrace;
+import net.mypapit.mobile.speedmeter.engine.TripStats;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Runs {@link TripStats} over synthetic drives where the true path is known and compares its
+ * distance, maximum speed and speed percentiles with the truth. One fix in 500 gets a speed
+ * spike of 20 to 60 m/s added, to show what the raw maximum the app used to keep would have
+ * recorded. The last row drops two minutes of fixes every twenty, as in tunnels; the true
+ * distance then leaves out what was driven in the gaps, which is not known. Run with {@code ./gradlew :benchmark:compareTripStats}.
+ */
+public final class TripStatsComparison {
+
+    private static final double DURATION_SECONDS = 2 * 3600.0;
+    private static final int SPIKE_EVERY = 500;
+    private static final double GAP_EVERY_SECONDS = 1200.0;
+    private static final double GAP_SECONDS = 120.0;
+
+    private TripStatsComparison() {
+    }
+
+    public static void main(String[] args) {
+        System.out.println("rate        distance km (true)  max m/s (true, raw)  p50 m/s (true)  p95 m/s (true)  ns/fix");
+        for (int rate : new int[]{1, 10}) {
+            run(rate, false);
+        }
+        run(10, true);
+    }
+
+    private static void run(int rate, boolean gaps) {
+        int count = (int) (DURATION_SECONDS * rate);
+        SyntheticTrace trace = new SyntheticTrace(rate, 13L);
+        SpeedFilter filter = SpeedFilters.create(SpeedFilters.BALANCED);
+        TripStats stats = new TripStats();
+        Random random = new Random(1L);
+        Fix fix = new Fix();
+        float[] filtered = new float[count];
+        Fix[] fixes = new Fix[count];
+
+        double trueDistance = 0;
+        double trueMax = 0;
+        float rawMax = 0;
+        float[] movingTruth = new float[count];
+        int moving = 0;
+        double dt = 1.0 / rate;
+        int fed = 0;
+        boolean inGap = false;
+        for (int i = 0; i < count; i++) {
+            trace.next(fix);
+            double truth = trace.getTrueSpeed();
+            boolean wasInGap = inGap;
+            inGap = gaps && (i * dt) % GAP_EVERY_SECONDS >= GAP_EVERY_SECONDS - GAP_SECONDS;
+            if (inGap) {
+                continue;
+            }
+            if (!wasInGap) {
+                trueDistance += truth * dt;
+            }
+            trueMax = Math.max(trueMax, truth);
+            if (truth >= TripStats.MOVING_SPEED) {
+                movingTruth[moving++] = (float) truth;
+            }
+            if (i % SPIKE_EVERY == SPIKE_EVERY - 1) {
+                fix.speed += 20.0f + 40.0f * random.nextFloat();
+            }
+            rawMax = Math.max(rawMax, fix.speed);
+            filtered[fed] = filter.update(fix);
+            fixes[fed] = new Fix();
+            fixes[fed].copyFrom(fix);
+            fed++;
+        }
+
+        // warm up, then time the update alone
+        for (int round = 0; round < 5; round++) {
+            stats.reset();
+            for (int i = 0; i < fed; i++) {
+                stats.update(fixes[i], filtered[i]);
+            }
+        }
+        stats.reset();
+        long start = System.nanoTime();
+        for (int i = 0; i < fed; i++) {
+            stats.update(fixes[i], filtered[i]);
+        }
+        long nanos = System.nanoTime() - start;
+
+        float[] sorted = Arrays.copyOf(movingTruth, moving);
+        Arrays.sort(sorted);
+        System.out.println(String.format(Locale.US,
+                "%2d Hz%-6s  %7.2f (%7.2f)      %5.1f (%4.1f, %4.1f)     %5.1f (%4.1f)     %5.1f (%4.1f)   %5.0f",
+                rate, gaps ? ", gaps" : "", stats.getDistance() / 1000, trueDistance / 1000,
+                stats.getMaxSpeed(), trueMax, rawMax,
+                stats.getSpeedPercentile(0.5), sorted[(int) (0.5 * (moving - 1))],
+                stats.getSpeedPercentile(0.95), sorted[(int) (0.95 * (moving - 1))],
+                nanos / (double) fed));
+    }
+}
@@ -0,0 +1,83 @@
+package net.mypapit.mobile.speedmeter.benchmark;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.zone.SpeedLimitMonitor;
+import net.mypapit.mobile.speedmeter.engine.zone.ZoneBuilder;
+import net.mypapit.mobile.speedmeter.engine.zone.ZoneGrid;
+import net.mypapit.mobile.speedmeter.engine.zone.ZoneIndex;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Times {@link ZoneIndex} on a synthetic city of 320,800 road segments. Reports build time,
+ * file size, the latency distribution of uncached lookups at random positions, and how many
+ * fixes of a drive along the streets need a lookup at all. Run with
+ * {@code ./gradlew :benchmark:timeZoneIndex}.
+ */
+public final class ZoneIndexTiming {
+
+    private static final int BLOCKS = 400;
+    private static final int TIMED = 1000000;
+    private static final int DRIVE_FIXES = 100000;
+
+    private ZoneIndexTiming() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        File directory = Files.createTempDirectory("zones").toFile();
+        File file = new File(directory, "zones.spz");
+        ZoneGrid grid = new ZoneGrid(BLOCKS);
+        ZoneBuilder builder = grid.build();
+        long start = System.nanoTime();
+        builder.write(file);
+        System.out.println(String.format(Locale.US, "%d segments, built in %.0f ms, %.1f MB",
+                builder.size(), (System.nanoTime() - start) / 1e6, file.length() / 1e6));
+
+        try (ZoneIndex index = ZoneIndex.open(file)) {
+            double[] positions = grid.randomPositions(2L, TIMED);
+            long[] nanos = new long[TIMED];
+            int found = 0;
+            for (int i = 0; i < TIMED; i++) {
+                long t = System.nanoTime();
+                if (index.nearest(positions[2 * i], positions[2 * i + 1], SpeedLimitMonitor.MATCH_DISTANCE) >= 0) {
+                    found++;
+                }
+                nanos[i] = System.nanoTime() - t;
+            }
+            Arrays.sort(nanos);
+            long total = 0;
+            for (long n : nanos) {
+                total += n;
+            }
+            System.out.println(String.format(Locale.US,
+                    "uncached lookup: mean %.0f ns, median %d ns, p99 %d ns, p99.99 %d ns, max %d ns (%d%% on a road)",
+                    (double) total / TIMED, nanos[TIMED / 2], nanos[TIMED - TIMED / 100],
+                    nanos[TIMED - TIMED / 10000], nanos[TIMED - 1], 100L * found / TIMED));
+
+            SpeedLimitMonitor monitor = new SpeedLimitMonitor(index);
+            positions = grid.drivePositions(3L, DRIVE_FIXES);
+            Fix fix = new Fix();
+            int matched = 0;
+            long t = System.nanoTime();
+            for (int i = 0; i < DRIVE_FIXES; i++) {
+                fix.set(i * 1000000000L, i * 1000L, positions[2 * i], positions[2 * i + 1], 15.0f, Float.NaN, 5.0f);
+                monitor.update(fix, 15.0f);
+                if (!Float.isNaN(monitor.getLimit())) {
+                    matched++;
+                }
+            }
+            long driveNanos = System.nanoTime() - t;
+            System.out.println(String.format(Locale.US,
+                    "drive: %.0f ns per fix, %d of %d fixes matched, lookups for %.1f%% of fixes",
+                    (double) driveNanos / DRIVE_FIXES, matched, DRIVE_FIXES,
+                    100.0 * monitor.getLookups() / DRIVE_FIXES));
+        }
+
+        file.delete();
+        directory.delete();
+    }
+}
@@ -0,0 +1,98 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+/**
+ * UTC date arithmetic for the trace and sentence parsers, without java.time, which is not
+ * available before Android 8.
+ */
+public final class CivilTime {
+
+    /** Returned by {@link #parseIso(CharSequence)} for text that is not an ISO 8601 time */
+    public static final long INVALID = Long.MIN_VALUE;
+
+    private CivilTime() {
+    }
+
+    /**
+     * @return days since 1970-01-01 of a date in the proleptic Gregorian calendar
+     */
+    public static long daysFromCivil(long year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yoe = year - era * 400;
+        long doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+        return era * 146097 + doe - 719468;
+    }
+
+    public static long toMillis(long year, int month, int day, int hour, int minute, int second, int millis) {
+        return ((daysFromCivil(year, month, day) * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis;
+    }
+
+    /**
+     * Parses an ISO 8601 date-time such as {@code 2017-07-14T02:40:00Z},
+     * {@code 2017-07-14T02:40:00.125Z} or {@code 2017-07-14T10:40:00+08:00}. A time without a
+     * zone is taken as UTC.
+     *
+     * @return milliseconds since the epoch, or {@link #INVALID}
+     */
+    public static long parseIso(CharSequence s) {
+        int n = s.length();
+        if (n < 19 || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T'
+                || s.charAt(13) != ':' || s.charAt(16) != ':') {
+            return INVALID;
+        }
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 2);
+        int day = digits(s, 8, 2);
+        int hour = digits(s, 11, 2);
+        int minute = digits(s, 14, 2);
+        int second = digits(s, 17, 2);
+        if ((year | month | day | hour | minute | second) < 0) {
+            return INVALID;
+        }
+        int i = 19;
+        int millis = 0;
+        if (i < n && s.charAt(i) == '.') {
+            int scale = 100;
+            for (i++; i < n && isDigit(s.charAt(i)); i++) {
+                millis += (s.charAt(i) - '0') * scale;
+                scale /= 10;
+            }
+        }
+        long offsetMillis = 0;
+        if (i < n && (s.charAt(i) == '+' || s.charAt(i) == '-')) {
+            if (i + 6 > n || s.charAt(i + 3) != ':') {
+                return INVALID;
+            }
+            int offsetHours = digits(s, i + 1, 2);
+            int offsetMinutes = digits(s, i + 4, 2);
+            if ((offsetHours | offsetMinutes) < 0) {
+                return INVALID;
+            }
+            offsetMillis = (offsetHours * 60L + offsetMinutes) * 60000L;
+            if (s.charAt(i) == '-') {
+                offsetMillis = -offsetMillis;
+            }
+        }
+        return toMillis(year, month, day, hour, minute, second, millis) - offsetMillis;
+    }
+
+    /**
+     * @return the value of a run of decimal digits, or -1 if any of them is not a digit
+     */
+    public static int digits(CharSequence s, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            char c = s.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
@@ -0,0 +1,50 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+/**
+ * Maps a bearing in degrees onto the named compass points shown in the heading field. Each
+ * point covers the 45 degrees centered on it, looked up from a table by half degree.
+ */
+public final class Compass {
+
+    /** Sector returned when the bearing is missing or out of range */
+    public static final int NONE = 8;
+
+    private static final String[] NAMES = {
+            "North", "North-East", "East", "South-East",
+            "South", "South-West", "West", "North-West", "NIL"
+    };
+
+    private static final int STEPS_PER_DEGREE = 2;
+    private static final byte[] SECTORS = new byte[361 * STEPS_PER_DEGREE];
+
+    static {
+        // sector boundaries fall on odd multiples of 22.5 degrees, whole steps of the table
+        int stepsPerSector = 45 * STEPS_PER_DEGREE;
+        for (int i = 0; i < SECTORS.length; i++) {
+            SECTORS[i] = (byte) ((i + stepsPerSector / 2) / stepsPerSector % 8);
+        }
+    }
+
+    private Compass() {
+    }
+
+    /**
+     * @param bearing bearing in degrees, 0 to 360
+     * @return the compass sector, 0 (North) to 7 (North-West), or {@link #NONE} for NaN or a
+     *         bearing out of range
+     */
+    public static int sector(double bearing) {
+        if (!(bearing >= 0.0 && bearing < 361.0)) {
+            return NONE;
+        }
+        return SECTORS[(int) (bearing * STEPS_PER_DEGREE)];
+    }
+
+    /**
+     * @param sector a value returned by {@link #sector(double)}
+     * @return the display name of the sector
+     */
+    public static String name(int sector) {
+        return NAMES[sector];
+    }
+}
@@ -0,0 +1,98 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+import java.text.DecimalFormatSymbols;
+
+/**
+ * Formats numbers into caller-supplied char arrays, producing the same text as a
+ * {@link java.text.NumberFormat} number instance with a maximum number of fraction digits,
+ * but without allocating anything per call.
+ */
+public final class DecimalText {
+
+    public static final int MAX_FRACTION_DIGITS = 8;
+
+    /** Longest text this formatter produces: sign, 19 digits, 6 group separators, point, fraction */
+    public static final int MAX_LENGTH = 1 + 19 + 6 + 1 + MAX_FRACTION_DIGITS;
+
+    private static final long[] POW10 = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L
+    };
+
+    private final char decimalSeparator;
+    private final char groupingSeparator;
+    private final char[] digits = new char[20];
+
+    /**
+     * @param decimalSeparator  character placed between the integer and fraction part
+     * @param groupingSeparator character placed between thousands, or 0 for no grouping
+     */
+    public DecimalText(char decimalSeparator, char groupingSeparator) {
+        this.decimalSeparator = decimalSeparator;
+        this.groupingSeparator = groupingSeparator;
+    }
+
+    /**
+     * @return a formatter using the separators of the default locale
+     */
+    public static DecimalText getInstance() {
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance();
+        return new DecimalText(symbols.getDecimalSeparator(), symbols.getGroupingSeparator());
+    }
+
+    public char getDecimalSeparator() {
+        return decimalSeparator;
+    }
+
+    /**
+     * Writes the value rounded half-even to at most {@code fractionDigits} decimals. Trailing zeros in the
+     * fraction are dropped, as NumberFormat does.
+     *
+     * @param value          value to format
+     * @param fractionDigits maximum number of fraction digits, 0 to {@link #MAX_FRACTION_DIGITS}
+     * @param out            destination buffer, at least {@link #MAX_LENGTH} chars from offset
+     * @param offset         position in out of the first char
+     * @return the number of chars written
+     */
+    public int format(double value, int fractionDigits, char[] out, int offset) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            out[offset] = '-';
+            return 1;
+        }
+        long scale = POW10[fractionDigits];
+        long scaled = (long) Math.rint(Math.abs(value) * scale);
+        long integer = scaled / scale;
+        long fraction = scaled % scale;
+
+        int pos = offset;
+        if (value < 0.0 && scaled != 0) {
+            out[pos++] = '-';
+        }
+
+        int count = 0;
+        do {
+            digits[count++] = (char) ('0' + (integer % 10));
+            integer /= 10;
+        } while (integer != 0);
+        for (int i = count - 1; i >= 0; i--) {
+            out[pos++] = digits[i];
+            if (groupingSeparator != 0 && i > 0 && i % 3 == 0) {
+                out[pos++] = groupingSeparator;
+            }
+        }
+
+        if (fraction != 0) {
+            int used = fractionDigits;
+            while (fraction % 10 == 0) {
+                fraction /= 10;
+                used--;
+            }
+            out[pos++] = decimalSeparator;
+            for (int i = used - 1; i >= 0; i--) {
+                out[pos + i] = (char) ('0' + (fraction % 10));
+                fraction /= 10;
+            }
+            pos += used;
+        }
+        return pos - offset;
+    }
+}
@@ -0,0 +1,73 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+/**
+ * A single position fix, held as primitives so that one instance can be refilled for every
+ * update coming from the location provider instead of allocating a new object per fix.
+ */
+public final class Fix {
+
+    /** Monotonic timestamp of the fix, in nanoseconds (elapsedRealtimeNanos on Android) */
+    public long elapsedNanos;
+    /** UTC wall-clock time of the fix, in milliseconds since the epoch */
+    public long time;
+    public double latitude;
+    public double longitude;
+    /** Speed over ground in meters/second */
+    public float speed;
+    /** Bearing in degrees, 0 (inclusive) to 360 (exclusive) */
+    public float bearing;
+    /** Estimated horizontal accuracy radius in meters */
+    public float accuracy;
+    /** Estimated speed accuracy in meters/second, when the receiver reports one */
+    public float speedAccuracy;
+    public boolean hasSpeed;
+    public boolean hasBearing;
+    public boolean hasAccuracy;
+    public boolean hasSpeedAccuracy;
+
+    /**
+     * Fills in every field of this fix. Optional values are marked absent by passing NaN.
+     * The speed accuracy is cleared; set it afterwards with {@link #setSpeedAccuracy(float)}.
+     *
+     * @return this fix, for chaining
+     */
+    public Fix set(long elapsedNanos, long time, double latitude, double longitude,
+                   float speed, float bearing, float accuracy) {
+        this.elapsedNanos = elapsedNanos;
+        this.time = time;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.hasSpeed = !Float.isNaN(speed);
+        this.speed = hasSpeed ? speed : 0.0f;
+        this.hasBearing = !Float.isNaN(bearing);
+        this.bearing = hasBearing ? bearing : 0.0f;
+        this.hasAccuracy = !Float.isNaN(accuracy);
+        this.accuracy = hasAccuracy ? accuracy : 0.0f;
+        this.hasSpeedAccuracy = false;
+        this.speedAccuracy = 0.0f;
+        return this;
+    }
+
+    public void setSpeedAccuracy(float speedAccuracy) {
+        this.hasSpeedAccuracy = !Float.isNaN(speedAccuracy);
+        this.speedAccuracy = hasSpeedAccuracy ? speedAccuracy : 0.0f;
+    }
+
+    /**
+     * Copies every field of another fix into this one.
+     */
+    public void copyFrom(Fix other) {
+        elapsedNanos = other.elapsedNanos;
+        time = other.time;
+        latitude = other.latitude;
+        longitude = other.longitude;
+        speed = other.speed;
+        bearing = other.bearing;
+        accuracy = other.accuracy;
+        speedAccuracy = other.speedAccuracy;
+        hasSpeed = other.hasSpeed;
+        hasBearing = other.hasBearing;
+        hasAccuracy = other.hasAccuracy;
+        hasSpeedAccuracy = other.hasSpeedAccuracy;
+    }
+}
@@ -0,0 +1,55 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+/**
+ * An ordered batch of fixes delivered together, e.g. by a provider that batches updates in
+ * the background. The {@link Fix} instances are kept and refilled, so a batch that is
+ * cleared and filled again does not allocate once it has grown to its working size.
+ * Not thread-safe.
+ */
+public final class FixBatch {
+
+    private Fix[] fixes;
+    private int size;
+
+    public FixBatch(int initialCapacity) {
+        fixes = new Fix[Math.max(1, initialCapacity)];
+    }
+
+    /**
+     * Appends a fix to the batch.
+     *
+     * @return the fix to fill in
+     */
+    public Fix add() {
+        if (size == fixes.length) {
+            Fix[] grown = new Fix[size * 2];
+            System.arraycopy(fixes, 0, grown, 0, size);
+            fixes = grown;
+        }
+        Fix fix = fixes[size];
+        if (fix == null) {
+            fix = fixes[size] = new Fix();
+        }
+        size++;
+        return fix;
+    }
+
+    public Fix get(int index) {
+        if (index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        return fixes[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,170 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+import net.mypapit.mobile.speedmeter.engine.track.TrackWriter;
+
+import java.io.IOException;
+
+/**
+ * The per-fix processing path shared by the live service and replay: the {@link SpeedEngine},
+ * then the track recorder, then the {@link SamplingScheduler}. Keeping the stages in one place
+ * means a replayed trace goes through exactly the code a live fix does.
+ * <p>
+ * A {@link StageTimer} can be attached to measure each stage. Not thread-safe.
+ */
+public final class FixPipeline {
+
+    public static final int STAGE_ENGINE = 0;
+    public static final int STAGE_TRACK = 1;
+    public static final int STAGE_SCHEDULER = 2;
+    public static final String[] STAGE_NAMES = {"engine", "track", "scheduler"};
+
+    /** {@link #process(Fix)} flag: the sampling tier changed, re-subscribe the provider */
+    public static final int RESUBSCRIBE = 1;
+    /** {@link #process(Fix)} flag: writing the track failed and it has been closed */
+    public static final int TRACK_FAILED = 2;
+
+    private final SpeedEngine engine;
+    private final SamplingScheduler scheduler;
+    private TrackWriter track;
+    private IOException trackError;
+    private StageTimer timer;
+
+    public FixPipeline(SpeedEngine engine, SamplingScheduler scheduler) {
+        this.engine = engine;
+        this.scheduler = scheduler;
+    }
+
+    public SpeedEngine getEngine() {
+        return engine;
+    }
+
+    public SamplingScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * @param track writer to record fixes to, or null to stop recording; the pipeline closes
+     *              it only if a write fails
+     */
+    public void setTrack(TrackWriter track) {
+        this.track = track;
+    }
+
+    public TrackWriter getTrack() {
+        return track;
+    }
+
+    /**
+     * @return the error that stopped recording, once; null if there was none since the last call
+     */
+    public IOException takeTrackError() {
+        IOException e = trackError;
+        trackError = null;
+        return e;
+    }
+
+    /**
+     * @param timer timer to record stage durations to, or null to stop measuring
+     */
+    public void setTimer(StageTimer timer) {
+        this.timer = timer;
+    }
+
+    /**
+     * Runs one fix through every stage. The result is in {@link SpeedEngine#snapshot()}.
+     *
+     * @return a combination of {@link #RESUBSCRIBE} and {@link #TRACK_FAILED}, 0 if neither
+     */
+    public int process(Fix fix) {
+        StageTimer timer = this.timer;
+        if (timer == null) {
+            return processStages(fix);
+        }
+        long t0 = System.nanoTime();
+        Snapshot snapshot = engine.process(fix);
+        long t1 = System.nanoTime();
+        int result = record(fix);
+        long t2 = System.nanoTime();
+        if (scheduler.onFix(fix, snapshot.filteredSpeed)) {
+            result |= RESUBSCRIBE;
+        }
+        long t3 = System.nanoTime();
+        timer.record(STAGE_ENGINE, t1 - t0);
+        if (track != null || (result & TRACK_FAILED) != 0) {
+            timer.record(STAGE_TRACK, t2 - t1);
+        }
+        timer.record(STAGE_SCHEDULER, t3 - t2);
+        return result;
+    }
+
+    /**
+     * Runs a batch of fixes through every stage in a single pass. The outcome is the same as
+     * processing the fixes one by one, except that the snapshot text is only formatted once,
+     * for the last fix. Stage times are recorded once per batch.
+     *
+     * @return a combination of {@link #RESUBSCRIBE} and {@link #TRACK_FAILED}, 0 if neither
+     */
+    public int process(FixBatch batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        StageTimer timer = this.timer;
+        long engineNanos = 0;
+        long trackNanos = 0;
+        long schedulerNanos = 0;
+        int result = 0;
+        for (int i = 0, size = batch.size(); i < size; i++) {
+            Fix fix = batch.get(i);
+            long t0 = timer != null ? System.nanoTime() : 0L;
+            Snapshot snapshot = engine.update(fix);
+            long t1 = timer != null ? System.nanoTime() : 0L;
+            result |= record(fix);
+            long t2 = timer != null ? System.nanoTime() : 0L;
+            if (scheduler.onFix(fix, snapshot.filteredSpeed)) {
+                result |= RESUBSCRIBE;
+            }
+            if (timer != null) {
+                long t3 = System.nanoTime();
+                engineNanos += t1 - t0;
+                trackNanos += t2 - t1;
+                schedulerNanos += t3 - t2;
+            }
+        }
+        long t0 = timer != null ? System.nanoTime() : 0L;
+        engine.updateText();
+        if (timer != null) {
+            timer.record(STAGE_ENGINE, engineNanos + System.nanoTime() - t0);
+            timer.record(STAGE_TRACK, trackNanos);
+            timer.record(STAGE_SCHEDULER, schedulerNanos);
+        }
+        return result;
+    }
+
+    private int processStages(Fix fix) {
+        Snapshot snapshot = engine.process(fix);
+        int result = record(fix);
+        if (scheduler.onFix(fix, snapshot.filteredSpeed)) {
+            result |= RESUBSCRIBE;
+        }
+        return result;
+    }
+
+    private int record(Fix fix) {
+        if (track == null) {
+            return 0;
+        }
+        try {
+            track.append(fix);
+            return 0;
+        } catch (IOException e) {
+            trackError = e;
+            try {
+                track.close();
+            } catch (IOException ignored) {
+                // already failing; the write error is the one worth reporting
+            }
+            track = null;
+            return TRACK_FAILED;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+import java.util.Arrays;
+
+/**
+ * A fixed row of character cells, right-aligned, as shown by a segment display. Updating the
+ * row reports which cells changed so that a renderer can redraw just those.
+ */
+public final class GlyphCells {
+
+    /** Most cells a row can have; dirty sets are returned as a 64-bit mask */
+    public static final int MAX_CELLS = 64;
+
+    private final char[] cells;
+
+    public GlyphCells(int count) {
+        if (count < 1 || count > MAX_CELLS) {
+            throw new IllegalArgumentException("cell count must be 1 to " + MAX_CELLS);
+        }
+        cells = new char[count];
+        Arrays.fill(cells, ' ');
+    }
+
+    public int count() {
+        return cells.length;
+    }
+
+    /**
+     * @return the character in a cell, a space when blank
+     */
+    public char charAt(int cell) {
+        return cells[cell];
+    }
+
+    /**
+     * @return the backing array of the cells, one char per cell
+     */
+    public char[] chars() {
+        return cells;
+    }
+
+    /**
+     * Shows the first {@code length} chars of {@code text}, right-aligned; text wider than the
+     * row is cut on the right.
+     *
+     * @return bit mask of the cells whose character changed, bit 0 being the leftmost cell
+     */
+    public long set(char[] text, int offset, int length) {
+        int count = cells.length;
+        int shown = Math.min(length, count);
+        int blank = count - shown;
+        long dirty = 0L;
+        for (int i = 0; i < count; i++) {
+            char c = i < blank ? ' ' : text[offset + i - blank];
+            if (cells[i] != c) {
+                cells[i] = c;
+                dirty |= 1L << i;
+            }
+        }
+        return dirty;
+    }
+
+    /**
+     * Same as {@link #set(char[], int, int)} for a constant string.
+     */
+    public long set(CharSequence text) {
+        int count = cells.length;
+        int shown = Math.min(text.length(), count);
+        int blank = count - shown;
+        long dirty = 0L;
+        for (int i = 0; i < count; i++) {
+            char c = i < blank ? ' ' : text.charAt(i - blank);
+            if (cells[i] != c) {
+                cells[i] = c;
+                dirty |= 1L << i;
+            }
+        }
+        return dirty;
+    }
+}
@@ -0,0 +1,209 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+/**
+ * Estimates the direction of travel from the GPS bearing and, at low speed, from the device's
+ * rotation-vector sensor. Bearings are averaged as unit vectors, so 359 and 1 degrees average
+ * to 0 rather than 180, and the length of the averaged vector tells how well the inputs agree.
+ * <p>
+ * The GPS bearing is the direction of the measured velocity and scatters the slower the
+ * vehicle moves; below {@link #LOW_SPEED} it is ignored. The sensor gives the direction the
+ * device faces, which is only the direction of travel up to how the device is mounted. That
+ * offset is learned while both sources are available above {@link #HIGH_SPEED}, and the sensor
+ * takes over below it. Without sensor samples the last heading is held while stopped.
+ * <p>
+ * Not thread-safe; feed it from a single thread.
+ */
+public final class HeadingFilter {
+
+    /** Speed in meters/second below which the GPS bearing gets no weight */
+    public static final float LOW_SPEED = 1.5f;
+    /** Speed in meters/second from which the sensor gets no weight */
+    public static final float HIGH_SPEED = 4.0f;
+    /** Below this speed sensor samples are wanted, above HIGH_SPEED only to learn the mount offset */
+    public static final float SENSOR_SPEED = 8.0f;
+    /** Sensor samples closer together than this are dropped */
+    public static final long SENSOR_PERIOD_NANOS = 200000000L;
+
+    /** Time constant of the bearing average up to HIGH_SPEED, shorter the faster above it */
+    private static final double BEARING_TAU_SECONDS = 1.5;
+    private static final double SENSOR_TAU_SECONDS = 0.7;
+    private static final double OFFSET_TAU_SECONDS = 20.0;
+    /** A sensor sample this close to a fix is compared with its bearing */
+    private static final long OFFSET_MATCH_NANOS = 500000000L;
+    /** Averaged vector length below which the inputs disagree too much to show a heading */
+    private static final double MIN_RESULTANT = 0.5;
+
+    // averaged heading vector: east and north components
+    private double east;
+    private double north;
+    private boolean hasHeading;
+    private long bearingNanos;
+    private long sensorNanos;
+    private double sensorAzimuth = Double.NaN;
+    private double speed;
+
+    // averaged mount offset vector, from device azimuth to direction of travel
+    private double offsetEast;
+    private double offsetNorth = 1.0;
+    private double offset;
+    private long offsetNanos;
+    private boolean hasOffset;
+
+    /**
+     * Takes the bearing of a fix, weighted by its speed.
+     *
+     * @param speed filtered speed in meters/second, NaN if unknown
+     */
+    public void updateBearing(Fix fix, float speed) {
+        this.speed = Float.isNaN(speed) ? 0.0 : speed;
+        if (!fix.hasBearing) {
+            return;
+        }
+        double weight = gpsWeight();
+        if (weight > 0.0) {
+            double dt = hasHeading && bearingNanos != 0 ? (fix.elapsedNanos - bearingNanos) / 1e9 : 0.0;
+            // the scatter shrinks with speed, and so can the lag of the average
+            double tau = BEARING_TAU_SECONDS * Math.min(1.0, HIGH_SPEED / this.speed);
+            add(fix.bearing, weight * alpha(dt, tau));
+            bearingNanos = fix.elapsedNanos;
+        }
+        if (weight >= 1.0 && !Double.isNaN(sensorAzimuth)
+                && Math.abs(fix.elapsedNanos - sensorNanos) < OFFSET_MATCH_NANOS) {
+            learnOffset(fix.bearing - sensorAzimuth, fix.elapsedNanos);
+        }
+    }
+
+    /**
+     * Takes a sensor sample. Samples are decimated to one per {@link #SENSOR_PERIOD_NANOS},
+     * whatever rate the sensor delivers at.
+     *
+     * @param azimuth direction the device faces, in degrees clockwise from north
+     * @return whether the sample was used
+     */
+    public boolean updateSensor(double azimuth, long elapsedNanos) {
+        boolean first = Double.isNaN(sensorAzimuth);
+        if (!first && elapsedNanos - sensorNanos < SENSOR_PERIOD_NANOS) {
+            return false;
+        }
+        double dt = first ? 0.0 : (elapsedNanos - sensorNanos) / 1e9;
+        sensorAzimuth = azimuth;
+        sensorNanos = elapsedNanos;
+        double weight = 1.0 - gpsWeight();
+        if (weight > 0.0) {
+            add(azimuth + offset, weight * alpha(dt, SENSOR_TAU_SECONDS));
+        }
+        return true;
+    }
+
+    /**
+     * @return whether sensor samples would be used at the current speed; unregister the sensor
+     *         otherwise to save power
+     */
+    public boolean wantsSensor() {
+        return speed < SENSOR_SPEED;
+    }
+
+    /**
+     * @return the estimated direction of travel, 0 to 360 degrees, or NaN if unknown
+     */
+    public double getHeading() {
+        if (!hasHeading || east * east + north * north < MIN_RESULTANT * MIN_RESULTANT) {
+            return Double.NaN;
+        }
+        return normalize(Math.toDegrees(Math.atan2(east, north)));
+    }
+
+    /**
+     * @return degrees added to the sensor azimuth to get the direction of travel; 0 until learned
+     */
+    public double getMountOffset() {
+        return offset;
+    }
+
+    /**
+     * Forgets the heading and the learned mount offset.
+     */
+    public void reset() {
+        east = 0.0;
+        north = 0.0;
+        hasHeading = false;
+        bearingNanos = 0L;
+        sensorNanos = 0L;
+        sensorAzimuth = Double.NaN;
+        speed = 0.0;
+        offsetEast = 0.0;
+        offsetNorth = 1.0;
+        offset = 0.0;
+        offsetNanos = 0L;
+        hasOffset = false;
+    }
+
+    /**
+     * Direction a device faces, from its rotation matrix: where the back camera looks when the
+     * device stands upright, as in a dashboard mount, and where its top points when it lies flat.
+     *
+     * @param rotation 3x3 row-major matrix from device to world (east, north, up) coordinates,
+     *                 as made by {@code SensorManager.getRotationMatrixFromVector}
+     * @return degrees clockwise from north
+     */
+    public static double azimuth(float[] rotation) {
+        double east;
+        double north;
+        // up component of the device's z axis, the cosine of its tilt
+        if (Math.abs(rotation[8]) < 0.7071) {
+            east = -rotation[2];
+            north = -rotation[5];
+        } else {
+            east = rotation[1];
+            north = rotation[4];
+        }
+        return normalize(Math.toDegrees(Math.atan2(east, north)));
+    }
+
+    private double gpsWeight() {
+        return Math.max(0.0, Math.min(1.0, (speed - LOW_SPEED) / (HIGH_SPEED - LOW_SPEED)));
+    }
+
+    private void add(double degrees, double alpha) {
+        double radians = Math.toRadians(degrees);
+        if (!hasHeading) {
+            east = Math.sin(radians);
+            north = Math.cos(radians);
+            hasHeading = true;
+            return;
+        }
+        east += alpha * (Math.sin(radians) - east);
+        north += alpha * (Math.cos(radians) - north);
+    }
+
+    private void learnOffset(double degrees, long elapsedNanos) {
+        double radians = Math.toRadians(degrees);
+        if (!hasOffset) {
+            offsetEast = Math.sin(radians);
+            offsetNorth = Math.cos(radians);
+            hasOffset = true;
+        } else {
+            double a = alpha((elapsedNanos - offsetNanos) / 1e9, OFFSET_TAU_SECONDS);
+            offsetEast += a * (Math.sin(radians) - offsetEast);
+            offsetNorth += a * (Math.cos(radians) - offsetNorth);
+        }
+        offsetNanos = elapsedNanos;
+        offset = Math.toDegrees(Math.atan2(offsetEast, offsetNorth));
+    }
+
+    /**
+     * @return weight of a new sample after dt seconds for an exponential average with time
+     *         constant tau; a sample after a long gap replaces the average
+     */
+    private static double alpha(double dt, double tau) {
+        if (dt <= 0.0) {
+            return 1.0;
+        }
+        return 1.0 - Math.exp(-dt / tau);
+    }
+
+    private static double normalize(double degrees) {
+        degrees %= 360.0;
+        return degrees < 0 ? degrees + 360.0 : degrees;
+    }
+}
@@ -0,0 +1,45 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+/**
+ * Rounds a displayed value to whole units, but only lets the shown value change once the input
+ * is more than {@code 0.5 + band} away from it. A value hovering at a rounding boundary, such
+ * as a speed of 49.5, then shows one number instead of flickering between two.
+ */
+final class Hysteresis {
+
+    private final double band;
+    private double shown = Double.NaN;
+
+    /**
+     * @param band how far past the rounding boundary the input has to go, in units; below 0.5
+     *             the shown value is never off by a whole unit
+     */
+    Hysteresis(double band) {
+        this.band = band;
+    }
+
+    /**
+     * @return the value to show for the input
+     */
+    double update(double value) {
+        // also true while nothing is shown yet
+        if (!(Math.abs(value - shown) <= 0.5 + band)) {
+            shown = Math.rint(value);
+        }
+        return shown;
+    }
+
+    /**
+     * @return the value shown, without moving it; the input rounded while nothing is shown yet
+     */
+    double shown(double value) {
+        return Double.isNaN(shown) ? Math.rint(value) : shown;
+    }
+
+    /**
+     * Forgets the shown value, e.g. when the unit changes; the next input is shown as is.
+     */
+    void reset() {
+        shown = Double.NaN;
+    }
+}
@@ -0,0 +1,168 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+/**
+ * A two-state (speed, acceleration) Kalman filter over the reported speed. Measurement noise
+ * comes from the fix's speed accuracy, or is estimated from its horizontal accuracy, and the
+ * prediction step uses the real time between fixes, so irregular or late fixes are weighted
+ * correctly. Optionally the speed implied by the distance between consecutive positions is
+ * fused in as a second, noisier measurement.
+ * <p>
+ * The distance between two noisy positions is never negative, so it reads high, by about the
+ * position noise when standing still. It is therefore only fused while the speed estimate
+ * moves the vehicle {@link #MIN_FUSED_STEP} times the combined accuracy between the fixes,
+ * less the part of its square the noise accounts for on average.
+ * <p>
+ * The process noise is the single latency/smoothness knob: a higher value follows acceleration
+ * sooner, a lower value gives a steadier readout.
+ */
+public final class KalmanSpeedFilter implements SpeedFilter {
+
+    /** Process noise presets, in (m/s^3)^2 / Hz */
+    public static final double RESPONSIVE = 4.0;
+    public static final double BALANCED = 1.0;
+    public static final double SMOOTH = 0.25;
+
+    /** Gaps longer than this restart the filter from the next measurement */
+    private static final long MAX_GAP_NANOS = 30000000000L;
+    private static final double MIN_SPEED_SIGMA = 0.1;
+    private static final double EARTH_RADIUS = 6371008.8;
+    /** Positions are fused once the step between them is this many times their accuracy */
+    private static final double MIN_FUSED_STEP = 3.0;
+    /** Horizontal accuracy is the radius holding 68% of fixes, 1.51 sigma of each axis */
+    private static final double SIGMAS_PER_ACCURACY = 1.51;
+
+    private final double processNoise;
+    private final boolean fusePosition;
+
+    private boolean initialised;
+    private long lastNanos;
+    private double lastLatitude;
+    private double lastLongitude;
+    private float lastAccuracy;
+    private boolean hasLastPosition;
+
+    // state estimate and its covariance
+    private double speed;
+    private double accel;
+    private double p00;
+    private double p01;
+    private double p11;
+
+    /**
+     * @param processNoise acceleration change allowed per second, see the presets
+     * @param fusePosition also use the speed derived from successive positions
+     */
+    public KalmanSpeedFilter(double processNoise, boolean fusePosition) {
+        this.processNoise = processNoise;
+        this.fusePosition = fusePosition;
+    }
+
+    @Override
+    public void reset() {
+        initialised = false;
+        hasLastPosition = false;
+    }
+
+    @Override
+    public float update(Fix fix) {
+        double dt = initialised ? (fix.elapsedNanos - lastNanos) / 1e9 : 0.0;
+        if (initialised && (dt < 0 || fix.elapsedNanos - lastNanos > MAX_GAP_NANOS)) {
+            reset();
+        }
+
+        if (!initialised) {
+            if (!fix.hasSpeed) {
+                remember(fix);
+                return Float.NaN;
+            }
+            double sigma = speedSigma(fix);
+            speed = fix.speed;
+            accel = 0.0;
+            p00 = sigma * sigma;
+            p01 = 0.0;
+            p11 = 4.0;
+            initialised = true;
+            lastNanos = fix.elapsedNanos;
+            remember(fix);
+            return (float) speed;
+        }
+
+        if (dt > 0) {
+            predict(dt);
+            lastNanos = fix.elapsedNanos;
+        }
+        if (fix.hasSpeed) {
+            double sigma = speedSigma(fix);
+            correct(fix.speed, sigma * sigma);
+        }
+        if (fusePosition && hasLastPosition && fix.hasAccuracy && dt > 0) {
+            double accuracy2 = lastAccuracy * lastAccuracy + fix.accuracy * fix.accuracy;
+            double step = speed * dt;
+            if (step * step >= MIN_FUSED_STEP * MIN_FUSED_STEP * accuracy2) {
+                double distance = distance(lastLatitude, lastLongitude, fix.latitude, fix.longitude);
+                // the squared distance averages the squared step plus twice the variance per axis
+                double noise2 = 2.0 * accuracy2 / (SIGMAS_PER_ACCURACY * SIGMAS_PER_ACCURACY);
+                double unbiased = Math.sqrt(Math.max(0.0, distance * distance - noise2));
+                correct(unbiased / dt, accuracy2 / (dt * dt));
+            }
+        }
+        remember(fix);
+
+        if (speed < 0.0) {
+            speed = 0.0;
+        }
+        return (float) speed;
+    }
+
+    private void predict(double dt) {
+        double q = processNoise;
+        double dt2 = dt * dt;
+        speed += accel * dt;
+        p00 += 2 * dt * p01 + dt2 * p11 + q * dt2 * dt / 3.0;
+        p01 += dt * p11 + q * dt2 / 2.0;
+        p11 += q * dt;
+    }
+
+    private void correct(double measured, double variance) {
+        double s = p00 + variance;
+        double k0 = p00 / s;
+        double k1 = p01 / s;
+        double innovation = measured - speed;
+        speed += k0 * innovation;
+        accel += k1 * innovation;
+        p11 -= k1 * p01;
+        p01 -= k0 * p01;
+        p00 -= k0 * p00;
+    }
+
+    private void remember(Fix fix) {
+        if (fix.hasAccuracy) {
+            lastLatitude = fix.latitude;
+            lastLongitude = fix.longitude;
+            lastAccuracy = fix.accuracy;
+            hasLastPosition = true;
+        } else {
+            hasLastPosition = false;
+        }
+    }
+
+    private static double speedSigma(Fix fix) {
+        if (fix.hasSpeedAccuracy) {
+            return Math.max(MIN_SPEED_SIGMA, fix.speedAccuracy);
+        }
+        if (fix.hasAccuracy) {
+            // Doppler speed is roughly an order of magnitude better than the position
+            return Math.min(5.0, Math.max(0.3, fix.accuracy * 0.1));
+        }
+        return 1.0;
+    }
+
+    /**
+     * Equirectangular distance; exact enough over the few meters between consecutive fixes.
+     */
+    private static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double x = Math.toRadians(lon2 - lon1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = Math.toRadians(lat2 - lat1);
+        return Math.sqrt(x * x + y * y) * EARTH_RADIUS;
+    }
+}
@@ -0,0 +1,230 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+import net.mypapit.mobile.speedmeter.engine.metrics.Counter;
+import net.mypapit.mobile.speedmeter.engine.metrics.LatencyHistogram;
+import net.mypapit.mobile.speedmeter.engine.metrics.Metrics;
+
+/**
+ * Chooses which of several location sources feeds the display. The receiver alone can take
+ * half a minute to its first fix and loses it between tall buildings, while network and
+ * fused fixes come sooner and keep coming, only less accurately and often without a speed.
+ * <p>
+ * The first fresh fix from any source is taken, so the display starts from the fastest
+ * coarse fix. After that the selected source keeps feeding it, and another source takes over
+ * when the selected one has gone quiet for {@link #STALE_NANOS} or a few of its intervals,
+ * when it lacks a speed that the other has, or when the other has been clearly more accurate
+ * for {@link #HOLD_NANOS}, so that sources of similar accuracy do not flap. Fixes too old on
+ * arrival, such as cached ones, and fixes not newer than the last one taken, such as the same
+ * fix seen again through the passive provider, are refused.
+ * <p>
+ * Records the time from {@link #start} to the first fix taken and to the first fix of each
+ * source, and the number of fixes taken from each source. Not thread-safe.
+ */
+public final class ProviderArbiter {
+
+    public static final int GPS = 0;
+    public static final int FUSED = 1;
+    public static final int NETWORK = 2;
+    public static final int SOURCES = 3;
+
+    /** Provider names, as the platform's location providers are named */
+    private static final String[] NAMES = {"gps", "fused", "network"};
+
+    public static final String TTFF = "fix.ttff";
+    public static final String STALE = "fix.stale";
+    public static final String UNSELECTED = "fix.unselected";
+    public static final String SWITCHES = "fix.source_switches";
+
+    /** Fixes older than this on arrival, beyond any batching delay, are refused */
+    public static final long MAX_AGE_NANOS = 10000000000L;
+    /** The selected source is given up after this long without a fix, or three intervals */
+    public static final long STALE_NANOS = 3000000000L;
+    /** How long another source must stay clearly more accurate before it takes over */
+    public static final long HOLD_NANOS = 2000000000L;
+    /** Clearly more accurate: by this fraction of its accuracy radius and by MARGIN_METERS */
+    private static final float MARGIN_RATIO = 0.3f;
+    private static final float MARGIN_METERS = 2.0f;
+
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final LatencyHistogram ttff;
+    private final LatencyHistogram[] sourceTtff = new LatencyHistogram[SOURCES];
+    private final Counter[] taken = new Counter[SOURCES];
+    private final Counter stale;
+    private final Counter unselected;
+    private final Counter switches;
+
+    private long intervalNanos;
+    private long maxDelayNanos;
+
+    private long startNanos = NONE;
+    private boolean hasFirst;
+    private final boolean[] hasSourceFirst = new boolean[SOURCES];
+    private int selected = -1;
+    private long lastTakenNanos = NONE;
+    /** Time of the last fix from each source */
+    private final long[] lastNanos = new long[SOURCES];
+    private final float[] lastAccuracy = new float[SOURCES];
+    private final boolean[] lastHasSpeed = new boolean[SOURCES];
+    /** Since when each source has been clearly more accurate than the selected one */
+    private final long[] betterSinceNanos = new long[SOURCES];
+
+    public ProviderArbiter(Metrics metrics) {
+        ttff = metrics.histogram(TTFF);
+        for (int s = 0; s < SOURCES; s++) {
+            sourceTtff[s] = metrics.histogram(TTFF + "." + NAMES[s]);
+            taken[s] = metrics.counter("fix.source." + NAMES[s]);
+        }
+        stale = metrics.counter(STALE);
+        unselected = metrics.counter(UNSELECTED);
+        switches = metrics.counter(SWITCHES);
+        forget();
+    }
+
+    /**
+     * @param provider name of a platform location provider, or of the provider behind a fix
+     *                 delivered by the passive one
+     * @return the source, or -1 if the name is none of the known providers
+     */
+    public static int source(String provider) {
+        for (int s = 0; s < SOURCES; s++) {
+            if (NAMES[s].equals(provider)) {
+                return s;
+            }
+        }
+        return -1;
+    }
+
+    public static String name(int source) {
+        return NAMES[source];
+    }
+
+    /**
+     * Sets what was requested from the receiver.
+     *
+     * @param intervalNanos interval between fixes, 0 for as fast as possible
+     * @param maxDelayNanos how long fixes may be held back for batching; they are that much
+     *                      older on arrival
+     */
+    public void setSchedule(long intervalNanos, long maxDelayNanos) {
+        this.intervalNanos = intervalNanos;
+        this.maxDelayNanos = maxDelayNanos;
+    }
+
+    /**
+     * Forgets all sources and starts timing the first fixes, e.g. on subscribing.
+     *
+     * @param nowNanos current time on the clock of the fixes
+     */
+    public void start(long nowNanos) {
+        forget();
+        startNanos = nowNanos;
+    }
+
+    private void forget() {
+        hasFirst = false;
+        selected = -1;
+        lastTakenNanos = NONE;
+        for (int s = 0; s < SOURCES; s++) {
+            hasSourceFirst[s] = false;
+            lastNanos[s] = NONE;
+            lastAccuracy[s] = Float.POSITIVE_INFINITY;
+            lastHasSpeed[s] = false;
+            betterSinceNanos[s] = NONE;
+        }
+    }
+
+    /**
+     * Offers a fix from a source.
+     *
+     * @param source   {@link #GPS}, {@link #FUSED} or {@link #NETWORK}; fixes from an unknown
+     *                 source, -1, are refused
+     * @param nowNanos arrival time on the clock of the fixes
+     * @return whether the fix should be processed
+     */
+    public boolean offer(int source, Fix fix, long nowNanos) {
+        if (source < 0) {
+            return false;
+        }
+        if (nowNanos - fix.elapsedNanos > MAX_AGE_NANOS + maxDelayNanos) {
+            stale.increment();
+            return false;
+        }
+        if (!hasSourceFirst[source]) {
+            hasSourceFirst[source] = true;
+            if (startNanos != NONE) {
+                sourceTtff[source].record(nowNanos - startNanos);
+            }
+        }
+        if (lastNanos[source] == NONE || fix.elapsedNanos > lastNanos[source]) {
+            lastNanos[source] = fix.elapsedNanos;
+            lastAccuracy[source] = fix.hasAccuracy ? fix.accuracy : Float.POSITIVE_INFINITY;
+            lastHasSpeed[source] = fix.hasSpeed;
+        }
+        if (lastTakenNanos != NONE && fix.elapsedNanos <= lastTakenNanos) {
+            stale.increment();
+            return false;
+        }
+        if (selected < 0) {
+            select(source);
+        } else if (source != selected) {
+            if (!shouldSwitch(source, fix, nowNanos)) {
+                unselected.increment();
+                return false;
+            }
+            switches.increment();
+            select(source);
+        }
+        lastTakenNanos = fix.elapsedNanos;
+        taken[source].increment();
+        if (!hasFirst) {
+            hasFirst = true;
+            if (startNanos != NONE) {
+                ttff.record(nowNanos - startNanos);
+            }
+        }
+        return true;
+    }
+
+    private boolean shouldSwitch(int source, Fix fix, long nowNanos) {
+        long staleNanos = Math.max(STALE_NANOS, 3 * intervalNanos);
+        if (nowNanos - lastNanos[selected] > staleNanos + maxDelayNanos) {
+            return true;
+        }
+        if (fix.hasSpeed != lastHasSpeed[selected]) {
+            // a speedometer wants the speed before anything else
+            return fix.hasSpeed;
+        }
+        float accuracy = fix.hasAccuracy ? fix.accuracy : Float.POSITIVE_INFINITY;
+        float current = lastAccuracy[selected];
+        if (accuracy * (1.0f + MARGIN_RATIO) + MARGIN_METERS >= current) {
+            betterSinceNanos[source] = NONE;
+            return false;
+        }
+        if (betterSinceNanos[source] == NONE) {
+            betterSinceNanos[source] = fix.elapsedNanos;
+        }
+        return fix.elapsedNanos - betterSinceNanos[source] >= HOLD_NANOS;
+    }
+
+    private void select(int source) {
+        selected = source;
+        for (int s = 0; s < SOURCES; s++) {
+            betterSinceNanos[s] = NONE;
+        }
+    }
+
+    /**
+     * @return the source feeding the display, -1 before the first fix
+     */
+    public int getSelected() {
+        return selected;
+    }
+
+    /**
+     * @return whether a fix was taken since {@link #start}
+     */
+    public boolean hasFix() {
+        return hasFirst;
+    }
+}
@@ -0,0 +1,43 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+/**
+ * The original fixed-ratio exponential average. It ignores accuracy and the time between fixes.
+ */
+public final class RatioSpeedFilter implements SpeedFilter {
+
+    private final int ratio;
+    private float filtered = Float.NaN;
+
+    public RatioSpeedFilter(int ratio) {
+        this.ratio = ratio;
+    }
+
+    @Override
+    public float update(Fix fix) {
+        filtered = filter(filtered, fix.hasSpeed ? fix.speed : Float.NaN, ratio);
+        return filtered;
+    }
+
+    @Override
+    public void reset() {
+        filtered = Float.NaN;
+    }
+
+    /**
+     * Simple recursive filter
+     *
+     * @param prev Previous value of filter
+     * @param curr New input value into filter
+     * @return New filtered value
+     */
+    public static float filter(final float prev, final float curr, final int ratio) {
+        // If first time through, initialise digital filter with current values
+        if (Float.isNaN(prev))
+            return curr;
+        // If current value is invalid, return previous filtered value
+        if (Float.isNaN(curr))
+            return prev;
+        // Calculate new filtered value
+        return (float) (curr / ratio + prev * (1.0 - 1.0 / ratio));
+    }
+}
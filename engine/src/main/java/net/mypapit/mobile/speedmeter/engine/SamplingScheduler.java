@@ -0,0 +1,171 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+/**
+ * Chooses how often the location provider should deliver fixes, from the current motion,
+ * whether the speed is on screen and the battery level. The choice is one of a few fixed
+ * tiers so that the provider only has to be re-subscribed when the tier actually changes.
+ * <p>
+ * Switching to a faster tier happens at once; switching to a slower one only after the slower
+ * tier has been wanted for {@link #DWELL_NANOS}, so brief stops or glances do not cause the
+ * subscription to flap. Not thread-safe.
+ */
+public final class SamplingScheduler {
+
+    /** Visible and moving off or braking, or timing a performance run: every fix the receiver produces */
+    public static final int REALTIME = 0;
+    /** Visible at steady speed */
+    public static final int CRUISE = 1;
+    /** Not visible, moving */
+    public static final int BACKGROUND = 2;
+    /** Visible, stopped */
+    public static final int STATIONARY = 3;
+    /** Not visible, stopped */
+    public static final int IDLE = 4;
+
+    private static final long[] INTERVAL_MILLIS = {0L, 1000L, 2000L, 5000L, 15000L};
+    private static final float[] MIN_DISTANCE = {0.0f, 0.0f, 5.0f, 5.0f, 10.0f};
+    /** Nobody watches the background tiers, so their fixes may be held back and delivered in batches */
+    private static final long[] MAX_DELAY_MILLIS = {0L, 0L, 60000L, 0L, 120000L};
+
+    public static final long DWELL_NANOS = 10000000000L;
+    private static final float MOVING_SPEED = 1.5f;
+    private static final float STOPPED_SPEED = 0.5f;
+    private static final long STOPPED_NANOS = 10000000000L;
+    private static final float ACCELERATING = 0.7f;
+    private static final long ACCELERATION_WINDOW_NANOS = 1000000000L;
+    private static final int LOW_BATTERY_PERCENT = 15;
+
+    private int tier = REALTIME;
+    private int wanted = REALTIME;
+    private long wantedSinceNanos;
+
+    private boolean visible = true;
+    private boolean lowBattery;
+    private boolean realtime;
+    private boolean moving = true;
+    private long slowSinceNanos = -1L;
+    private float acceleration;
+    private float lastSpeed = Float.NaN;
+    private long lastNanos;
+
+    public int getTier() {
+        return tier;
+    }
+
+    /**
+     * @return the interval to request from the provider, in milliseconds
+     */
+    public long getIntervalMillis() {
+        return INTERVAL_MILLIS[tier];
+    }
+
+    /**
+     * @return the minimum distance between fixes to request from the provider, in meters
+     */
+    public float getMinDistance() {
+        return MIN_DISTANCE[tier];
+    }
+
+    /**
+     * @return how long the provider may hold fixes back to deliver them in a batch, in
+     *         milliseconds; 0 if every fix is wanted as soon as it is available
+     */
+    public long getMaxDelayMillis() {
+        return MAX_DELAY_MILLIS[tier];
+    }
+
+    /**
+     * Feeds a processed fix.
+     *
+     * @param speed filtered speed in meters/second; NaN if unknown
+     * @return true if the tier changed and the provider must be re-subscribed
+     */
+    public boolean onFix(Fix fix, float speed) {
+        long now = fix.elapsedNanos;
+        if (!Float.isNaN(speed)) {
+            // differentiate over at least a second so that high-rate noise does not look like
+            // acceleration
+            if (Float.isNaN(lastSpeed)) {
+                lastSpeed = speed;
+                lastNanos = now;
+            } else if (now - lastNanos >= ACCELERATION_WINDOW_NANOS) {
+                float instant = (speed - lastSpeed) / ((now - lastNanos) / 1e9f);
+                acceleration += 0.5f * (instant - acceleration);
+                lastSpeed = speed;
+                lastNanos = now;
+            }
+
+            if (speed >= MOVING_SPEED) {
+                moving = true;
+                slowSinceNanos = -1L;
+            } else if (speed < STOPPED_SPEED) {
+                if (slowSinceNanos < 0) {
+                    slowSinceNanos = now;
+                } else if (now - slowSinceNanos >= STOPPED_NANOS) {
+                    moving = false;
+                }
+            }
+        }
+        return evaluate(now);
+    }
+
+    /**
+     * @return true if the tier changed and the provider must be re-subscribed
+     */
+    public boolean setVisible(boolean visible, long nowNanos) {
+        this.visible = visible;
+        return evaluate(nowNanos);
+    }
+
+    /**
+     * @return true if the tier changed and the provider must be re-subscribed
+     */
+    public boolean setBattery(int percent, boolean charging, long nowNanos) {
+        lowBattery = !charging && percent <= LOW_BATTERY_PERCENT;
+        return evaluate(nowNanos);
+    }
+
+    /**
+     * Holds the scheduler at {@link #REALTIME}, whatever the motion, visibility and battery,
+     * as while a performance run is armed.
+     *
+     * @return true if the tier changed and the provider must be re-subscribed
+     */
+    public boolean setRealtime(boolean realtime, long nowNanos) {
+        this.realtime = realtime;
+        return evaluate(nowNanos);
+    }
+
+    private boolean evaluate(long now) {
+        int next;
+        if (realtime) {
+            next = REALTIME;
+        } else if (visible) {
+            if (!moving) {
+                next = STATIONARY;
+            } else if (Math.abs(acceleration) >= ACCELERATING) {
+                next = REALTIME;
+            } else {
+                next = CRUISE;
+            }
+        } else {
+            next = moving ? BACKGROUND : IDLE;
+        }
+        if (lowBattery && !realtime && next < IDLE) {
+            next++;
+        }
+
+        if (next != wanted) {
+            wanted = next;
+            wantedSinceNanos = now;
+        }
+        if (wanted == tier) {
+            return false;
+        }
+        if (wanted < tier || now - wantedSinceNanos >= DWELL_NANOS) {
+            tier = wanted;
+            return true;
+        }
+        return false;
+    }
+}
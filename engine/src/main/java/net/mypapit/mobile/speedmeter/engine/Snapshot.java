@@ -0,0 +1,143 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+/**
+ * The display state produced by {@link SpeedEngine} for the latest fix. Instances are reused;
+ * the text slots hold ready-to-render characters so the UI never formats numbers itself.
+ */
+public final class Snapshot {
+
+    private static final int TEXT_CAPACITY = DecimalText.MAX_LENGTH + 8;
+
+    /** Monotonic time of the fix this snapshot was computed from, in nanoseconds */
+    public long elapsedNanos;
+    public double latitude;
+    public double longitude;
+    /** Unfiltered speed of the fix in meters/second */
+    public float speed;
+    /** Filtered speed in meters/second, NaN until the filter has a speed */
+    public float filteredSpeed = Float.NaN;
+    /** Filtered speed in the selected display unit */
+    public float displaySpeed;
+    /** Highest speed seen, in meters/second */
+    public double maxSpeed;
+    public float accuracy;
+    public boolean hasAccuracy;
+    /** Estimated direction of travel in degrees, NaN if unknown */
+    public float bearing = Float.NaN;
+    /** Compass sector of the bearing, see {@link Compass} */
+    public int heading = Compass.NONE;
+    /** Distance of the current trip, in meters */
+    public double distance;
+    /** Average speed of the current trip while moving, in meters/second */
+    public float movingAverageSpeed;
+    /** 95th percentile of the speed of the current trip while moving, in meters/second; NaN until known */
+    public float p95Speed = Float.NaN;
+    /** Speed limit of the road, in meters/second; NaN without a zone file or off its roads */
+    public float speedLimit = Float.NaN;
+    /** Whether the speed has been over the limit for a while */
+    public boolean overspeed;
+    private boolean overspeedChanged;
+    /** Laps completed since the gates were set */
+    public int laps;
+    /** Best lap time in nanoseconds, Long.MIN_VALUE until a lap is completed */
+    public long bestLapNanos = Long.MIN_VALUE;
+
+    public final TextSlot speedText = new TextSlot(TEXT_CAPACITY);
+    public final TextSlot maxSpeedText = new TextSlot(TEXT_CAPACITY);
+    public final TextSlot accuracyText = new TextSlot(TEXT_CAPACITY);
+    public final TextSlot headingText = new TextSlot(TEXT_CAPACITY);
+    public final TextSlot latitudeText = new TextSlot(TEXT_CAPACITY);
+    public final TextSlot longitudeText = new TextSlot(TEXT_CAPACITY);
+    public final TextSlot distanceText = new TextSlot(TEXT_CAPACITY);
+    public final TextSlot averageSpeedText = new TextSlot(TEXT_CAPACITY);
+    public final TextSlot p95SpeedText = new TextSlot(TEXT_CAPACITY);
+    /** Empty while there is no limit */
+    public final TextSlot speedLimitText = new TextSlot(TEXT_CAPACITY);
+    /** The last lap or split time; empty until timing starts */
+    public final TextSlot lapText = new TextSlot(TEXT_CAPACITY);
+    /** Empty until a lap is completed */
+    public final TextSlot bestLapText = new TextSlot(TEXT_CAPACITY);
+    /** State of the performance run mode, see PerformanceTimer */
+    public int runState;
+    /** The performance run state, or the last target time of the run; empty when not armed */
+    public final TextSlot runText = new TextSlot(TEXT_CAPACITY);
+
+    /**
+     * Copies another snapshot. Text slots whose text differs from this one are marked changed,
+     * as is the overspeed state, so a consumer can keep its own copy and render only what moved.
+     */
+    public void copyFrom(Snapshot other) {
+        elapsedNanos = other.elapsedNanos;
+        latitude = other.latitude;
+        longitude = other.longitude;
+        speed = other.speed;
+        filteredSpeed = other.filteredSpeed;
+        displaySpeed = other.displaySpeed;
+        maxSpeed = other.maxSpeed;
+        accuracy = other.accuracy;
+        hasAccuracy = other.hasAccuracy;
+        bearing = other.bearing;
+        heading = other.heading;
+        distance = other.distance;
+        movingAverageSpeed = other.movingAverageSpeed;
+        p95Speed = other.p95Speed;
+        speedLimit = other.speedLimit;
+        overspeedChanged |= overspeed != other.overspeed;
+        overspeed = other.overspeed;
+        laps = other.laps;
+        bestLapNanos = other.bestLapNanos;
+        runState = other.runState;
+        speedText.copyFrom(other.speedText);
+        maxSpeedText.copyFrom(other.maxSpeedText);
+        accuracyText.copyFrom(other.accuracyText);
+        headingText.copyFrom(other.headingText);
+        latitudeText.copyFrom(other.latitudeText);
+        longitudeText.copyFrom(other.longitudeText);
+        distanceText.copyFrom(other.distanceText);
+        averageSpeedText.copyFrom(other.averageSpeedText);
+        p95SpeedText.copyFrom(other.p95SpeedText);
+        speedLimitText.copyFrom(other.speedLimitText);
+        lapText.copyFrom(other.lapText);
+        bestLapText.copyFrom(other.bestLapText);
+        runText.copyFrom(other.runText);
+    }
+
+    /**
+     * @return true if any text slot or the overspeed state changed since the last
+     *         {@link #clearChanged()}
+     */
+    public boolean isChanged() {
+        return speedText.isChanged() || maxSpeedText.isChanged() || accuracyText.isChanged()
+                || headingText.isChanged() || latitudeText.isChanged() || longitudeText.isChanged()
+                || distanceText.isChanged() || averageSpeedText.isChanged() || p95SpeedText.isChanged()
+                || speedLimitText.isChanged() || lapText.isChanged() || bestLapText.isChanged()
+                || runText.isChanged() || overspeedChanged;
+    }
+
+    /**
+     * @return true if the overspeed state changed since the last {@link #clearChanged()}
+     */
+    public boolean isOverspeedChanged() {
+        return overspeedChanged;
+    }
+
+    /**
+     * Marks every text slot and the overspeed state as rendered.
+     */
+    public void clearChanged() {
+        speedText.clearChanged();
+        maxSpeedText.clearChanged();
+        accuracyText.clearChanged();
+        headingText.clearChanged();
+        latitudeText.clearChanged();
+        longitudeText.clearChanged();
+        distanceText.clearChanged();
+        averageSpeedText.clearChanged();
+        p95SpeedText.clearChanged();
+        speedLimitText.clearChanged();
+        lapText.clearChanged();
+        bestLapText.clearChanged();
+        runText.clearChanged();
+        overspeedChanged = false;
+    }
+}
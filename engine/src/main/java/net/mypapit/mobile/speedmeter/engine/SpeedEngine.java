@@ -0,0 +1,503 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+import net.mypapit.mobile.speedmeter.engine.history.TripSummarizer;
+import net.mypapit.mobile.speedmeter.engine.timing.GateIndex;
+import net.mypapit.mobile.speedmeter.engine.timing.LapTimer;
+import net.mypapit.mobile.speedmeter.engine.timing.PerformanceTimer;
+import net.mypapit.mobile.speedmeter.engine.zone.SpeedLimitMonitor;
+import net.mypapit.mobile.speedmeter.engine.track.TrackReader;
+import net.mypapit.mobile.speedmeter.engine.zone.ZoneIndex;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Turns position fixes into display state: speed smoothing, unit conversion, trip statistics,
+ * maximum speed tracking, heading estimation, speed limits, lap timing, performance runs and
+ * text formatting. Processing a fix does not allocate, and the same {@link Snapshot} instance
+ * is returned for every fix.
+ * <p>
+ * Not thread-safe; feed it from a single thread.
+ */
+public final class SpeedEngine {
+
+    private static final String ACCURACY_SUFFIX = " m";
+    private static final String NIL = "NIL";
+    private static final String AVERAGE_SUFFIX = " avg";
+    private static final String P95_SUFFIX = " p95";
+    private static final String LAP_LABEL = "L";
+    private static final String SPLIT_LABEL = "S";
+    private static final String BEST_LAP_LABEL = "BEST";
+    private static final String RUN_ARMED = "RUN ARMED";
+    private static final String RUN_READY = "RUN READY";
+    private static final String RUN_GO = "RUN GO";
+    private static final double METERS_PER_MILE = 1609.344;
+    /** How far past a rounding boundary, in display units, the speed goes before its digits change */
+    private static final double SPEED_HYSTERESIS = 0.25;
+    /** The same for the accuracy, in meters; receivers report it with a lot of jitter */
+    private static final double ACCURACY_HYSTERESIS = 0.5;
+
+    private final DecimalText format;
+    private final Snapshot snapshot = new Snapshot();
+    private final TripStats tripStats = new TripStats();
+    private final TripSummarizer tripSummarizer = new TripSummarizer();
+    private final HeadingFilter heading = new HeadingFilter();
+    /** Histogram total the displayed percentile was read at */
+    private long percentileTotal = -1L;
+    // rounded values the statistics text was last formatted from
+    private long distanceKey = Long.MIN_VALUE;
+    private long averageKey = Long.MIN_VALUE;
+    private long p95Key = Long.MIN_VALUE;
+    private long limitKey = Long.MIN_VALUE;
+    private long lapKey = Long.MIN_VALUE;
+    private long runKey = Long.MIN_VALUE;
+    private final Hysteresis shownSpeed = new Hysteresis(SPEED_HYSTERESIS);
+    private final Hysteresis shownAccuracy = new Hysteresis(ACCURACY_HYSTERESIS);
+
+    private int unitType = SpeedUnit.KMH;
+    private float multiplier = SpeedUnit.multiplier(SpeedUnit.KMH);
+    private SpeedFilter filter = SpeedFilters.create(SpeedFilters.BALANCED);
+    private SpeedLimitMonitor speedLimits;
+    private LapTimer lapTimer;
+    private final PerformanceTimer runTimer = new PerformanceTimer();
+    /** Speed targets of performance runs in the display unit, null for the unit's defaults */
+    private float[] runSpeeds;
+    private double[] runDistances = {PerformanceTimer.EIGHTH_MILE, PerformanceTimer.QUARTER_MILE};
+    private String[] runSpeedLabels;
+    private String[] runDistanceLabels;
+    private double maxSpeed = -100.0;
+
+    public SpeedEngine(DecimalText format) {
+        this.format = format;
+        applyRunTargets();
+    }
+
+    public int getUnitType() {
+        return unitType;
+    }
+
+    /**
+     * Selects the display unit, see {@link SpeedUnit}. Refreshes the max speed text; a
+     * performance run under way is dropped.
+     */
+    public void setUnitType(int unitType) {
+        this.unitType = unitType;
+        multiplier = SpeedUnit.multiplier(unitType);
+        shownSpeed.reset();
+        invalidateStatsText();
+        updateMaxSpeedText();
+        // speed targets are numbers in the display unit
+        applyRunTargets();
+    }
+
+    /**
+     * Replaces the speed filter, see {@link SpeedFilters}. The new filter starts from the next fix.
+     */
+    public void setFilter(SpeedFilter filter) {
+        filter.reset();
+        this.filter = filter;
+    }
+
+    /**
+     * Sets the roads whose speed limits are shown and checked, or none. Takes effect from the
+     * next fix.
+     */
+    public void setZones(ZoneIndex zones) {
+        speedLimits = zones != null ? new SpeedLimitMonitor(zones) : null;
+        snapshot.speedLimit = Float.NaN;
+        snapshot.overspeed = false;
+        limitKey = Long.MIN_VALUE;
+    }
+
+    /**
+     * Sets the gates laps and splits are timed at, or none. Timing starts at the next
+     * start/finish gate crossed.
+     */
+    public void setGates(GateIndex gates) {
+        lapTimer = gates != null ? new LapTimer(gates) : null;
+        snapshot.laps = 0;
+        snapshot.bestLapNanos = Long.MIN_VALUE;
+        lapKey = Long.MIN_VALUE;
+    }
+
+    /**
+     * @return the lap timer over the gates set, null without gates
+     */
+    public LapTimer getLapTimer() {
+        return lapTimer;
+    }
+
+    /**
+     * Sets what performance runs are timed to. A run under way is dropped if they change.
+     *
+     * @param speeds    in the display unit, ascending; null for the defaults of the unit, see
+     *                  {@link SpeedUnit#runTargets}
+     * @param distances in meters, ascending; null for the eighth and the quarter mile
+     */
+    public void setRunTargets(float[] speeds, double[] distances) {
+        if (distances == null) {
+            distances = new double[] {PerformanceTimer.EIGHTH_MILE, PerformanceTimer.QUARTER_MILE};
+        }
+        if (Arrays.equals(speeds, runSpeeds) && Arrays.equals(distances, runDistances)) {
+            return;
+        }
+        runSpeeds = speeds != null ? speeds.clone() : null;
+        runDistances = distances.clone();
+        applyRunTargets();
+    }
+
+    private void applyRunTargets() {
+        float[] speeds = runSpeeds != null ? runSpeeds : SpeedUnit.runTargets(unitType);
+        float[] metersPerSecond = new float[speeds.length];
+        runSpeedLabels = new String[speeds.length];
+        for (int i = 0; i < speeds.length; i++) {
+            metersPerSecond[i] = speeds[i] / multiplier;
+            runSpeedLabels[i] = "0-" + formatTarget(speeds[i]);
+        }
+        runDistanceLabels = new String[runDistances.length];
+        for (int i = 0; i < runDistances.length; i++) {
+            // drag distances are fractions of a mile, whatever the unit
+            double eighths = runDistances[i] / METERS_PER_MILE * 8.0;
+            if (Math.abs(eighths - Math.rint(eighths)) < 1e-6 && eighths >= 1.0) {
+                long n = (long) Math.rint(eighths);
+                long d = 8;
+                while (n % 2 == 0 && d > 1) {
+                    n /= 2;
+                    d /= 2;
+                }
+                runDistanceLabels[i] = (d == 1 ? Long.toString(n) : n + "/" + d) + " mi";
+            } else {
+                runDistanceLabels[i] = formatTarget(runDistances[i]) + " m";
+            }
+        }
+        runTimer.setTargets(metersPerSecond, runDistances);
+        runKey = Long.MIN_VALUE;
+    }
+
+    private static String formatTarget(double value) {
+        return value == Math.rint(value) ? Long.toString((long) value) : Double.toString(value);
+    }
+
+    /**
+     * Arms or disarms the performance run mode; armed, a run is timed from every standstill.
+     */
+    public void setRunArmed(boolean armed) {
+        if (armed) {
+            runTimer.arm();
+        } else {
+            runTimer.disarm();
+        }
+        snapshot.runState = runTimer.getState();
+    }
+
+    /**
+     * @return the timer of performance runs, never null
+     */
+    public PerformanceTimer getPerformanceTimer() {
+        return runTimer;
+    }
+
+    /**
+     * @return highest speed seen in meters/second, negative if none yet
+     */
+    public double getMaxSpeed() {
+        return maxSpeed;
+    }
+
+    /**
+     * Restores a previously saved max speed, in meters/second.
+     */
+    public void setMaxSpeed(double maxSpeed) {
+        this.maxSpeed = maxSpeed;
+        updateMaxSpeedText();
+    }
+
+    /**
+     * @return statistics of the current trip, updated by every fix
+     */
+    public TripStats getTripStats() {
+        return tripStats;
+    }
+
+    /**
+     * @return the route and bounds of the current trip, updated by every fix
+     */
+    public TripSummarizer getTripSummarizer() {
+        return tripSummarizer;
+    }
+
+    /**
+     * Adds every fix of a recorded track to the statistics and summary of the trip, e.g. to
+     * rebuild those of a trip that is resumed after the process was restarted.
+     *
+     * @param filter speed filter to judge moving with, fresh or reset
+     */
+    public void addTripTrack(TrackReader reader, SpeedFilter filter) throws IOException {
+        Fix fix = new Fix();
+        while (reader.next(fix)) {
+            tripStats.update(fix, filter.update(fix));
+            tripSummarizer.update(fix);
+        }
+    }
+
+    /**
+     * Starts the statistics of a new trip. The max speed is kept.
+     */
+    public void resetTrip() {
+        tripStats.reset();
+        tripSummarizer.reset();
+        percentileTotal = -1L;
+        invalidateStatsText();
+        updateStats();
+        updateStatsText();
+    }
+
+    /**
+     * @return the snapshot updated by {@link #process(Fix)}
+     */
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Processes one fix.
+     *
+     * @return the updated snapshot, the same instance on every call
+     */
+    public Snapshot process(Fix fix) {
+        update(fix);
+        updateText();
+        return snapshot;
+    }
+
+    /**
+     * Processes one fix but only updates the numeric fields of the snapshot, for fixes that
+     * will not be displayed, such as all but the last of a batch. Call {@link #updateText()}
+     * before the snapshot is displayed.
+     *
+     * @return the updated snapshot, the same instance on every call
+     */
+    public Snapshot update(Fix fix) {
+        Snapshot s = snapshot;
+        float speed = fix.speed;
+        float filteredSpeed = filter.update(fix);
+        tripStats.update(fix, filteredSpeed);
+        tripSummarizer.update(fix);
+        // raw speeds spike; only speeds confirmed by the trip statistics raise the max
+        if (maxSpeed < tripStats.getMaxSpeed()) {
+            maxSpeed = tripStats.getMaxSpeed();
+        }
+        float displaySpeed = Float.isNaN(filteredSpeed) ? 0.0f : filteredSpeed * multiplier;
+
+        s.elapsedNanos = fix.elapsedNanos;
+        s.latitude = fix.latitude;
+        s.longitude = fix.longitude;
+        s.speed = speed;
+        s.filteredSpeed = filteredSpeed;
+        s.displaySpeed = displaySpeed;
+        s.maxSpeed = maxSpeed;
+        s.accuracy = fix.accuracy;
+        s.hasAccuracy = fix.hasAccuracy;
+        // the shown digits move with every fix, so a batch shows what its fixes one by one would
+        shownSpeed.update(displaySpeed);
+        if (fix.hasAccuracy) {
+            shownAccuracy.update(fix.accuracy);
+        }
+        heading.updateBearing(fix, filteredSpeed);
+        s.bearing = (float) heading.getHeading();
+        s.heading = Compass.sector(s.bearing);
+        if (speedLimits != null) {
+            s.overspeed = speedLimits.update(fix, filteredSpeed);
+            s.speedLimit = speedLimits.getLimit();
+        }
+        if (lapTimer != null) {
+            lapTimer.update(fix);
+            s.laps = lapTimer.getLaps();
+            s.bestLapNanos = lapTimer.getBestLapNanos();
+        }
+        if (runTimer.getState() != PerformanceTimer.OFF) {
+            runTimer.update(fix);
+            s.runState = runTimer.getState();
+        }
+        updateStats();
+        return s;
+    }
+
+    /**
+     * Takes a heading sensor sample, which is used at low speed, see {@link HeadingFilter}.
+     *
+     * @param azimuth direction the device faces, in degrees clockwise from north
+     * @return whether the shown heading changed; the snapshot, text included, is then updated
+     */
+    public boolean updateHeading(double azimuth, long elapsedNanos) {
+        if (!heading.updateSensor(azimuth, elapsedNanos)) {
+            return false;
+        }
+        snapshot.bearing = (float) heading.getHeading();
+        int sector = Compass.sector(snapshot.bearing);
+        if (sector == snapshot.heading) {
+            return false;
+        }
+        snapshot.heading = sector;
+        snapshot.headingText.set(Compass.name(sector));
+        return true;
+    }
+
+    /**
+     * @return the estimated direction of travel in degrees, NaN if unknown
+     */
+    public double getHeading() {
+        return heading.getHeading();
+    }
+
+    /**
+     * @return whether heading sensor samples would be used at the current speed
+     */
+    public boolean wantsHeadingSensor() {
+        return heading.wantsSensor();
+    }
+
+    private void updateStats() {
+        Snapshot s = snapshot;
+        s.distance = tripStats.getDistance();
+        s.movingAverageSpeed = tripStats.getMovingAverageSpeed();
+    }
+
+    /**
+     * Formats the text of the snapshot from its numeric fields. The speed and accuracy digits
+     * only change once the value has clearly moved past a rounding boundary.
+     */
+    public void updateText() {
+        Snapshot s = snapshot;
+        s.speedText.setNumber(format, shownSpeed.shown(s.displaySpeed), 0);
+        s.maxSpeedText.setNumber(format, maxSpeed * multiplier, 0);
+        if (s.hasAccuracy) {
+            s.accuracyText.setNumber(format, shownAccuracy.shown(s.accuracy), 0, ACCURACY_SUFFIX);
+        } else {
+            s.accuracyText.set(NIL);
+        }
+        s.headingText.set(Compass.name(s.heading));
+        s.latitudeText.setNumber(format, s.latitude, 4);
+        s.longitudeText.setNumber(format, s.longitude, 4);
+        // changes with the road only, so only formatted when the shown number changes
+        long key = Float.isNaN(s.speedLimit) ? Long.MAX_VALUE : (long) Math.rint(s.speedLimit * multiplier);
+        if (key != limitKey) {
+            limitKey = key;
+            if (Float.isNaN(s.speedLimit)) {
+                s.speedLimitText.set("");
+            } else {
+                s.speedLimitText.setNumber(format, s.speedLimit * multiplier, 0);
+            }
+        }
+        key = lapTimer != null ? lapTimer.getEvents() : Long.MAX_VALUE;
+        if (key != lapKey) {
+            lapKey = key;
+            updateLapText();
+        }
+        key = runTimer.getEvents();
+        if (key != runKey) {
+            runKey = key;
+            updateRunText();
+        }
+        updateStatsText();
+    }
+
+    private void updateRunText() {
+        Snapshot s = snapshot;
+        int state = runTimer.getState();
+        // the target reached last, shown until the next standstill
+        String label = null;
+        long nanos = PerformanceTimer.NONE;
+        for (int i = 0; i < runTimer.getSpeedTargetCount(); i++) {
+            if (runTimer.getSpeedNanos(i) > nanos) {
+                nanos = runTimer.getSpeedNanos(i);
+                label = runSpeedLabels[i];
+            }
+        }
+        for (int i = 0; i < runTimer.getDistanceTargetCount(); i++) {
+            if (runTimer.getDistanceNanos(i) > nanos) {
+                nanos = runTimer.getDistanceNanos(i);
+                label = runDistanceLabels[i];
+            }
+        }
+        if (state == PerformanceTimer.OFF) {
+            s.runText.set("");
+        } else if (state == PerformanceTimer.READY) {
+            s.runText.set(RUN_READY);
+        } else if (label != null) {
+            s.runText.setDuration(format, label, -1, nanos, Long.MIN_VALUE);
+        } else {
+            s.runText.set(state == PerformanceTimer.RUNNING ? RUN_GO : RUN_ARMED);
+        }
+    }
+
+    private void updateLapText() {
+        Snapshot s = snapshot;
+        int event = lapTimer != null ? lapTimer.getLastEvent() : 0;
+        if (event == LapTimer.STARTED) {
+            s.lapText.setDuration(format, LAP_LABEL, lapTimer.getLaps() + 1, 0L, Long.MIN_VALUE);
+        } else if (event == LapTimer.LAP) {
+            s.lapText.setDuration(format, LAP_LABEL, lapTimer.getLaps(), lapTimer.getLastTimeNanos(),
+                    lapTimer.getLastDeltaNanos());
+        } else if (event == LapTimer.SPLIT) {
+            s.lapText.setDuration(format, SPLIT_LABEL, lapTimer.getSector(), lapTimer.getLastTimeNanos(),
+                    lapTimer.getLastDeltaNanos());
+        } else {
+            s.lapText.set("");
+        }
+        if (s.bestLapNanos != Long.MIN_VALUE) {
+            s.bestLapText.setDuration(format, BEST_LAP_LABEL, -1, s.bestLapNanos, Long.MIN_VALUE);
+        } else {
+            s.bestLapText.set("");
+        }
+    }
+
+    private void updateStatsText() {
+        Snapshot s = snapshot;
+        // a percentile of the whole trip hardly moves from one fix to the next, so the bucket
+        // walk is only repeated after another second of moving time
+        long total = tripStats.getHistogram().getTotal();
+        if (percentileTotal < 0 || total - percentileTotal >= 1000000000L) {
+            percentileTotal = total;
+            s.p95Speed = tripStats.getSpeedPercentile(0.95);
+        }
+        // these change far less often than once per fix; only format them when the displayed
+        // digits change
+        double distance = s.distance * SpeedUnit.distanceMultiplier(unitType);
+        long key = (long) Math.rint(distance * 10);
+        if (key != distanceKey) {
+            distanceKey = key;
+            s.distanceText.setNumber(format, distance, 1, SpeedUnit.distanceSuffix(unitType));
+        }
+        double average = s.movingAverageSpeed * multiplier;
+        key = (long) Math.rint(average);
+        if (key != averageKey) {
+            averageKey = key;
+            s.averageSpeedText.setNumber(format, average, 0, AVERAGE_SUFFIX);
+        }
+        double p95 = s.p95Speed * multiplier;
+        key = Float.isNaN(s.p95Speed) ? Long.MAX_VALUE : (long) Math.rint(p95);
+        if (key != p95Key) {
+            p95Key = key;
+            if (Float.isNaN(s.p95Speed)) {
+                s.p95SpeedText.set(NIL);
+            } else {
+                s.p95SpeedText.setNumber(format, p95, 0, P95_SUFFIX);
+            }
+        }
+    }
+
+    private void invalidateStatsText() {
+        limitKey = Long.MIN_VALUE;
+        distanceKey = Long.MIN_VALUE;
+        averageKey = Long.MIN_VALUE;
+        p95Key = Long.MIN_VALUE;
+    }
+
+    private void updateMaxSpeedText() {
+        snapshot.maxSpeed = maxSpeed;
+        if (maxSpeed > 0) {
+            snapshot.maxSpeedText.setNumber(format, maxSpeed * multiplier, 0);
+        }
+    }
+}
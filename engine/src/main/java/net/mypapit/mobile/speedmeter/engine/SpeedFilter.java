@@ -0,0 +1,20 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+/**
+ * Smooths the speed reported by successive fixes. Implementations keep constant-size state
+ * and must not allocate per update.
+ */
+public interface SpeedFilter {
+
+    /**
+     * Folds one fix into the filter.
+     *
+     * @return the filtered speed in meters/second, NaN until the first fix with a speed
+     */
+    float update(Fix fix);
+
+    /**
+     * Forgets all history, as if no fix had been seen.
+     */
+    void reset();
+}
@@ -0,0 +1,29 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+/**
+ * Creates the speed filter selected by the "speedFilter" preference.
+ */
+public final class SpeedFilters {
+
+    public static final String LEGACY = "legacy";
+    public static final String RESPONSIVE = "responsive";
+    public static final String BALANCED = "balanced";
+    public static final String SMOOTH = "smooth";
+
+    private SpeedFilters() {
+    }
+
+    /**
+     * @param name one of the preference values; unknown names give the balanced filter
+     */
+    public static SpeedFilter create(String name) {
+        if (LEGACY.equals(name)) {
+            return new RatioSpeedFilter(2);
+        } else if (RESPONSIVE.equals(name)) {
+            return new KalmanSpeedFilter(KalmanSpeedFilter.RESPONSIVE, true);
+        } else if (SMOOTH.equals(name)) {
+            return new KalmanSpeedFilter(KalmanSpeedFilter.SMOOTH, true);
+        }
+        return new KalmanSpeedFilter(KalmanSpeedFilter.BALANCED, true);
+    }
+}
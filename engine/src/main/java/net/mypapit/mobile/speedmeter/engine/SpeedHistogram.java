@@ -0,0 +1,114 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Time spent at each speed, in fixed 0.5 m/s buckets up to {@link #MAX_SPEED}, from which
+ * speed percentiles are read. Memory is fixed whatever the length of the trip, and
+ * histograms of different trips can be merged by adding them. Not thread-safe.
+ */
+public final class SpeedHistogram {
+
+    public static final float BUCKET_WIDTH = 0.5f;
+    /** Speeds from here up share the last bucket; 100 m/s is 360 km/h */
+    public static final float MAX_SPEED = 100.0f;
+    private static final int BUCKETS = (int) (MAX_SPEED / BUCKET_WIDTH) + 1;
+    /** Size written by {@link #writeTo(ByteBuffer)} */
+    public static final int BYTES = BUCKETS * 8;
+
+    private final long[] weights = new long[BUCKETS];
+    private long total;
+
+    /**
+     * @param speed  meters/second
+     * @param weight time spent at the speed, in any unit as long as it is always the same one
+     */
+    public void add(float speed, long weight) {
+        if (weight <= 0 || !(speed >= 0.0f)) {
+            return;
+        }
+        int bucket = speed >= MAX_SPEED ? BUCKETS - 1 : (int) (speed / BUCKET_WIDTH);
+        weights[bucket] += weight;
+        total += weight;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Reads a percentile, interpolating linearly within its bucket. High percentiles are
+     * read from the top and low ones from the bottom, so only a few buckets are visited for
+     * the percentiles usually wanted.
+     *
+     * @param fraction percentile as a fraction, e.g. 0.95
+     * @return speed in meters/second below which that fraction of the time was spent, NaN if
+     *         the histogram is empty
+     */
+    public float percentile(double fraction) {
+        if (total == 0) {
+            return Float.NaN;
+        }
+        double target = fraction * total;
+        if (fraction <= 0.5) {
+            long cumulative = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                long w = weights[i];
+                if (w > 0 && cumulative + w >= target) {
+                    return (float) ((i + (target - cumulative) / w) * BUCKET_WIDTH);
+                }
+                cumulative += w;
+            }
+        } else {
+            double above = total - target;
+            long cumulative = 0;
+            for (int i = BUCKETS - 1; i >= 0; i--) {
+                long w = weights[i];
+                if (w > 0 && cumulative + w >= above) {
+                    return (float) ((i + 1 - (above - cumulative) / w) * BUCKET_WIDTH);
+                }
+                cumulative += w;
+            }
+        }
+        return MAX_SPEED;
+    }
+
+    /**
+     * Adds another histogram to this one.
+     */
+    public void merge(SpeedHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            weights[i] += other.weights[i];
+        }
+        total += other.total;
+    }
+
+    public void copyFrom(SpeedHistogram other) {
+        System.arraycopy(other.weights, 0, weights, 0, BUCKETS);
+        total = other.total;
+    }
+
+    public void writeTo(ByteBuffer buffer) {
+        for (int i = 0; i < BUCKETS; i++) {
+            buffer.putLong(weights[i]);
+        }
+    }
+
+    /**
+     * Replaces the contents with {@link #BYTES} bytes written by {@link #writeTo(ByteBuffer)}.
+     */
+    public void readFrom(ByteBuffer buffer) {
+        total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            weights[i] = buffer.getLong();
+            total += weights[i];
+        }
+    }
+
+    public void clear() {
+        for (int i = 0; i < BUCKETS; i++) {
+            weights[i] = 0;
+        }
+        total = 0;
+    }
+}
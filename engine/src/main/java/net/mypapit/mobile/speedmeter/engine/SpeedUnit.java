@@ -0,0 +1,68 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+/**
+ * The velocity units offered in the settings screen. Unit types are the 1-based values
+ * stored by the "unit" list preference.
+ */
+public final class SpeedUnit {
+
+    public static final int KMH = 1;
+    public static final int MPH = 2;
+    public static final int METERS_PER_SECOND = 3;
+    public static final int KNOTS = 4;
+
+    private static final String[] LABELS = {"km/h", "mph", "meter/sec", "knots"};
+    private static final float[] MULTIPLIERS = {3.6f, 2.2369363f, 1.0f, 1.943856f};
+    private static final String[] DISTANCE_SUFFIXES = {" km", " mi", " km", " nm"};
+    private static final double[] DISTANCE_MULTIPLIERS = {0.001, 1.0 / 1609.344, 0.001, 1.0 / 1852.0};
+    /** Speeds performance runs are timed to by default, in each unit */
+    private static final float[][] RUN_TARGETS = {{50.0f, 100.0f}, {30.0f, 60.0f}, {10.0f, 20.0f, 30.0f}, {30.0f, 60.0f}};
+
+    private SpeedUnit() {
+    }
+
+    /**
+     * @param unitType one of the unit constants
+     * @return factor converting meters/second into the given unit. Unknown types fall back to km/h
+     */
+    public static float multiplier(int unitType) {
+        return MULTIPLIERS[index(unitType)];
+    }
+
+    /**
+     * @param unitType one of the unit constants
+     * @return the short label displayed next to the speed
+     */
+    public static String label(int unitType) {
+        return LABELS[index(unitType)];
+    }
+
+    /**
+     * @param unitType one of the unit constants
+     * @return factor converting meters into the distance unit that goes with the speed unit
+     */
+    public static double distanceMultiplier(int unitType) {
+        return DISTANCE_MULTIPLIERS[index(unitType)];
+    }
+
+    /**
+     * @param unitType one of the unit constants
+     * @return the distance unit label, with a leading space, e.g. " km"
+     */
+    public static String distanceSuffix(int unitType) {
+        return DISTANCE_SUFFIXES[index(unitType)];
+    }
+
+    /**
+     * @param unitType one of the unit constants
+     * @return the speeds performance runs are timed to by default, such as 0-100 km/h or
+     *         0-60 mph, in the given unit; a new array
+     */
+    public static float[] runTargets(int unitType) {
+        return RUN_TARGETS[index(unitType)].clone();
+    }
+
+    private static int index(int unitType) {
+        return (unitType < KMH || unitType > KNOTS) ? 0 : unitType - 1;
+    }
+}
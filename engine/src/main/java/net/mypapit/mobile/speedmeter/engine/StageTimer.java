@@ -0,0 +1,63 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+/**
+ * Accumulates how long each stage of {@link FixPipeline} takes, as a count, a total and a
+ * maximum per stage. Recording does not allocate. Not thread-safe.
+ */
+public final class StageTimer {
+
+    private final String[] names;
+    private final long[] counts;
+    private final long[] totalNanos;
+    private final long[] maxNanos;
+
+    public StageTimer(String... names) {
+        this.names = names;
+        counts = new long[names.length];
+        totalNanos = new long[names.length];
+        maxNanos = new long[names.length];
+    }
+
+    public void record(int stage, long nanos) {
+        counts[stage]++;
+        totalNanos[stage] += nanos;
+        if (maxNanos[stage] < nanos) {
+            maxNanos[stage] = nanos;
+        }
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String name(int stage) {
+        return names[stage];
+    }
+
+    public long count(int stage) {
+        return counts[stage];
+    }
+
+    public long totalNanos(int stage) {
+        return totalNanos[stage];
+    }
+
+    public long maxNanos(int stage) {
+        return maxNanos[stage];
+    }
+
+    /**
+     * @return mean duration of the stage in nanoseconds, 0 if it never ran
+     */
+    public double meanNanos(int stage) {
+        return counts[stage] == 0 ? 0.0 : (double) totalNanos[stage] / counts[stage];
+    }
+
+    public void reset() {
+        for (int i = 0; i < names.length; i++) {
+            counts[i] = 0;
+            totalNanos[i] = 0;
+            maxNanos[i] = 0;
+        }
+    }
+}
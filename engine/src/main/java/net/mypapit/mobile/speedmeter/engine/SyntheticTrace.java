@@ -0,0 +1,164 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+import java.util.Random;
+
+/**
+ * Generates a deterministic drive for exercising the pipeline without a receiver: the vehicle
+ * repeatedly waits at a stop, accelerates, cruises with gentle turns and brakes, while speed,
+ * bearing and position carry receiver-like noise.
+ */
+public final class SyntheticTrace {
+
+    private static final double EARTH_RADIUS = 6371008.8;
+
+    private static final int STOPPED = 0;
+    private static final int ACCELERATING = 1;
+    private static final int CRUISING = 2;
+    private static final int BRAKING = 3;
+
+    private final long intervalNanos;
+    private final long seed;
+    private final Random random;
+    private final double startLatitude;
+    private final double startLongitude;
+
+    private long elapsedNanos;
+    private long time;
+    private double latitude;
+    private double longitude;
+    private double speed;
+    private double bearing;
+    private int phase;
+    private double phaseRemaining;
+    private double cruiseSpeed;
+    private double turnRate;
+
+    /**
+     * @param rateHz fixes per second
+     * @param seed   seed for the noise and drive profile; equal seeds give equal traces
+     */
+    public SyntheticTrace(double rateHz, long seed) {
+        this(rateHz, seed, 3.139, 101.6869);
+    }
+
+    public SyntheticTrace(double rateHz, long seed, double startLatitude, double startLongitude) {
+        this.intervalNanos = (long) (1e9 / rateHz);
+        this.seed = seed;
+        this.random = new Random(seed);
+        this.startLatitude = startLatitude;
+        this.startLongitude = startLongitude;
+        reset();
+    }
+
+    /**
+     * Rewinds to the first fix, replaying the same sequence again.
+     */
+    public void reset() {
+        random.setSeed(seed);
+        elapsedNanos = 0;
+        time = 1500000000000L;
+        latitude = startLatitude;
+        longitude = startLongitude;
+        speed = 0.0;
+        bearing = 90.0;
+        phase = STOPPED;
+        phaseRemaining = 5.0;
+        cruiseSpeed = 20.0;
+        turnRate = 0.0;
+    }
+
+    public long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    /**
+     * @return the true (noise free) speed of the last generated fix, in meters/second
+     */
+    public double getTrueSpeed() {
+        return speed;
+    }
+
+    /**
+     * @return the true direction of travel at the last generated fix, in degrees; kept while
+     *         stopped
+     */
+    public double getTrueBearing() {
+        return bearing;
+    }
+
+    /**
+     * Advances by one fix interval and writes the observed fix.
+     *
+     * @return the fix that was passed in
+     */
+    public Fix next(Fix fix) {
+        double dt = intervalNanos / 1e9;
+        step(dt);
+        elapsedNanos += intervalNanos;
+        time += intervalNanos / 1000000L;
+
+        double accuracy = 3.0 + 2.0 * Math.abs(random.nextGaussian());
+        double noiseNorth = random.nextGaussian() * accuracy * 0.3;
+        double noiseEast = random.nextGaussian() * accuracy * 0.3;
+        double observedSpeed = Math.max(0.0, speed + random.nextGaussian() * 0.4);
+        // the bearing is the direction of the noisy velocity, so it scatters more the slower the
+        // vehicle and is random when stopped
+        float observedBearing = Float.NaN;
+        if (observedSpeed > 0.2) {
+            double spread = 2.0 + Math.toDegrees(Math.atan2(0.4, speed));
+            observedBearing = (float) normalize(bearing + random.nextGaussian() * spread);
+        }
+        fix.set(elapsedNanos, time,
+                latitude + Math.toDegrees(noiseNorth / EARTH_RADIUS),
+                longitude + Math.toDegrees(noiseEast / (EARTH_RADIUS * Math.cos(Math.toRadians(latitude)))),
+                (float) observedSpeed, observedBearing, (float) accuracy);
+        return fix;
+    }
+
+    private void step(double dt) {
+        phaseRemaining -= dt;
+        switch (phase) {
+            case STOPPED:
+                speed = 0.0;
+                if (phaseRemaining <= 0) {
+                    phase = ACCELERATING;
+                    cruiseSpeed = 8.0 + random.nextDouble() * 25.0;
+                }
+                break;
+            case ACCELERATING:
+                speed = Math.min(cruiseSpeed, speed + 2.5 * dt);
+                if (speed >= cruiseSpeed) {
+                    phase = CRUISING;
+                    phaseRemaining = 30.0 + random.nextDouble() * 90.0;
+                }
+                break;
+            case CRUISING:
+                if (random.nextDouble() < dt / 10.0) {
+                    turnRate = (random.nextDouble() - 0.5) * 20.0;
+                }
+                bearing = normalize(bearing + turnRate * dt);
+                if (phaseRemaining <= 0) {
+                    phase = BRAKING;
+                    turnRate = 0.0;
+                }
+                break;
+            case BRAKING:
+            default:
+                speed = Math.max(0.0, speed - 3.5 * dt);
+                if (speed <= 0.0) {
+                    phase = STOPPED;
+                    phaseRemaining = 5.0 + random.nextDouble() * 25.0;
+                }
+                break;
+        }
+        double distance = speed * dt;
+        double b = Math.toRadians(bearing);
+        latitude += Math.toDegrees(distance * Math.cos(b) / EARTH_RADIUS);
+        longitude += Math.toDegrees(distance * Math.sin(b) / (EARTH_RADIUS * Math.cos(Math.toRadians(latitude))));
+    }
+
+    private static double normalize(double degrees) {
+        degrees %= 360.0;
+        return degrees < 0 ? degrees + 360.0 : degrees;
+    }
+}
@@ -0,0 +1,138 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+/**
+ * A reusable piece of display text. Updates are written into a scratch buffer and only swapped
+ * in when they differ from the current text, so that renderers can skip unchanged fields.
+ */
+public final class TextSlot {
+
+    private char[] chars;
+    private char[] scratch;
+    private int length;
+    private boolean changed;
+
+    public TextSlot(int capacity) {
+        chars = new char[capacity];
+        scratch = new char[capacity];
+    }
+
+    /**
+     * @return the backing array; valid up to {@link #length()} until the next update
+     */
+    public char[] chars() {
+        return chars;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return true if any update since the last {@link #clearChanged()} changed the text
+     */
+    public boolean isChanged() {
+        return changed;
+    }
+
+    public void clearChanged() {
+        changed = false;
+    }
+
+    /**
+     * Replaces the text with a formatted number.
+     */
+    public void setNumber(DecimalText format, double value, int fractionDigits) {
+        commit(format.format(value, fractionDigits, scratch, 0));
+    }
+
+    /**
+     * Replaces the text with a formatted number followed by a constant suffix.
+     */
+    public void setNumber(DecimalText format, double value, int fractionDigits, String suffix) {
+        int len = format.format(value, fractionDigits, scratch, 0);
+        suffix.getChars(0, suffix.length(), scratch, len);
+        commit(len + suffix.length());
+    }
+
+    /**
+     * Replaces the text with a constant string.
+     */
+    public void set(String text) {
+        text.getChars(0, text.length(), scratch, 0);
+        commit(text.length());
+    }
+
+    /**
+     * Replaces the text with a labelled duration to hundredths of a second, such as
+     * {@code L3 1:23.45 -0.31}: the label, the number unless it is negative, minutes and
+     * seconds, and the signed difference to another duration unless {@code deltaNanos} is
+     * {@link Long#MIN_VALUE}.
+     */
+    public void setDuration(DecimalText format, String label, int number, long nanos, long deltaNanos) {
+        int len = label.length();
+        label.getChars(0, len, scratch, 0);
+        if (number >= 0) {
+            len += format.format(number, 0, scratch, len);
+        }
+        scratch[len++] = ' ';
+        long hundredths = (Math.max(0L, nanos) + 5000000L) / 10000000L;
+        len += format.format(hundredths / 6000, 0, scratch, len);
+        scratch[len++] = ':';
+        long seconds = hundredths % 6000;
+        scratch[len++] = (char) ('0' + seconds / 1000);
+        scratch[len++] = (char) ('0' + seconds / 100 % 10);
+        len = appendHundredths(format, seconds % 100, len);
+        if (deltaNanos != Long.MIN_VALUE) {
+            long delta = Math.round(deltaNanos / 1e7);
+            scratch[len++] = ' ';
+            scratch[len++] = delta < 0 ? '-' : '+';
+            delta = Math.abs(delta);
+            len += format.format(delta / 100, 0, scratch, len);
+            len = appendHundredths(format, delta % 100, len);
+        }
+        commit(len);
+    }
+
+    /**
+     * Copies the text of another slot of the same capacity, marking this slot changed if the
+     * text differs from what it held.
+     */
+    public void copyFrom(TextSlot other) {
+        boolean same = other.length == length;
+        for (int i = 0; same && i < length; i++) {
+            same = other.chars[i] == chars[i];
+        }
+        if (!same) {
+            System.arraycopy(other.chars, 0, chars, 0, other.length);
+            length = other.length;
+            changed = true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+
+    private int appendHundredths(DecimalText format, long hundredths, int offset) {
+        scratch[offset] = format.getDecimalSeparator();
+        scratch[offset + 1] = (char) ('0' + hundredths / 10);
+        scratch[offset + 2] = (char) ('0' + hundredths % 10);
+        return offset + 3;
+    }
+
+    private void commit(int newLength) {
+        boolean same = newLength == length;
+        for (int i = 0; same && i < newLength; i++) {
+            same = scratch[i] == chars[i];
+        }
+        if (same) {
+            return;
+        }
+        char[] previous = chars;
+        chars = scratch;
+        scratch = previous;
+        length = newLength;
+        changed = true;
+    }
+}
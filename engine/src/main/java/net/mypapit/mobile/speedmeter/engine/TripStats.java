@@ -0,0 +1,255 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+import net.mypapit.mobile.speedmeter.engine.track.TrackReader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Statistics of a trip, updated incrementally in constant time and memory per fix: distance,
+ * moving and stopped time, average speeds, a maximum speed that ignores single-fix spikes and
+ * a {@link SpeedHistogram} of the time spent moving for speed percentiles.
+ * <p>
+ * Distance is the sum of haversine steps between anchor positions. The anchor only moves
+ * on once a step is longer than the position uncertainty, or once {@link #MIN_STEP_NANOS}
+ * have passed while moving, so that position jitter neither adds up while stopped nor at
+ * high fix rates. Neither the distance nor the time across gaps in the fixes longer than
+ * {@link #MAX_GAP_NANOS} is counted: the anchor moves to the first fix after the gap.
+ * <p>
+ * Statistics of several trips can be combined with {@link #merge(TripStats)}. Not thread-safe.
+ */
+public final class TripStats {
+
+    /** Filtered speeds from this up count as moving, in meters/second */
+    public static final float MOVING_SPEED = 1.0f;
+    public static final long MAX_GAP_NANOS = 30000000000L;
+    public static final long MIN_STEP_NANOS = 1000000000L;
+    /** Changes in raw speed faster than this, in meters/second per second, are taken as spikes */
+    private static final float MAX_ACCELERATION = 8.0f;
+    /** Allowance for receiver noise on top of the acceleration limit, in meters/second */
+    private static final float SPEED_TOLERANCE = 1.0f;
+    private static final double EARTH_RADIUS = 6371008.8;
+    /** Size of the totals written by {@link #writeTo(ByteBuffer)} */
+    public static final int BYTES = 8 * 4 + 4 + SpeedHistogram.BYTES;
+
+    private final SpeedHistogram histogram = new SpeedHistogram();
+    private double distance;
+    private double movingDistance;
+    private long movingNanos;
+    private long stoppedNanos;
+    private float maxSpeed;
+
+    // last fix, to measure steps
+    private boolean hasLast;
+    private long lastNanos;
+    private boolean hasAnchor;
+    private long anchorNanos;
+    private double anchorLatitude;
+    private double anchorLongitude;
+    private float anchorAccuracy;
+    private double anchorCosLatitude;
+    private boolean hasLastSpeed;
+    private float lastSpeed;
+    private boolean lastPlausible;
+
+    /**
+     * Adds a fix.
+     *
+     * @param filteredSpeed speed from the speed filter in meters/second, NaN if not known yet;
+     *                      decides whether the trip is moving
+     */
+    public void update(Fix fix, float filteredSpeed) {
+        long dt = hasLast ? fix.elapsedNanos - lastNanos : -1L;
+        boolean continuous = dt > 0 && dt <= MAX_GAP_NANOS;
+        float speed = !Float.isNaN(filteredSpeed) ? filteredSpeed : fix.hasSpeed ? fix.speed : 0.0f;
+        boolean moving = speed >= MOVING_SPEED;
+
+        if (!continuous) {
+            // whatever happened in the gap was not driven as far as we know
+            setAnchor(fix);
+        } else if (hasAnchor) {
+            double step = stepFromAnchor(fix.latitude, fix.longitude);
+            float uncertainty = fix.hasAccuracy ? anchorAccuracy + fix.accuracy : 0.0f;
+            if ((moving && fix.elapsedNanos - anchorNanos >= MIN_STEP_NANOS) || step > uncertainty) {
+                distance += step;
+                if (moving) {
+                    movingDistance += step;
+                }
+                setAnchor(fix);
+            }
+        } else {
+            setAnchor(fix);
+        }
+
+        if (continuous) {
+            if (moving) {
+                movingNanos += dt;
+                histogram.add(speed, dt);
+            } else {
+                stoppedNanos += dt;
+            }
+        }
+
+        // a new maximum must be confirmed by two consecutive plausible fixes
+        if (fix.hasSpeed) {
+            boolean plausible = !hasLastSpeed || !continuous
+                    || Math.abs(fix.speed - lastSpeed) <= MAX_ACCELERATION * (dt / 1e9f) + SPEED_TOLERANCE;
+            if (plausible && lastPlausible && hasLastSpeed && continuous) {
+                float confirmed = Math.min(fix.speed, lastSpeed);
+                if (maxSpeed < confirmed) {
+                    maxSpeed = confirmed;
+                }
+            }
+            lastPlausible = plausible;
+            lastSpeed = fix.speed;
+            hasLastSpeed = true;
+        } else {
+            hasLastSpeed = false;
+        }
+
+        hasLast = true;
+        lastNanos = fix.elapsedNanos;
+    }
+
+    private void setAnchor(Fix fix) {
+        hasAnchor = true;
+        anchorNanos = fix.elapsedNanos;
+        anchorLatitude = fix.latitude;
+        anchorLongitude = fix.longitude;
+        anchorAccuracy = fix.hasAccuracy ? fix.accuracy : 0.0f;
+        anchorCosLatitude = Math.cos(Math.toRadians(fix.latitude));
+    }
+
+    /**
+     * Adds every fix of a recorded track, e.g. to rebuild the statistics of a trip that is
+     * resumed after the process was restarted.
+     *
+     * @param filter speed filter to judge moving with, fresh or reset
+     */
+    public void addTrack(TrackReader reader, SpeedFilter filter) throws IOException {
+        Fix fix = new Fix();
+        while (reader.next(fix)) {
+            update(fix, filter.update(fix));
+        }
+    }
+
+    /**
+     * Adds the totals of another trip. The result describes both trips together; the two
+     * need not be adjacent.
+     */
+    public void merge(TripStats other) {
+        distance += other.distance;
+        movingDistance += other.movingDistance;
+        movingNanos += other.movingNanos;
+        stoppedNanos += other.stoppedNanos;
+        maxSpeed = Math.max(maxSpeed, other.maxSpeed);
+        histogram.merge(other.histogram);
+    }
+
+    public void copyFrom(TripStats other) {
+        reset();
+        merge(other);
+    }
+
+    /**
+     * Writes the totals, the same state {@link #merge(TripStats)} combines.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.putDouble(distance);
+        buffer.putDouble(movingDistance);
+        buffer.putLong(movingNanos);
+        buffer.putLong(stoppedNanos);
+        buffer.putFloat(maxSpeed);
+        histogram.writeTo(buffer);
+    }
+
+    /**
+     * Replaces the statistics with totals written by {@link #writeTo(ByteBuffer)}. The next
+     * fix starts afresh, as after a gap.
+     */
+    public void readFrom(ByteBuffer buffer) {
+        reset();
+        distance = buffer.getDouble();
+        movingDistance = buffer.getDouble();
+        movingNanos = buffer.getLong();
+        stoppedNanos = buffer.getLong();
+        maxSpeed = buffer.getFloat();
+        histogram.readFrom(buffer);
+    }
+
+    /**
+     * Starts a new trip.
+     */
+    public void reset() {
+        histogram.clear();
+        distance = 0.0;
+        movingDistance = 0.0;
+        movingNanos = 0;
+        stoppedNanos = 0;
+        maxSpeed = 0.0f;
+        hasLast = false;
+        hasAnchor = false;
+        hasLastSpeed = false;
+        lastPlausible = false;
+    }
+
+    /**
+     * @return distance travelled, in meters
+     */
+    public double getDistance() {
+        return distance;
+    }
+
+    public long getMovingNanos() {
+        return movingNanos;
+    }
+
+    public long getStoppedNanos() {
+        return stoppedNanos;
+    }
+
+    /**
+     * @return distance over moving and stopped time, in meters/second; 0 before any time passed
+     */
+    public float getAverageSpeed() {
+        long nanos = movingNanos + stoppedNanos;
+        return nanos > 0 ? (float) (distance * 1e9 / nanos) : 0.0f;
+    }
+
+    /**
+     * @return distance while moving over moving time, in meters/second; 0 before moving
+     */
+    public float getMovingAverageSpeed() {
+        return movingNanos > 0 ? (float) (movingDistance * 1e9 / movingNanos) : 0.0f;
+    }
+
+    /**
+     * @return highest speed held for two consecutive plausible fixes, in meters/second
+     */
+    public float getMaxSpeed() {
+        return maxSpeed;
+    }
+
+    /**
+     * @param fraction e.g. 0.95 for the 95th percentile
+     * @return speed in meters/second not exceeded for that fraction of the moving time, NaN
+     *         before moving
+     */
+    public float getSpeedPercentile(double fraction) {
+        return histogram.percentile(fraction);
+    }
+
+    public SpeedHistogram getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * @return great-circle distance from the anchor by the haversine formula, in meters
+     */
+    private double stepFromAnchor(double latitude, double longitude) {
+        double sinLat = Math.sin(Math.toRadians(latitude - anchorLatitude) / 2.0);
+        double sinLon = Math.sin(Math.toRadians(longitude - anchorLongitude) / 2.0);
+        double a = sinLat * sinLat + anchorCosLatitude * Math.cos(Math.toRadians(latitude)) * sinLon * sinLon;
+        return 2.0 * EARTH_RADIUS * Math.asin(Math.sqrt(Math.min(1.0, a)));
+    }
+}
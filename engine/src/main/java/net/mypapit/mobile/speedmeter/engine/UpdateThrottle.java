@@ -0,0 +1,71 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+/**
+ * Limits how often something expensive to update, such as a notification, is posted. A
+ * change is posted at once if the last post is at least the minimum interval ago; otherwise
+ * it is held back until the interval has passed, and further changes in the meantime are
+ * folded into that one post. Posts are never closer than the interval, and the latest change
+ * is always posted in the end. Not thread-safe.
+ */
+public final class UpdateThrottle {
+
+    /** Returned by {@link #changed} when a post is already due later */
+    public static final long PENDING = -1L;
+
+    private final long minIntervalNanos;
+    private boolean posted;
+    private long lastPostNanos;
+    private boolean pending;
+
+    /**
+     * @param maxPerSecond most posts a second
+     */
+    public UpdateThrottle(int maxPerSecond) {
+        minIntervalNanos = 1000000000L / maxPerSecond;
+    }
+
+    /**
+     * Tells the throttle the content changed.
+     *
+     * @return 0 to post now; otherwise the time to wait, after which {@link #due} says whether
+     *         to post, or {@link #PENDING} if that wait was already returned for an earlier change
+     */
+    public long changed(long nowNanos) {
+        if (pending) {
+            return PENDING;
+        }
+        long wait = posted ? lastPostNanos + minIntervalNanos - nowNanos : 0L;
+        if (wait <= 0) {
+            onPost(nowNanos);
+            return 0L;
+        }
+        pending = true;
+        return wait;
+    }
+
+    /**
+     * @return whether to post the changes held back; true at most once per wait returned by
+     *         {@link #changed}, and only once it is over
+     */
+    public boolean due(long nowNanos) {
+        if (!pending || nowNanos - lastPostNanos < minIntervalNanos) {
+            return false;
+        }
+        pending = false;
+        onPost(nowNanos);
+        return true;
+    }
+
+    private void onPost(long nowNanos) {
+        posted = true;
+        lastPostNanos = nowNanos;
+    }
+
+    /**
+     * Drops any change held back; the next change is posted at once.
+     */
+    public void reset() {
+        posted = false;
+        pending = false;
+    }
+}
@@ -0,0 +1,125 @@
+package net.mypapit.mobile.speedmeter.engine.export;
+
+import net.mypapit.mobile.speedmeter.engine.DecimalText;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes ASCII text straight into a byte buffer that is drained to a channel when full.
+ * Numbers and timestamps are formatted digit by digit, so writing never allocates.
+ */
+public final class AsciiSink {
+
+    private final ByteBuffer buffer;
+    private final DecimalText decimalText = new DecimalText('.', (char) 0);
+    private final char[] digits = new char[DecimalText.MAX_LENGTH];
+    private WritableByteChannel channel;
+
+    /**
+     * @param buffer buffer to collect output in; a direct buffer avoids a copy on every drain
+     */
+    public AsciiSink(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Starts writing to another channel, discarding anything not yet flushed.
+     */
+    public AsciiSink reset(WritableByteChannel channel) {
+        this.channel = channel;
+        buffer.clear();
+        return this;
+    }
+
+    public AsciiSink put(char c) throws IOException {
+        if (!buffer.hasRemaining()) {
+            drain();
+        }
+        buffer.put((byte) c);
+        return this;
+    }
+
+    /**
+     * Writes a string of ASCII characters.
+     */
+    public AsciiSink put(CharSequence text) throws IOException {
+        for (int i = 0, n = text.length(); i < n; i++) {
+            put(text.charAt(i));
+        }
+        return this;
+    }
+
+    public AsciiSink putLong(long value) throws IOException {
+        return putDecimal(value, 0);
+    }
+
+    /**
+     * Writes a number rounded to at most the given number of decimals, with a '.' separator.
+     */
+    public AsciiSink putDecimal(double value, int fractionDigits) throws IOException {
+        int length = decimalText.format(value, fractionDigits, digits, 0);
+        for (int i = 0; i < length; i++) {
+            put(digits[i]);
+        }
+        return this;
+    }
+
+    /**
+     * Writes a UTC time as ISO 8601, e.g. {@code 2017-07-14T02:40:00.000Z}.
+     */
+    public AsciiSink putIsoTime(long millis) throws IOException {
+        long days = floorDiv(millis, 86400000L);
+        long msOfDay = millis - days * 86400000L;
+
+        // civil date from days since 1970-01-01 (proleptic Gregorian calendar)
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long doe = z - era * 146097;
+        long yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+        long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+        long mp = (5 * doy + 2) / 153;
+        long day = doy - (153 * mp + 2) / 5 + 1;
+        long month = mp < 10 ? mp + 3 : mp - 9;
+        long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+
+        putPadded(year, 4).put('-').putPadded(month, 2).put('-').putPadded(day, 2).put('T');
+        putPadded(msOfDay / 3600000L, 2).put(':');
+        putPadded(msOfDay / 60000L % 60, 2).put(':');
+        putPadded(msOfDay / 1000L % 60, 2).put('.');
+        return putPadded(msOfDay % 1000L, 3).put('Z');
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? q - 1 : q;
+    }
+
+    private AsciiSink putPadded(long value, int width) throws IOException {
+        long limit = 1;
+        for (int i = 1; i < width; i++) {
+            limit *= 10;
+        }
+        while (limit > 1 && value < limit) {
+            put('0');
+            limit /= 10;
+        }
+        return putLong(value);
+    }
+
+    /**
+     * Writes everything buffered to the channel.
+     */
+    public void flush() throws IOException {
+        drain();
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,163 @@
+package net.mypapit.mobile.speedmeter.engine.export;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.track.TrackReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streams a recorded track out as GPX 1.1, CSV or GeoJSON. Points are read one at a time and
+ * written through an {@link AsciiSink}, so memory use does not depend on the track length and
+ * no per-point strings are created. An exporter reuses its buffers across exports; it is not
+ * thread-safe.
+ */
+public final class TrackExporter {
+
+    public static final int GPX = 0;
+    public static final int CSV = 1;
+    public static final int GEOJSON = 2;
+
+    private static final String[] EXTENSIONS = {".gpx", ".csv", ".geojson"};
+    private static final String[] MIME_TYPES = {
+            "application/gpx+xml", "text/csv", "application/geo+json"
+    };
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final AsciiSink sink = new AsciiSink(ByteBuffer.allocateDirect(BUFFER_SIZE));
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Fix fix = new Fix();
+
+    public static String extension(int format) {
+        return EXTENSIONS[format];
+    }
+
+    public static String mimeType(int format) {
+        return MIME_TYPES[format];
+    }
+
+    /**
+     * Writes a track in the given format.
+     *
+     * @return the number of points written
+     */
+    public int export(File track, int format, WritableByteChannel out) throws IOException {
+        sink.reset(out);
+        int count;
+        switch (format) {
+            case GPX:
+                count = writeGpx(track);
+                break;
+            case CSV:
+                count = writeCsv(track);
+                break;
+            case GEOJSON:
+                count = writeGeoJson(track);
+                break;
+            default:
+                throw new IllegalArgumentException("unknown format " + format);
+        }
+        sink.flush();
+        return count;
+    }
+
+    private int writeGpx(File track) throws IOException {
+        int count = 0;
+        try (TrackReader reader = new TrackReader(track, readBuffer)) {
+            sink.put("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+                    .put("<gpx version=\"1.1\" creator=\"Speedometer\" xmlns=\"http://www.topografix.com/GPX/1/1\">\n")
+                    .put("<metadata><time>").putIsoTime(reader.getStartTime()).put("</time></metadata>\n")
+                    .put("<trk><trkseg>\n");
+            while (reader.next(fix)) {
+                sink.put("<trkpt lat=\"").putDecimal(fix.latitude, 7)
+                        .put("\" lon=\"").putDecimal(fix.longitude, 7)
+                        .put("\"><time>").putIsoTime(fix.time).put("</time>");
+                if (fix.hasSpeed || fix.hasBearing || fix.hasAccuracy) {
+                    // GPX 1.1 has no speed or course elements; use the customary extensions
+                    sink.put("<extensions>");
+                    if (fix.hasSpeed) {
+                        sink.put("<speed>").putDecimal(fix.speed, 2).put("</speed>");
+                    }
+                    if (fix.hasBearing) {
+                        sink.put("<course>").putDecimal(fix.bearing, 1).put("</course>");
+                    }
+                    if (fix.hasAccuracy) {
+                        sink.put("<accuracy>").putDecimal(fix.accuracy, 1).put("</accuracy>");
+                    }
+                    sink.put("</extensions>");
+                }
+                sink.put("</trkpt>\n");
+                count++;
+            }
+            sink.put("</trkseg></trk>\n</gpx>\n");
+        }
+        return count;
+    }
+
+    private int writeCsv(File track) throws IOException {
+        int count = 0;
+        try (TrackReader reader = new TrackReader(track, readBuffer)) {
+            sink.put("time,latitude,longitude,speed,bearing,accuracy\n");
+            while (reader.next(fix)) {
+                sink.putIsoTime(fix.time).put(',')
+                        .putDecimal(fix.latitude, 7).put(',')
+                        .putDecimal(fix.longitude, 7).put(',');
+                if (fix.hasSpeed) {
+                    sink.putDecimal(fix.speed, 2);
+                }
+                sink.put(',');
+                if (fix.hasBearing) {
+                    sink.putDecimal(fix.bearing, 1);
+                }
+                sink.put(',');
+                if (fix.hasAccuracy) {
+                    sink.putDecimal(fix.accuracy, 1);
+                }
+                sink.put('\n');
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * One LineString feature. The per-point times and speeds go into properties arrays, each
+     * written by another pass over the track instead of holding the points in memory.
+     */
+    private int writeGeoJson(File track) throws IOException {
+        int count = 0;
+        sink.put("{\"type\":\"FeatureCollection\",\"features\":[{\"type\":\"Feature\",")
+                .put("\"geometry\":{\"type\":\"LineString\",\"coordinates\":[");
+        try (TrackReader reader = new TrackReader(track, readBuffer)) {
+            while (reader.next(fix)) {
+                sink.put(count == 0 ? "[" : ",\n[").putDecimal(fix.longitude, 7).put(',')
+                        .putDecimal(fix.latitude, 7).put(']');
+                count++;
+            }
+        }
+        sink.put("]},\"properties\":{\"coordTimes\":[");
+        try (TrackReader reader = new TrackReader(track, readBuffer)) {
+            for (int i = 0; i < count && reader.next(fix); i++) {
+                sink.put(i == 0 ? "\"" : ",\"").putIsoTime(fix.time).put('"');
+            }
+        }
+        sink.put("],\"speeds\":[");
+        try (TrackReader reader = new TrackReader(track, readBuffer)) {
+            for (int i = 0; i < count && reader.next(fix); i++) {
+                if (i > 0) {
+                    sink.put(',');
+                }
+                if (fix.hasSpeed) {
+                    sink.putDecimal(fix.speed, 2);
+                } else {
+                    sink.put("null");
+                }
+            }
+        }
+        sink.put("]}}]}\n");
+        return count;
+    }
+}
@@ -0,0 +1,78 @@
+package net.mypapit.mobile.speedmeter.engine.history;
+
+/**
+ * Routes as text in the encoded polyline format that map services read: latitude and
+ * longitude rounded to 1e-5 degrees, about a meter, each as the difference to the previous
+ * point in base-64 digits of 5 bits. A point of a route driven takes 4 to 6 characters.
+ */
+public final class Polyline {
+
+    private static final double SCALE = 1e5;
+
+    private Polyline() {
+    }
+
+    /**
+     * Appends points to a route; {@code previous} holds the last point appended before, in
+     * units of 1e-5 degrees, {0, 0} for a new route, and is updated.
+     */
+    public static void append(StringBuilder out, double latitude, double longitude, long[] previous) {
+        long lat = Math.round(latitude * SCALE);
+        long lon = Math.round(longitude * SCALE);
+        appendValue(out, lat - previous[0]);
+        appendValue(out, lon - previous[1]);
+        previous[0] = lat;
+        previous[1] = lon;
+    }
+
+    private static void appendValue(StringBuilder out, long value) {
+        long v = value < 0 ? ~(value << 1) : value << 1;
+        while (v >= 0x20) {
+            out.append((char) ((0x20 | (v & 0x1f)) + 63));
+            v >>= 5;
+        }
+        out.append((char) (v + 63));
+    }
+
+    /**
+     * Decodes a route into arrays of latitudes and longitudes.
+     *
+     * @return number of points decoded; at most the length of the arrays
+     * @throws IllegalArgumentException if the text is not an encoded polyline
+     */
+    public static int decode(CharSequence text, double[] latitudes, double[] longitudes) {
+        int count = 0;
+        long lat = 0;
+        long lon = 0;
+        int at = 0;
+        int[] next = new int[1];
+        while (at < text.length() && count < latitudes.length) {
+            next[0] = at;
+            lat += readValue(text, next);
+            lon += readValue(text, next);
+            at = next[0];
+            latitudes[count] = lat / SCALE;
+            longitudes[count] = lon / SCALE;
+            count++;
+        }
+        return count;
+    }
+
+    private static long readValue(CharSequence text, int[] at) {
+        long v = 0;
+        int shift = 0;
+        int c;
+        do {
+            if (at[0] >= text.length() || shift > 60) {
+                throw new IllegalArgumentException("Truncated polyline at " + at[0]);
+            }
+            c = text.charAt(at[0]++) - 63;
+            if (c < 0 || c > 63) {
+                throw new IllegalArgumentException("Not a polyline character at " + (at[0] - 1));
+            }
+            v |= (long) (c & 0x1f) << shift;
+            shift += 5;
+        } while (c >= 0x20);
+        return (v & 1) != 0 ? ~(v >>> 1) : v >>> 1;
+    }
+}
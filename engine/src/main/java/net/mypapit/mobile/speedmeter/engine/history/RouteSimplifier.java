@@ -0,0 +1,186 @@
+package net.mypapit.mobile.speedmeter.engine.history;
+
+/**
+ * Simplifies a route as it is driven, in constant time per point and fixed memory: a point is
+ * kept only once the route can no longer be drawn as a straight line from the last point
+ * kept within the tolerance. The directions from the last point kept that pass within the
+ * tolerance of every point since form a sleeve; a point outside it, or one turning back
+ * towards the last point kept, keeps the point before (Zhao and Saalfeld's sleeve-fitting).
+ * Straight roads thus take two points however long, and turns a few.
+ * <p>
+ * At most {@link #MAX_POINTS} points are kept: reaching them doubles the tolerance and
+ * simplifies the points kept again, so a route of any length fits, only coarser: the errors
+ * of each pass add up, so the route then passes within twice the tolerance, less the initial
+ * one, see {@link #getMaxError()}. Distances
+ * are measured on a plane tangent at the last point kept, which is exact enough for the
+ * lengths of straight lines on roads. Not thread-safe.
+ */
+public final class RouteSimplifier {
+
+    /** In meters, about the accuracy of the fixes */
+    public static final double DEFAULT_TOLERANCE = 5.0;
+    public static final int MAX_POINTS = 500;
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180.0;
+
+    private final double initialTolerance;
+    private double tolerance;
+    private final double[] latitudes = new double[MAX_POINTS];
+    private final double[] longitudes = new double[MAX_POINTS];
+    private int count;
+
+    private double cosLatitude;
+    /** Directions from the last point kept, in radians relative to {@link #reference} */
+    private boolean open;
+    private double reference;
+    private double low;
+    private double high;
+    /** Distance of the farthest point since the last kept, in meters */
+    private double farthest;
+    /** The last point added, kept if the next falls outside the sleeve */
+    private boolean hasLast;
+    private double lastLatitude;
+    private double lastLongitude;
+
+    /**
+     * @param tolerance how far the simplified route may pass from the points, in meters
+     */
+    public RouteSimplifier(double tolerance) {
+        initialTolerance = tolerance;
+        this.tolerance = tolerance;
+    }
+
+    public void reset() {
+        tolerance = initialTolerance;
+        count = 0;
+        open = false;
+        hasLast = false;
+    }
+
+    public void add(double latitude, double longitude) {
+        if (count == 0) {
+            keep(latitude, longitude);
+        } else if (!fits(latitude, longitude)) {
+            keep(lastLatitude, lastLongitude);
+            fits(latitude, longitude);
+        }
+        hasLast = true;
+        lastLatitude = latitude;
+        lastLongitude = longitude;
+    }
+
+    /**
+     * Narrows the sleeve to a point.
+     *
+     * @return false if the point is outside the sleeve, which is left as it was
+     */
+    private boolean fits(double latitude, double longitude) {
+        int last = count - 1;
+        double dx = (longitude - longitudes[last]) * cosLatitude * METERS_PER_DEGREE;
+        double dy = (latitude - latitudes[last]) * METERS_PER_DEGREE;
+        double d = Math.sqrt(dx * dx + dy * dy);
+        if (d <= tolerance) {
+            // passes within the tolerance of any line from the last point kept
+            return true;
+        }
+        if (d < farthest - tolerance) {
+            // turned back: a line ending here would fall short of the points before
+            return false;
+        }
+        farthest = Math.max(farthest, d);
+        double direction = Math.atan2(dy, dx);
+        double half = Math.asin(tolerance / d);
+        if (!open) {
+            open = true;
+            reference = direction;
+            low = -half;
+            high = half;
+            return true;
+        }
+        double relative = direction - reference;
+        if (relative > Math.PI) {
+            relative -= 2.0 * Math.PI;
+        } else if (relative < -Math.PI) {
+            relative += 2.0 * Math.PI;
+        }
+        if (relative < low || relative > high) {
+            return false;
+        }
+        low = Math.max(low, relative - half);
+        high = Math.min(high, relative + half);
+        return true;
+    }
+
+    private void keep(double latitude, double longitude) {
+        while (count == MAX_POINTS) {
+            coarsen();
+        }
+        latitudes[count] = latitude;
+        longitudes[count] = longitude;
+        count++;
+        cosLatitude = Math.cos(Math.toRadians(latitude));
+        open = false;
+        farthest = 0.0;
+    }
+
+    /**
+     * Doubles the tolerance and simplifies the points kept again, in place: no point is
+     * written ahead of the one being read.
+     */
+    private void coarsen() {
+        tolerance *= 2.0;
+        int n = count;
+        count = 0;
+        open = false;
+        hasLast = false;
+        for (int i = 0; i < n; i++) {
+            add(latitudes[i], longitudes[i]);
+        }
+        if (count == 0 || latitudes[count - 1] != lastLatitude || longitudes[count - 1] != lastLongitude) {
+            keep(lastLatitude, lastLongitude);
+        }
+    }
+
+    /**
+     * @return points kept, not counting the last point added
+     */
+    public int size() {
+        return count;
+    }
+
+    public double getLatitude(int i) {
+        return latitudes[i];
+    }
+
+    public double getLongitude(int i) {
+        return longitudes[i];
+    }
+
+    public double getTolerance() {
+        return tolerance;
+    }
+
+    /**
+     * @return how far the route may pass from the points added, in meters
+     */
+    public double getMaxError() {
+        return 2.0 * tolerance - initialTolerance;
+    }
+
+    /**
+     * Appends the route as an encoded {@link Polyline}: the points kept and the last point
+     * added.
+     *
+     * @return number of points appended
+     */
+    public int encode(StringBuilder out) {
+        long[] previous = new long[2];
+        for (int i = 0; i < count; i++) {
+            Polyline.append(out, latitudes[i], longitudes[i], previous);
+        }
+        boolean last = hasLast && (latitudes[count - 1] != lastLatitude || longitudes[count - 1] != lastLongitude);
+        if (last) {
+            Polyline.append(out, lastLatitude, lastLongitude, previous);
+        }
+        return last ? count + 1 : count;
+    }
+}
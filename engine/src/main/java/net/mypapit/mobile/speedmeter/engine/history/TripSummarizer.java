@@ -0,0 +1,90 @@
+package net.mypapit.mobile.speedmeter.engine.history;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.SpeedFilter;
+import net.mypapit.mobile.speedmeter.engine.TripStats;
+import net.mypapit.mobile.speedmeter.engine.track.TrackReader;
+
+import java.io.IOException;
+
+/**
+ * Keeps what the trip history needs of a trip beyond its {@link TripStats}, updated with every
+ * fix in constant time and without allocating: the time of the last fix, the bounding box and
+ * the simplified route. A {@link TripSummary} is filled from both at any time, so a trip is
+ * never read back to be summarized. Not thread-safe.
+ */
+public final class TripSummarizer {
+
+    private final RouteSimplifier route = new RouteSimplifier(RouteSimplifier.DEFAULT_TOLERANCE);
+    private boolean hasFix;
+    private long endTime;
+    private double minLatitude;
+    private double minLongitude;
+    private double maxLatitude;
+    private double maxLongitude;
+
+    public void update(Fix fix) {
+        if (!hasFix) {
+            hasFix = true;
+            minLatitude = maxLatitude = fix.latitude;
+            minLongitude = maxLongitude = fix.longitude;
+        } else {
+            minLatitude = Math.min(minLatitude, fix.latitude);
+            maxLatitude = Math.max(maxLatitude, fix.latitude);
+            minLongitude = Math.min(minLongitude, fix.longitude);
+            maxLongitude = Math.max(maxLongitude, fix.longitude);
+        }
+        endTime = fix.time;
+        route.add(fix.latitude, fix.longitude);
+    }
+
+    /**
+     * Starts a new trip.
+     */
+    public void reset() {
+        hasFix = false;
+        route.reset();
+    }
+
+    public RouteSimplifier getRoute() {
+        return route;
+    }
+
+    /**
+     * Fills a summary with the trip so far; the start time is left to the caller, who knows
+     * the track.
+     */
+    public void fill(TripSummary summary, TripStats stats) {
+        summary.endTime = hasFix ? endTime : summary.startTime;
+        summary.distance = stats.getDistance();
+        summary.movingMillis = stats.getMovingNanos() / 1000000L;
+        summary.stoppedMillis = stats.getStoppedNanos() / 1000000L;
+        summary.maxSpeed = stats.getMaxSpeed();
+        summary.averageSpeed = stats.getMovingAverageSpeed();
+        summary.p95Speed = stats.getHistogram().getTotal() > 0 ? stats.getSpeedPercentile(0.95) : Float.NaN;
+        summary.minLatitude = hasFix ? minLatitude : Double.NaN;
+        summary.minLongitude = hasFix ? minLongitude : Double.NaN;
+        summary.maxLatitude = hasFix ? maxLatitude : Double.NaN;
+        summary.maxLongitude = hasFix ? maxLongitude : Double.NaN;
+        StringBuilder polyline = new StringBuilder(route.size() * 6 + 8);
+        summary.points = route.encode(polyline);
+        summary.polyline = polyline.toString();
+    }
+
+    /**
+     * Summarizes a recorded track, for trips recorded before there was a history.
+     *
+     * @param filter speed filter to judge moving with, fresh or reset
+     */
+    public static void summarize(TrackReader reader, SpeedFilter filter, TripSummary summary) throws IOException {
+        TripStats stats = new TripStats();
+        TripSummarizer summarizer = new TripSummarizer();
+        Fix fix = new Fix();
+        while (reader.next(fix)) {
+            stats.update(fix, filter.update(fix));
+            summarizer.update(fix);
+        }
+        summary.startTime = reader.getStartTime();
+        summarizer.fill(summary, stats);
+    }
+}
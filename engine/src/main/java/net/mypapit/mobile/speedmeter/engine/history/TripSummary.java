@@ -0,0 +1,49 @@
+package net.mypapit.mobile.speedmeter.engine.history;
+
+/**
+ * One row of the trip history: the totals of a trip and its route, simplified. All values
+ * are in SI units, independent of the displayed unit. Mutable and reused; not thread-safe.
+ */
+public final class TripSummary {
+
+    /** UTC start time of the trip, identifying it and its track */
+    public long startTime;
+    /** UTC time of the last fix; the start time if there was none */
+    public long endTime;
+    /** In meters */
+    public double distance;
+    public long movingMillis;
+    public long stoppedMillis;
+    /** In meters/second */
+    public float maxSpeed;
+    /** Average while moving, in meters/second */
+    public float averageSpeed;
+    /** In meters/second, NaN if the trip never moved */
+    public float p95Speed = Float.NaN;
+    /** Bounding box of the route; NaN without fixes */
+    public double minLatitude = Double.NaN;
+    public double minLongitude = Double.NaN;
+    public double maxLatitude = Double.NaN;
+    public double maxLongitude = Double.NaN;
+    /** Points in {@link #polyline} */
+    public int points;
+    /** The route, see {@link Polyline}; null when only the totals were read */
+    public String polyline = "";
+
+    public void copyFrom(TripSummary other) {
+        startTime = other.startTime;
+        endTime = other.endTime;
+        distance = other.distance;
+        movingMillis = other.movingMillis;
+        stoppedMillis = other.stoppedMillis;
+        maxSpeed = other.maxSpeed;
+        averageSpeed = other.averageSpeed;
+        p95Speed = other.p95Speed;
+        minLatitude = other.minLatitude;
+        minLongitude = other.minLongitude;
+        maxLatitude = other.maxLatitude;
+        maxLongitude = other.maxLongitude;
+        points = other.points;
+        polyline = other.polyline;
+    }
+}
@@ -0,0 +1,106 @@
+package net.mypapit.mobile.speedmeter.engine.history;
+
+/**
+ * The SQLite schema and statements of the trip history, shared by the app's database and
+ * the benchmarks that measure it on the JVM.
+ * <p>
+ * A trip is keyed by its start time, which is the rowid, so that the newest trips are read
+ * in order without an index of their own; a second index orders trips by distance. Pages are
+ * read from where the last one ended (keyset paging) rather than by offset, so every page
+ * costs the same however far down the list: {@link #PAGE_BY_TIME} takes the start time of the
+ * last trip shown, {@link #PAGE_BY_DISTANCE} its distance twice and its start time. Pages leave
+ * out the route, which is read with {@link #ROUTE} when a trip is opened. Distances and times
+ * are bound as numbers; a text argument converts, the columns having numeric affinity.
+ */
+public final class TripTable {
+
+    public static final String TABLE = "trips";
+    public static final int VERSION = 1;
+
+    public static final String START_TIME = "start_time";
+    public static final String END_TIME = "end_time";
+    public static final String DISTANCE = "distance";
+    public static final String MOVING_MS = "moving_ms";
+    public static final String STOPPED_MS = "stopped_ms";
+    public static final String MAX_SPEED = "max_speed";
+    public static final String AVERAGE_SPEED = "average_speed";
+    public static final String P95_SPEED = "p95_speed";
+    public static final String MIN_LATITUDE = "min_lat";
+    public static final String MIN_LONGITUDE = "min_lon";
+    public static final String MAX_LATITUDE = "max_lat";
+    public static final String MAX_LONGITUDE = "max_lon";
+    public static final String POINTS = "points";
+    public static final String POLYLINE = "polyline";
+
+    public static final String CREATE = "CREATE TABLE " + TABLE + " ("
+            + START_TIME + " INTEGER PRIMARY KEY, "
+            + END_TIME + " INTEGER NOT NULL, "
+            + DISTANCE + " REAL NOT NULL, "
+            + MOVING_MS + " INTEGER NOT NULL, "
+            + STOPPED_MS + " INTEGER NOT NULL, "
+            + MAX_SPEED + " REAL NOT NULL, "
+            + AVERAGE_SPEED + " REAL NOT NULL, "
+            + P95_SPEED + " REAL, "
+            + MIN_LATITUDE + " REAL, "
+            + MIN_LONGITUDE + " REAL, "
+            + MAX_LATITUDE + " REAL, "
+            + MAX_LONGITUDE + " REAL, "
+            + POINTS + " INTEGER NOT NULL, "
+            + POLYLINE + " TEXT)";
+    public static final String CREATE_DISTANCE_INDEX = "CREATE INDEX " + TABLE + "_distance ON " + TABLE
+            + " (" + DISTANCE + ", " + START_TIME + ")";
+
+    /**
+     * Inserts or replaces a trip; the arguments are the values of a {@link TripSummary} in
+     * the order of the columns, NaN bound as null.
+     */
+    public static final String UPSERT = "INSERT OR REPLACE INTO " + TABLE + " ("
+            + START_TIME + ", " + END_TIME + ", " + DISTANCE + ", " + MOVING_MS + ", " + STOPPED_MS + ", "
+            + MAX_SPEED + ", " + AVERAGE_SPEED + ", " + P95_SPEED + ", " + MIN_LATITUDE + ", " + MIN_LONGITUDE + ", "
+            + MAX_LATITUDE + ", " + MAX_LONGITUDE + ", " + POINTS + ", " + POLYLINE
+            + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /** The columns of a page, in the order {@link #readTotals} expects */
+    public static final String TOTALS = START_TIME + ", " + END_TIME + ", " + DISTANCE + ", " + MOVING_MS + ", "
+            + STOPPED_MS + ", " + MAX_SPEED + ", " + AVERAGE_SPEED + ", " + P95_SPEED;
+    /** Start the first page with {@link Long#MAX_VALUE} */
+    public static final String PAGE_BY_TIME = "SELECT " + TOTALS + " FROM " + TABLE
+            + " WHERE " + START_TIME + " < ? ORDER BY " + START_TIME + " DESC LIMIT ?";
+    /** Start the first page with {@link Double#MAX_VALUE} twice and {@link Long#MAX_VALUE} */
+    public static final String PAGE_BY_DISTANCE = "SELECT " + TOTALS + " FROM " + TABLE
+            + " WHERE " + DISTANCE + " <= ? AND (" + DISTANCE + " < ? OR " + START_TIME + " < ?)"
+            + " ORDER BY " + DISTANCE + " DESC, " + START_TIME + " DESC LIMIT ?";
+    public static final String ROUTE = "SELECT " + MIN_LATITUDE + ", " + MIN_LONGITUDE + ", " + MAX_LATITUDE + ", "
+            + MAX_LONGITUDE + ", " + POINTS + ", " + POLYLINE + " FROM " + TABLE + " WHERE " + START_TIME + " = ?";
+    public static final String START_TIMES = "SELECT " + START_TIME + " FROM " + TABLE;
+
+    private TripTable() {
+    }
+
+    /**
+     * A row being read, by column number; lets the readers below work on any database API.
+     */
+    public interface Row {
+        long getLong(int column);
+
+        /**
+         * @return NaN for null
+         */
+        double getDouble(int column);
+    }
+
+    /**
+     * Reads the columns of {@link #TOTALS}, numbered from {@code first}, into a summary,
+     * leaving the route as it is.
+     */
+    public static void readTotals(Row row, int first, TripSummary summary) {
+        summary.startTime = row.getLong(first);
+        summary.endTime = row.getLong(first + 1);
+        summary.distance = row.getDouble(first + 2);
+        summary.movingMillis = row.getLong(first + 3);
+        summary.stoppedMillis = row.getLong(first + 4);
+        summary.maxSpeed = (float) row.getDouble(first + 5);
+        summary.averageSpeed = (float) row.getDouble(first + 6);
+        summary.p95Speed = (float) row.getDouble(first + 7);
+    }
+}
@@ -0,0 +1,191 @@
+package net.mypapit.mobile.speedmeter.engine.log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Structured diagnostics kept in memory: the last {@code capacity} records, each an event and
+ * up to four numbers. Nothing is formatted when a record is logged; the event's format string
+ * is only applied when the log is written out, so logging allocates nothing and, below the
+ * level, costs a comparison.
+ * <p>
+ * Events are defined once, up front, with a {@link java.util.Formatter} pattern whose
+ * conversions take the record's numbers in order: {@code %d} and {@code %x} print them as
+ * integers, anything else as floating point.
+ * <p>
+ * Any thread may log. Each slot carries the sequence number of the record written into it, so
+ * a record being overwritten while the log is written out is skipped instead of torn.
+ */
+public final class RingLog {
+
+    // same values as android.util.Log
+    public static final int DEBUG = 3;
+    public static final int INFO = 4;
+    public static final int WARN = 5;
+    public static final int ERROR = 6;
+
+    private static final char[] LEVEL_NAMES = {'V', 'V', 'V', 'D', 'I', 'W', 'E'};
+    // time, level and event, four values
+    private static final int FIELDS = 6;
+    private static final long WRITING = -1L;
+
+    private final int mask;
+    private final AtomicLongArray stamps;
+    private final AtomicLongArray data;
+    private final AtomicLong next = new AtomicLong();
+    private volatile int level = INFO;
+
+    // guarded by this
+    private final ArrayList<String> formats = new ArrayList<>();
+    private final ArrayList<boolean[]> integers = new ArrayList<>();
+
+    /**
+     * @param capacity records kept, rounded up to a power of two
+     */
+    public RingLog(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mask = size - 1;
+        stamps = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            stamps.set(i, WRITING);
+        }
+        data = new AtomicLongArray(size * FIELDS);
+    }
+
+    /**
+     * Defines an event.
+     *
+     * @param format e.g. {@code "fix lat=%.6f lon=%.6f speed=%.2f"}
+     * @return the id to log it with
+     */
+    public synchronized int define(String format) {
+        ArrayList<Boolean> kinds = new ArrayList<>();
+        for (int i = 0; i < format.length(); i++) {
+            if (format.charAt(i) != '%') {
+                continue;
+            }
+            int j = i + 1;
+            while (j < format.length() && "-#+ 0,(.0123456789".indexOf(format.charAt(j)) >= 0) {
+                j++;
+            }
+            if (j < format.length() && format.charAt(j) != '%' && format.charAt(j) != 'n') {
+                char conversion = format.charAt(j);
+                kinds.add(conversion == 'd' || conversion == 'x' || conversion == 'X');
+            }
+            i = j;
+        }
+        if (kinds.size() > FIELDS - 2) {
+            throw new IllegalArgumentException("more than " + (FIELDS - 2) + " values: " + format);
+        }
+        boolean[] integer = new boolean[kinds.size()];
+        for (int i = 0; i < integer.length; i++) {
+            integer[i] = kinds.get(i);
+        }
+        formats.add(format);
+        integers.add(integer);
+        return formats.size() - 1;
+    }
+
+    /**
+     * Records below this level are dropped; {@link #INFO} by default.
+     */
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    /**
+     * @return whether records of the level are kept; check it before computing values that are
+     *         only needed for the log
+     */
+    public boolean isLoggable(int level) {
+        return level >= this.level;
+    }
+
+    public void log(int level, int event) {
+        log(level, event, 0.0, 0.0, 0.0, 0.0);
+    }
+
+    public void log(int level, int event, double a) {
+        log(level, event, a, 0.0, 0.0, 0.0);
+    }
+
+    public void log(int level, int event, double a, double b) {
+        log(level, event, a, b, 0.0, 0.0);
+    }
+
+    public void log(int level, int event, double a, double b, double c) {
+        log(level, event, a, b, c, 0.0);
+    }
+
+    /**
+     * Records an event with four values. Integers are passed as doubles, which hold them
+     * exactly up to 2^53.
+     */
+    public void log(int level, int event, double a, double b, double c, double d) {
+        if (level < this.level) {
+            return;
+        }
+        long sequence = next.getAndIncrement();
+        int slot = (int) (sequence & mask);
+        int base = slot * FIELDS;
+        stamps.set(slot, WRITING);
+        data.set(base, System.nanoTime());
+        data.set(base + 1, ((long) level << 32) | event);
+        data.set(base + 2, Double.doubleToRawLongBits(a));
+        data.set(base + 3, Double.doubleToRawLongBits(b));
+        data.set(base + 4, Double.doubleToRawLongBits(c));
+        data.set(base + 5, Double.doubleToRawLongBits(d));
+        stamps.set(slot, sequence);
+    }
+
+    /**
+     * @return number of records logged so far, including those already overwritten
+     */
+    public long getCount() {
+        return next.get();
+    }
+
+    /**
+     * Writes the records still held, oldest first, one per line: seconds before now, level,
+     * and the formatted event. Logging may go on meanwhile. Allocates; call it off the hot path.
+     */
+    public void writeTo(Appendable out) throws IOException {
+        long now = System.nanoTime();
+        long end = next.get();
+        long start = Math.max(0, end - (mask + 1));
+        Object[] args = new Object[FIELDS - 2];
+        long[] record = new long[FIELDS];
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence & mask);
+            int base = slot * FIELDS;
+            if (stamps.get(slot) != sequence) {
+                continue;
+            }
+            for (int i = 0; i < FIELDS; i++) {
+                record[i] = data.get(base + i);
+            }
+            if (stamps.get(slot) != sequence) {
+                continue;
+            }
+            int recordLevel = (int) (record[1] >>> 32);
+            int event = (int) record[1];
+            String format;
+            boolean[] integer;
+            synchronized (this) {
+                format = formats.get(event);
+                integer = integers.get(event);
+            }
+            for (int i = 0; i < integer.length; i++) {
+                double value = Double.longBitsToDouble(record[2 + i]);
+                args[i] = integer[i] ? (Object) (long) value : (Object) value;
+            }
+            out.append(String.format(Locale.US, "%10.3f %c ", (record[0] - now) / 1e9,
+                    LEVEL_NAMES[Math.min(recordLevel, LEVEL_NAMES.length - 1)]));
+            out.append(String.format(Locale.US, format, args));
+            out.append('\n');
+        }
+    }
+}
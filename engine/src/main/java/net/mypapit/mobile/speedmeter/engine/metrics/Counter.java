@@ -0,0 +1,27 @@
+package net.mypapit.mobile.speedmeter.engine.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count that any thread can add to and read without locking.
+ */
+public final class Counter {
+
+    private final AtomicLong value = new AtomicLong();
+
+    public void increment() {
+        value.incrementAndGet();
+    }
+
+    public void add(long delta) {
+        value.addAndGet(delta);
+    }
+
+    public long get() {
+        return value.get();
+    }
+
+    public void reset() {
+        value.set(0);
+    }
+}
@@ -0,0 +1,68 @@
+package net.mypapit.mobile.speedmeter.engine.metrics;
+
+/**
+ * Measures how fixes arrive from the receiver: their age on arrival, the jitter of that age
+ * from one fix to the next, and fixes missing from the requested rate.
+ * <p>
+ * Jitter is the change in age between consecutive fixes, the inter-arrival jitter of
+ * RFC 3550: fixes taken 1 s apart but delivered 1.2 s apart show 200 ms. Fixes delivered in
+ * a batch all arrive at once, but their jitter stays low as long as the batch is regular.
+ * Records from a single thread.
+ */
+public final class FixArrivals {
+
+    public static final String RECEIVED = "fix.received";
+    public static final String MISSED = "fix.missed";
+    public static final String AGE = "fix.age";
+    public static final String JITTER = "fix.jitter";
+
+    private final Counter received;
+    private final Counter missed;
+    private final LatencyHistogram age;
+    private final LatencyHistogram jitter;
+
+    private boolean hasLast;
+    private long lastFixNanos;
+    private long lastAgeNanos;
+
+    public FixArrivals(Metrics metrics) {
+        received = metrics.counter(RECEIVED);
+        missed = metrics.counter(MISSED);
+        age = metrics.histogram(AGE);
+        jitter = metrics.histogram(JITTER);
+    }
+
+    /**
+     * @param arrivalNanos   when the fix reached the app, on the clock of the fix time
+     * @param fixNanos       when the fix was taken
+     * @param intervalNanos  requested interval between fixes, or 0 when fixes may legitimately
+     *                       pause, e.g. with a minimum distance; then none are counted missed
+     */
+    public void record(long arrivalNanos, long fixNanos, long intervalNanos) {
+        received.increment();
+        long ageNanos = arrivalNanos - fixNanos;
+        age.record(ageNanos);
+        if (hasLast) {
+            long dt = fixNanos - lastFixNanos;
+            if (dt > 0) {
+                jitter.record(Math.abs(ageNanos - lastAgeNanos));
+                if (intervalNanos > 0) {
+                    long intervals = (dt + intervalNanos / 2) / intervalNanos;
+                    if (intervals > 1) {
+                        missed.add(intervals - 1);
+                    }
+                }
+            }
+        }
+        hasLast = true;
+        lastFixNanos = fixNanos;
+        lastAgeNanos = ageNanos;
+    }
+
+    /**
+     * Forgets the last fix, e.g. after the subscription was paused; the next fix starts over.
+     */
+    public void restart() {
+        hasLast = false;
+    }
+}
@@ -0,0 +1,93 @@
+package net.mypapit.mobile.speedmeter.engine.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Distribution of durations in nanoseconds, in fixed buckets whose bounds double from one to
+ * the next: bucket {@code i} holds durations from 2^(i-1) up to 2^i. Percentiles are
+ * interpolated within a bucket, so they are within a factor of two of the truth and usually
+ * much closer. Recording is a few atomic operations, never allocates and never locks, so
+ * any thread can record while another one reads.
+ */
+public final class LatencyHistogram {
+
+    /** Durations from 2^39 ns, about nine minutes, up share the last bucket */
+    private static final int BUCKETS = 41;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param nanos duration; negative durations count as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos)));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @return mean duration in nanoseconds, 0 if nothing was recorded
+     */
+    public double getMeanNanos() {
+        long n = count.get();
+        return n == 0 ? 0.0 : (double) totalNanos.get() / n;
+    }
+
+    /**
+     * Reads a percentile. Recording may go on meanwhile; the result then reflects some of the
+     * concurrent records.
+     *
+     * @param fraction e.g. 0.99
+     * @return estimated duration in nanoseconds, 0 if nothing was recorded
+     */
+    public double percentileNanos(double fraction) {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += buckets.get(i);
+        }
+        if (n == 0) {
+            return 0.0;
+        }
+        double rank = fraction * n;
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long inBucket = buckets.get(i);
+            if (inBucket > 0 && seen + inBucket >= rank) {
+                double low = i == 0 ? 0.0 : (double) (1L << (i - 1));
+                double high = i == 0 ? 1.0 : (double) (1L << i);
+                double estimate = low + (high - low) * (rank - seen) / inBucket;
+                return Math.min(estimate, maxNanos.get());
+            }
+            seen += inBucket;
+        }
+        return maxNanos.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+}
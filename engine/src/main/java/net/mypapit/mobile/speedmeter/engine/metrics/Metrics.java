@@ -0,0 +1,109 @@
+package net.mypapit.mobile.speedmeter.engine.metrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Named counters and latency histograms. Instruments are registered once, up front, and then
+ * updated lock-free from any thread; only registering, resetting and reporting take the
+ * registry's lock.
+ */
+public final class Metrics {
+
+    private final ArrayList<String> names = new ArrayList<>();
+    private final ArrayList<Object> instruments = new ArrayList<>();
+
+    /**
+     * @return the counter registered under the name, registered now if it is new
+     */
+    public synchronized Counter counter(String name) {
+        Object instrument = find(name);
+        if (instrument == null) {
+            instrument = register(name, new Counter());
+        }
+        return (Counter) instrument;
+    }
+
+    /**
+     * @return the histogram registered under the name, registered now if it is new
+     */
+    public synchronized LatencyHistogram histogram(String name) {
+        Object instrument = find(name);
+        if (instrument == null) {
+            instrument = register(name, new LatencyHistogram());
+        }
+        return (LatencyHistogram) instrument;
+    }
+
+    private Object find(String name) {
+        int index = names.indexOf(name);
+        return index < 0 ? null : instruments.get(index);
+    }
+
+    private Object register(String name, Object instrument) {
+        names.add(name);
+        instruments.add(instrument);
+        return instrument;
+    }
+
+    public synchronized void reset() {
+        for (Object instrument : instruments) {
+            if (instrument instanceof Counter) {
+                ((Counter) instrument).reset();
+            } else {
+                ((LatencyHistogram) instrument).reset();
+            }
+        }
+    }
+
+    /**
+     * Writes one line per instrument, in the order they were registered: the value of a
+     * counter, or count, mean, p50, p90, p99 and maximum of a histogram.
+     */
+    public synchronized void writeTo(Appendable out) throws IOException {
+        int width = 0;
+        for (String name : names) {
+            width = Math.max(width, name.length());
+        }
+        for (int i = 0; i < names.size(); i++) {
+            Object instrument = instruments.get(i);
+            out.append(names.get(i));
+            for (int pad = names.get(i).length(); pad <= width; pad++) {
+                out.append(' ');
+            }
+            if (instrument instanceof Counter) {
+                out.append(Long.toString(((Counter) instrument).get()));
+            } else {
+                LatencyHistogram histogram = (LatencyHistogram) instrument;
+                out.append(String.format(Locale.US, "n=%d mean %s p50 %s p90 %s p99 %s max %s",
+                        histogram.getCount(), duration(histogram.getMeanNanos()),
+                        duration(histogram.percentileNanos(0.5)), duration(histogram.percentileNanos(0.9)),
+                        duration(histogram.percentileNanos(0.99)), duration(histogram.getMaxNanos())));
+            }
+            out.append('\n');
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        try {
+            writeTo(text);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return text.toString();
+    }
+
+    private static String duration(double nanos) {
+        if (nanos < 1e3) {
+            return String.format(Locale.US, "%.0fns", nanos);
+        } else if (nanos < 1e6) {
+            return String.format(Locale.US, "%.0fus", nanos / 1e3);
+        } else if (nanos < 1e9) {
+            return String.format(Locale.US, "%.1fms", nanos / 1e6);
+        }
+        return String.format(Locale.US, "%.2fs", nanos / 1e9);
+    }
+}
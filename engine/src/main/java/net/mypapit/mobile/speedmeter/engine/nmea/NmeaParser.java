@@ -0,0 +1,474 @@
+package net.mypapit.mobile.speedmeter.engine.nmea;
+
+import net.mypapit.mobile.speedmeter.engine.CivilTime;
+import net.mypapit.mobile.speedmeter.engine.Fix;
+
+/**
+ * Parses NMEA 0183 GGA, RMC, VTG and GSA sentences of any talker straight from the characters
+ * of the sentence: fields are located by index, numbers are read digit by digit and the
+ * checksum is verified in the same pass, so parsing never allocates.
+ * <p>
+ * Sentences update the state of the current epoch; a valid RMC completes it, after which
+ * {@link #readFix(Fix, long)} turns the epoch into a fix. GGA and GSA supply HDOP, satellite
+ * count and fix quality; VTG supplies speed and course when the RMC has none. Not thread-safe.
+ */
+public final class NmeaParser {
+
+    /** The sentence was damaged: bad framing, checksum or field values */
+    public static final int INVALID = -1;
+    /** A well-formed sentence of a type this parser does not read */
+    public static final int IGNORED = 0;
+    public static final int GGA = 1;
+    public static final int RMC = 2;
+    public static final int VTG = 3;
+    public static final int GSA = 4;
+
+    /** User equivalent range error, in meters, used to turn HDOP into an accuracy radius */
+    public static final float UERE = 5.0f;
+    private static final double KNOTS = 0.514444;
+    private static final double KMH = 1.0 / 3.6;
+    /** HDOP older than this is not used for the accuracy of a fix */
+    private static final long DOP_MAX_AGE_MILLIS = 2000L;
+    /** Fix times are re-anchored to the receive clock when the two drift further apart */
+    private static final long MAX_CLOCK_DRIFT_NANOS = 1000000000L;
+
+    private static final int MAX_FIELDS = 24;
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+
+    private final int[] fieldStart = new int[MAX_FIELDS];
+    private final int[] fieldEnd = new int[MAX_FIELDS];
+    private int fieldCount;
+    private CharSequence s;
+
+    // epoch completed by the last valid RMC
+    private boolean hasFix;
+    private long time;
+    private double latitude;
+    private double longitude;
+    private float speed = Float.NaN;
+    private float course = Float.NaN;
+
+    // latest values of the other sentences
+    private long vtgTimeOfDay = -1L;
+    private float vtgSpeed = Float.NaN;
+    private float vtgCourse = Float.NaN;
+    private float hdop = Float.NaN;
+    private float pdop = Float.NaN;
+    private float vdop = Float.NaN;
+    private long dopTime = Long.MIN_VALUE;
+    private long lastTimeOfDay = -1L;
+    private int satellites = -1;
+    private int fixQuality = -1;
+    private int fixType = -1;
+
+    private boolean anchored;
+    private long anchorNanos;
+    private long anchorTime;
+
+    /**
+     * Parses one sentence, with or without the trailing line break. Anything before the
+     * '$' is skipped, such as a timestamp added by a logger.
+     *
+     * @return the sentence type, {@link #IGNORED} or {@link #INVALID}
+     */
+    public int parse(CharSequence sentence) {
+        return parse(sentence, 0, sentence.length());
+    }
+
+    public int parse(CharSequence sentence, int start, int end) {
+        s = sentence;
+        try {
+            return parseSentence(start, end);
+        } finally {
+            s = null;
+        }
+    }
+
+    private int parseSentence(int start, int end) {
+        int dollar = -1;
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i) == '$') {
+                dollar = i;
+                break;
+            }
+        }
+        if (dollar < 0 || !split(dollar + 1, end)) {
+            return INVALID;
+        }
+        int address = fieldStart[0];
+        if (fieldEnd[0] - address != 5) {
+            return IGNORED;
+        }
+        char a = s.charAt(address + 2);
+        char b = s.charAt(address + 3);
+        char c = s.charAt(address + 4);
+        if (a == 'R' && b == 'M' && c == 'C') {
+            return parseRmc();
+        } else if (a == 'G' && b == 'G' && c == 'A') {
+            return parseGga();
+        } else if (a == 'V' && b == 'T' && c == 'G') {
+            return parseVtg();
+        } else if (a == 'G' && b == 'S' && c == 'A') {
+            return parseGsa();
+        }
+        return IGNORED;
+    }
+
+    /**
+     * Finds the fields between '$' and '*' and checks the checksum that follows.
+     */
+    private boolean split(int from, int end) {
+        int sum = 0;
+        fieldCount = 0;
+        fieldStart[0] = from;
+        int i = from;
+        for (; i < end; i++) {
+            char ch = s.charAt(i);
+            if (ch == '*') {
+                break;
+            }
+            sum ^= ch;
+            if (ch == ',') {
+                if (fieldCount + 1 >= MAX_FIELDS) {
+                    return false;
+                }
+                fieldEnd[fieldCount++] = i;
+                fieldStart[fieldCount] = i + 1;
+            }
+        }
+        if (i + 2 >= end) {
+            // no '*' followed by two checksum digits
+            return false;
+        }
+        fieldEnd[fieldCount++] = i;
+        int high = hex(s.charAt(i + 1));
+        int low = hex(s.charAt(i + 2));
+        return high >= 0 && low >= 0 && (high << 4 | low) == sum;
+    }
+
+    private int parseRmc() {
+        if (fieldCount < 10) {
+            return INVALID;
+        }
+        hasFix = false;
+        if (!isChar(2, 'A')) {
+            // a void fix is still a well-formed sentence
+            return RMC;
+        }
+        long timeOfDay = timeOfDay(1);
+        long day = date(9);
+        double lat = coordinate(3, 2, 4);
+        double lon = coordinate(5, 3, 6);
+        if (timeOfDay < 0 || day == Long.MIN_VALUE || Double.isNaN(lat) || Double.isNaN(lon)) {
+            return INVALID;
+        }
+        time = day * 86400000L + timeOfDay;
+        lastTimeOfDay = timeOfDay;
+        latitude = lat;
+        longitude = lon;
+        double knots = number(7);
+        double degrees = number(8);
+        boolean vtgCurrent = vtgTimeOfDay == timeOfDay;
+        speed = !Double.isNaN(knots) ? (float) (knots * KNOTS) : vtgCurrent ? vtgSpeed : Float.NaN;
+        course = !Double.isNaN(degrees) ? (float) degrees : vtgCurrent ? vtgCourse : Float.NaN;
+        hasFix = true;
+        return RMC;
+    }
+
+    private int parseGga() {
+        if (fieldCount < 9) {
+            return INVALID;
+        }
+        int quality = (int) integer(6);
+        if (quality < 0) {
+            return INVALID;
+        }
+        fixQuality = quality;
+        satellites = (int) integer(7);
+        float h = (float) number(8);
+        if (!Float.isNaN(h)) {
+            hdop = h;
+            dopTime = timeOfDay(1);
+        }
+        return GGA;
+    }
+
+    private int parseVtg() {
+        if (fieldCount < 8) {
+            return INVALID;
+        }
+        double knots = number(5);
+        double kmh = number(7);
+        vtgSpeed = !Double.isNaN(knots) ? (float) (knots * KNOTS) : (float) (kmh * KMH);
+        vtgCourse = (float) number(1);
+        // VTG carries no time; it belongs to the epoch of the sentences around it, which
+        // usually precede the RMC that closes it
+        vtgTimeOfDay = lastTimeOfDay;
+        return VTG;
+    }
+
+    private int parseGsa() {
+        if (fieldCount < 18) {
+            return INVALID;
+        }
+        fixType = (int) integer(2);
+        int used = 0;
+        for (int i = 3; i <= 14; i++) {
+            if (fieldEnd[i] > fieldStart[i]) {
+                used++;
+            }
+        }
+        if (satellites < 0) {
+            satellites = used;
+        }
+        pdop = (float) number(15);
+        float h = (float) number(16);
+        vdop = (float) number(17);
+        if (!Float.isNaN(h)) {
+            hdop = h;
+            dopTime = lastTimeOfDay;
+        }
+        return GSA;
+    }
+
+    /**
+     * @return true if the last RMC reported a valid position
+     */
+    public boolean hasFix() {
+        return hasFix;
+    }
+
+    /**
+     * Fills in a fix from the epoch completed by the last valid RMC. The accuracy is estimated
+     * from a current HDOP, if there is one.
+     * <p>
+     * The monotonic timestamp follows the receiver's UTC time, so intervals between fixes are
+     * exact, anchored to the clock the sentences were received on. It is re-anchored when the
+     * two drift apart by more than a second, e.g. after a receiver restart.
+     *
+     * @param receivedNanos monotonic time the RMC was received at
+     * @return false if there is no fix to read
+     */
+    public boolean readFix(Fix fix, long receivedNanos) {
+        if (!hasFix) {
+            return false;
+        }
+        long elapsed = anchorNanos + (time - anchorTime) * 1000000L;
+        if (!anchored || Math.abs(elapsed - receivedNanos) > MAX_CLOCK_DRIFT_NANOS) {
+            anchored = true;
+            anchorNanos = receivedNanos;
+            anchorTime = time;
+            elapsed = receivedNanos;
+        }
+        long dopAge = lastTimeOfDay - dopTime;
+        float accuracy = !Float.isNaN(hdop) && dopAge >= 0 && dopAge <= DOP_MAX_AGE_MILLIS
+                ? hdop * UERE : Float.NaN;
+        fix.set(elapsed, time, latitude, longitude, speed, course, accuracy);
+        return true;
+    }
+
+    /**
+     * @return UTC time of the last valid RMC, in milliseconds since the epoch
+     */
+    public long getTime() {
+        return time;
+    }
+
+    /**
+     * @return HDOP from the latest GGA or GSA, NaN if none
+     */
+    public float getHdop() {
+        return hdop;
+    }
+
+    /**
+     * @return PDOP from the latest GSA, NaN if none
+     */
+    public float getPdop() {
+        return pdop;
+    }
+
+    /**
+     * @return VDOP from the latest GSA, NaN if none
+     */
+    public float getVdop() {
+        return vdop;
+    }
+
+    /**
+     * @return satellites used in the solution, from GGA or else GSA; -1 if unknown
+     */
+    public int getSatellites() {
+        return satellites;
+    }
+
+    /**
+     * @return GGA fix quality: 0 invalid, 1 GPS, 2 DGPS and so on; -1 if unknown
+     */
+    public int getFixQuality() {
+        return fixQuality;
+    }
+
+    /**
+     * @return GSA fix type: 1 none, 2 2D, 3 3D; -1 if unknown
+     */
+    public int getFixType() {
+        return fixType;
+    }
+
+    /**
+     * Forgets all state, e.g. when the receiver is restarted.
+     */
+    public void reset() {
+        hasFix = false;
+        speed = Float.NaN;
+        course = Float.NaN;
+        vtgTimeOfDay = -1L;
+        vtgSpeed = Float.NaN;
+        vtgCourse = Float.NaN;
+        hdop = Float.NaN;
+        pdop = Float.NaN;
+        vdop = Float.NaN;
+        dopTime = Long.MIN_VALUE;
+        lastTimeOfDay = -1L;
+        satellites = -1;
+        fixQuality = -1;
+        fixType = -1;
+        anchored = false;
+    }
+
+    private boolean isChar(int field, char c) {
+        return fieldEnd[field] - fieldStart[field] == 1 && s.charAt(fieldStart[field]) == c;
+    }
+
+    /**
+     * @return milliseconds since midnight of an hhmmss(.sss) field, -1 if absent or invalid
+     */
+    private long timeOfDay(int field) {
+        int from = fieldStart[field];
+        if (fieldEnd[field] - from < 6) {
+            return -1L;
+        }
+        int hours = digits(from, 2);
+        int minutes = digits(from + 2, 2);
+        double seconds = decimal(from + 4, fieldEnd[field]);
+        if (hours < 0 || minutes < 0 || Double.isNaN(seconds)) {
+            return -1L;
+        }
+        return (hours * 60L + minutes) * 60000L + Math.round(seconds * 1000.0);
+    }
+
+    /**
+     * @return days since the epoch of a ddmmyy field, Long.MIN_VALUE if invalid
+     */
+    private long date(int field) {
+        int from = fieldStart[field];
+        if (fieldEnd[field] - from != 6) {
+            return Long.MIN_VALUE;
+        }
+        int day = digits(from, 2);
+        int month = digits(from + 2, 2);
+        int year = digits(from + 4, 2);
+        if (day < 1 || month < 1 || month > 12 || year < 0) {
+            return Long.MIN_VALUE;
+        }
+        // two digit years: the GPS era
+        return CivilTime.daysFromCivil(year + (year < 80 ? 2000 : 1900), month, day);
+    }
+
+    /**
+     * @return signed degrees of a (d)ddmm.mmmm field and its hemisphere field, NaN if invalid
+     */
+    private double coordinate(int field, int degreeDigits, int hemisphereField) {
+        int from = fieldStart[field];
+        if (fieldEnd[field] - from <= degreeDigits) {
+            return Double.NaN;
+        }
+        int degrees = digits(from, degreeDigits);
+        double minutes = decimal(from + degreeDigits, fieldEnd[field]);
+        if (degrees < 0 || Double.isNaN(minutes)) {
+            return Double.NaN;
+        }
+        double value = degrees + minutes / 60.0;
+        if (isChar(hemisphereField, 'S') || isChar(hemisphereField, 'W')) {
+            return -value;
+        }
+        return isChar(hemisphereField, 'N') || isChar(hemisphereField, 'E') ? value : Double.NaN;
+    }
+
+    private double number(int field) {
+        return decimal(fieldStart[field], fieldEnd[field]);
+    }
+
+    /**
+     * @return value of an unsigned integer field, -1 if empty or invalid
+     */
+    private long integer(int field) {
+        int from = fieldStart[field];
+        int length = fieldEnd[field] - from;
+        return length > 0 && length < 10 ? digits(from, length) : -1L;
+    }
+
+    /**
+     * Reads an optionally signed decimal number such as {@code 022.4} or {@code -1.25}.
+     *
+     * @return the value, NaN if the range is empty or not a number
+     */
+    private double decimal(int from, int to) {
+        if (from >= to) {
+            return Double.NaN;
+        }
+        boolean negative = s.charAt(from) == '-';
+        int i = negative ? from + 1 : from;
+        long mantissa = 0;
+        int fractionDigits = -1;
+        int digitCount = 0;
+        for (; i < to; i++) {
+            char ch = s.charAt(i);
+            if (ch == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else if (ch >= '0' && ch <= '9') {
+                if (digitCount++ >= 18) {
+                    return Double.NaN;
+                }
+                mantissa = mantissa * 10 + (ch - '0');
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else {
+                return Double.NaN;
+            }
+        }
+        if (digitCount == 0 || fractionDigits >= POWERS_OF_TEN.length) {
+            return Double.NaN;
+        }
+        // both operands are exact, so the quotient is correctly rounded
+        double value = fractionDigits > 0 ? mantissa / (double) POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -value : value;
+    }
+
+    private int digits(int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            char ch = s.charAt(i);
+            if (ch < '0' || ch > '9') {
+                return -1;
+            }
+            value = value * 10 + (ch - '0');
+        }
+        return value;
+    }
+
+    private static int hex(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        return -1;
+    }
+}
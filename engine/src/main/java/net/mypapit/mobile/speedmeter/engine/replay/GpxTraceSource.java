@@ -0,0 +1,263 @@
+package net.mypapit.mobile.speedmeter.engine.replay;
+
+import net.mypapit.mobile.speedmeter.engine.CivilTime;
+import net.mypapit.mobile.speedmeter.engine.Fix;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * Replays the track and route points of a GPX file, read as a stream so that files of any
+ * size can be replayed.
+ * <p>
+ * Speed, course and accuracy are taken from {@code speed}, {@code course} and
+ * {@code accuracy} elements inside the point in any namespace, which covers GPX 1.0, the app's
+ * own export and Garmin's TrackPointExtension. When a point has no speed, the speed implied by
+ * the distance from the previous point is used. Points without a time are taken as one
+ * second apart.
+ */
+public final class GpxTraceSource implements TraceSource {
+
+    private static final double EARTH_RADIUS = 6371008.8;
+
+    private final Reader in;
+    private final StringBuilder tag = new StringBuilder();
+    private final StringBuilder text = new StringBuilder();
+
+    private boolean inPoint;
+    private double latitude;
+    private double longitude;
+    private long time;
+    private float speed;
+    private float course;
+    private float accuracy;
+
+    private boolean hasPrevious;
+    private long firstTime;
+    private long previousTime;
+    private double previousLatitude;
+    private double previousLongitude;
+
+    public GpxTraceSource(File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+
+    public GpxTraceSource(InputStream in) {
+        this.in = new BufferedReader(new InputStreamReader(in, Charset.forName("UTF-8")), 16 * 1024);
+    }
+
+    @Override
+    public boolean next(Fix fix) throws IOException {
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c != '<') {
+                if (inPoint) {
+                    text.append((char) c);
+                }
+                continue;
+            }
+            readTag();
+            if (tag.length() == 0) {
+                continue;
+            }
+            boolean end = tag.charAt(0) == '/';
+            if (!end && isPoint(tag, 0)) {
+                startPoint();
+                if (tag.charAt(tag.length() - 1) == '/' && endPoint(fix)) {
+                    return true;
+                }
+            } else if (end && isPoint(tag, 1)) {
+                if (endPoint(fix)) {
+                    return true;
+                }
+            } else if (inPoint && end) {
+                endElement();
+            } else {
+                text.setLength(0);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the rest of a tag into {@link #tag}, leaving it empty for comments, processing
+     * instructions and other markup that carries no data.
+     */
+    private void readTag() throws IOException {
+        tag.setLength(0);
+        int c = in.read();
+        if (c == '!' || c == '?') {
+            skipMarkup(c);
+            return;
+        }
+        while (c >= 0 && c != '>') {
+            tag.append((char) c);
+            c = in.read();
+        }
+        if (c < 0) {
+            throw new EOFException("unterminated tag");
+        }
+    }
+
+    private void skipMarkup(int first) throws IOException {
+        // comments may contain '>', so they end only at "-->"
+        boolean comment = false;
+        int dashes = 0;
+        int c;
+        if (first == '!') {
+            c = in.read();
+            if (c == '-') {
+                comment = true;
+            }
+        }
+        while ((c = in.read()) >= 0) {
+            if (c == '>' && (!comment || dashes >= 2)) {
+                return;
+            }
+            dashes = c == '-' ? dashes + 1 : 0;
+        }
+    }
+
+    private static boolean isPoint(CharSequence tag, int offset) {
+        return startsWithName(tag, offset, "trkpt") || startsWithName(tag, offset, "rtept");
+    }
+
+    private static boolean startsWithName(CharSequence tag, int offset, String name) {
+        int end = offset + name.length();
+        if (tag.length() < end) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            if (tag.charAt(offset + i) != name.charAt(i)) {
+                return false;
+            }
+        }
+        return tag.length() == end || !Character.isLetterOrDigit(tag.charAt(end));
+    }
+
+    private void startPoint() {
+        inPoint = true;
+        latitude = parseDouble(attribute("lat"));
+        longitude = parseDouble(attribute("lon"));
+        time = CivilTime.INVALID;
+        speed = Float.NaN;
+        course = Float.NaN;
+        accuracy = Float.NaN;
+        text.setLength(0);
+    }
+
+    /**
+     * Applies the text of the element that has just ended, matched by its local name.
+     */
+    private void endElement() {
+        int colon = tag.indexOf(":");
+        String name = tag.substring(colon < 0 ? 1 : colon + 1).trim();
+        String value = text.toString().trim();
+        text.setLength(0);
+        switch (name) {
+            case "time":
+                time = CivilTime.parseIso(value);
+                break;
+            case "speed":
+                speed = (float) parseDouble(value);
+                break;
+            case "course":
+                course = (float) parseDouble(value);
+                break;
+            case "accuracy":
+                accuracy = (float) parseDouble(value);
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return false if the point has no position and was skipped
+     */
+    private boolean endPoint(Fix fix) {
+        inPoint = false;
+        if (Double.isNaN(latitude) || Double.isNaN(longitude)) {
+            return false;
+        }
+        if (time == CivilTime.INVALID) {
+            time = hasPrevious ? previousTime + 1000L : 0L;
+        }
+        if (!hasPrevious) {
+            firstTime = time;
+        }
+        if (Float.isNaN(speed) && hasPrevious && time > previousTime) {
+            speed = (float) (distance(previousLatitude, previousLongitude, latitude, longitude)
+                    * 1000.0 / (time - previousTime));
+        }
+        fix.set((time - firstTime) * 1000000L, time, latitude, longitude, speed, course, accuracy);
+        hasPrevious = true;
+        previousTime = time;
+        previousLatitude = latitude;
+        previousLongitude = longitude;
+        return true;
+    }
+
+    private String attribute(String name) {
+        int from = 0;
+        while (true) {
+            int i = tag.indexOf(name, from);
+            if (i < 0) {
+                return null;
+            }
+            from = i + name.length();
+            if (i > 0 && Character.isWhitespace(tag.charAt(i - 1))) {
+                int j = from;
+                while (j < tag.length() && Character.isWhitespace(tag.charAt(j))) {
+                    j++;
+                }
+                if (j < tag.length() && tag.charAt(j) == '=') {
+                    j++;
+                    while (j < tag.length() && Character.isWhitespace(tag.charAt(j))) {
+                        j++;
+                    }
+                    if (j < tag.length()) {
+                        char quote = tag.charAt(j);
+                        int close = tag.indexOf(String.valueOf(quote), j + 1);
+                        if (close > j) {
+                            return tag.substring(j + 1, close);
+                        }
+                    }
+                    return null;
+                }
+            }
+        }
+    }
+
+    private static double parseDouble(String s) {
+        if (s == null) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(s.trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static double distance(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,84 @@
+package net.mypapit.mobile.speedmeter.engine.replay;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.nmea.NmeaParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * Replays an NMEA 0183 log, one fix per valid RMC sentence of any talker, parsed by
+ * {@link NmeaParser}. Sentences with a bad checksum are skipped, and so is anything before
+ * the '$' on a line, such as a timestamp added by a logger.
+ */
+public final class NmeaTraceSource implements TraceSource {
+
+    private final Reader in;
+    private final char[] buffer = new char[16 * 1024];
+    private int position;
+    private int limit;
+    private final StringBuilder line = new StringBuilder(128);
+    private final NmeaParser parser = new NmeaParser();
+    private boolean hasFirst;
+    private long firstTime;
+
+    public NmeaTraceSource(File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+
+    public NmeaTraceSource(InputStream in) {
+        this.in = new InputStreamReader(in, Charset.forName("US-ASCII"));
+    }
+
+    @Override
+    public boolean next(Fix fix) throws IOException {
+        while (readLine()) {
+            if (parser.parse(line) == NmeaParser.RMC && parser.hasFix()) {
+                if (!hasFirst) {
+                    hasFirst = true;
+                    firstTime = parser.getTime();
+                }
+                return parser.readFix(fix, (parser.getTime() - firstTime) * 1000000L);
+            }
+        }
+        return false;
+    }
+
+    private boolean readLine() throws IOException {
+        line.setLength(0);
+        while (true) {
+            if (position == limit) {
+                limit = in.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return line.length() > 0;
+                }
+            }
+            char c = buffer[position++];
+            if (c == '\n') {
+                return true;
+            }
+            if (c != '\r') {
+                line.append(c);
+            }
+        }
+    }
+
+    /**
+     * @return the parser, for the HDOP, satellite count and fix quality of the latest epoch
+     */
+    public NmeaParser getParser() {
+        return parser;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,133 @@
+package net.mypapit.mobile.speedmeter.engine.replay;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.FixPipeline;
+
+import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds a {@link TraceSource} through a {@link FixPipeline}, either paced by the fix
+ * timestamps, in real time or sped up, or as fast as possible.
+ * <p>
+ * {@link #run()} replays the whole trace on the calling thread. Event loops that must not
+ * block, such as an Android Handler, call {@link #step(long)} instead and come back after the
+ * delay it returns. Paced modes shorten gaps in the trace longer than {@link #MAX_GAP_NANOS}
+ * so that a paused trip does not stall the replay. Not thread-safe.
+ */
+public final class ReplayEngine {
+
+    /** Fixes are processed as far apart as they were recorded */
+    public static final int REALTIME = 0;
+    /** Fixes are processed faster than recorded, by the given speed-up factor */
+    public static final int ACCELERATED = 1;
+    /** Fixes are processed back to back, for throughput measurements */
+    public static final int AS_FAST_AS_POSSIBLE = 2;
+
+    /** Returned by {@link #step(long)} once the trace has ended */
+    public static final long END = -1L;
+    public static final long MAX_GAP_NANOS = 5000000000L;
+
+    private final TraceSource source;
+    private final FixPipeline pipeline;
+    private final int mode;
+    private final double speedUp;
+    private final Fix fix = new Fix();
+    private final ReplayStats stats = new ReplayStats();
+
+    private boolean pending;
+    private boolean started;
+    private boolean ended;
+    private long baseWallNanos;
+    private long baseTraceNanos;
+    private long lastTraceNanos;
+
+    /**
+     * @param mode    {@link #REALTIME}, {@link #ACCELERATED} or {@link #AS_FAST_AS_POSSIBLE}
+     * @param speedUp how many times faster than recorded to replay in {@link #ACCELERATED} mode
+     */
+    public ReplayEngine(TraceSource source, FixPipeline pipeline, int mode, double speedUp) {
+        if (mode == ACCELERATED && !(speedUp > 0.0)) {
+            throw new IllegalArgumentException("speed-up must be positive: " + speedUp);
+        }
+        this.source = source;
+        this.pipeline = pipeline;
+        this.mode = mode;
+        this.speedUp = mode == ACCELERATED ? speedUp : 1.0;
+        pipeline.setTimer(stats.getStageTimer());
+    }
+
+    public FixPipeline getPipeline() {
+        return pipeline;
+    }
+
+    public ReplayStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Processes every fix that is due at the given time.
+     *
+     * @param nowNanos current {@link System#nanoTime()}
+     * @return nanoseconds until the next fix is due, or {@link #END} once the trace has ended
+     */
+    public long step(long nowNanos) throws IOException {
+        if (ended) {
+            return END;
+        }
+        while (true) {
+            if (!pending) {
+                long t0 = System.nanoTime();
+                if (!source.next(fix)) {
+                    ended = true;
+                    pipeline.setTimer(null);
+                    return END;
+                }
+                stats.getStageTimer().record(ReplayStats.STAGE_SOURCE, System.nanoTime() - t0);
+                pending = true;
+                if (!started) {
+                    started = true;
+                    baseWallNanos = nowNanos;
+                    baseTraceNanos = fix.elapsedNanos;
+                    lastTraceNanos = fix.elapsedNanos;
+                    stats.start(nowNanos, fix.elapsedNanos);
+                }
+                long gap = fix.elapsedNanos - lastTraceNanos;
+                if (gap < 0 || gap > MAX_GAP_NANOS) {
+                    // treat a jump back, e.g. after a reboot, as no gap and a long one as the maximum
+                    baseTraceNanos += gap - (gap < 0 ? 0 : MAX_GAP_NANOS);
+                }
+                lastTraceNanos = fix.elapsedNanos;
+            }
+            if (mode != AS_FAST_AS_POSSIBLE) {
+                long due = baseWallNanos + (long) ((fix.elapsedNanos - baseTraceNanos) / speedUp);
+                if (due > nowNanos) {
+                    return due - nowNanos;
+                }
+            }
+            pending = false;
+            pipeline.process(fix);
+            stats.onFix(pipeline.getEngine().snapshot(),
+                    mode == AS_FAST_AS_POSSIBLE ? System.nanoTime() : nowNanos);
+        }
+    }
+
+    /**
+     * Replays the whole trace on the calling thread, waiting between fixes in the paced modes.
+     *
+     * @return the statistics of the run
+     * @throws InterruptedException if the thread was interrupted while waiting
+     */
+    public ReplayStats run() throws IOException, InterruptedException {
+        long wait;
+        while ((wait = step(System.nanoTime())) != END) {
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return stats;
+    }
+}
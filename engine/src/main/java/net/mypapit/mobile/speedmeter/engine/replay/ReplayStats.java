@@ -0,0 +1,109 @@
+package net.mypapit.mobile.speedmeter.engine.replay;
+
+import net.mypapit.mobile.speedmeter.engine.FixPipeline;
+import net.mypapit.mobile.speedmeter.engine.Snapshot;
+import net.mypapit.mobile.speedmeter.engine.StageTimer;
+
+/**
+ * What a replay did: how many fixes it processed, how fast, how long each pipeline stage
+ * took, and a digest of the results.
+ * <p>
+ * The digest covers the filtered, display and maximum speeds and the heading of every fix,
+ * so two runs of the same trace with the same settings give the same digest, and any change
+ * to the processing shows up as a different one.
+ */
+public final class ReplayStats {
+
+    /** Stage index of reading fixes from the trace, after the {@link FixPipeline} stages */
+    public static final int STAGE_SOURCE = FixPipeline.STAGE_NAMES.length;
+
+    private final StageTimer stages;
+    private long fixes;
+    private long startWallNanos;
+    private long endWallNanos;
+    private long firstTraceNanos;
+    private long lastTraceNanos;
+    private double maxSpeed = Double.NaN;
+    private long digest = 0xcbf29ce484222325L;
+
+    ReplayStats() {
+        String[] names = new String[STAGE_SOURCE + 1];
+        System.arraycopy(FixPipeline.STAGE_NAMES, 0, names, 0, STAGE_SOURCE);
+        names[STAGE_SOURCE] = "source";
+        stages = new StageTimer(names);
+    }
+
+    void start(long wallNanos, long traceNanos) {
+        startWallNanos = wallNanos;
+        endWallNanos = wallNanos;
+        firstTraceNanos = traceNanos;
+        lastTraceNanos = traceNanos;
+    }
+
+    void onFix(Snapshot snapshot, long wallNanos) {
+        fixes++;
+        endWallNanos = wallNanos;
+        lastTraceNanos = snapshot.elapsedNanos;
+        maxSpeed = snapshot.maxSpeed;
+        mix(Float.floatToIntBits(snapshot.filteredSpeed));
+        mix(Float.floatToIntBits(snapshot.displaySpeed));
+        mix(Double.doubleToLongBits(snapshot.maxSpeed));
+        mix(snapshot.heading);
+    }
+
+    private void mix(long value) {
+        // FNV-1a over the eight bytes of the value
+        for (int i = 0; i < 8; i++) {
+            digest ^= (value >>> (i * 8)) & 0xff;
+            digest *= 0x100000001b3L;
+        }
+    }
+
+    StageTimer getStageTimer() {
+        return stages;
+    }
+
+    public long getFixCount() {
+        return fixes;
+    }
+
+    /**
+     * @return wall time from the first to the last processed fix, in nanoseconds
+     */
+    public long getWallNanos() {
+        return endWallNanos - startWallNanos;
+    }
+
+    /**
+     * @return time covered by the replayed fixes, in nanoseconds
+     */
+    public long getTraceNanos() {
+        return lastTraceNanos - firstTraceNanos;
+    }
+
+    /**
+     * @return fixes processed per second of wall time
+     */
+    public double getFixesPerSecond() {
+        long wall = getWallNanos();
+        return wall > 0 ? fixes * 1e9 / wall : 0.0;
+    }
+
+    /**
+     * @return max speed at the end of the replay in meters/second, NaN if nothing was replayed
+     */
+    public double getMaxSpeed() {
+        return maxSpeed;
+    }
+
+    public long getDigest() {
+        return digest;
+    }
+
+    /**
+     * @return durations of the pipeline stages, plus {@link #STAGE_SOURCE} for reading the trace
+     */
+    public StageTimer getStages() {
+        return stages;
+    }
+}
@@ -0,0 +1,37 @@
+package net.mypapit.mobile.speedmeter.engine.replay;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.SyntheticTrace;
+
+/**
+ * Replays a fixed number of fixes of a {@link SyntheticTrace}, for demos and runs without a
+ * recorded trace.
+ */
+public final class SyntheticTraceSource implements TraceSource {
+
+    private final SyntheticTrace trace;
+    private final long count;
+    private long produced;
+
+    /**
+     * @param count number of fixes to produce
+     */
+    public SyntheticTraceSource(SyntheticTrace trace, long count) {
+        this.trace = trace;
+        this.count = count;
+    }
+
+    @Override
+    public boolean next(Fix fix) {
+        if (produced >= count) {
+            return false;
+        }
+        trace.next(fix);
+        produced++;
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
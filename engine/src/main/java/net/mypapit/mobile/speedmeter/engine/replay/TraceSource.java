@@ -0,0 +1,20 @@
+package net.mypapit.mobile.speedmeter.engine.replay;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A recorded or generated sequence of fixes, read in order. Sources fill in
+ * {@link Fix#elapsedNanos} so that it starts near zero and increases with the fix time.
+ */
+public interface TraceSource extends Closeable {
+
+    /**
+     * Reads the next fix into the given instance.
+     *
+     * @return false when the trace has ended
+     */
+    boolean next(Fix fix) throws IOException;
+}
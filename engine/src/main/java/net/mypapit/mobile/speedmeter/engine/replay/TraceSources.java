@@ -0,0 +1,41 @@
+package net.mypapit.mobile.speedmeter.engine.replay;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Opens a trace file in whichever format it is in.
+ */
+public final class TraceSources {
+
+    private TraceSources() {
+    }
+
+    /**
+     * Opens an app track, a GPX file or an NMEA log, recognised by their first bytes.
+     */
+    public static TraceSource open(File file) throws IOException {
+        byte[] head = new byte[64];
+        int length = 0;
+        try (InputStream in = new FileInputStream(file)) {
+            int n;
+            while (length < head.length && (n = in.read(head, length, head.length - length)) > 0) {
+                length += n;
+            }
+        }
+        if (length >= 4 && head[0] == 'S' && head[1] == 'P' && head[2] == 'D' && head[3] == 'T') {
+            return new TrackTraceSource(file);
+        }
+        for (int i = 0; i < length; i++) {
+            if (head[i] == '<') {
+                return new GpxTraceSource(file);
+            }
+            if (head[i] == '$' || head[i] == ',') {
+                break;
+            }
+        }
+        return new NmeaTraceSource(file);
+    }
+}
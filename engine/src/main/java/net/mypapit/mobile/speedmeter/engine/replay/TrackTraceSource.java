@@ -0,0 +1,30 @@
+package net.mypapit.mobile.speedmeter.engine.replay;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.track.TrackReader;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Replays a track recorded by the app. Fixes come back exactly as they were recorded, within
+ * the precision of the track format.
+ */
+public final class TrackTraceSource implements TraceSource {
+
+    private final TrackReader reader;
+
+    public TrackTraceSource(File track) throws IOException {
+        reader = new TrackReader(track);
+    }
+
+    @Override
+    public boolean next(Fix fix) throws IOException {
+        return reader.next(fix);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,33 @@
+package net.mypapit.mobile.speedmeter.engine.session;
+
+import net.mypapit.mobile.speedmeter.engine.TripStats;
+
+/**
+ * What has to outlive the process: the max speed, the statistics of the current trip and
+ * which trip that is. All values are in SI units, independent of the displayed unit.
+ * Mutable and reused; not thread-safe.
+ */
+public final class SessionState {
+
+    /** Highest speed seen, in meters/second; negative if none */
+    public double maxSpeed = -100.0;
+    /** UTC start time of the trip being recorded, identifying its track; 0 if none */
+    public long tripStartTime;
+    public final TripStats tripStats = new TripStats();
+    /** UTC time the state was saved at */
+    public long savedAt;
+
+    public void copyFrom(SessionState other) {
+        maxSpeed = other.maxSpeed;
+        tripStartTime = other.tripStartTime;
+        tripStats.copyFrom(other.tripStats);
+        savedAt = other.savedAt;
+    }
+
+    public void clear() {
+        maxSpeed = -100.0;
+        tripStartTime = 0;
+        tripStats.reset();
+        savedAt = 0;
+    }
+}
@@ -0,0 +1,175 @@
+package net.mypapit.mobile.speedmeter.engine.session;
+
+import net.mypapit.mobile.speedmeter.engine.TripStats;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps a {@link SessionState} in a small file that survives the process.
+ * <p>
+ * {@link #save(SessionState)} only copies the state and returns; the file is written on the
+ * given executor, so callers on the main thread never wait for storage. Saves made while a
+ * write is still pending are coalesced into that write, which stores the latest state.
+ * <p>
+ * Each write goes to a temporary file that is synced and then renamed over the store, so a
+ * crash or kill leaves either the previous or the new state, never a torn one. A checksum
+ * catches anything else; a damaged store reads as missing. Thread-safe.
+ */
+public final class SessionStore {
+
+    private static final int MAGIC = 0x53505353; // "SPSS"
+    private static final int VERSION = 1;
+    private static final int SIZE = 4 + 4 + 8 + 8 + 8 + TripStats.BYTES + 4;
+
+    private final File file;
+    private final File temp;
+    private final Executor executor;
+    private final Runnable write = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                writePending();
+            } catch (IOException e) {
+                error.set(e);
+            }
+        }
+    };
+
+    // guarded by pending
+    private final SessionState pending = new SessionState();
+    private boolean scheduled;
+
+    // guarded by buffer
+    private final ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+    private final SessionState writing = new SessionState();
+    private final CRC32 crc = new CRC32();
+
+    private final AtomicReference<IOException> error = new AtomicReference<>();
+    private final AtomicInteger writeCount = new AtomicInteger();
+
+    /**
+     * @param executor runs the writes, off the caller's thread; a direct executor makes saving
+     *                 synchronous
+     */
+    public SessionStore(File file, Executor executor) {
+        this.file = file;
+        this.temp = new File(file.getPath() + ".tmp");
+        this.executor = executor;
+    }
+
+    /**
+     * Reads the saved state. Runs on the caller's thread.
+     *
+     * @return false if nothing was saved yet or the store is damaged; the state is then cleared
+     */
+    public boolean load(SessionState state) throws IOException {
+        // left behind by a write that did not finish; the store itself is intact
+        if (temp.exists() && !temp.delete()) {
+            throw new IOException("cannot delete " + temp);
+        }
+        state.clear();
+        if (!file.exists() || file.length() != SIZE) {
+            return false;
+        }
+        synchronized (buffer) {
+            byte[] bytes = buffer.array();
+            try (FileInputStream in = new FileInputStream(file)) {
+                int read = 0;
+                while (read < SIZE) {
+                    int n = in.read(bytes, read, SIZE - read);
+                    if (n < 0) {
+                        return false;
+                    }
+                    read += n;
+                }
+            }
+            crc.reset();
+            crc.update(bytes, 0, SIZE - 4);
+            buffer.clear();
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getInt(SIZE - 4) != (int) crc.getValue()) {
+                return false;
+            }
+            state.maxSpeed = buffer.getDouble();
+            state.tripStartTime = buffer.getLong();
+            state.savedAt = buffer.getLong();
+            state.tripStats.readFrom(buffer);
+        }
+        return true;
+    }
+
+    /**
+     * Schedules the state to be written. Returns at once; the state may be changed again
+     * right after.
+     */
+    public void save(SessionState state) {
+        synchronized (pending) {
+            pending.copyFrom(state);
+            if (scheduled) {
+                return;
+            }
+            scheduled = true;
+        }
+        executor.execute(write);
+    }
+
+    /**
+     * Writes a pending save now, on the caller's thread, e.g. before the process goes away.
+     */
+    public void flush() throws IOException {
+        writePending();
+    }
+
+    private void writePending() throws IOException {
+        synchronized (buffer) {
+            synchronized (pending) {
+                if (!scheduled) {
+                    return;
+                }
+                writing.copyFrom(pending);
+                scheduled = false;
+            }
+            buffer.clear();
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putDouble(writing.maxSpeed);
+            buffer.putLong(writing.tripStartTime);
+            buffer.putLong(writing.savedAt);
+            writing.tripStats.writeTo(buffer);
+            crc.reset();
+            crc.update(buffer.array(), 0, buffer.position());
+            buffer.putInt((int) crc.getValue());
+
+            try (FileOutputStream out = new FileOutputStream(temp)) {
+                out.write(buffer.array(), 0, SIZE);
+                out.getFD().sync();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("cannot rename " + temp + " to " + file);
+            }
+            writeCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the error of a failed background write since the last call, or null
+     */
+    public IOException takeError() {
+        return error.getAndSet(null);
+    }
+
+    /**
+     * @return number of writes that reached storage
+     */
+    public int getWriteCount() {
+        return writeCount.get();
+    }
+}
@@ -0,0 +1,149 @@
+package net.mypapit.mobile.speedmeter.engine.telemetry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Reference client for a {@link TelemetryPublisher}: reads frames over TCP, or subscribes over
+ * UDP and renews the subscription while reading. Not thread-safe.
+ */
+public final class TelemetryClient implements Closeable {
+
+    /** How often a UDP client renews its subscription, well inside the publisher's timeout */
+    public static final long HELLO_INTERVAL_NANOS = TelemetryPublisher.UDP_TIMEOUT_NANOS / 3;
+
+    private final SocketChannel socket;
+    private final DatagramChannel datagram;
+    private final Selector selector;
+    /** Bytes received and not yet read, in read mode */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * TelemetryFrame.SIZE);
+    private final ByteBuffer hello = ByteBuffer.wrap(new byte[] {'S', 'P'});
+    private long helloNanos;
+
+    private TelemetryClient(SocketChannel socket, DatagramChannel datagram, Selector selector) {
+        this.socket = socket;
+        this.datagram = datagram;
+        this.selector = selector;
+        buffer.limit(0);
+    }
+
+    /**
+     * Connects over TCP.
+     */
+    public static TelemetryClient tcp(InetSocketAddress address) throws IOException {
+        return tcp(address, 0);
+    }
+
+    /**
+     * Connects over TCP with a receive buffer of a given size. Frames a client is too slow for
+     * wait in the buffer, so a small one keeps what a slow display shows closer to now.
+     *
+     * @param receiveBufferBytes 0 for the system's default
+     */
+    public static TelemetryClient tcp(InetSocketAddress address, int receiveBufferBytes) throws IOException {
+        SocketChannel socket = SocketChannel.open();
+        try {
+            if (receiveBufferBytes > 0) {
+                socket.socket().setReceiveBufferSize(receiveBufferBytes);
+            }
+            socket.connect(address);
+            socket.socket().setTcpNoDelay(true);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return new TelemetryClient(socket, null, null);
+    }
+
+    /**
+     * Subscribes over UDP; the first frame arrives with the next snapshot published.
+     */
+    public static TelemetryClient udp(InetSocketAddress address) throws IOException {
+        DatagramChannel datagram = DatagramChannel.open();
+        Selector selector = null;
+        try {
+            datagram.connect(address);
+            datagram.configureBlocking(false);
+            selector = Selector.open();
+            datagram.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            datagram.close();
+            if (selector != null) {
+                selector.close();
+            }
+            throw e;
+        }
+        TelemetryClient client = new TelemetryClient(null, datagram, selector);
+        client.sayHello(System.nanoTime());
+        return client;
+    }
+
+    /**
+     * Waits for the next frame.
+     *
+     * @return false when the publisher closed the TCP connection
+     * @throws IOException if the connection failed or a TCP peer sent something not a frame
+     */
+    public boolean read(TelemetryFrame frame) throws IOException {
+        return socket != null ? readStream(frame) : readDatagram(frame);
+    }
+
+    private boolean readStream(TelemetryFrame frame) throws IOException {
+        while (buffer.remaining() < TelemetryFrame.SIZE) {
+            buffer.compact();
+            int n = socket.read(buffer);
+            buffer.flip();
+            if (n < 0) {
+                return false;
+            }
+        }
+        int at = buffer.position();
+        buffer.position(at + TelemetryFrame.SIZE);
+        if (!frame.read(buffer, at)) {
+            throw new IOException("Not a telemetry frame");
+        }
+        return true;
+    }
+
+    private boolean readDatagram(TelemetryFrame frame) throws IOException {
+        while (true) {
+            long now = System.nanoTime();
+            if (now - helloNanos >= HELLO_INTERVAL_NANOS) {
+                sayHello(now);
+            }
+            buffer.clear();
+            if (datagram.receive(buffer) != null) {
+                // anything else on the port is ignored
+                if (buffer.position() == TelemetryFrame.SIZE && frame.read(buffer, 0)) {
+                    return true;
+                }
+                continue;
+            }
+            long wait = helloNanos + HELLO_INTERVAL_NANOS - now;
+            selector.select(Math.max(1L, wait / 1000000L));
+            selector.selectedKeys().clear();
+        }
+    }
+
+    private void sayHello(long nowNanos) throws IOException {
+        hello.clear();
+        datagram.write(hello);
+        helloNanos = nowNanos;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (socket != null) {
+            socket.close();
+        } else {
+            selector.close();
+            datagram.close();
+        }
+    }
+}
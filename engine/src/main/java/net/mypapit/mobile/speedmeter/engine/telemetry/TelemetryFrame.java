@@ -0,0 +1,100 @@
+package net.mypapit.mobile.speedmeter.engine.telemetry;
+
+import net.mypapit.mobile.speedmeter.engine.Snapshot;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One processed snapshot as sent to companion displays: {@link #SIZE} bytes in a fixed layout,
+ * big-endian, so a reader in any language needs no parser.
+ *
+ * <pre>
+ *  0  u16     magic 0x5350, "SP"
+ *  2  u8      version, 1
+ *  3  u8      flags: 1 accuracy known, 2 over the speed limit
+ *  4  u32     sequence number, counting every frame published, also those dropped
+ *  8  i64     fix time, nanoseconds on the publisher's monotonic clock
+ * 16  i64     publish time, same clock
+ * 24  f64     latitude, degrees
+ * 32  f64     longitude, degrees
+ * 40  f32     speed of the fix, m/s
+ * 44  f32     filtered speed, m/s, NaN until known
+ * 48  f32     direction of travel, degrees, NaN if unknown
+ * 52  f32     accuracy radius, m, NaN if unknown
+ * 56  f32     max speed, m/s
+ * 60  f32     speed limit, m/s, NaN if none
+ * 64  f64     trip distance, m
+ * </pre>
+ *
+ * Instances are reused by readers.
+ */
+public final class TelemetryFrame {
+
+    public static final int SIZE = 72;
+    public static final int MAGIC = 0x5350;
+    public static final int VERSION = 1;
+
+    public static final int FLAG_ACCURACY = 1;
+    public static final int FLAG_OVERSPEED = 2;
+
+    public int flags;
+    public int sequence;
+    public long fixNanos;
+    public long publishNanos;
+    public double latitude;
+    public double longitude;
+    public float speed;
+    public float filteredSpeed;
+    public float bearing;
+    public float accuracy;
+    public float maxSpeed;
+    public float speedLimit;
+    public double distance;
+
+    /**
+     * Writes a snapshot as a frame at an offset, leaving the buffer's position alone.
+     */
+    public static void write(Snapshot s, int sequence, long publishNanos, ByteBuffer out, int offset) {
+        int flags = (s.hasAccuracy ? FLAG_ACCURACY : 0) | (s.overspeed ? FLAG_OVERSPEED : 0);
+        out.putShort(offset, (short) MAGIC);
+        out.put(offset + 2, (byte) VERSION);
+        out.put(offset + 3, (byte) flags);
+        out.putInt(offset + 4, sequence);
+        out.putLong(offset + 8, s.elapsedNanos);
+        out.putLong(offset + 16, publishNanos);
+        out.putDouble(offset + 24, s.latitude);
+        out.putDouble(offset + 32, s.longitude);
+        out.putFloat(offset + 40, s.speed);
+        out.putFloat(offset + 44, s.filteredSpeed);
+        out.putFloat(offset + 48, s.bearing);
+        out.putFloat(offset + 52, s.hasAccuracy ? s.accuracy : Float.NaN);
+        out.putFloat(offset + 56, (float) s.maxSpeed);
+        out.putFloat(offset + 60, s.speedLimit);
+        out.putDouble(offset + 64, s.distance);
+    }
+
+    /**
+     * Reads a frame at an offset, leaving the buffer's position alone.
+     *
+     * @return false if the bytes are not a frame of this version; the fields are then unchanged
+     */
+    public boolean read(ByteBuffer in, int offset) {
+        if ((in.getShort(offset) & 0xffff) != MAGIC || in.get(offset + 2) != VERSION) {
+            return false;
+        }
+        flags = in.get(offset + 3) & 0xff;
+        sequence = in.getInt(offset + 4);
+        fixNanos = in.getLong(offset + 8);
+        publishNanos = in.getLong(offset + 16);
+        latitude = in.getDouble(offset + 24);
+        longitude = in.getDouble(offset + 32);
+        speed = in.getFloat(offset + 40);
+        filteredSpeed = in.getFloat(offset + 44);
+        bearing = in.getFloat(offset + 48);
+        accuracy = in.getFloat(offset + 52);
+        maxSpeed = in.getFloat(offset + 56);
+        speedLimit = in.getFloat(offset + 60);
+        distance = in.getDouble(offset + 64);
+        return true;
+    }
+}
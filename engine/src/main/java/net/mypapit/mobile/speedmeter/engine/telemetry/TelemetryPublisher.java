@@ -0,0 +1,406 @@
+package net.mypapit.mobile.speedmeter.engine.telemetry;
+
+import net.mypapit.mobile.speedmeter.engine.Snapshot;
+import net.mypapit.mobile.speedmeter.engine.metrics.Counter;
+import net.mypapit.mobile.speedmeter.engine.metrics.Metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams snapshots as {@link TelemetryFrame}s to companion displays, over TCP and UDP on the
+ * same port. TCP clients just connect. UDP clients send any datagram to subscribe, and again
+ * at least every {@link #UDP_TIMEOUT_NANOS} to stay subscribed.
+ * <p>
+ * {@link #publish} only encodes the snapshot into the next buffer of a ring and wakes the I/O
+ * thread: it never waits on the network and does not allocate. Should the I/O thread fall a
+ * whole ring behind, new frames are dropped. Each TCP client has a pooled buffer of
+ * {@link #CLIENT_FRAMES} frames, so frames that queue while it is briefly slow go out in one
+ * write; when the buffer is full, what is queued is dropped for the newest frame, and a slow
+ * client sees the latest state rather than an ever older backlog. A datagram the socket cannot
+ * take is dropped. Publish from a single thread; start and close from any.
+ */
+public final class TelemetryPublisher implements Closeable {
+
+    public static final int DEFAULT_PORT = 5870;
+    /** Frames between the publishing and the I/O thread */
+    public static final int RING_FRAMES = 64;
+    /** Frames queued for a TCP client before older ones are dropped */
+    public static final int CLIENT_FRAMES = 16;
+    /**
+     * Kernel send buffer of a TCP client. What it holds is sent however old it gets, so it is
+     * kept small; the default can hold minutes of frames.
+     */
+    private static final int SEND_BUFFER_BYTES = 4096;
+    /** TCP clients and UDP subscribers each */
+    public static final int MAX_CLIENTS = 8;
+    public static final long UDP_TIMEOUT_NANOS = 15000000000L;
+
+    public static final String PUBLISHED = "telemetry.published";
+    public static final String DROPPED = "telemetry.dropped";
+    public static final String LAGGING = "telemetry.lagging";
+    public static final String SUBSCRIBED = "telemetry.subscribed";
+
+    private static final long SELECT_TIMEOUT_MILLIS = 1000L;
+
+    private final Counter publishedCount;
+    private final Counter dropped;
+    private final Counter lagging;
+    private final Counter subscribed;
+
+    private final ByteBuffer ring = ByteBuffer.allocateDirect(RING_FRAMES * TelemetryFrame.SIZE);
+    /** Views of the frames in the ring, for the I/O thread to send */
+    private final ByteBuffer[] slots = new ByteBuffer[RING_FRAMES];
+    /** Frames written into the ring */
+    private final AtomicLong written = new AtomicLong();
+    /** Frames taken from the ring by the I/O thread */
+    private volatile long taken;
+    private int sequence;
+
+    private volatile boolean running;
+    private Selector selector;
+    private ServerSocketChannel server;
+    private DatagramChannel datagram;
+    private Thread thread;
+
+    // owned by the I/O thread
+    private final ArrayList<Client> clients = new ArrayList<>();
+    private final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<>();
+    private final SocketAddress[] subscribers = new SocketAddress[MAX_CLIENTS];
+    private final long[] subscriberSeenNanos = new long[MAX_CLIENTS];
+    private int subscriberCount;
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(512);
+
+    public TelemetryPublisher(Metrics metrics) {
+        publishedCount = metrics.counter(PUBLISHED);
+        dropped = metrics.counter(DROPPED);
+        lagging = metrics.counter(LAGGING);
+        subscribed = metrics.counter(SUBSCRIBED);
+        for (int i = 0; i < RING_FRAMES; i++) {
+            ring.limit((i + 1) * TelemetryFrame.SIZE).position(i * TelemetryFrame.SIZE);
+            slots[i] = ring.slice();
+        }
+        ring.clear();
+    }
+
+    /**
+     * Opens the sockets and starts the I/O thread.
+     *
+     * @param address where to listen: the loopback address for displays on the device, the
+     *                wildcard address for the network; port 0 picks a free one
+     */
+    public synchronized void start(InetSocketAddress address) throws IOException {
+        if (running) {
+            return;
+        }
+        try {
+            selector = Selector.open();
+            server = ServerSocketChannel.open();
+            server.socket().setReuseAddress(true);
+            server.socket().bind(address);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            datagram = DatagramChannel.open();
+            datagram.socket().bind(new InetSocketAddress(address.getAddress(), server.socket().getLocalPort()));
+            datagram.configureBlocking(false);
+            datagram.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            closeChannels();
+            throw e;
+        }
+        taken = written.get();
+        running = true;
+        thread = new Thread(this::run, "telemetry");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return the port listened on, 0 when not started
+     */
+    public synchronized int getLocalPort() {
+        return running ? server.socket().getLocalPort() : 0;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Queues a snapshot for all subscribers. Does nothing when not started.
+     *
+     * @param nowNanos publish time, on the clock of the snapshot's fix time
+     */
+    public void publish(Snapshot snapshot, long nowNanos) {
+        if (!running) {
+            return;
+        }
+        int frameSequence = sequence++;
+        long n = written.get();
+        if (n - taken >= RING_FRAMES) {
+            dropped.increment();
+            return;
+        }
+        TelemetryFrame.write(snapshot, frameSequence, nowNanos, ring, (int) (n % RING_FRAMES) * TelemetryFrame.SIZE);
+        written.lazySet(n + 1);
+        publishedCount.increment();
+        selector.wakeup();
+    }
+
+    /**
+     * Stops the I/O thread and closes all connections.
+     */
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        thread = null;
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                selector.select(SELECT_TIMEOUT_MILLIS);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else if (key.channel() == datagram) {
+                        receiveSubscriptions();
+                    } else {
+                        Client client = (Client) key.attachment();
+                        if (key.isReadable()) {
+                            discardInput(client);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            flush(client);
+                        }
+                    }
+                }
+                drain();
+                expireSubscribers(System.nanoTime());
+            }
+        } catch (IOException e) {
+            // the selector or a listening socket failed; publishing stops
+            running = false;
+        } finally {
+            for (int i = clients.size() - 1; i >= 0; i--) {
+                disconnect(clients.get(i));
+            }
+            subscriberCount = 0;
+            closeChannels();
+        }
+    }
+
+    private void closeChannels() {
+        closeQuietly(server);
+        closeQuietly(datagram);
+        closeQuietly(selector);
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            if (clients.size() >= MAX_CLIENTS) {
+                closeQuietly(channel);
+                continue;
+            }
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().setSendBufferSize(SEND_BUFFER_BYTES);
+                ByteBuffer out = bufferPool.poll();
+                if (out == null) {
+                    out = ByteBuffer.allocateDirect(CLIENT_FRAMES * TelemetryFrame.SIZE);
+                }
+                Client client = new Client(channel, out);
+                client.key = channel.register(selector, SelectionKey.OP_READ, client);
+                clients.add(client);
+                subscribed.increment();
+            } catch (IOException e) {
+                closeQuietly(channel);
+            }
+        }
+    }
+
+    private void receiveSubscriptions() throws IOException {
+        long now = System.nanoTime();
+        SocketAddress from;
+        readBuffer.clear();
+        while ((from = datagram.receive(readBuffer)) != null) {
+            readBuffer.clear();
+            int i = indexOfSubscriber(from);
+            if (i >= 0) {
+                subscriberSeenNanos[i] = now;
+            } else if (subscriberCount < MAX_CLIENTS) {
+                subscribers[subscriberCount] = from;
+                subscriberSeenNanos[subscriberCount++] = now;
+                subscribed.increment();
+            }
+        }
+    }
+
+    private int indexOfSubscriber(SocketAddress address) {
+        for (int i = 0; i < subscriberCount; i++) {
+            if (subscribers[i].equals(address)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void expireSubscribers(long now) {
+        for (int i = subscriberCount - 1; i >= 0; i--) {
+            if (now - subscriberSeenNanos[i] > UDP_TIMEOUT_NANOS) {
+                removeSubscriber(i);
+            }
+        }
+    }
+
+    private void removeSubscriber(int i) {
+        subscriberCount--;
+        subscribers[i] = subscribers[subscriberCount];
+        subscriberSeenNanos[i] = subscriberSeenNanos[subscriberCount];
+        subscribers[subscriberCount] = null;
+    }
+
+    private void discardInput(Client client) {
+        try {
+            readBuffer.clear();
+            if (client.channel.read(readBuffer) < 0) {
+                disconnect(client);
+            }
+        } catch (IOException e) {
+            disconnect(client);
+        }
+    }
+
+    /**
+     * Hands the frames written since the last call to every subscriber.
+     */
+    private void drain() {
+        long n = written.get();
+        if (taken == n) {
+            return;
+        }
+        for (long i = taken; i < n; i++) {
+            ByteBuffer frame = slots[(int) (i % RING_FRAMES)];
+            for (int s = subscriberCount - 1; s >= 0; s--) {
+                frame.clear();
+                try {
+                    if (datagram.send(frame, subscribers[s]) == 0) {
+                        lagging.increment();
+                    }
+                } catch (IOException e) {
+                    removeSubscriber(s);
+                }
+            }
+            for (int c = clients.size() - 1; c >= 0; c--) {
+                enqueue(clients.get(c), frame);
+            }
+            taken = i + 1;
+        }
+        for (int c = clients.size() - 1; c >= 0; c--) {
+            flush(clients.get(c));
+        }
+    }
+
+    private void enqueue(Client client, ByteBuffer frame) {
+        ByteBuffer out = client.out;
+        if (out.remaining() < TelemetryFrame.SIZE) {
+            flush(client);
+        }
+        if (!client.key.isValid()) {
+            return;
+        }
+        if (out.remaining() < TelemetryFrame.SIZE) {
+            // keep only the rest of a frame partly sent, so the stream stays aligned
+            int keep = (int) ((TelemetryFrame.SIZE - client.sentBytes % TelemetryFrame.SIZE) % TelemetryFrame.SIZE);
+            lagging.add((out.position() - keep) / TelemetryFrame.SIZE);
+            out.position(keep);
+        }
+        frame.clear();
+        out.put(frame);
+    }
+
+    private void flush(Client client) {
+        ByteBuffer out = client.out;
+        if (out.position() == 0 || !client.key.isValid()) {
+            return;
+        }
+        out.flip();
+        try {
+            client.sentBytes += client.channel.write(out);
+        } catch (IOException e) {
+            out.clear();
+            disconnect(client);
+            return;
+        }
+        out.compact();
+        client.key.interestOps(out.position() > 0
+                ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    private void disconnect(Client client) {
+        clients.remove(client);
+        client.key.cancel();
+        closeQuietly(client.channel);
+        client.out.clear();
+        bufferPool.add(client.out);
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // nothing left to do with it
+        }
+    }
+
+    private static final class Client {
+        final SocketChannel channel;
+        /** Frames queued, in write mode */
+        final ByteBuffer out;
+        SelectionKey key;
+        long sentBytes;
+
+        Client(SocketChannel channel, ByteBuffer out) {
+            this.channel = channel;
+            this.out = out;
+        }
+    }
+}
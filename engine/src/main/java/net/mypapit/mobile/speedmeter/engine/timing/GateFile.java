@@ -0,0 +1,73 @@
+package net.mypapit.mobile.speedmeter.engine.timing;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Reads and writes gates as text, one gate a line:
+ * {@code start|split,latitude1,longitude1,latitude2,longitude2}, with blank lines and lines
+ * starting with {@code #} ignored. Gates can be drawn in any map tool and exported this way,
+ * and the app keeps the gates placed from the menu in the same format.
+ */
+public final class GateFile {
+
+    private static final String START = "start";
+    private static final String SPLIT = "split";
+
+    private GateFile() {
+    }
+
+    /**
+     * Adds the gates read from a stream to an index.
+     *
+     * @return number of gates read
+     * @throws IOException on a malformed line, naming it; gates before it are added
+     */
+    public static int read(BufferedReader in, GateIndex gates) throws IOException {
+        int count = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] fields = line.split(",");
+            if (fields.length != 5) {
+                throw new IOException("line " + lineNumber + ": expected 5 fields: " + line);
+            }
+            int type;
+            String name = fields[0].trim();
+            if (START.equals(name)) {
+                type = GateIndex.START_FINISH;
+            } else if (SPLIT.equals(name)) {
+                type = GateIndex.SPLIT;
+            } else {
+                throw new IOException("line " + lineNumber + ": unknown gate type " + name);
+            }
+            try {
+                gates.add(type, Double.parseDouble(fields[1].trim()), Double.parseDouble(fields[2].trim()),
+                        Double.parseDouble(fields[3].trim()), Double.parseDouble(fields[4].trim()));
+            } catch (NumberFormatException e) {
+                throw new IOException("line " + lineNumber + ": " + e.getMessage());
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Writes all gates of an index.
+     */
+    public static void write(Appendable out, GateIndex gates) throws IOException {
+        out.append("# type,latitude1,longitude1,latitude2,longitude2\n");
+        for (int i = 0; i < gates.size(); i++) {
+            out.append(String.format(Locale.US, "%s,%.7f,%.7f,%.7f,%.7f\n",
+                    gates.getType(i) == GateIndex.START_FINISH ? START : SPLIT,
+                    gates.getLatitude1(i), gates.getLongitude1(i),
+                    gates.getLatitude2(i), gates.getLongitude2(i)));
+        }
+    }
+}
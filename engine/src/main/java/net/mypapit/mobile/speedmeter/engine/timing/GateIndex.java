@@ -0,0 +1,361 @@
+package net.mypapit.mobile.speedmeter.engine.timing;
+
+import java.util.Arrays;
+
+/**
+ * Timing gates, lines across the track, and the search for the gates a vehicle drove through
+ * between two fixes.
+ * <p>
+ * Gates are kept in a spatial hash of square cells: each gate is listed in every cell its
+ * bounding box touches, and a search only tests the gates listed in the cells touched by the
+ * bounding box of the step. Steps longer than {@link #MAX_STEP} are not searched, so a search
+ * looks at a bounded number of cells and, with gates spread out as on real tracks, at a handful
+ * of gates however many there are. The hash is rebuilt on the first search after gates change.
+ * <p>
+ * Positions are projected onto a plane around the first gate, linearly in latitude and
+ * longitude. Whether two lines cross, and where along each, does not change under such a
+ * projection, so only the cell size in meters depends on how far from the first gate a gate
+ * lies. Searches do not allocate. Not thread-safe.
+ */
+public final class GateIndex {
+
+    /** Starts and ends laps */
+    public static final int START_FINISH = 0;
+    /** Ends a sector within a lap */
+    public static final int SPLIT = 1;
+
+    /** Width of gates placed with {@link #addAcross}, in meters */
+    public static final double DEFAULT_WIDTH = 30.0;
+    /** Steps longer than this, in meters, are gaps in the fixes and are not searched */
+    public static final double MAX_STEP = 250.0;
+    /** Side of the hash cells, in meters */
+    static final double CELL = 100.0;
+
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180.0;
+
+    private int size;
+    private int[] types = new int[16];
+    private double[] latitudes1 = new double[16];
+    private double[] longitudes1 = new double[16];
+    private double[] latitudes2 = new double[16];
+    private double[] longitudes2 = new double[16];
+    private int modifications;
+
+    // projected end points, in meters from the origin
+    private double originLatitude;
+    private double originLongitude;
+    private double lonMeters;
+    private double[] x1 = new double[0];
+    private double[] y1 = new double[0];
+    private double[] x2 = new double[0];
+    private double[] y2 = new double[0];
+
+    // cells, open addressing on the packed cell coordinates; each lists its gates in entries
+    private boolean built = true;
+    private long[] cellKeys = new long[1];
+    private int[] cellStarts = new int[1];
+    private int[] cellCounts = new int[1];
+    private int[] entries = new int[0];
+    private int cellMask;
+
+    /** Search number a gate was last tested in, so that gates listed in several cells are tested once */
+    private int[] tested = new int[0];
+    private int search;
+    private long tests;
+
+    private int crossings;
+    private int[] crossingGates = new int[4];
+    private double[] crossingFractions = new double[4];
+
+    /**
+     * Adds a gate between two points. It counts vehicles driving through it to its left, seen
+     * from its first point towards its second.
+     *
+     * @param type {@link #START_FINISH} or {@link #SPLIT}
+     * @return index of the gate
+     */
+    public int add(int type, double latitude1, double longitude1, double latitude2, double longitude2) {
+        if (type != START_FINISH && type != SPLIT) {
+            throw new IllegalArgumentException("unknown gate type " + type);
+        }
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            latitudes1 = Arrays.copyOf(latitudes1, capacity);
+            longitudes1 = Arrays.copyOf(longitudes1, capacity);
+            latitudes2 = Arrays.copyOf(latitudes2, capacity);
+            longitudes2 = Arrays.copyOf(longitudes2, capacity);
+        }
+        types[size] = type;
+        latitudes1[size] = latitude1;
+        longitudes1[size] = longitude1;
+        latitudes2[size] = latitude2;
+        longitudes2[size] = longitude2;
+        modifications++;
+        built = false;
+        return size++;
+    }
+
+    /**
+     * Adds a gate centered on a position, square to a direction of travel, that counts
+     * vehicles driving through it in that direction.
+     *
+     * @param bearing direction of travel in degrees clockwise from north
+     * @param width   length of the gate in meters
+     * @return index of the gate
+     */
+    public int addAcross(int type, double latitude, double longitude, double bearing, double width) {
+        double radians = Math.toRadians(bearing);
+        // half the gate, pointing to the right of the direction of travel
+        double east = Math.cos(radians) * width / 2.0;
+        double north = -Math.sin(radians) * width / 2.0;
+        double dLat = north / METERS_PER_DEGREE;
+        double dLon = east / (METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+        return add(type, latitude - dLat, longitude - dLon, latitude + dLat, longitude + dLon);
+    }
+
+    /**
+     * Removes all gates.
+     */
+    public void clear() {
+        size = 0;
+        modifications++;
+        built = false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return a number that changes whenever gates are added or removed
+     */
+    public int getModifications() {
+        return modifications;
+    }
+
+    public int getType(int gate) {
+        return types[gate];
+    }
+
+    public double getLatitude1(int gate) {
+        return latitudes1[gate];
+    }
+
+    public double getLongitude1(int gate) {
+        return longitudes1[gate];
+    }
+
+    public double getLatitude2(int gate) {
+        return latitudes2[gate];
+    }
+
+    public double getLongitude2(int gate) {
+        return longitudes2[gate];
+    }
+
+    /**
+     * Finds the gates crossed, in their direction, by a straight step between two positions.
+     * The results are read with {@link #getCrossingGate} and {@link #getCrossingFraction},
+     * ordered along the step.
+     *
+     * @return number of gates crossed
+     */
+    public int cross(double latitude1, double longitude1, double latitude2, double longitude2) {
+        crossings = 0;
+        if (size == 0) {
+            return 0;
+        }
+        if (!built) {
+            build();
+        }
+        double px = x(longitude1);
+        double py = y(latitude1);
+        double rx = x(longitude2) - px;
+        double ry = y(latitude2) - py;
+        if (rx * rx + ry * ry > MAX_STEP * MAX_STEP) {
+            return 0;
+        }
+        if (++search == 0) {
+            Arrays.fill(tested, 0);
+            search = 1;
+        }
+        int minX = cell(Math.min(px, px + rx));
+        int maxX = cell(Math.max(px, px + rx));
+        int minY = cell(Math.min(py, py + ry));
+        int maxY = cell(Math.max(py, py + ry));
+        for (int cx = minX; cx <= maxX; cx++) {
+            for (int cy = minY; cy <= maxY; cy++) {
+                int slot = find(key(cx, cy));
+                if (slot < 0) {
+                    continue;
+                }
+                int end = cellStarts[slot] + cellCounts[slot];
+                for (int i = cellStarts[slot]; i < end; i++) {
+                    int gate = entries[i];
+                    if (tested[gate] != search) {
+                        tested[gate] = search;
+                        test(gate, px, py, rx, ry);
+                    }
+                }
+            }
+        }
+        return crossings;
+    }
+
+    /**
+     * @return index of the k-th gate crossed by the last {@link #cross} step
+     */
+    public int getCrossingGate(int k) {
+        return crossingGates[k];
+    }
+
+    /**
+     * @return how far along the last step the k-th gate was crossed, from 0 exclusive at its
+     *         start to 1 inclusive at its end
+     */
+    public double getCrossingFraction(int k) {
+        return crossingFractions[k];
+    }
+
+    /**
+     * @return number of gates tested against steps so far
+     */
+    public long getTests() {
+        return tests;
+    }
+
+    /**
+     * Tests a gate against the step from p along r and records a crossing in its direction.
+     */
+    private void test(int gate, double px, double py, double rx, double ry) {
+        tests++;
+        double sx = x2[gate] - x1[gate];
+        double sy = y2[gate] - y1[gate];
+        // positive when the step heads to the left of the gate, counter-clockwise from it
+        double denominator = sx * ry - sy * rx;
+        if (denominator <= 0.0) {
+            return;
+        }
+        double qx = x1[gate] - px;
+        double qy = y1[gate] - py;
+        // fractions along the step and along the gate
+        double t = (qx * sy - qy * sx) / -denominator;
+        double u = (qx * ry - qy * rx) / -denominator;
+        // a step ending on the gate crosses it, the next one starting there does not
+        if (t <= 0.0 || t > 1.0 || u < 0.0 || u > 1.0) {
+            return;
+        }
+        if (crossings == crossingGates.length) {
+            crossingGates = Arrays.copyOf(crossingGates, crossings * 2);
+            crossingFractions = Arrays.copyOf(crossingFractions, crossings * 2);
+        }
+        // insertion into the crossings so far, ordered by fraction
+        int k = crossings++;
+        while (k > 0 && crossingFractions[k - 1] > t) {
+            crossingGates[k] = crossingGates[k - 1];
+            crossingFractions[k] = crossingFractions[k - 1];
+            k--;
+        }
+        crossingGates[k] = gate;
+        crossingFractions[k] = t;
+    }
+
+    private void build() {
+        originLatitude = latitudes1[0];
+        originLongitude = longitudes1[0];
+        lonMeters = METERS_PER_DEGREE * Math.cos(Math.toRadians(originLatitude));
+        x1 = new double[size];
+        y1 = new double[size];
+        x2 = new double[size];
+        y2 = new double[size];
+        tested = new int[size];
+        search = 0;
+        int listed = 0;
+        for (int i = 0; i < size; i++) {
+            x1[i] = x(longitudes1[i]);
+            y1[i] = y(latitudes1[i]);
+            x2[i] = x(longitudes2[i]);
+            y2[i] = y(latitudes2[i]);
+            listed += (cell(Math.max(x1[i], x2[i])) - cell(Math.min(x1[i], x2[i])) + 1)
+                    * (cell(Math.max(y1[i], y2[i])) - cell(Math.min(y1[i], y2[i])) + 1);
+        }
+        int capacity = Integer.highestOneBit(Math.max(1, listed) * 2 - 1) << 1;
+        cellKeys = new long[capacity];
+        cellStarts = new int[capacity];
+        cellCounts = new int[capacity];
+        cellMask = capacity - 1;
+        Arrays.fill(cellKeys, Long.MIN_VALUE);
+        // count the gates of each cell, then place them
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < size; i++) {
+                int maxX = cell(Math.max(x1[i], x2[i]));
+                int maxY = cell(Math.max(y1[i], y2[i]));
+                for (int cx = cell(Math.min(x1[i], x2[i])); cx <= maxX; cx++) {
+                    for (int cy = cell(Math.min(y1[i], y2[i])); cy <= maxY; cy++) {
+                        int slot = pass == 0 ? insert(key(cx, cy)) : find(key(cx, cy));
+                        if (pass == 0) {
+                            cellCounts[slot]++;
+                        } else {
+                            entries[cellStarts[slot] + cellCounts[slot]++] = i;
+                        }
+                    }
+                }
+            }
+            if (pass == 0) {
+                entries = new int[listed];
+                int start = 0;
+                for (int slot = 0; slot < capacity; slot++) {
+                    cellStarts[slot] = start;
+                    start += cellCounts[slot];
+                    cellCounts[slot] = 0;
+                }
+            }
+        }
+        built = true;
+    }
+
+    private int insert(long key) {
+        int slot = hash(key);
+        while (cellKeys[slot] != key && cellKeys[slot] != Long.MIN_VALUE) {
+            slot = (slot + 1) & cellMask;
+        }
+        cellKeys[slot] = key;
+        return slot;
+    }
+
+    /**
+     * @return slot of a cell, or -1 if it lists no gates
+     */
+    private int find(long key) {
+        int slot = hash(key);
+        while (cellKeys[slot] != key) {
+            if (cellKeys[slot] == Long.MIN_VALUE) {
+                return -1;
+            }
+            slot = (slot + 1) & cellMask;
+        }
+        return slot;
+    }
+
+    private int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & cellMask;
+    }
+
+    private static long key(int cx, int cy) {
+        return (long) cx << 32 | (cy & 0xffffffffL);
+    }
+
+    private static int cell(double meters) {
+        return (int) Math.floor(meters / CELL);
+    }
+
+    private double x(double longitude) {
+        return (longitude - originLongitude) * lonMeters;
+    }
+
+    private double y(double latitude) {
+        return (latitude - originLatitude) * METERS_PER_DEGREE;
+    }
+}
@@ -0,0 +1,261 @@
+package net.mypapit.mobile.speedmeter.engine.timing;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+
+import java.util.Arrays;
+
+/**
+ * Times laps and sectors from the gates of a {@link GateIndex}. Each fix is joined to the
+ * previous one by a straight step, and a gate crossed by the step is taken to be crossed at
+ * the time interpolated along it, on the monotonic clock of the fixes. At one fix a second
+ * that puts crossings within a few hundredths of a second rather than anywhere in the second
+ * after them.
+ * <p>
+ * Crossing a start/finish gate ends the running lap and starts the next; crossing a split gate
+ * during a lap ends a sector. Split and lap times are compared with those of the best lap.
+ * Fixes less accurate than {@link #MAX_ACCURACY} are skipped, and steps across a gap of more
+ * than {@link #MAX_GAP_NANOS} are not searched. A gate crossed again within
+ * {@link #MIN_REPEAT_NANOS}, as by a vehicle stopped on it, is ignored. Timing restarts when
+ * the gates change. Updates do not allocate. Not thread-safe; feed it from a single thread.
+ */
+public final class LapTimer {
+
+    /** Returned by {@link #update} when a lap was started */
+    public static final int STARTED = 1;
+    /** Returned by {@link #update} when a lap was completed */
+    public static final int LAP = 2;
+    /** Returned by {@link #update} when a split gate was crossed during a lap */
+    public static final int SPLIT = 4;
+
+    /** Returned for times that are not known yet */
+    public static final long NONE = Long.MIN_VALUE;
+
+    /** Fixes with a larger accuracy radius, in meters, are skipped */
+    public static final float MAX_ACCURACY = 20.0f;
+    /** Steps over a longer gap between fixes are not searched */
+    public static final long MAX_GAP_NANOS = 5000000000L;
+    /** A gate crossed again within this time is ignored */
+    public static final long MIN_REPEAT_NANOS = 5000000000L;
+
+    private final GateIndex gates;
+    private int modifications;
+
+    private boolean hasPrevious;
+    private double previousLatitude;
+    private double previousLongitude;
+    private long previousNanos;
+
+    /** Time of the last crossing of each gate */
+    private long[] crossedNanos = new long[0];
+    /** Split times of the running lap and of the best lap, by gate */
+    private long[] splits = new long[0];
+    private long[] bestSplits = new long[0];
+
+    private long lapStartNanos = NONE;
+    private long sectorStartNanos;
+    private int laps;
+    private long lastLapNanos = NONE;
+    private long bestLapNanos = NONE;
+    private int sector;
+    private int events;
+    private int lastEvent;
+    private long lastCrossingNanos = NONE;
+    private long lastTimeNanos = NONE;
+    private long lastSectorNanos = NONE;
+    private long lastDeltaNanos = NONE;
+
+    public LapTimer(GateIndex gates) {
+        this.gates = gates;
+        reset();
+    }
+
+    public GateIndex getGates() {
+        return gates;
+    }
+
+    /**
+     * Takes a fix.
+     *
+     * @return {@link #STARTED}, {@link #LAP} and {@link #SPLIT} combined for what the step to
+     *         this fix crossed, 0 if nothing
+     */
+    public int update(Fix fix) {
+        if (modifications != gates.getModifications()) {
+            reset();
+        }
+        if (fix.hasAccuracy && fix.accuracy > MAX_ACCURACY) {
+            return 0;
+        }
+        int result = 0;
+        if (hasPrevious && fix.elapsedNanos - previousNanos <= MAX_GAP_NANOS) {
+            int crossed = gates.cross(previousLatitude, previousLongitude, fix.latitude, fix.longitude);
+            long dt = fix.elapsedNanos - previousNanos;
+            for (int k = 0; k < crossed; k++) {
+                long nanos = previousNanos + Math.round(gates.getCrossingFraction(k) * dt);
+                result |= onCrossing(gates.getCrossingGate(k), nanos);
+            }
+        }
+        hasPrevious = true;
+        previousLatitude = fix.latitude;
+        previousLongitude = fix.longitude;
+        previousNanos = fix.elapsedNanos;
+        return result;
+    }
+
+    private int onCrossing(int gate, long nanos) {
+        if (crossedNanos[gate] != NONE && nanos - crossedNanos[gate] < MIN_REPEAT_NANOS) {
+            return 0;
+        }
+        crossedNanos[gate] = nanos;
+        int event;
+        if (gates.getType(gate) == GateIndex.START_FINISH) {
+            if (lapStartNanos == NONE) {
+                event = STARTED;
+                lastTimeNanos = 0L;
+                lastSectorNanos = NONE;
+                lastDeltaNanos = NONE;
+            } else {
+                event = LAP;
+                long lap = nanos - lapStartNanos;
+                laps++;
+                lastLapNanos = lap;
+                lastTimeNanos = lap;
+                lastSectorNanos = nanos - sectorStartNanos;
+                lastDeltaNanos = bestLapNanos == NONE ? NONE : lap - bestLapNanos;
+                if (bestLapNanos == NONE || lap < bestLapNanos) {
+                    bestLapNanos = lap;
+                    System.arraycopy(splits, 0, bestSplits, 0, splits.length);
+                }
+            }
+            lapStartNanos = nanos;
+            sectorStartNanos = nanos;
+            sector = 0;
+            Arrays.fill(splits, NONE);
+        } else if (lapStartNanos != NONE) {
+            event = SPLIT;
+            long split = nanos - lapStartNanos;
+            splits[gate] = split;
+            sector++;
+            lastTimeNanos = split;
+            lastSectorNanos = nanos - sectorStartNanos;
+            lastDeltaNanos = bestSplits[gate] == NONE ? NONE : split - bestSplits[gate];
+            sectorStartNanos = nanos;
+        } else {
+            // no lap to split yet
+            return 0;
+        }
+        lastCrossingNanos = nanos;
+        lastEvent = event;
+        events++;
+        return event;
+    }
+
+    /**
+     * Forgets all laps and splits, keeping the gates.
+     */
+    public void reset() {
+        modifications = gates.getModifications();
+        int size = gates.size();
+        if (crossedNanos.length != size) {
+            crossedNanos = new long[size];
+            splits = new long[size];
+            bestSplits = new long[size];
+        }
+        Arrays.fill(crossedNanos, NONE);
+        Arrays.fill(splits, NONE);
+        Arrays.fill(bestSplits, NONE);
+        hasPrevious = false;
+        lapStartNanos = NONE;
+        laps = 0;
+        lastLapNanos = NONE;
+        bestLapNanos = NONE;
+        sector = 0;
+        events++;
+        lastEvent = 0;
+        lastCrossingNanos = NONE;
+        lastTimeNanos = NONE;
+        lastSectorNanos = NONE;
+        lastDeltaNanos = NONE;
+    }
+
+    /**
+     * @return number of laps completed
+     */
+    public int getLaps() {
+        return laps;
+    }
+
+    /**
+     * @return whether a lap is running
+     */
+    public boolean isTiming() {
+        return lapStartNanos != NONE;
+    }
+
+    /**
+     * @return start of the running lap on the clock of the fixes, {@link #NONE} before the first
+     */
+    public long getLapStartNanos() {
+        return lapStartNanos;
+    }
+
+    public long getLastLapNanos() {
+        return lastLapNanos;
+    }
+
+    public long getBestLapNanos() {
+        return bestLapNanos;
+    }
+
+    /**
+     * @return number of split gates crossed in the running lap
+     */
+    public int getSector() {
+        return sector;
+    }
+
+    /**
+     * @return a number that changes with every timing event and reset
+     */
+    public int getEvents() {
+        return events;
+    }
+
+    /**
+     * @return {@link #STARTED}, {@link #LAP} or {@link #SPLIT}, whichever happened last; 0 if
+     *         none since the last reset
+     */
+    public int getLastEvent() {
+        return lastEvent;
+    }
+
+    /**
+     * @return interpolated time of the last counted crossing, on the clock of the fixes
+     */
+    public long getLastCrossingNanos() {
+        return lastCrossingNanos;
+    }
+
+    /**
+     * @return time of the last event: the lap time, the split time from the start of the lap,
+     *         or 0 when a lap started
+     */
+    public long getLastTimeNanos() {
+        return lastTimeNanos;
+    }
+
+    /**
+     * @return time since the previous gate of the lap, {@link #NONE} when a lap started
+     */
+    public long getLastSectorNanos() {
+        return lastSectorNanos;
+    }
+
+    /**
+     * @return the last lap or split time less that of the best lap before it, {@link #NONE}
+     *         without one
+     */
+    public long getLastDeltaNanos() {
+        return lastDeltaNanos;
+    }
+}
@@ -0,0 +1,507 @@
+package net.mypapit.mobile.speedmeter.engine.timing;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.FixBatch;
+
+import java.util.Arrays;
+
+/**
+ * Times acceleration runs from a standstill: to speed targets, such as 0-100 km/h, and over
+ * distance targets, such as the quarter mile. Once armed, it waits for the vehicle to stand
+ * still for {@link #STANDSTILL_NANOS}; the run starts when the speed reaches
+ * {@link #LAUNCH_SPEED} and ends when every target is reached, or early when the speed falls
+ * {@link #LIFT_SPEED} below the highest of the run, a fix comes without a speed or after a gap
+ * of more than {@link #MAX_GAP_NANOS}, or the run lasts longer than {@link #MAX_RUN_NANOS}.
+ * The timer then waits for the next standstill, keeping the results until the next launch.
+ * <p>
+ * All times are on the monotonic clock of the fixes. Targets are found between two fixes,
+ * taking the acceleration between them as constant, as it nearly is over a tenth of a second
+ * and roughly over a second: a speed target where the speed, linear in time, meets it, and a
+ * distance target where the distance, integrated from that speed, does. Once the fixes reach
+ * half of {@link #FIT_NANOS} past a target, a line fitted to the speeds around it refines the
+ * time of a speed target and the speed at a distance target, averaging out the noise of
+ * single speeds at high rates. The start is where a line fitted to the speeds of the first
+ * {@link #FIT_NANOS} of the run meets zero, which may be anywhere after the last fix at a
+ * standstill. Speeds are the receiver's, from the Doppler shift; a smoothed speed would lag
+ * and make every run look slower.
+ * <p>
+ * The fixes of a run, from the last one at a standstill, are kept for the run to be stored.
+ * Updates do not allocate once the fix buffer has grown. Not thread-safe.
+ */
+public final class PerformanceTimer {
+
+    /** Not armed */
+    public static final int OFF = 0;
+    /** Armed, waiting for a standstill */
+    public static final int ARMED = 1;
+    /** Standing still, waiting for the launch */
+    public static final int READY = 2;
+    /** Timing a run */
+    public static final int RUNNING = 3;
+
+    /** Returned by {@link #update} when the vehicle came to a standstill and a run can start */
+    public static final int STOOD_STILL = 1;
+    /** Returned by {@link #update} when a run started */
+    public static final int LAUNCHED = 2;
+    /** Returned by {@link #update} when one or more targets were timed */
+    public static final int TARGET = 4;
+    /** Returned by {@link #update} when a run ended with every target reached */
+    public static final int FINISHED = 8;
+    /** Returned by {@link #update} when a run ended before every target was reached */
+    public static final int ABORTED = 16;
+
+    /** Returned for times that are not known */
+    public static final long NONE = Long.MIN_VALUE;
+
+    /** Slower than this, in meters/second, counts as standing still */
+    public static final float STANDSTILL_SPEED = 0.5f;
+    public static final long STANDSTILL_NANOS = 1000000000L;
+    /** A run starts when the speed reaches this, in meters/second */
+    public static final float LAUNCH_SPEED = 1.0f;
+    /** A run ends when the speed falls this far below its highest, in meters/second */
+    public static final float LIFT_SPEED = 2.5f;
+    public static final long MAX_GAP_NANOS = 2500000000L;
+    public static final long MAX_RUN_NANOS = 120000000000L;
+    /**
+     * Lines are fitted to the speeds of the fixes this long around the start and the targets,
+     * which are timed this much later than reached
+     */
+    public static final long FIT_NANOS = 500000000L;
+    /** A run ends when it has this many fixes, two minutes at 25 Hz */
+    public static final int MAX_RUN_FIXES = 3000;
+
+    public static final double EIGHTH_MILE = 201.168;
+    public static final double QUARTER_MILE = 402.336;
+
+    private float[] speedTargets = new float[0];
+    private double[] distanceTargets = new double[0];
+    private long[] speedNanos = new long[0];
+    private long[] distanceNanos = new long[0];
+    private float[] trapSpeeds = new float[0];
+    /** Times the targets were crossed on the clock of the fixes, before they are settled */
+    private long[] speedCrossed = new long[0];
+    private long[] distanceCrossed = new long[0];
+
+    private int state = OFF;
+    private long standstillSinceNanos = NONE;
+    private final Fix standstill = new Fix();
+    private final Fix launch = new Fix();
+    private boolean hasStandstill;
+
+    private long startNanos = NONE;
+    private float fitSpeed;
+    private float fitSlope;
+    private long lastNanos;
+    private float lastSpeed;
+    private double lastDistance;
+    private float peakSpeed;
+    private int reached;
+    private int runs;
+    private int events;
+    private int lastEvent;
+    private final FixBatch fixes = new FixBatch(256);
+
+    /**
+     * Sets the targets of the next runs; a run under way is dropped.
+     *
+     * @param speeds    in meters/second, ascending
+     * @param distances in meters, ascending
+     */
+    public void setTargets(float[] speeds, double[] distances) {
+        speedTargets = speeds.clone();
+        distanceTargets = distances.clone();
+        speedNanos = new long[speeds.length];
+        distanceNanos = new long[distances.length];
+        trapSpeeds = new float[distances.length];
+        speedCrossed = new long[speeds.length];
+        distanceCrossed = new long[distances.length];
+        if (state == RUNNING) {
+            state = ARMED;
+            standstillSinceNanos = NONE;
+            hasStandstill = false;
+        }
+        clearResults();
+        events++;
+    }
+
+    public int getSpeedTargetCount() {
+        return speedTargets.length;
+    }
+
+    public float getSpeedTarget(int i) {
+        return speedTargets[i];
+    }
+
+    public int getDistanceTargetCount() {
+        return distanceTargets.length;
+    }
+
+    public double getDistanceTarget(int i) {
+        return distanceTargets[i];
+    }
+
+    /**
+     * Starts waiting for a standstill, unless armed already.
+     */
+    public void arm() {
+        if (state == OFF) {
+            state = ARMED;
+            standstillSinceNanos = NONE;
+            events++;
+            lastEvent = 0;
+        }
+    }
+
+    /**
+     * Stops timing; a run under way is dropped. The results of the last run are kept.
+     */
+    public void disarm() {
+        if (state == RUNNING) {
+            clearResults();
+        }
+        state = OFF;
+        events++;
+        lastEvent = 0;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    /**
+     * Times a stored run again, such as with other targets: the first fix is taken as the last
+     * at a standstill, and the timer is armed after.
+     *
+     * @return the events of the updates combined
+     */
+    public int time(FixBatch run) {
+        if (run.isEmpty()) {
+            return 0;
+        }
+        Fix first = run.get(0);
+        standstill.copyFrom(first);
+        hasStandstill = true;
+        standstillSinceNanos = first.elapsedNanos - STANDSTILL_NANOS;
+        state = READY;
+        events++;
+        int result = 0;
+        for (int i = 1; i < run.size(); i++) {
+            result |= update(run.get(i));
+        }
+        if (state == RUNNING) {
+            // the run was stored before it ended
+            result |= end(0);
+            events++;
+            lastEvent = result;
+        }
+        return result;
+    }
+
+    /**
+     * Takes a fix.
+     *
+     * @return {@link #STOOD_STILL}, {@link #LAUNCHED}, {@link #TARGET}, {@link #FINISHED} and
+     *         {@link #ABORTED} combined for what happened, 0 if nothing
+     */
+    public int update(Fix fix) {
+        int result;
+        switch (state) {
+            case ARMED:
+            case READY:
+                result = waitForLaunch(fix);
+                break;
+            case RUNNING:
+                result = run(fix);
+                break;
+            default:
+                return 0;
+        }
+        if (result != 0) {
+            events++;
+            lastEvent = result;
+        }
+        return result;
+    }
+
+    private int waitForLaunch(Fix fix) {
+        if (!fix.hasSpeed || (hasStandstill && fix.elapsedNanos - standstill.elapsedNanos > MAX_GAP_NANOS)) {
+            state = ARMED;
+            standstillSinceNanos = NONE;
+            hasStandstill = false;
+            return 0;
+        }
+        if (fix.speed < STANDSTILL_SPEED) {
+            standstill.copyFrom(fix);
+            hasStandstill = true;
+            if (standstillSinceNanos == NONE) {
+                standstillSinceNanos = fix.elapsedNanos;
+            }
+            if (state == ARMED && fix.elapsedNanos - standstillSinceNanos >= STANDSTILL_NANOS) {
+                state = READY;
+                return STOOD_STILL;
+            }
+            return 0;
+        }
+        if (state != READY) {
+            standstillSinceNanos = NONE;
+            return 0;
+        }
+        if (fix.speed < LAUNCH_SPEED) {
+            // rolling off, or creeping; the latter ends in a gap since the standstill
+            return 0;
+        }
+        state = RUNNING;
+        clearResults();
+        fixes.clear();
+        fixes.add().copyFrom(standstill);
+        fixes.add().copyFrom(fix);
+        launch.copyFrom(fix);
+        peakSpeed = fix.speed;
+        return LAUNCHED;
+    }
+
+    private int run(Fix fix) {
+        long gap = fix.elapsedNanos - fixes.get(fixes.size() - 1).elapsedNanos;
+        if (!fix.hasSpeed || gap <= 0 || gap > MAX_GAP_NANOS) {
+            return end(0);
+        }
+        fixes.add().copyFrom(fix);
+        peakSpeed = Math.max(peakSpeed, fix.speed);
+        int result = 0;
+        if (startNanos == NONE) {
+            if (fixes.size() < 3 || fix.elapsedNanos - launch.elapsedNanos < FIT_NANOS) {
+                return 0;
+            }
+            start();
+            for (int i = 1; i < fixes.size(); i++) {
+                Fix f = fixes.get(i);
+                step(f.elapsedNanos, f.speed);
+            }
+        } else {
+            step(fix.elapsedNanos, fix.speed);
+        }
+        result |= settle(fix.elapsedNanos, false);
+        if (reached == speedTargets.length + distanceTargets.length) {
+            return end(result);
+        }
+        if (fix.speed < peakSpeed - LIFT_SPEED || fix.elapsedNanos - startNanos > MAX_RUN_NANOS
+                || fixes.size() >= MAX_RUN_FIXES) {
+            return end(result);
+        }
+        return result;
+    }
+
+    /**
+     * Puts the start where a line fitted to the speeds of the first {@link #FIT_NANOS} of the
+     * run meets zero, or the line through the first two fixes if too few are that close, no
+     * earlier than the last fix at a standstill allows.
+     */
+    private void start() {
+        long center = launch.elapsedNanos + FIT_NANOS / 2;
+        if (!fit(center)) {
+            Fix next = fixes.get(2);
+            center = launch.elapsedNanos;
+            fitSpeed = launch.speed;
+            fitSlope = (next.speed - launch.speed) / ((next.elapsedNanos - center) / 1e9f);
+        }
+        long earliest = standstill.elapsedNanos;
+        if (fitSlope > 0) {
+            earliest -= Math.round(standstill.speed / fitSlope * 1e9);
+            startNanos = center - Math.round(fitSpeed / fitSlope * 1e9);
+            startNanos = Math.max(earliest, Math.min(launch.elapsedNanos, startNanos));
+        } else {
+            startNanos = earliest;
+        }
+        lastNanos = startNanos;
+        lastSpeed = 0.0f;
+        lastDistance = 0.0;
+    }
+
+    /**
+     * Advances the run to a fix, noting the targets crossed on the way.
+     */
+    private void step(long nanos, float speed) {
+        long dt = nanos - lastNanos;
+        double seconds = dt / 1e9;
+        double acceleration = (speed - lastSpeed) / seconds;
+        double distance = lastDistance + 0.5 * (lastSpeed + speed) * seconds;
+        for (int i = 0; i < speedTargets.length; i++) {
+            float target = speedTargets[i];
+            if (speedCrossed[i] == NONE && speed >= target && lastSpeed < target) {
+                speedCrossed[i] = lastNanos + Math.round((target - lastSpeed) / (speed - lastSpeed) * dt);
+            }
+        }
+        for (int i = 0; i < distanceTargets.length; i++) {
+            double target = distanceTargets[i];
+            if (distanceCrossed[i] == NONE && distance >= target) {
+                double remaining = target - lastDistance;
+                double t;
+                if (Math.abs(acceleration) < 1e-6) {
+                    t = remaining / lastSpeed;
+                } else {
+                    // lastSpeed * t + acceleration * t^2 / 2 = remaining
+                    double root = lastSpeed * (double) lastSpeed + 2.0 * acceleration * remaining;
+                    t = (Math.sqrt(Math.max(0.0, root)) - lastSpeed) / acceleration;
+                }
+                t = Math.max(0.0, Math.min(seconds, t));
+                distanceCrossed[i] = lastNanos + Math.round(t * 1e9);
+                trapSpeeds[i] = (float) (lastSpeed + acceleration * t);
+            }
+        }
+        lastNanos = nanos;
+        lastSpeed = speed;
+        lastDistance = distance;
+    }
+
+    /**
+     * Times the targets crossed half a fit window ago, or all crossed when the run ends: a
+     * speed target where a line fitted to the speeds around the crossing meets it, and the
+     * trap speed of a distance target from such a line, which averages out the noise of the
+     * single speeds.
+     */
+    private int settle(long nowNanos, boolean ending) {
+        int result = 0;
+        for (int i = 0; i < speedTargets.length; i++) {
+            long crossed = speedCrossed[i];
+            if (speedNanos[i] == NONE && crossed != NONE && (ending || nowNanos - crossed >= FIT_NANOS / 2)) {
+                if (fit(crossed) && fitSlope > 0) {
+                    long t = Math.round((speedTargets[i] - fitSpeed) / fitSlope * 1e9);
+                    if (Math.abs(t) <= FIT_NANOS / 2) {
+                        crossed += t;
+                    }
+                }
+                speedNanos[i] = crossed - startNanos;
+                reached++;
+                result = TARGET;
+            }
+        }
+        for (int i = 0; i < distanceTargets.length; i++) {
+            long crossed = distanceCrossed[i];
+            if (distanceNanos[i] == NONE && crossed != NONE && (ending || nowNanos - crossed >= FIT_NANOS / 2)) {
+                if (fit(crossed)) {
+                    trapSpeeds[i] = fitSpeed;
+                }
+                distanceNanos[i] = crossed - startNanos;
+                reached++;
+                result = TARGET;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Fits a line to the speeds of the fixes of the run within half of {@link #FIT_NANOS} of
+     * a time, setting {@link #fitSpeed} at that time and {@link #fitSlope}.
+     *
+     * @return false if fewer than three fixes are in the window
+     */
+    private boolean fit(long centerNanos) {
+        int n = 0;
+        double sumT = 0.0;
+        double sumV = 0.0;
+        double sumTT = 0.0;
+        double sumTV = 0.0;
+        // the first fix is the one at a standstill, before the start
+        for (int i = 1; i < fixes.size(); i++) {
+            Fix f = fixes.get(i);
+            long offset = f.elapsedNanos - centerNanos;
+            if (offset < -FIT_NANOS / 2 || offset > FIT_NANOS / 2) {
+                continue;
+            }
+            double t = offset / 1e9;
+            n++;
+            sumT += t;
+            sumV += f.speed;
+            sumTT += t * t;
+            sumTV += t * f.speed;
+        }
+        double det = n * sumTT - sumT * sumT;
+        if (n < 3 || det <= 0.0) {
+            return false;
+        }
+        fitSlope = (float) ((n * sumTV - sumT * sumV) / det);
+        fitSpeed = (float) ((sumV - fitSlope * sumT) / n);
+        return true;
+    }
+
+    private int end(int result) {
+        if (startNanos != NONE) {
+            result |= settle(0L, true);
+        }
+        state = ARMED;
+        standstillSinceNanos = NONE;
+        hasStandstill = false;
+        runs++;
+        return result | (reached == speedTargets.length + distanceTargets.length ? FINISHED : ABORTED);
+    }
+
+    private void clearResults() {
+        Arrays.fill(speedNanos, NONE);
+        Arrays.fill(distanceNanos, NONE);
+        Arrays.fill(speedCrossed, NONE);
+        Arrays.fill(distanceCrossed, NONE);
+        Arrays.fill(trapSpeeds, Float.NaN);
+        startNanos = NONE;
+        reached = 0;
+    }
+
+    /**
+     * @return runs ended since the timer was made, completed or not
+     */
+    public int getRuns() {
+        return runs;
+    }
+
+    /**
+     * @return a number that changes with every event, arming and disarming
+     */
+    public int getEvents() {
+        return events;
+    }
+
+    /**
+     * @return the events of the last update that had any; 0 after arming or disarming
+     */
+    public int getLastEvent() {
+        return lastEvent;
+    }
+
+    /**
+     * @return the start of the last run on the clock of the fixes, {@link #NONE} if not known
+     *         yet
+     */
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    /**
+     * @return time from the start to a speed target in the last run, {@link #NONE} if not
+     *         reached
+     */
+    public long getSpeedNanos(int i) {
+        return speedNanos[i];
+    }
+
+    /**
+     * @return time from the start to a distance target in the last run, {@link #NONE} if not
+     *         reached
+     */
+    public long getDistanceNanos(int i) {
+        return distanceNanos[i];
+    }
+
+    /**
+     * @return speed at a distance target in the last run, in meters/second, NaN if not reached
+     */
+    public float getTrapSpeed(int i) {
+        return distanceNanos[i] == NONE ? Float.NaN : trapSpeeds[i];
+    }
+
+    /**
+     * @return the fixes of the last run, from the last one at a standstill; refilled by the
+     *         next launch
+     */
+    public FixBatch getFixes() {
+        return fixes;
+    }
+}
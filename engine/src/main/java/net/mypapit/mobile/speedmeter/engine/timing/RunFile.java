@@ -0,0 +1,117 @@
+package net.mypapit.mobile.speedmeter.engine.timing;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.FixBatch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * Reads and writes a performance run as text: the targets with their times, then the raw
+ * fixes of the run, one record a line, with blank lines and lines starting with {@code #}
+ * ignored:
+ * <pre>
+ * speed,target m/s,seconds from the start or empty if not reached
+ * distance,target m,seconds or empty,speed at the target m/s or empty
+ * fix,elapsed ns,UTC ms,latitude,longitude,speed m/s,bearing,accuracy m,speed accuracy m/s
+ * </pre>
+ * Optional fix values are empty when absent. The fixes are all a run needs to be timed
+ * again, by the same or a changed {@link PerformanceTimer}.
+ */
+public final class RunFile {
+
+    private static final String SPEED = "speed";
+    private static final String DISTANCE = "distance";
+    private static final String FIX = "fix";
+
+    private RunFile() {
+    }
+
+    /**
+     * Writes the last run of a timer.
+     */
+    public static void write(Appendable out, PerformanceTimer timer) throws IOException {
+        out.append("# target,value,seconds,trap speed\n");
+        for (int i = 0; i < timer.getSpeedTargetCount(); i++) {
+            out.append(String.format(Locale.US, "%s,%.3f,%s\n", SPEED, timer.getSpeedTarget(i),
+                    seconds(timer.getSpeedNanos(i))));
+        }
+        for (int i = 0; i < timer.getDistanceTargetCount(); i++) {
+            float trap = timer.getTrapSpeed(i);
+            String trapText = Float.isNaN(trap) ? "" : String.format(Locale.US, "%.2f", trap);
+            out.append(String.format(Locale.US, "%s,%.3f,%s,%s\n", DISTANCE, timer.getDistanceTarget(i),
+                    seconds(timer.getDistanceNanos(i)), trapText));
+        }
+        out.append("# fix,elapsed ns,time ms,latitude,longitude,speed,bearing,accuracy,speed accuracy\n");
+        FixBatch fixes = timer.getFixes();
+        for (int i = 0; i < fixes.size(); i++) {
+            Fix fix = fixes.get(i);
+            out.append(String.format(Locale.US, "%s,%d,%d,%.7f,%.7f,%s,%s,%s,%s\n", FIX, fix.elapsedNanos,
+                    fix.time, fix.latitude, fix.longitude, optional(fix.hasSpeed, fix.speed),
+                    optional(fix.hasBearing, fix.bearing), optional(fix.hasAccuracy, fix.accuracy),
+                    optional(fix.hasSpeedAccuracy, fix.speedAccuracy)));
+        }
+    }
+
+    private static String seconds(long nanos) {
+        return nanos == PerformanceTimer.NONE ? "" : String.format(Locale.US, "%.3f", nanos / 1e9);
+    }
+
+    private static String optional(boolean present, float value) {
+        return present ? Float.toString(value) : "";
+    }
+
+    /**
+     * Adds the fixes read from a stream to a batch; the target records are skipped.
+     *
+     * @return number of fixes read
+     * @throws IOException on a malformed line, naming it; fixes before it are added
+     */
+    public static int readFixes(BufferedReader in, FixBatch fixes) throws IOException {
+        int count = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (!line.startsWith(FIX + ",")) {
+                // blank, a comment or a target
+                continue;
+            }
+            // keeps trailing empty fields
+            String[] fields = line.split(",", -1);
+            if (fields.length != 9) {
+                throw new IOException("line " + lineNumber + ": expected 9 fields: " + line);
+            }
+            long elapsedNanos;
+            long time;
+            double latitude;
+            double longitude;
+            float speed;
+            float bearing;
+            float accuracy;
+            float speedAccuracy;
+            try {
+                elapsedNanos = Long.parseLong(fields[1]);
+                time = Long.parseLong(fields[2]);
+                latitude = Double.parseDouble(fields[3]);
+                longitude = Double.parseDouble(fields[4]);
+                speed = parseOptional(fields[5]);
+                bearing = parseOptional(fields[6]);
+                accuracy = parseOptional(fields[7]);
+                speedAccuracy = parseOptional(fields[8]);
+            } catch (NumberFormatException e) {
+                throw new IOException("line " + lineNumber + ": " + e.getMessage());
+            }
+            fixes.add().set(elapsedNanos, time, latitude, longitude, speed, bearing, accuracy)
+                    .setSpeedAccuracy(speedAccuracy);
+            count++;
+        }
+        return count;
+    }
+
+    private static float parseOptional(String field) {
+        return field.isEmpty() ? Float.NaN : Float.parseFloat(field);
+    }
+}
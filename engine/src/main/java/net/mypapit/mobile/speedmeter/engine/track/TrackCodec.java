@@ -0,0 +1,257 @@
+package net.mypapit.mobile.speedmeter.engine.track;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes fixes as compact track records. A record is a tag byte, the quantised fields as
+ * zig-zag varints and a CRC-8 of everything before it. Key records hold absolute values; the
+ * others hold differences to the previous record (for the time, the change of the interval
+ * between fixes), which are a byte or two each for a moving vehicle.
+ * <p>
+ * The tag byte always has its high bit set, so the zero bytes past the end of a track can
+ * never be taken for a record. Fields absent from a fix are not written and do not disturb
+ * the running values. One codec instance keeps the state of one direction (writing or reading)
+ * of one track.
+ */
+public final class TrackCodec {
+
+    /** Longest possible record: tag, eight 10-byte varints, CRC */
+    public static final int MAX_RECORD = 1 + 8 * 10 + 1;
+
+    public static final int RECORD = 1;
+    public static final int END = 0;
+    public static final int CORRUPT = -1;
+
+    private static final int TAG = 0x80;
+    private static final int KEY = 0x40;
+    private static final int HAS_SPEED = 0x01;
+    private static final int HAS_BEARING = 0x02;
+    private static final int HAS_ACCURACY = 0x04;
+    private static final int HAS_SPEED_ACCURACY = 0x08;
+
+    private static final double E7 = 1e7;
+
+    private static final byte[] CRC8 = new byte[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80) != 0 ? (crc << 1) ^ 0x07 : crc << 1;
+            }
+            CRC8[i] = (byte) crc;
+        }
+    }
+
+    private long time;
+    private long interval;
+    private long elapsedMicros;
+    private long latitude;
+    private long longitude;
+    private long speed;
+    private long bearing;
+    private long accuracy;
+    private long speedAccuracy;
+    private boolean started;
+    // end position of the last varint read, negative if it ran past the limit
+    private int next;
+
+    /**
+     * Forgets the running values; the next record written must be, and the next record read
+     * is expected to be, a key record.
+     */
+    public void reset() {
+        started = false;
+    }
+
+    /**
+     * Appends one record.
+     *
+     * @param key write absolute values; forced for the first record after a reset
+     * @return the number of bytes written, at most {@link #MAX_RECORD}
+     */
+    public int encode(Fix fix, ByteBuffer out, boolean key) {
+        key |= !started;
+        int start = out.position();
+        int flags = (fix.hasSpeed ? HAS_SPEED : 0) | (fix.hasBearing ? HAS_BEARING : 0)
+                | (fix.hasAccuracy ? HAS_ACCURACY : 0) | (fix.hasSpeedAccuracy ? HAS_SPEED_ACCURACY : 0);
+        out.put((byte) (TAG | (key ? KEY : 0) | flags));
+
+        long t = fix.time;
+        long e = fix.elapsedNanos / 1000L;
+        long lat = Math.round(fix.latitude * E7);
+        long lon = Math.round(fix.longitude * E7);
+        if (key) {
+            putVarLong(out, t);
+            putVarLong(out, e);
+            putVarLong(out, lat);
+            putVarLong(out, lon);
+        } else {
+            long dt = t - time;
+            // fixes arrive at a steady rate, so the interval rarely changes
+            putVarLong(out, dt - interval);
+            // the monotonic clock advances in step with UTC, so store only the drift
+            putVarLong(out, e - elapsedMicros - dt * 1000L);
+            putVarLong(out, lat - latitude);
+            putVarLong(out, lon - longitude);
+        }
+        interval = key ? 0 : t - time;
+        time = t;
+        elapsedMicros = e;
+        latitude = lat;
+        longitude = lon;
+
+        if (fix.hasSpeed) {
+            long v = Math.round(fix.speed * 100.0);
+            putVarLong(out, key ? v : v - speed);
+            speed = v;
+        }
+        if (fix.hasBearing) {
+            long v = Math.round(fix.bearing * 100.0);
+            putVarLong(out, key ? v : v - bearing);
+            bearing = v;
+        }
+        if (fix.hasAccuracy) {
+            long v = Math.round(fix.accuracy * 10.0);
+            putVarLong(out, key ? v : v - accuracy);
+            accuracy = v;
+        }
+        if (fix.hasSpeedAccuracy) {
+            long v = Math.round(fix.speedAccuracy * 100.0);
+            putVarLong(out, key ? v : v - speedAccuracy);
+            speedAccuracy = v;
+        }
+        out.put(crc(out, start, out.position()));
+        started = true;
+        return out.position() - start;
+    }
+
+    /**
+     * Reads the record at the buffer's position. On {@link #RECORD} the position moves past
+     * it; otherwise the position and the running values are left untouched.
+     *
+     * @return {@link #RECORD}, {@link #END} at a zero byte or the end of the buffer, or
+     * {@link #CORRUPT} for a torn or damaged record
+     */
+    public int decode(ByteBuffer in, Fix fix) {
+        int start = in.position();
+        int limit = in.limit();
+        if (start >= limit || in.get(start) == 0) {
+            return END;
+        }
+        int tag = in.get(start) & 0xff;
+        boolean key = (tag & KEY) != 0;
+        if ((tag & TAG) == 0 || (!key && !started)) {
+            return CORRUPT;
+        }
+        int pos = start + 1;
+
+        long t = readVarLong(in, pos, limit);
+        pos = next;
+        long e = readVarLong(in, pos, limit);
+        pos = next;
+        long lat = readVarLong(in, pos, limit);
+        pos = next;
+        long lon = readVarLong(in, pos, limit);
+        pos = next;
+        long v = speed;
+        long b = bearing;
+        long a = accuracy;
+        long sa = speedAccuracy;
+        if ((tag & HAS_SPEED) != 0) {
+            v = readVarLong(in, pos, limit);
+            pos = next;
+        }
+        if ((tag & HAS_BEARING) != 0) {
+            b = readVarLong(in, pos, limit);
+            pos = next;
+        }
+        if ((tag & HAS_ACCURACY) != 0) {
+            a = readVarLong(in, pos, limit);
+            pos = next;
+        }
+        if ((tag & HAS_SPEED_ACCURACY) != 0) {
+            sa = readVarLong(in, pos, limit);
+            pos = next;
+        }
+        if (pos < 0 || pos >= limit || in.get(pos) != crc(in, start, pos)) {
+            return CORRUPT;
+        }
+
+        if (key) {
+            time = t;
+            interval = 0;
+            elapsedMicros = e;
+            latitude = lat;
+            longitude = lon;
+        } else {
+            interval += t;
+            time += interval;
+            elapsedMicros += e + interval * 1000L;
+            latitude += lat;
+            longitude += lon;
+        }
+        if ((tag & HAS_SPEED) != 0) {
+            speed = key ? v : speed + v;
+        }
+        if ((tag & HAS_BEARING) != 0) {
+            bearing = key ? b : bearing + b;
+        }
+        if ((tag & HAS_ACCURACY) != 0) {
+            accuracy = key ? a : accuracy + a;
+        }
+        if ((tag & HAS_SPEED_ACCURACY) != 0) {
+            speedAccuracy = key ? sa : speedAccuracy + sa;
+        }
+        started = true;
+
+        fix.set(elapsedMicros * 1000L, time, latitude / E7, longitude / E7,
+                (tag & HAS_SPEED) != 0 ? speed / 100.0f : Float.NaN,
+                (tag & HAS_BEARING) != 0 ? bearing / 100.0f : Float.NaN,
+                (tag & HAS_ACCURACY) != 0 ? accuracy / 10.0f : Float.NaN);
+        if ((tag & HAS_SPEED_ACCURACY) != 0) {
+            fix.setSpeedAccuracy(speedAccuracy / 100.0f);
+        }
+        in.position(pos + 1);
+        return RECORD;
+    }
+
+    private long readVarLong(ByteBuffer in, int pos, int limit) {
+        if (pos < 0) {
+            next = -1;
+            return 0;
+        }
+        long raw = 0;
+        int shift = 0;
+        while (pos < limit && shift < 64) {
+            int b = in.get(pos++);
+            raw |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                next = pos;
+                return (raw >>> 1) ^ -(raw & 1);
+            }
+            shift += 7;
+        }
+        next = -1;
+        return 0;
+    }
+
+    private static void putVarLong(ByteBuffer out, long value) {
+        long raw = (value << 1) ^ (value >> 63);
+        while ((raw & ~0x7fL) != 0) {
+            out.put((byte) ((raw & 0x7f) | 0x80));
+            raw >>>= 7;
+        }
+        out.put((byte) raw);
+    }
+
+    private static byte crc(ByteBuffer buffer, int from, int to) {
+        int crc = 0;
+        for (int i = from; i < to; i++) {
+            crc = CRC8[(crc ^ buffer.get(i)) & 0xff];
+        }
+        return (byte) crc;
+    }
+}
@@ -0,0 +1,61 @@
+package net.mypapit.mobile.speedmeter.engine.track;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Naming of track files inside a trips directory: {@code trip-<start time millis>.trk}.
+ */
+public final class TrackFiles {
+
+    private static final String PREFIX = "trip-";
+    public static final String EXTENSION = ".trk";
+
+    private TrackFiles() {
+    }
+
+    /**
+     * @return the file for a new trip starting at the given UTC time
+     */
+    public static File newTrack(File directory, long startTime) {
+        return new File(directory, PREFIX + startTime + EXTENSION);
+    }
+
+    /**
+     * @return the track files in the directory, newest trip first
+     */
+    public static File[] list(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(EXTENSION));
+        if (files == null) {
+            return new File[0];
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(startTime(b), startTime(a));
+            }
+        });
+        return files;
+    }
+
+    /**
+     * @return the newest track in the directory, or null if there is none
+     */
+    public static File latest(File directory) {
+        File[] files = list(directory);
+        return files.length > 0 ? files[0] : null;
+    }
+
+    /**
+     * @return the trip start time encoded in the file name, or 0 if it has none
+     */
+    public static long startTime(File track) {
+        String name = track.getName();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - EXTENSION.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return 0L;
+        }
+    }
+}
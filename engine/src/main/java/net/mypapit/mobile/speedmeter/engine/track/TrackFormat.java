@@ -0,0 +1,39 @@
+package net.mypapit.mobile.speedmeter.engine.track;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of a track file: a fixed header followed by {@link TrackCodec} records, ended by the
+ * first zero byte or the end of the file.
+ */
+final class TrackFormat {
+
+    static final int MAGIC = 0x53504454; // "SPDT"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    private static final int START_TIME = 8;
+
+    private TrackFormat() {
+    }
+
+    static void writeHeader(ByteBuffer buffer, long startTime) {
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, VERSION);
+        buffer.putLong(START_TIME, startTime);
+    }
+
+    /**
+     * @return the trip start time stored in the header
+     * @throws IOException if the header is not a supported track header
+     */
+    static long readHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("not a track file");
+        }
+        if (buffer.getShort(4) != VERSION) {
+            throw new IOException("unsupported track version " + buffer.getShort(4));
+        }
+        return buffer.getLong(START_TIME);
+    }
+}
@@ -0,0 +1,104 @@
+package net.mypapit.mobile.speedmeter.engine.track;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the fixes of a track file in order, through a fixed-size buffer, so that tracks of
+ * any length are read in constant memory. Reading stops at the end of the file, at its zero
+ * filled tail, or at the first damaged record.
+ */
+public final class TrackReader implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileInputStream stream;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final TrackCodec codec = new TrackCodec();
+    private final long startTime;
+    private boolean eof;
+    private boolean done;
+
+    public TrackReader(File path) throws IOException {
+        this(path, ByteBuffer.allocateDirect(BUFFER_SIZE));
+    }
+
+    /**
+     * @param buffer read buffer to use, at least {@link TrackCodec#MAX_RECORD} bytes; it can be
+     *               reused by another reader once this one is closed
+     */
+    public TrackReader(File path, ByteBuffer buffer) throws IOException {
+        this.stream = new FileInputStream(path);
+        this.channel = stream.getChannel();
+        this.buffer = buffer;
+        buffer.clear().limit(0);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        try {
+            fill();
+            if (buffer.remaining() < TrackFormat.HEADER_SIZE) {
+                throw new EOFException("track header truncated");
+            }
+            startTime = TrackFormat.readHeader(buffer);
+            buffer.position(buffer.position() + TrackFormat.HEADER_SIZE);
+        } catch (IOException e) {
+            stream.close();
+            throw e;
+        }
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Reads the next fix.
+     *
+     * @return false when there are no more intact records
+     */
+    public boolean next(Fix fix) throws IOException {
+        if (done) {
+            return false;
+        }
+        if (buffer.remaining() < TrackCodec.MAX_RECORD && !eof) {
+            buffer.compact();
+            buffer.flip();
+            fill();
+        }
+        if (codec.decode(buffer, fix) == TrackCodec.RECORD) {
+            return true;
+        }
+        done = true;
+        return false;
+    }
+
+    /**
+     * Tops the buffer up from the file. Expects the buffer in read mode and leaves it so.
+     */
+    private void fill() throws IOException {
+        int position = buffer.position();
+        buffer.position(buffer.limit());
+        buffer.limit(buffer.capacity());
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                eof = true;
+                break;
+            }
+        }
+        buffer.limit(buffer.position());
+        buffer.position(position);
+    }
+
+    @Override
+    public void close() throws IOException {
+        stream.close();
+    }
+}
@@ -0,0 +1,169 @@
+package net.mypapit.mobile.speedmeter.engine.track;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends fixes to a track file through a memory mapping. Appending is a handful of buffer
+ * writes and never allocates, except when the mapping has to grow by another
+ * {@link #CHUNK_SIZE}. The mapping is flushed to storage with {@code force()} at a fixed
+ * interval of fix time; whatever the kernel has not written back when the process dies is lost,
+ * but the file stays readable.
+ * <p>
+ * Opening an existing file recovers it: records are validated from the start and appending
+ * resumes after the last intact one, so a record torn by a crash or kill is discarded.
+ * Not thread-safe.
+ */
+public final class TrackWriter implements Closeable {
+
+    public static final int CHUNK_SIZE = 1 << 20;
+    private static final long DEFAULT_FORCE_INTERVAL_NANOS = 10000000000L;
+    /** Records between key records, bounding how far damage can propagate */
+    private static final int KEY_INTERVAL = 600;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final TrackCodec codec = new TrackCodec();
+    private final long startTime;
+    private MappedByteBuffer buffer;
+    private long forceIntervalNanos = DEFAULT_FORCE_INTERVAL_NANOS;
+    private long lastForceNanos = Long.MIN_VALUE;
+    private int sinceKey;
+    private int recordCount;
+    private boolean dirty;
+
+    private TrackWriter(RandomAccessFile file, long startTime) throws IOException {
+        this.file = file;
+        this.channel = file.getChannel();
+        long size = channel.size();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                Math.max(CHUNK_SIZE, (size + CHUNK_SIZE - 1) / CHUNK_SIZE * CHUNK_SIZE));
+        if (size >= TrackFormat.HEADER_SIZE) {
+            this.startTime = TrackFormat.readHeader(buffer);
+            recover();
+        } else {
+            this.startTime = startTime;
+            TrackFormat.writeHeader(buffer, startTime);
+            buffer.position(TrackFormat.HEADER_SIZE);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Opens a track for appending, creating it if it does not exist.
+     *
+     * @param startTime UTC start time of the trip, used only when the file is created
+     * @throws IOException if the file exists but is not a track
+     */
+    public static TrackWriter open(File path, long startTime) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "rw");
+        try {
+            return new TrackWriter(file, startTime);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private void recover() {
+        Fix scratch = new Fix();
+        buffer.position(TrackFormat.HEADER_SIZE);
+        int result;
+        while ((result = codec.decode(buffer, scratch)) == TrackCodec.RECORD) {
+            recordCount++;
+        }
+        if (result == TrackCodec.CORRUPT) {
+            // clear the torn tail so that it cannot be mistaken for records later
+            for (int i = buffer.position(); i < buffer.limit(); i++) {
+                buffer.put(i, (byte) 0);
+            }
+            dirty = true;
+        }
+        // continue with a key record so the appended part does not depend on recovered state
+        sinceKey = KEY_INTERVAL;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * @return bytes of header and records written so far
+     */
+    public long size() {
+        return buffer.position();
+    }
+
+    /**
+     * Sets how much fix time may pass between two flushes to storage.
+     */
+    public void setForceInterval(long nanos) {
+        forceIntervalNanos = nanos;
+    }
+
+    /**
+     * Appends a fix, flushing the mapping if the force interval has passed.
+     */
+    public void append(Fix fix) throws IOException {
+        if (buffer.remaining() < TrackCodec.MAX_RECORD) {
+            grow();
+        }
+        boolean key = sinceKey >= KEY_INTERVAL;
+        codec.encode(fix, buffer, key);
+        sinceKey = key ? 1 : sinceKey + 1;
+        recordCount++;
+        dirty = true;
+
+        if (lastForceNanos == Long.MIN_VALUE) {
+            lastForceNanos = fix.elapsedNanos;
+        } else if (fix.elapsedNanos - lastForceNanos >= forceIntervalNanos) {
+            force();
+            lastForceNanos = fix.elapsedNanos;
+        }
+    }
+
+    /**
+     * Writes everything appended so far to storage.
+     */
+    public void force() {
+        if (dirty) {
+            buffer.force();
+            dirty = false;
+        }
+    }
+
+    private void grow() throws IOException {
+        int position = buffer.position();
+        force();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) buffer.capacity() + CHUNK_SIZE);
+        buffer.position(position);
+    }
+
+    /**
+     * Flushes the track and trims the unused tail of the mapping from the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (buffer == null) {
+            return;
+        }
+        force();
+        long end = buffer.position();
+        buffer = null;
+        try {
+            channel.truncate(end);
+        } finally {
+            file.close();
+        }
+    }
+}
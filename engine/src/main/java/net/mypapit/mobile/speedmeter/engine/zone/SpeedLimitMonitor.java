@@ -0,0 +1,85 @@
+package net.mypapit.mobile.speedmeter.engine.zone;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+
+/**
+ * Matches fixes to the road segments of a {@link ZoneIndex} and tells whether the vehicle is
+ * over the limit of the road it is on.
+ * <p>
+ * The segment of the previous fix is kept while the vehicle stays within
+ * {@link #KEEP_DISTANCE} of it, which spares most fixes the tree search and keeps a vehicle
+ * passing a junction or a parallel road on its own road. Overspeed is only reported once the
+ * speed has stayed above the limit plus a tolerance for {@link #OVER_NANOS}, and ends once the
+ * speed falls back to the limit, so that noise around the limit neither starts nor ends it.
+ * <p>
+ * Not thread-safe; feed it from a single thread.
+ */
+public final class SpeedLimitMonitor {
+
+    /** A fix this close to the previous segment stays on it, in meters */
+    public static final double KEEP_DISTANCE = 15.0;
+    /** Fixes farther than this from every segment have no limit, in meters */
+    public static final double MATCH_DISTANCE = 30.0;
+    /** How long the speed has to stay over the limit before it counts */
+    public static final long OVER_NANOS = 2000000000L;
+    /** Tolerated speeding, at least this in meters/second ... */
+    private static final float MIN_TOLERANCE = 1.0f;
+    /** ... or this fraction of the limit */
+    private static final float TOLERANCE = 0.05f;
+
+    private final ZoneIndex index;
+    private int segment = -1;
+    private long lookups;
+    private float limit = Float.NaN;
+    private boolean over;
+    private long overSinceNanos = -1L;
+
+    public SpeedLimitMonitor(ZoneIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Takes a fix.
+     *
+     * @param speed filtered speed in meters/second, NaN if unknown
+     * @return whether the vehicle is over the limit
+     */
+    public boolean update(Fix fix, float speed) {
+        if (segment < 0 || index.distance(segment, fix.latitude, fix.longitude) > KEEP_DISTANCE) {
+            segment = index.nearest(fix.latitude, fix.longitude, MATCH_DISTANCE);
+            lookups++;
+        }
+        limit = segment >= 0 ? index.getLimit(segment) : Float.NaN;
+        if (Float.isNaN(limit) || Float.isNaN(speed)) {
+            over = false;
+            overSinceNanos = -1L;
+        } else if (speed > limit + Math.max(MIN_TOLERANCE, limit * TOLERANCE)) {
+            if (overSinceNanos < 0) {
+                overSinceNanos = fix.elapsedNanos;
+            }
+            over |= fix.elapsedNanos - overSinceNanos >= OVER_NANOS;
+        } else if (speed <= limit) {
+            over = false;
+            overSinceNanos = -1L;
+        }
+        return over;
+    }
+
+    /**
+     * @return limit of the road the last fix was matched to, in meters/second, NaN if none
+     */
+    public float getLimit() {
+        return limit;
+    }
+
+    public boolean isOver() {
+        return over;
+    }
+
+    /**
+     * @return number of fixes that needed a tree search
+     */
+    public long getLookups() {
+        return lookups;
+    }
+}
@@ -0,0 +1,234 @@
+package net.mypapit.mobile.speedmeter.engine.zone;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Collects road segments with their speed limits and writes them as a zone file for
+ * {@link ZoneIndex}. The R-tree is bulk loaded by sort-tile-recursive packing: at every level
+ * the boxes are cut into vertical slices by longitude, sorted by latitude within a slice and
+ * grouped into full nodes, so that nodes overlap little and the tree is as shallow as it gets.
+ */
+public final class ZoneBuilder {
+
+    /** Children per node */
+    static final int FANOUT = 16;
+
+    private int size;
+    private int[] lat1 = new int[1024];
+    private int[] lon1 = new int[1024];
+    private int[] lat2 = new int[1024];
+    private int[] lon2 = new int[1024];
+    private float[] limits = new float[1024];
+
+    /**
+     * Adds a straight road segment.
+     *
+     * @param limit speed limit in meters/second
+     */
+    public void add(double latitude1, double longitude1, double latitude2, double longitude2, float limit) {
+        if (size == lat1.length) {
+            int capacity = size * 2;
+            lat1 = Arrays.copyOf(lat1, capacity);
+            lon1 = Arrays.copyOf(lon1, capacity);
+            lat2 = Arrays.copyOf(lat2, capacity);
+            lon2 = Arrays.copyOf(lon2, capacity);
+            limits = Arrays.copyOf(limits, capacity);
+        }
+        lat1[size] = fixed(latitude1);
+        lon1[size] = fixed(longitude1);
+        lat2[size] = fixed(latitude2);
+        lon2[size] = fixed(longitude2);
+        limits[size] = limit;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Writes the zone file, replacing the file if it exists.
+     */
+    public void write(File file) throws IOException {
+        // leaves over the segments, in the order the segments are written in
+        int[] minLat = new int[size];
+        int[] minLon = new int[size];
+        int[] maxLat = new int[size];
+        int[] maxLon = new int[size];
+        for (int i = 0; i < size; i++) {
+            minLat[i] = Math.min(lat1[i], lat2[i]);
+            maxLat[i] = Math.max(lat1[i], lat2[i]);
+            minLon[i] = Math.min(lon1[i], lon2[i]);
+            maxLon[i] = Math.max(lon1[i], lon2[i]);
+        }
+        int[] segmentOrder = pack(minLat, minLon, maxLat, maxLon, size);
+        Level level = group(permute(minLat, segmentOrder), permute(minLon, segmentOrder),
+                permute(maxLat, segmentOrder), permute(maxLon, segmentOrder), size, 0);
+
+        // each level above is grouped from the one below, which is packed first; an empty
+        // file gets a childless root
+        int leaves = level.count;
+        Level[] levels = new Level[32];
+        int depth = 0;
+        int offset = 0;
+        while (true) {
+            if (level.count > 1) {
+                int[] order = pack(level.minLat, level.minLon, level.maxLat, level.maxLon, level.count);
+                level = level.permute(order);
+            }
+            levels[depth++] = level;
+            if (level.count <= 1) {
+                break;
+            }
+            Level parent = group(level.minLat, level.minLon, level.maxLat, level.maxLon, level.count, offset);
+            offset += level.count;
+            level = parent;
+        }
+        int nodes = offset + level.count;
+
+        ByteBuffer buffer = ByteBuffer.allocate(ZoneFormat.HEADER_SIZE + size * ZoneFormat.SEGMENT_SIZE
+                + nodes * ZoneFormat.NODE_SIZE);
+        ZoneFormat.writeHeader(buffer, size, nodes, size == 0 ? 0 : leaves);
+        int position = ZoneFormat.HEADER_SIZE;
+        for (int i = 0; i < size; i++) {
+            int s = segmentOrder[i];
+            buffer.putInt(position + ZoneFormat.LAT1, lat1[s]);
+            buffer.putInt(position + ZoneFormat.LON1, lon1[s]);
+            buffer.putInt(position + ZoneFormat.LAT2, lat2[s]);
+            buffer.putInt(position + ZoneFormat.LON2, lon2[s]);
+            buffer.putFloat(position + ZoneFormat.LIMIT, limits[s]);
+            position += ZoneFormat.SEGMENT_SIZE;
+        }
+        for (int l = 0; l < depth; l++) {
+            Level nodeLevel = levels[l];
+            for (int i = 0; i < nodeLevel.count; i++) {
+                buffer.putInt(position + ZoneFormat.MIN_LAT, nodeLevel.minLat[i]);
+                buffer.putInt(position + ZoneFormat.MIN_LON, nodeLevel.minLon[i]);
+                buffer.putInt(position + ZoneFormat.MAX_LAT, nodeLevel.maxLat[i]);
+                buffer.putInt(position + ZoneFormat.MAX_LON, nodeLevel.maxLon[i]);
+                buffer.putInt(position + ZoneFormat.FIRST, nodeLevel.first[i]);
+                buffer.putInt(position + ZoneFormat.COUNT, nodeLevel.children[i]);
+                position += ZoneFormat.NODE_SIZE;
+            }
+        }
+        try (FileOutputStream out = new FileOutputStream(file);
+             FileChannel channel = out.getChannel()) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Sort-tile-recursive order of boxes.
+     *
+     * @return indices of the boxes in packing order
+     */
+    private static int[] pack(int[] minLat, int[] minLon, int[] maxLat, int[] maxLon, int count) {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = key(minLon[i], maxLon[i], i);
+        }
+        Arrays.sort(keys);
+        int groups = (count + FANOUT - 1) / FANOUT;
+        int slices = (int) Math.ceil(Math.sqrt(groups));
+        int sliceSize = slices * FANOUT;
+        for (int start = 0; start < count; start += sliceSize) {
+            int end = Math.min(count, start + sliceSize);
+            for (int i = start; i < end; i++) {
+                int index = (int) keys[i];
+                keys[i] = key(minLat[index], maxLat[index], index);
+            }
+            Arrays.sort(keys, start, end);
+        }
+        int[] order = new int[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = (int) keys[i];
+        }
+        return order;
+    }
+
+    /**
+     * @return a sort key of the box center in the upper half and the index in the lower
+     */
+    private static long key(int min, int max, int index) {
+        long center = ((long) min + max) / 2 - Integer.MIN_VALUE;
+        return center << 32 | index;
+    }
+
+    /**
+     * @return nodes over consecutive runs of FANOUT boxes, the first box having index offset
+     */
+    private static Level group(int[] minLat, int[] minLon, int[] maxLat, int[] maxLon, int count, int offset) {
+        Level level = new Level(Math.max(1, (count + FANOUT - 1) / FANOUT));
+        for (int n = 0; n < level.count; n++) {
+            int start = n * FANOUT;
+            int end = Math.min(count, start + FANOUT);
+            level.minLat[n] = Integer.MAX_VALUE;
+            level.minLon[n] = Integer.MAX_VALUE;
+            level.maxLat[n] = Integer.MIN_VALUE;
+            level.maxLon[n] = Integer.MIN_VALUE;
+            for (int i = start; i < end; i++) {
+                level.minLat[n] = Math.min(level.minLat[n], minLat[i]);
+                level.minLon[n] = Math.min(level.minLon[n], minLon[i]);
+                level.maxLat[n] = Math.max(level.maxLat[n], maxLat[i]);
+                level.maxLon[n] = Math.max(level.maxLon[n], maxLon[i]);
+            }
+            level.first[n] = offset + start;
+            level.children[n] = Math.max(0, end - start);
+        }
+        return level;
+    }
+
+    private static int[] permute(int[] values, int[] order) {
+        int[] result = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            result[i] = values[order[i]];
+        }
+        return result;
+    }
+
+    private static int fixed(double degrees) {
+        return (int) Math.round(degrees * ZoneFormat.SCALE);
+    }
+
+    /**
+     * Nodes of one level of the tree.
+     */
+    private static final class Level {
+        final int count;
+        final int[] minLat;
+        final int[] minLon;
+        final int[] maxLat;
+        final int[] maxLon;
+        final int[] first;
+        final int[] children;
+
+        Level(int count) {
+            this(count, new int[count], new int[count], new int[count], new int[count], new int[count],
+                    new int[count]);
+        }
+
+        private Level(int count, int[] minLat, int[] minLon, int[] maxLat, int[] maxLon, int[] first,
+                      int[] children) {
+            this.count = count;
+            this.minLat = minLat;
+            this.minLon = minLon;
+            this.maxLat = maxLat;
+            this.maxLon = maxLon;
+            this.first = first;
+            this.children = children;
+        }
+
+        Level permute(int[] order) {
+            return new Level(count, ZoneBuilder.permute(minLat, order), ZoneBuilder.permute(minLon, order),
+                    ZoneBuilder.permute(maxLat, order), ZoneBuilder.permute(maxLon, order),
+                    ZoneBuilder.permute(first, order), ZoneBuilder.permute(children, order));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package net.mypapit.mobile.speedmeter.engine.zone;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of a zone file: a fixed header, the road segments, then the nodes of a packed
+ * R-tree over them. Coordinates are stored as degrees times 10^7.
+ * <p>
+ * A segment is its two end points and the speed limit in meters/second. A node is a bounding
+ * box and a range of children: segments for the leaves, which come first, nodes for the rest.
+ * The root is the last node.
+ */
+final class ZoneFormat {
+
+    static final int MAGIC = 0x53505a4e; // "SPZN"
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    private static final int SEGMENT_COUNT = 8;
+    private static final int NODE_COUNT = 12;
+    private static final int LEAF_COUNT = 16;
+
+    static final int SEGMENT_SIZE = 20;
+    static final int LAT1 = 0;
+    static final int LON1 = 4;
+    static final int LAT2 = 8;
+    static final int LON2 = 12;
+    static final int LIMIT = 16;
+
+    static final int NODE_SIZE = 24;
+    static final int MIN_LAT = 0;
+    static final int MIN_LON = 4;
+    static final int MAX_LAT = 8;
+    static final int MAX_LON = 12;
+    static final int FIRST = 16;
+    static final int COUNT = 20;
+
+    static final double SCALE = 1e7;
+
+    private ZoneFormat() {
+    }
+
+    static void writeHeader(ByteBuffer buffer, int segments, int nodes, int leaves) {
+        buffer.putInt(0, MAGIC);
+        buffer.putShort(4, VERSION);
+        buffer.putInt(SEGMENT_COUNT, segments);
+        buffer.putInt(NODE_COUNT, nodes);
+        buffer.putInt(LEAF_COUNT, leaves);
+    }
+
+    /**
+     * @return segment count, node count and leaf count from the header
+     * @throws IOException if the header is not a supported zone header or does not match the size
+     */
+    static int[] readHeader(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("not a zone file");
+        }
+        if (buffer.getShort(4) != VERSION) {
+            throw new IOException("unsupported zone version " + buffer.getShort(4));
+        }
+        int segments = buffer.getInt(SEGMENT_COUNT);
+        int nodes = buffer.getInt(NODE_COUNT);
+        int leaves = buffer.getInt(LEAF_COUNT);
+        if (segments < 0 || nodes < 0 || leaves < 0 || leaves > nodes
+                || buffer.limit() != HEADER_SIZE + (long) segments * SEGMENT_SIZE + (long) nodes * NODE_SIZE) {
+            throw new IOException("zone file truncated or damaged");
+        }
+        return new int[] {segments, nodes, leaves};
+    }
+}
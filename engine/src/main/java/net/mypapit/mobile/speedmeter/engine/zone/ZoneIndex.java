@@ -0,0 +1,170 @@
+package net.mypapit.mobile.speedmeter.engine.zone;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Road segments with speed limits, searched through the packed R-tree of a zone file written
+ * by {@link ZoneBuilder}. The file is memory mapped and read in place: opening it costs no
+ * parsing and no heap however many segments it has, and only the pages a search touches are
+ * read from storage.
+ * <p>
+ * Distances are computed on a plane tangent at the query point, which is accurate to well
+ * under a meter over the few tens of meters searched. Searches do not allocate. Not
+ * thread-safe; each thread needs its own instance.
+ */
+public final class ZoneIndex implements Closeable {
+
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180.0;
+    private static final double METERS_PER_UNIT = METERS_PER_DEGREE / ZoneFormat.SCALE;
+    /** Deep enough for a tree of 16^8 segments */
+    private static final int MAX_DEPTH = 16;
+
+    private final RandomAccessFile file;
+    private final ByteBuffer buffer;
+    private final int segments;
+    private final int leaves;
+    private final int nodesOffset;
+    private final int root;
+    private final int[] stack = new int[MAX_DEPTH * ZoneBuilder.FANOUT];
+
+    // query point, in file units, and the meters per unit of longitude at its latitude
+    private int queryLat;
+    private int queryLon;
+    private double lonMeters;
+    /** Squared, as all distances compared during a search */
+    private double bestDistance;
+    private int best;
+
+    private ZoneIndex(RandomAccessFile file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        int[] header = ZoneFormat.readHeader(buffer);
+        segments = header[0];
+        leaves = header[2];
+        nodesOffset = ZoneFormat.HEADER_SIZE + segments * ZoneFormat.SEGMENT_SIZE;
+        root = header[1] - 1;
+    }
+
+    public static ZoneIndex open(File path) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(path, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            return new ZoneIndex(file, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of road segments
+     */
+    public int size() {
+        return segments;
+    }
+
+    /**
+     * Finds the segment nearest to a position.
+     *
+     * @param maxDistance search radius in meters
+     * @return index of the nearest segment within the radius, or -1
+     */
+    public int nearest(double latitude, double longitude, double maxDistance) {
+        setQuery(latitude, longitude);
+        bestDistance = maxDistance * maxDistance;
+        best = -1;
+        if (root < 0) {
+            return -1;
+        }
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            int node = stack[--top];
+            int position = nodesOffset + node * ZoneFormat.NODE_SIZE;
+            if (boxDistanceSquared(position) > bestDistance) {
+                continue;
+            }
+            int first = buffer.getInt(position + ZoneFormat.FIRST);
+            int count = buffer.getInt(position + ZoneFormat.COUNT);
+            if (node < leaves) {
+                for (int i = first; i < first + count; i++) {
+                    double distance = segmentDistanceSquared(i);
+                    if (distance <= bestDistance) {
+                        bestDistance = distance;
+                        best = i;
+                    }
+                }
+            } else {
+                for (int i = first; i < first + count; i++) {
+                    if (top == stack.length) {
+                        // only a damaged file nests this deep
+                        break;
+                    }
+                    stack[top++] = i;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return distance in meters from a position to a segment
+     */
+    public double distance(int segment, double latitude, double longitude) {
+        setQuery(latitude, longitude);
+        return Math.sqrt(segmentDistanceSquared(segment));
+    }
+
+    /**
+     * @return speed limit of a segment in meters/second
+     */
+    public float getLimit(int segment) {
+        return buffer.getFloat(ZoneFormat.HEADER_SIZE + segment * ZoneFormat.SEGMENT_SIZE + ZoneFormat.LIMIT);
+    }
+
+    private void setQuery(double latitude, double longitude) {
+        queryLat = (int) Math.round(latitude * ZoneFormat.SCALE);
+        queryLon = (int) Math.round(longitude * ZoneFormat.SCALE);
+        lonMeters = METERS_PER_UNIT * Math.cos(Math.toRadians(latitude));
+    }
+
+    private double boxDistanceSquared(int position) {
+        long dLat = Math.max(0L, Math.max((long) buffer.getInt(position + ZoneFormat.MIN_LAT) - queryLat,
+                (long) queryLat - buffer.getInt(position + ZoneFormat.MAX_LAT)));
+        long dLon = Math.max(0L, Math.max((long) buffer.getInt(position + ZoneFormat.MIN_LON) - queryLon,
+                (long) queryLon - buffer.getInt(position + ZoneFormat.MAX_LON)));
+        double y = dLat * METERS_PER_UNIT;
+        double x = dLon * lonMeters;
+        return x * x + y * y;
+    }
+
+    private double segmentDistanceSquared(int segment) {
+        int position = ZoneFormat.HEADER_SIZE + segment * ZoneFormat.SEGMENT_SIZE;
+        // end points relative to the query point, in meters
+        double x1 = ((long) buffer.getInt(position + ZoneFormat.LON1) - queryLon) * lonMeters;
+        double y1 = ((long) buffer.getInt(position + ZoneFormat.LAT1) - queryLat) * METERS_PER_UNIT;
+        double x2 = ((long) buffer.getInt(position + ZoneFormat.LON2) - queryLon) * lonMeters;
+        double y2 = ((long) buffer.getInt(position + ZoneFormat.LAT2) - queryLat) * METERS_PER_UNIT;
+        double dx = x2 - x1;
+        double dy = y2 - y1;
+        double lengthSquared = dx * dx + dy * dy;
+        // closest point of the segment to the origin
+        double t = lengthSquared > 0.0 ? Math.max(0.0, Math.min(1.0, -(x1 * dx + y1 * dy) / lengthSquared)) : 0.0;
+        double x = x1 + t * dx;
+        double y = y1 + t * dy;
+        return x * x + y * y;
+    }
+
+    /**
+     * Closes the file. The mapping is released once the index is garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
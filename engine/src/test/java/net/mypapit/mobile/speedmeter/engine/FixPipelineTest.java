@@ -0,0 +1,67 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+import net.mypapit.mobile.speedmeter.engine.track.TrackWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FixPipelineTest {
+
+    private static final int FIXES = 4 * 3600;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void batchesEndInTheStateOfSingleFixes() throws IOException {
+        for (int batchSize : new int[] {1, 30, 120}) {
+            File single = folder.newFile("single-" + batchSize + ".trk");
+            File batched = folder.newFile("batched-" + batchSize + ".trk");
+            FixPipeline a = pipeline(single);
+            FixPipeline b = pipeline(batched);
+            SyntheticTrace trace = new SyntheticTrace(1.0, 21L);
+            FixBatch batch = new FixBatch(batchSize);
+            Fix copy = new Fix();
+            for (int i = 0; i < FIXES; ) {
+                batch.clear();
+                for (int j = 0; j < batchSize && i < FIXES; j++, i++) {
+                    Fix fix = batch.add();
+                    trace.next(fix);
+                    copy.copyFrom(fix);
+                    a.process(copy);
+                }
+                b.process(batch);
+            }
+            a.getTrack().close();
+            b.getTrack().close();
+
+            String name = "batches of " + batchSize;
+            Snapshot expected = a.getEngine().snapshot();
+            Snapshot actual = b.getEngine().snapshot();
+            assertEquals(name, expected.elapsedNanos, actual.elapsedNanos);
+            assertEquals(name, expected.filteredSpeed, actual.filteredSpeed, 0.0f);
+            assertEquals(name, expected.maxSpeed, actual.maxSpeed, 0.0);
+            assertEquals(name, expected.heading, actual.heading);
+            assertEquals(name, expected.speedText.toString(), actual.speedText.toString());
+            assertEquals(name, expected.maxSpeedText.toString(), actual.maxSpeedText.toString());
+            assertEquals(name, expected.accuracyText.toString(), actual.accuracyText.toString());
+            assertEquals(name, expected.latitudeText.toString(), actual.latitudeText.toString());
+            assertEquals(name, expected.longitudeText.toString(), actual.longitudeText.toString());
+            assertEquals(name, a.getScheduler().getTier(), b.getScheduler().getTier());
+            assertArrayEquals(name, Files.readAllBytes(single.toPath()), Files.readAllBytes(batched.toPath()));
+        }
+    }
+
+    private static FixPipeline pipeline(File track) throws IOException {
+        FixPipeline pipeline = new FixPipeline(new SpeedEngine(DecimalText.getInstance()), new SamplingScheduler());
+        pipeline.setTrack(TrackWriter.open(track, 0L));
+        return pipeline;
+    }
+}
@@ -0,0 +1,20 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class HeadingFilterTest {
+
+    @Test
+    public void azimuthOfAnUprightDevice() {
+        // back camera looking east
+        assertEquals(90.0, HeadingFilter.azimuth(new float[] {0, 0, -1, -1, 0, 0, 0, 1, 0}), 1e-9);
+    }
+
+    @Test
+    public void azimuthOfAFlatDevice() {
+        // top pointing north
+        assertEquals(0.0, HeadingFilter.azimuth(new float[] {1, 0, 0, 0, 1, 0, 0, 0, 1}), 1e-9);
+    }
+}
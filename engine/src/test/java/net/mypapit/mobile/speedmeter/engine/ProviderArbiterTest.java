@@ -0,0 +1,64 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+import org.junit.Test;
+
+import static net.mypapit.mobile.speedmeter.engine.ProviderStreams.ARBITER;
+import static net.mypapit.mobile.speedmeter.engine.ProviderStreams.EVERY_FIX;
+import static net.mypapit.mobile.speedmeter.engine.ProviderStreams.RECEIVER_ONLY;
+import static net.mypapit.mobile.speedmeter.engine.ProviderStreams.SECOND;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProviderArbiterTest {
+
+    @Test
+    public void coldStartShowsTheFirstNetworkFix() {
+        ProviderStreams.Result arbiter = ProviderStreams.run(ProviderStreams.coldStart(), ARBITER);
+        assertTrue(arbiter.firstNanos < 2 * SECOND);
+        assertEquals(0L, arbiter.blindNanos);
+        assertTrue(ProviderStreams.run(ProviderStreams.coldStart(), RECEIVER_ONLY).firstNanos >= 32 * SECOND);
+    }
+
+    @Test
+    public void coldStartRefusesTheCachedFix() {
+        assertTrue(ProviderStreams.run(ProviderStreams.coldStart(), ARBITER).stale >= 1);
+    }
+
+    @Test
+    public void coldStartSwitchesOnceToTheReceiver() {
+        ProviderStreams.Result arbiter = ProviderStreams.run(ProviderStreams.coldStart(), ARBITER);
+        assertEquals(1, arbiter.switches);
+        assertEquals(ProviderArbiter.GPS, arbiter.lastSource);
+        assertEquals(1L, arbiter.ttffCount);
+    }
+
+    @Test
+    public void canyonIsNeverBlind() {
+        assertEquals(0L, ProviderStreams.run(ProviderStreams.canyon(), ARBITER).blindNanos);
+        assertTrue(ProviderStreams.run(ProviderStreams.canyon(), RECEIVER_ONLY).blindNanos >= 5 * SECOND);
+    }
+
+    @Test
+    public void canyonShowsBetterFixesThanTheReceiverOrEveryFix() {
+        ProviderStreams.Result arbiter = ProviderStreams.run(ProviderStreams.canyon(), ARBITER);
+        assertTrue(arbiter.meanAccuracy
+                < ProviderStreams.run(ProviderStreams.canyon(), RECEIVER_ONLY).meanAccuracy * 0.7);
+        assertTrue(arbiter.speedShare > ProviderStreams.run(ProviderStreams.canyon(), EVERY_FIX).speedShare);
+    }
+
+    @Test
+    public void canyonSwitchesOnlyIntoAndOutOfIt() {
+        assertTrue(ProviderStreams.run(ProviderStreams.canyon(), ARBITER).switches <= 2);
+    }
+
+    @Test
+    public void equalSourcesHardlySwitch() {
+        assertTrue(ProviderStreams.run(ProviderStreams.flapping(), ARBITER).switches <= 2);
+        assertTrue(ProviderStreams.run(ProviderStreams.flapping(), EVERY_FIX).switches > 100);
+    }
+
+    @Test
+    public void passiveCopiesAreRefused() {
+        assertEquals(0, ProviderStreams.run(ProviderStreams.flapping(), ARBITER).repeats);
+    }
+}
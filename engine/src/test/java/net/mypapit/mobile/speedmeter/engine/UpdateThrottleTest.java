@@ -0,0 +1,23 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+public class UpdateThrottleTest {
+
+    @Test
+    public void keepsTheNotificationWithinItsLimit() {
+        for (double rate : new double[] {1.0, 10.0}) {
+            for (int perSecond = 1; perSecond <= 2; perSecond++) {
+                NotificationPosts.Result result = NotificationPosts.run(rate, true, perSecond);
+                String name = rate + " Hz, " + perSecond + "/s";
+                assertTrue(name + ": " + result.maxPerMinute + " posts in a minute",
+                        result.maxPerMinute <= 60 * perSecond);
+                assertTrue(name + ": waited " + result.maxWaitNanos + " ns",
+                        result.maxWaitNanos <= NotificationPosts.SECOND / perSecond);
+                assertTrue(name + ": last texts not posted", result.lastPosted);
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package net.mypapit.mobile.speedmeter.engine.history;
+
+import net.mypapit.mobile.speedmeter.engine.DecimalText;
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.SpeedEngine;
+import net.mypapit.mobile.speedmeter.engine.SpeedFilters;
+import net.mypapit.mobile.speedmeter.engine.SyntheticTrace;
+import net.mypapit.mobile.speedmeter.engine.TripStats;
+import net.mypapit.mobile.speedmeter.engine.track.TrackReader;
+import net.mypapit.mobile.speedmeter.engine.track.TrackWriter;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TripSummarizerTest {
+
+    private static final int FIXES = 3600;
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180.0;
+    /** Rounding of the encoded polyline, 1e-5 degrees of latitude */
+    private static final double ROUNDING = 1.2;
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static double[] latitudes;
+    private static double[] longitudes;
+    private static SpeedEngine engine;
+    private static TripSummary live;
+    private static File track;
+
+    /**
+     * Drives an hour at 1 Hz through the engine, recording the track.
+     */
+    @BeforeClass
+    public static void drive() throws IOException {
+        track = folder.newFile("trip.trk");
+        SyntheticTrace trace = new SyntheticTrace(1.0, 25L);
+        engine = new SpeedEngine(DecimalText.getInstance());
+        engine.setFilter(SpeedFilters.create(SpeedFilters.BALANCED));
+        Fix fix = new Fix();
+        latitudes = new double[FIXES];
+        longitudes = new double[FIXES];
+        try (TrackWriter writer = TrackWriter.open(track, 1500000000000L)) {
+            for (int i = 0; i < FIXES; i++) {
+                trace.next(fix);
+                engine.process(fix);
+                writer.append(fix);
+                latitudes[i] = fix.latitude;
+                longitudes[i] = fix.longitude;
+            }
+        }
+        live = new TripSummary();
+        live.startTime = 1500000000000L;
+        engine.getTripSummarizer().fill(live, engine.getTripStats());
+    }
+
+    @Test
+    public void summaryWhileDrivenEqualsTheOneFromTheTrack() throws IOException {
+        TripSummary read = new TripSummary();
+        try (TrackReader reader = new TrackReader(track)) {
+            TripSummarizer.summarize(reader, SpeedFilters.create(SpeedFilters.BALANCED), read);
+        }
+        // the track rounds positions to 1e-7 degrees and speeds to 1 cm/s
+        assertEquals(live.startTime, read.startTime);
+        assertEquals(live.endTime, read.endTime);
+        assertEquals(live.distance, read.distance, 1.0);
+        assertEquals(live.maxSpeed, read.maxSpeed, 0.01);
+        assertEquals(live.movingMillis, read.movingMillis);
+        assertEquals(live.points, read.points, live.points / 50);
+    }
+
+    @Test
+    public void routePassesWithinItsErrorOfEveryFix() {
+        double[] routeLatitudes = new double[RouteSimplifier.MAX_POINTS + 1];
+        double[] routeLongitudes = new double[RouteSimplifier.MAX_POINTS + 1];
+        int points = Polyline.decode(live.polyline, routeLatitudes, routeLongitudes);
+        assertEquals(live.points, points);
+        assertEquals(latitudes[0], routeLatitudes[0], 1e-5);
+        assertEquals(latitudes[FIXES - 1], routeLatitudes[points - 1], 1e-5);
+        double maxError = engine.getTripSummarizer().getRoute().getMaxError();
+        for (int i = 0; i < FIXES; i++) {
+            double distance = distanceToRoute(latitudes[i], longitudes[i], routeLatitudes, routeLongitudes, points);
+            assertTrue("fix " + i + " " + distance + " m from the route", distance <= maxError + ROUNDING);
+        }
+    }
+
+    @Test
+    public void longRouteIsCapped() {
+        TripSummarizer summarizer = new TripSummarizer();
+        SyntheticTrace trace = new SyntheticTrace(10.0, 26L);
+        Fix fix = new Fix();
+        // ten hours at 10 Hz
+        for (int i = 0; i < 360000; i++) {
+            summarizer.update(trace.next(fix));
+        }
+        TripSummary trip = new TripSummary();
+        summarizer.fill(trip, new TripStats());
+        assertTrue(trip.points + " points", trip.points <= RouteSimplifier.MAX_POINTS + 1);
+    }
+
+    /**
+     * @return distance in meters from a point to the nearest segment of a route
+     */
+    private static double distanceToRoute(double latitude, double longitude, double[] latitudes,
+                                          double[] longitudes, int points) {
+        double cos = Math.cos(Math.toRadians(latitude));
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < points; i++) {
+            double ax = (longitudes[i] - longitude) * cos * METERS_PER_DEGREE;
+            double ay = (latitudes[i] - latitude) * METERS_PER_DEGREE;
+            int j = Math.min(i + 1, points - 1);
+            double bx = (longitudes[j] - longitude) * cos * METERS_PER_DEGREE;
+            double by = (latitudes[j] - latitude) * METERS_PER_DEGREE;
+            double dx = bx - ax;
+            double dy = by - ay;
+            double length = dx * dx + dy * dy;
+            double t = length > 0 ? Math.max(0.0, Math.min(1.0, -(ax * dx + ay * dy) / length)) : 0.0;
+            double x = ax + t * dx;
+            double y = ay + t * dy;
+            best = Math.min(best, Math.sqrt(x * x + y * y));
+        }
+        return best;
+    }
+}
@@ -0,0 +1,125 @@
+package net.mypapit.mobile.speedmeter.engine.history;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the trip history statements on SQLite, which the app's database is, through the JDBC
+ * driver on the test class path.
+ */
+public class TripTableTest {
+
+    private static final int TRIPS = 2000;
+    private static final int PAGE_SIZE = 50;
+    /** Google's example of an encoded polyline */
+    private static final String ROUTE = "_p~iF~ps|U_ulLnnqC_mqNvxq`@";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private Connection db;
+    private TripSummary[] trips;
+
+    @Before
+    public void setUp() throws IOException, SQLException {
+        db = DriverManager.getConnection("jdbc:sqlite:" + folder.newFile("history.db").getPath());
+        TripDatabase.create(db);
+        trips = TripDatabase.trips(TRIPS, Collections.singletonList(ROUTE), 25L);
+        try (PreparedStatement upsert = db.prepareStatement(TripTable.UPSERT)) {
+            for (TripSummary trip : trips) {
+                TripDatabase.bind(upsert, trip);
+                upsert.executeUpdate();
+            }
+        }
+        db.commit();
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        db.close();
+    }
+
+    @Test
+    public void tripWrittenAgainIsReplaced() throws SQLException {
+        try (PreparedStatement upsert = db.prepareStatement(TripTable.UPSERT)) {
+            trips[0].distance += 100.0;
+            TripDatabase.bind(upsert, trips[0]);
+            upsert.executeUpdate();
+            db.commit();
+        }
+        assertEquals(TRIPS, TripDatabase.count(db));
+    }
+
+    @Test
+    public void newestFirstReadsTheKeyInOrder() throws SQLException {
+        String plan = TripDatabase.plan(db, TripTable.PAGE_BY_TIME, 2);
+        assertTrue(plan, plan.contains("PRIMARY KEY"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void longestFirstReadsTheDistanceIndexInOrder() throws SQLException {
+        String plan = TripDatabase.plan(db, TripTable.PAGE_BY_DISTANCE, 4);
+        assertTrue(plan, plan.contains(TripTable.TABLE + "_distance"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void pagesNewestFirstReadEveryTripOnceInOrder() throws SQLException {
+        TripSummary[] expected = trips.clone();
+        Arrays.sort(expected, (a, b) -> Long.compare(b.startTime, a.startTime));
+        assertArrayEquals(startTimes(expected), walk(false));
+    }
+
+    @Test
+    public void pagesLongestFirstReadEveryTripOnceInOrder() throws SQLException {
+        TripSummary[] expected = trips.clone();
+        Arrays.sort(expected, (a, b) -> a.distance != b.distance ? Double.compare(b.distance, a.distance)
+                : Long.compare(b.startTime, a.startTime));
+        assertArrayEquals(startTimes(expected), walk(true));
+    }
+
+    /**
+     * @return start times of the trips on every page, each read from where the last ended
+     */
+    private long[] walk(boolean byDistance) throws SQLException {
+        long[] startTimes = new long[TRIPS + PAGE_SIZE];
+        int seen = 0;
+        TripSummary last = null;
+        try (PreparedStatement page = db.prepareStatement(byDistance ? TripTable.PAGE_BY_DISTANCE
+                : TripTable.PAGE_BY_TIME)) {
+            int read;
+            do {
+                TripSummary row = new TripSummary();
+                read = TripDatabase.readPage(page, byDistance, last, PAGE_SIZE, startTimes, seen, row);
+                seen += read;
+                last = row;
+            } while (read == PAGE_SIZE);
+        }
+        return Arrays.copyOf(startTimes, seen);
+    }
+
+    private static long[] startTimes(TripSummary[] trips) {
+        long[] startTimes = new long[trips.length];
+        for (int i = 0; i < trips.length; i++) {
+            startTimes[i] = trips[i].startTime;
+        }
+        return startTimes;
+    }
+}
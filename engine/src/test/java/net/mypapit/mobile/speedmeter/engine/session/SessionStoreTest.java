@@ -0,0 +1,124 @@
+package net.mypapit.mobile.speedmeter.engine.session;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.SpeedFilter;
+import net.mypapit.mobile.speedmeter.engine.SpeedFilters;
+import net.mypapit.mobile.speedmeter.engine.SyntheticTrace;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SessionStoreTest {
+
+    private static final int FIXES = 2 * 3600;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+    private SessionState state;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "session");
+        state = trip();
+        new SessionStore(file, Runnable::run).save(state);
+    }
+
+    @Test
+    public void readsBackWhatWasSaved() throws IOException {
+        assertSame(state, load());
+    }
+
+    @Test
+    public void interruptedWriteKeepsPreviousState() throws IOException {
+        // killed after writing the temporary file but before renaming it
+        File temporary = new File(folder.getRoot(), "session.tmp");
+        try (FileOutputStream out = new FileOutputStream(temporary)) {
+            out.write(new byte[100]);
+        }
+        assertSame(state, load());
+        assertFalse(temporary.exists());
+    }
+
+    @Test
+    public void corruptedStoreReadsAsMissing() throws IOException {
+        byte[] intact = Files.readAllBytes(file.toPath());
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(40);
+            raf.write(intact[40] ^ 0x10);
+        }
+        SessionState loaded = new SessionState();
+        assertFalse(new SessionStore(file, Runnable::run).load(loaded));
+        assertTrue(loaded.maxSpeed < 0);
+        assertEquals(0.0, loaded.tripStats.getDistance(), 0.0);
+    }
+
+    @Test
+    public void truncatedStoreReadsAsMissing() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() / 2);
+        }
+        assertFalse(new SessionStore(file, Runnable::run).load(new SessionState()));
+    }
+
+    @Test
+    public void writesLatestOfABurstOfSaves() throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        SessionStore store = new SessionStore(file, executor);
+        for (int i = 0; i < 2000; i++) {
+            state.savedAt = i;
+            store.save(state);
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(1999L, load().savedAt);
+    }
+
+    private SessionState load() throws IOException {
+        SessionState loaded = new SessionState();
+        assertTrue(new SessionStore(file, Runnable::run).load(loaded));
+        return loaded;
+    }
+
+    private static SessionState trip() {
+        SessionState state = new SessionState();
+        SyntheticTrace trace = new SyntheticTrace(1.0, 5L);
+        SpeedFilter filter = SpeedFilters.create(SpeedFilters.BALANCED);
+        Fix fix = new Fix();
+        for (int i = 0; i < FIXES; i++) {
+            trace.next(fix);
+            state.tripStats.update(fix, filter.update(fix));
+        }
+        state.maxSpeed = state.tripStats.getMaxSpeed();
+        state.tripStartTime = 1700000000000L;
+        state.savedAt = 1700000000000L + FIXES * 1000L;
+        return state;
+    }
+
+    private static void assertSame(SessionState expected, SessionState actual) {
+        assertEquals(expected.maxSpeed, actual.maxSpeed, 0.0);
+        assertEquals(expected.tripStartTime, actual.tripStartTime);
+        assertEquals(expected.savedAt, actual.savedAt);
+        assertEquals(expected.tripStats.getDistance(), actual.tripStats.getDistance(), 0.0);
+        assertEquals(expected.tripStats.getMovingNanos(), actual.tripStats.getMovingNanos());
+        assertEquals(expected.tripStats.getStoppedNanos(), actual.tripStats.getStoppedNanos());
+        assertEquals(expected.tripStats.getMovingAverageSpeed(), actual.tripStats.getMovingAverageSpeed(), 0.0f);
+        assertEquals(expected.tripStats.getMaxSpeed(), actual.tripStats.getMaxSpeed(), 0.0f);
+        assertEquals(expected.tripStats.getSpeedPercentile(0.95), actual.tripStats.getSpeedPercentile(0.95), 0.0f);
+    }
+}
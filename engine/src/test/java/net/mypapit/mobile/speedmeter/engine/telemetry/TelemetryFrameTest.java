@@ -0,0 +1,49 @@
+package net.mypapit.mobile.speedmeter.engine.telemetry;
+
+import net.mypapit.mobile.speedmeter.engine.Snapshot;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TelemetryFrameTest {
+
+    @Test
+    public void readsBackWhatWasWritten() {
+        Snapshot s = new Snapshot();
+        s.elapsedNanos = 123456789012L;
+        s.latitude = 3.1390;
+        s.longitude = 101.6869;
+        s.speed = 27.5f;
+        s.filteredSpeed = 27.25f;
+        s.bearing = 271.5f;
+        s.hasAccuracy = true;
+        s.accuracy = 4.5f;
+        s.maxSpeed = 33.0;
+        s.speedLimit = 25.0f;
+        s.overspeed = true;
+        s.distance = 12345.5;
+        ByteBuffer buffer = ByteBuffer.allocate(TelemetryFrame.SIZE + 3);
+        TelemetryFrame.write(s, 42, 123456790000L, buffer, 3);
+        TelemetryFrame f = new TelemetryFrame();
+        assertTrue(f.read(buffer, 3));
+        assertEquals(42, f.sequence);
+        assertEquals(s.elapsedNanos, f.fixNanos);
+        assertEquals(123456790000L, f.publishNanos);
+        assertEquals(s.latitude, f.latitude, 0.0);
+        assertEquals(s.longitude, f.longitude, 0.0);
+        assertEquals(s.speed, f.speed, 0.0f);
+        assertEquals(s.filteredSpeed, f.filteredSpeed, 0.0f);
+        assertEquals(s.bearing, f.bearing, 0.0f);
+        assertEquals(s.accuracy, f.accuracy, 0.0f);
+        assertEquals(33.0f, f.maxSpeed, 0.0f);
+        assertEquals(s.speedLimit, f.speedLimit, 0.0f);
+        assertEquals(s.distance, f.distance, 0.0);
+        assertEquals(TelemetryFrame.FLAG_ACCURACY | TelemetryFrame.FLAG_OVERSPEED, f.flags);
+        // not at the start of a frame
+        assertFalse(f.read(buffer, 0));
+    }
+}
@@ -0,0 +1,34 @@
+package net.mypapit.mobile.speedmeter.engine.telemetry;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TelemetryPublisherTest {
+
+    private static final long SECOND = 1000000000L;
+
+    @Test
+    public void readingClientGetsEveryFrameWhileAnotherStalls() throws IOException, InterruptedException {
+        LoopbackRun run = LoopbackRun.run(SECOND / 1000, SECOND);
+        assertEquals(run.published, run.tcp.count);
+        assertEquals(0L, run.tcp.lost);
+        assertTrue(run.tcp.intact);
+        assertTrue(run.udp.intact);
+    }
+
+    @Test
+    public void stalledClientIsDroppedFramesAndThenReadsWholeOnes() throws IOException, InterruptedException {
+        LoopbackRun run = LoopbackRun.run(0, SECOND / 2);
+        assertTrue(run.tcp.intact);
+        assertTrue(run.udp.intact);
+        assertTrue(run.lagging > 0);
+        assertNull(run.stalled.error);
+        assertTrue(run.stalled.intact);
+        assertTrue(run.stalled.count > 0);
+    }
+}
@@ -0,0 +1,42 @@
+package net.mypapit.mobile.speedmeter.engine.timing;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GateFileTest {
+
+    @Test
+    public void readsBackWhatWasWritten() throws IOException {
+        GateIndex gates = new GateIndex();
+        Circuit.addGates(gates);
+        StringBuilder text = new StringBuilder();
+        GateFile.write(text, gates);
+        GateIndex read = new GateIndex();
+        assertEquals(gates.size(), GateFile.read(new BufferedReader(new StringReader(text.toString())), read));
+        assertEquals(gates.size(), read.size());
+        for (int i = 0; i < gates.size(); i++) {
+            assertEquals(gates.getType(i), read.getType(i));
+            assertEquals(gates.getLatitude1(i), read.getLatitude1(i), 1e-7);
+            assertEquals(gates.getLongitude1(i), read.getLongitude1(i), 1e-7);
+            assertEquals(gates.getLatitude2(i), read.getLatitude2(i), 1e-7);
+            assertEquals(gates.getLongitude2(i), read.getLongitude2(i), 1e-7);
+        }
+    }
+
+    @Test
+    public void rejectsAnUnknownTypeWithItsLine() {
+        try {
+            GateFile.read(new BufferedReader(new StringReader("# gates\nfinish,1,2,3,4\n")), new GateIndex());
+            fail("unknown gate type read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("line 2"));
+        }
+    }
+}
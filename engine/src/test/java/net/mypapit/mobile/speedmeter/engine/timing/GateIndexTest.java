@@ -0,0 +1,58 @@
+package net.mypapit.mobile.speedmeter.engine.timing;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class GateIndexTest {
+
+    @Test
+    public void gatesCrossedAgreeWithATestOfEveryGate() {
+        GateIndex gates = new GateIndex();
+        Circuit.addGates(gates);
+        Circuit.addRandomGates(gates, 5000, 3000.0, 7L);
+        GateSearch search = new GateSearch(gates);
+        Circuit circuit = new Circuit(5, 1.0, Circuit.NOISE, 8L);
+        boolean[] found = new boolean[gates.size()];
+        int crossings = 0;
+        for (int i = 1; i < circuit.size; i++) {
+            double latitude1 = circuit.latitudes[i - 1];
+            double longitude1 = circuit.longitudes[i - 1];
+            double latitude2 = circuit.latitudes[i];
+            double longitude2 = circuit.longitudes[i];
+            int count = gates.cross(latitude1, longitude1, latitude2, longitude2);
+            for (int k = 0; k < count; k++) {
+                found[gates.getCrossingGate(k)] = true;
+            }
+            crossings += count;
+            for (int g = 0; g < gates.size(); g++) {
+                assertEquals("gate " + g + " at fix " + i, search.crosses(g, latitude1, longitude1, latitude2,
+                        longitude2), found[g]);
+                found[g] = false;
+            }
+        }
+        assertTrue(crossings > 0);
+    }
+
+    @Test
+    public void testsPerFixStayFlatWithManyGates() {
+        double few = testsPerFix(3);
+        double many = testsPerFix(30000);
+        assertTrue(many + " tests per fix with 30000 gates, " + few + " with 3", many <= few + 1.0);
+    }
+
+    private static double testsPerFix(int count) {
+        GateIndex gates = new GateIndex();
+        Circuit.addGates(gates);
+        Circuit.addRandomGates(gates, count - gates.size(), 50000.0, count);
+        LapTimer timer = new LapTimer(gates);
+        Circuit circuit = new Circuit(50, 1.0, Circuit.NOISE, 9L);
+        Fix fix = new Fix();
+        for (int i = 0; i < circuit.size; i++) {
+            timer.update(circuit.fix(i, fix));
+        }
+        return (double) gates.getTests() / circuit.size;
+    }
+}
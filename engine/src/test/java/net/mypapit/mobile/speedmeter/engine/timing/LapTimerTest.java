@@ -0,0 +1,115 @@
+package net.mypapit.mobile.speedmeter.engine.timing;
+
+import net.mypapit.mobile.speedmeter.engine.DecimalText;
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.FixPipeline;
+import net.mypapit.mobile.speedmeter.engine.SamplingScheduler;
+import net.mypapit.mobile.speedmeter.engine.SpeedEngine;
+import net.mypapit.mobile.speedmeter.engine.replay.ReplayEngine;
+import net.mypapit.mobile.speedmeter.engine.replay.TraceSource;
+import net.mypapit.mobile.speedmeter.engine.replay.TraceSources;
+import net.mypapit.mobile.speedmeter.engine.track.TrackWriter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LapTimerTest {
+
+    private static final int LAPS = 30;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void interpolatesWithoutPositionError() {
+        Errors errors = run(1.0, 0.0);
+        assertTrue(errors.maxInterpolatedMillis + " ms", errors.maxInterpolatedMillis < 5.0);
+    }
+
+    @Test
+    public void interpolatesWithinThePositionErrorAt1Hz() {
+        // the position error, 1.5 m at 25 to 55 m/s, bounds what interpolation can do
+        Errors errors = run(1.0, Circuit.NOISE);
+        assertTrue(errors.meanInterpolatedMillis + " ms", errors.meanInterpolatedMillis < 60.0);
+        assertTrue(errors.meanInterpolatedMillis * 5 < errors.meanDetectedMillis);
+    }
+
+    @Test
+    public void interpolatesCloserThanTheFixTimeAt5And10Hz() {
+        for (double rate : new double[] {5.0, 10.0}) {
+            Errors errors = run(rate, Circuit.NOISE);
+            assertTrue(rate + " Hz", errors.meanInterpolatedMillis < errors.meanDetectedMillis);
+        }
+    }
+
+    @Test
+    public void replayedTrackTimesTheSameLaps() throws IOException, InterruptedException {
+        Circuit circuit = new Circuit(10, 1.0, Circuit.NOISE, 6L);
+        GateIndex gates = new GateIndex();
+        Circuit.addGates(gates);
+        LapTimer direct = new LapTimer(gates);
+        File file = folder.newFile("laps.trk");
+        Fix fix = new Fix();
+        try (TrackWriter writer = TrackWriter.open(file, 1500000000000L)) {
+            for (int i = 0; i < circuit.size; i++) {
+                circuit.fix(i, fix);
+                direct.update(fix);
+                writer.append(fix);
+            }
+        }
+        SpeedEngine engine = new SpeedEngine(new DecimalText('.', ','));
+        engine.setGates(gates);
+        try (TraceSource source = TraceSources.open(file)) {
+            new ReplayEngine(source, new FixPipeline(engine, new SamplingScheduler()),
+                    ReplayEngine.AS_FAST_AS_POSSIBLE, 1.0).run();
+        }
+        LapTimer replayed = engine.getLapTimer();
+        assertEquals(10, direct.getLaps());
+        assertEquals(10, replayed.getLaps());
+        assertEquals(direct.getBestLapNanos(), replayed.getBestLapNanos(), 1000000L);
+        assertTrue(engine.snapshot().bestLapText.toString().startsWith("BEST 0:"));
+    }
+
+    /**
+     * Times laps of the circuit, checking that every crossing is found once.
+     */
+    private static Errors run(double rate, double noise) {
+        Circuit circuit = new Circuit(LAPS, rate, noise, 5L);
+        GateIndex gates = new GateIndex();
+        Circuit.addGates(gates);
+        LapTimer timer = new LapTimer(gates);
+        Fix fix = new Fix();
+        Errors errors = new Errors();
+        int crossing = 0;
+        for (int i = 0; i < circuit.size; i++) {
+            int event = timer.update(circuit.fix(i, fix));
+            if (event != 0) {
+                String name = rate + " Hz, crossing " + crossing;
+                assertTrue(name + " too many", crossing < circuit.crossings);
+                assertEquals(name, circuit.crossingGates[crossing] == 0, event != LapTimer.SPLIT);
+                long interpolated = Math.abs(timer.getLastCrossingNanos() - circuit.crossingNanos[crossing]);
+                errors.meanInterpolatedMillis += interpolated / 1e6;
+                errors.maxInterpolatedMillis = Math.max(errors.maxInterpolatedMillis, interpolated / 1e6);
+                errors.meanDetectedMillis += Math.abs(fix.elapsedNanos - circuit.crossingNanos[crossing]) / 1e6;
+                crossing++;
+            }
+        }
+        assertEquals(circuit.crossings, crossing);
+        assertEquals(LAPS, timer.getLaps());
+        errors.meanInterpolatedMillis /= crossing;
+        errors.meanDetectedMillis /= crossing;
+        return errors;
+    }
+
+    private static final class Errors {
+        double meanInterpolatedMillis;
+        double maxInterpolatedMillis;
+        double meanDetectedMillis;
+    }
+}
@@ -0,0 +1,152 @@
+package net.mypapit.mobile.speedmeter.engine.timing;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.FixBatch;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+
+import static net.mypapit.mobile.speedmeter.engine.timing.LaunchRuns.DISTANCES;
+import static net.mypapit.mobile.speedmeter.engine.timing.LaunchRuns.SECOND;
+import static net.mypapit.mobile.speedmeter.engine.timing.LaunchRuns.SPEEDS;
+import static net.mypapit.mobile.speedmeter.engine.timing.LaunchRuns.STANDING_SECONDS;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PerformanceTimerTest {
+
+    private static final double[] RATES = {1.0, 5.0, 10.0, 25.0};
+    private static final int RUNS = 200;
+
+    @Test
+    public void sixtyMilesAnHour() {
+        assertEquals(26.8224, SPEEDS[1], 0.001);
+    }
+
+    @Test
+    public void timesConstantAccelerationExactly() {
+        for (double rate : RATES) {
+            double max = LaunchRuns.measure(new LaunchRuns.ConstantAcceleration(4.0), rate, 0.0, RUNS)
+                    .interpolatedTime(1.0);
+            assertTrue(rate + " Hz: " + max + " ms", max < 1.0);
+        }
+    }
+
+    @Test
+    public void timesACarWithin20Milliseconds() {
+        for (double rate : new double[] {5.0, 10.0, 25.0}) {
+            double max = LaunchRuns.measure(new LaunchRuns.FallingAcceleration(7.0, 75.0), rate, 0.0, RUNS)
+                    .interpolatedTime(1.0);
+            assertTrue(rate + " Hz: " + max + " ms", max < 20.0);
+        }
+    }
+
+    @Test
+    public void timesANoisyCarWithin40MillisecondsMostly() {
+        for (double rate : new double[] {10.0, 25.0}) {
+            double p95 = LaunchRuns.measure(new LaunchRuns.FallingAcceleration(7.0, 75.0), rate,
+                    LaunchRuns.SPEED_NOISE, RUNS).interpolatedTime(0.95);
+            assertTrue(rate + " Hz: " + p95 + " ms", p95 < 40.0);
+        }
+    }
+
+    @Test
+    public void rollBeforeTheLaunchFinishesTheRun() {
+        LaunchRuns.Profile profile = new LaunchRuns.ConstantAcceleration(4.0);
+        FixBatch fixes = new FixBatch(1024);
+        LaunchRuns.generate(profile, 10.0, STANDING_SECONDS, 0.0, null, fixes);
+        // released brakes: rolling at 0.7 m/s for the last half second before the launch
+        for (int i = 0; i < fixes.size(); i++) {
+            Fix fix = fixes.get(i);
+            if (fix.speed == 0 && fix.elapsedNanos >= (long) ((STANDING_SECONDS - 0.5) * SECOND)) {
+                fix.speed = 0.7f;
+            }
+        }
+        PerformanceTimer timer = LaunchRuns.newTimer();
+        timer.arm();
+        int events = 0;
+        for (int i = 0; i < fixes.size(); i++) {
+            events |= timer.update(fixes.get(i));
+        }
+        assertNotEquals(0, events & PerformanceTimer.FINISHED);
+        assertEquals(1, timer.getRuns());
+        assertEquals(profile.timeToSpeed(SPEEDS[0]), timer.getSpeedNanos(0) / 1e9, 0.1);
+    }
+
+    @Test
+    public void liftBeforeTheTargetsAbortsTheRun() {
+        FixBatch fixes = lifted();
+        PerformanceTimer timer = LaunchRuns.newTimer();
+        timer.arm();
+        int events = 0;
+        for (int i = 0; i < fixes.size(); i++) {
+            events |= timer.update(fixes.get(i));
+        }
+        assertNotEquals(0, events & PerformanceTimer.ABORTED);
+        assertEquals(0, events & PerformanceTimer.FINISHED);
+        assertNotEquals(PerformanceTimer.RUNNING, timer.getState());
+        assertEquals(1, timer.getRuns());
+        assertEquals(PerformanceTimer.NONE, timer.getSpeedNanos(0));
+        assertEquals(PerformanceTimer.NONE, timer.getDistanceNanos(1));
+    }
+
+    @Test
+    public void armedWhileMovingIsNoRun() {
+        FixBatch fixes = lifted();
+        PerformanceTimer timer = LaunchRuns.newTimer();
+        timer.arm();
+        for (int i = 0; i < fixes.size(); i++) {
+            Fix fix = fixes.get(i);
+            if (fix.speed > 10.0f) {
+                timer.update(fix);
+            }
+        }
+        assertEquals(0, timer.getRuns());
+        assertEquals(PerformanceTimer.NONE, timer.getStartNanos());
+    }
+
+    @Test
+    public void storedRunTimesTheSameWhenReadBack() throws IOException {
+        PerformanceTimer timer = LaunchRuns.newTimer();
+        FixBatch fixes = new FixBatch(1024);
+        LaunchRuns.generate(new LaunchRuns.FallingAcceleration(7.0, 75.0), 10.0, STANDING_SECONDS + 0.037,
+                LaunchRuns.SPEED_NOISE, new Random(5L), fixes);
+        timer.arm();
+        for (int i = 0; i < fixes.size(); i++) {
+            timer.update(fixes.get(i));
+        }
+        StringBuilder text = new StringBuilder();
+        RunFile.write(text, timer);
+        FixBatch read = new FixBatch(16);
+        assertEquals(timer.getFixes().size(),
+                RunFile.readFixes(new BufferedReader(new StringReader(text.toString())), read));
+        PerformanceTimer again = LaunchRuns.newTimer();
+        again.time(read);
+        assertEquals(1, again.getRuns());
+        for (int i = 0; i < SPEEDS.length; i++) {
+            assertEquals(timer.getSpeedNanos(i), again.getSpeedNanos(i), 1000L);
+        }
+        for (int i = 0; i < DISTANCES.length; i++) {
+            assertEquals(timer.getDistanceNanos(i), again.getDistanceNanos(i), 1000L);
+        }
+    }
+
+    /**
+     * @return a run at constant acceleration, lifting at 90 km/h before the speed targets
+     */
+    private static FixBatch lifted() {
+        FixBatch fixes = new FixBatch(1024);
+        LaunchRuns.generate(new LaunchRuns.ConstantAcceleration(4.0), 10.0, STANDING_SECONDS, 0.0, null, fixes);
+        for (int i = 0; i < fixes.size(); i++) {
+            Fix fix = fixes.get(i);
+            if (fix.speed > 25.0f) {
+                fix.speed = Math.max(0.0f, 50.0f - fix.speed);
+            }
+        }
+        return fixes;
+    }
+}
@@ -0,0 +1,95 @@
+package net.mypapit.mobile.speedmeter.engine.zone;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ZoneIndexTest {
+
+    private static final int BLOCKS = 100;
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static ZoneGrid grid;
+    private static File file;
+
+    @BeforeClass
+    public static void build() throws IOException {
+        grid = new ZoneGrid(BLOCKS);
+        file = folder.newFile("zones.spz");
+        grid.build().write(file);
+    }
+
+    @Test
+    public void nearestAgreesWithAFullSearch() throws IOException {
+        try (ZoneIndex index = ZoneIndex.open(file)) {
+            assertEquals(2 * BLOCKS * (BLOCKS + 1), index.size());
+            double[] positions = grid.randomPositions(1L, 2000);
+            for (int i = 0; i < positions.length; i += 2) {
+                double latitude = positions[i];
+                double longitude = positions[i + 1];
+                double nearest = Double.MAX_VALUE;
+                for (int s = 0; s < index.size(); s++) {
+                    nearest = Math.min(nearest, index.distance(s, latitude, longitude));
+                }
+                int found = index.nearest(latitude, longitude, SpeedLimitMonitor.MATCH_DISTANCE);
+                if (nearest <= SpeedLimitMonitor.MATCH_DISTANCE) {
+                    assertTrue("no segment found at " + latitude + "," + longitude, found >= 0);
+                    assertEquals(nearest, index.distance(found, latitude, longitude), 0.0);
+                } else {
+                    assertEquals(-1, found);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void driveAlongTheStreetsStaysMatched() throws IOException {
+        try (ZoneIndex index = ZoneIndex.open(file)) {
+            SpeedLimitMonitor monitor = new SpeedLimitMonitor(index);
+            double[] positions = grid.drivePositions(3L, 20000);
+            Fix fix = new Fix();
+            for (int i = 0; i < positions.length / 2; i++) {
+                fix.set(i * 1000000000L, i * 1000L, positions[2 * i], positions[2 * i + 1], 15.0f, Float.NaN, 5.0f);
+                monitor.update(fix, 15.0f);
+                assertTrue("unmatched at fix " + i, !Float.isNaN(monitor.getLimit()));
+            }
+        }
+    }
+
+    @Test
+    public void emptyFileFindsNothing() throws IOException {
+        File empty = folder.newFile("empty.spz");
+        new ZoneBuilder().write(empty);
+        try (ZoneIndex index = ZoneIndex.open(empty)) {
+            assertEquals(0, index.size());
+            assertEquals(-1, index.nearest(ZoneGrid.ORIGIN_LATITUDE, ZoneGrid.ORIGIN_LONGITUDE, 1e6));
+        }
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        File truncated = folder.newFile("truncated.spz");
+        grid.build().write(truncated);
+        try (RandomAccessFile raf = new RandomAccessFile(truncated, "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+        try {
+            ZoneIndex.open(truncated).close();
+            fail("opened although truncated");
+        } catch (IOException expected) {
+            // rejected
+        }
+    }
+}
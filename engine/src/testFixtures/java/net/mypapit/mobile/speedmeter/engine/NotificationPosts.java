@@ -0,0 +1,126 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+/**
+ * Counts the notification posts an hour's drive causes, with the receiver stalling for 2 s
+ * every 30 s and then delivering the held fixes in one burst. Posts go out for every snapshot,
+ * when the shown speed, max speed or distance changes, or for those changes through an
+ * {@link UpdateThrottle}, with the held back post run by a simulated handler, as the app's
+ * notification does.
+ */
+public final class NotificationPosts {
+
+    public static final long SECOND = 1000000000L;
+    private static final long DURATION_NANOS = 3600 * SECOND;
+    private static final long STALL_EVERY_NANOS = 30 * SECOND;
+    private static final long STALL_NANOS = 2 * SECOND;
+    private static final int TEXT_CAPACITY = DecimalText.MAX_LENGTH + 8;
+
+    private NotificationPosts() {
+    }
+
+    /**
+     * Drives an hour.
+     *
+     * @param onChange  post only when a text changed, rather than every snapshot
+     * @param perSecond limit of an {@link UpdateThrottle} to post changes through, 0 for none
+     */
+    public static Result run(double rateHz, boolean onChange, int perSecond) {
+        SpeedEngine engine = new SpeedEngine(DecimalText.getInstance());
+        SyntheticTrace trace = new SyntheticTrace(rateHz, 5L);
+        Fix fix = new Fix();
+        UpdateThrottle throttle = perSecond > 0 ? new UpdateThrottle(perSecond) : null;
+        TextSlot speed = new TextSlot(TEXT_CAPACITY);
+        TextSlot maxSpeed = new TextSlot(TEXT_CAPACITY);
+        TextSlot distance = new TextSlot(TEXT_CAPACITY);
+        String lastTexts = "";
+        String postedTexts = "";
+        // post times within the last minute, oldest first
+        long[] window = new long[(int) (rateHz * 60) * 2 + 2];
+        int windowStart = 0;
+        int windowEnd = 0;
+        long posts = 0;
+        int maxPerMinute = 0;
+        long maxWait = 0;
+        // when the held back post is due, and since when a change waits for it
+        long dueNanos = Long.MAX_VALUE;
+        long waitingSinceNanos = Long.MAX_VALUE;
+
+        for (long t = 0; t <= DURATION_NANOS; t += trace.getIntervalNanos()) {
+            long phase = t % STALL_EVERY_NANOS;
+            long arrival = phase < STALL_NANOS ? t - phase + STALL_NANOS : t;
+            Snapshot snapshot = engine.process(trace.next(fix));
+            for (int pass = 0; pass < 2; pass++) {
+                // the simulated handler runs the held back post before the next delivery
+                long now = pass == 0 ? Math.min(dueNanos, arrival) : arrival;
+                boolean post;
+                if (pass == 0) {
+                    if (dueNanos > arrival) {
+                        continue;
+                    }
+                    dueNanos = Long.MAX_VALUE;
+                    post = throttle.due(now);
+                } else {
+                    speed.copyFrom(snapshot.speedText);
+                    maxSpeed.copyFrom(snapshot.maxSpeedText);
+                    distance.copyFrom(snapshot.distanceText);
+                    boolean changed = speed.isChanged() || maxSpeed.isChanged() || distance.isChanged();
+                    speed.clearChanged();
+                    maxSpeed.clearChanged();
+                    distance.clearChanged();
+                    if (changed) {
+                        lastTexts = speed + "|" + maxSpeed + "|" + distance;
+                    }
+                    if (!onChange) {
+                        post = true;
+                    } else if (!changed) {
+                        post = false;
+                    } else if (throttle == null) {
+                        post = true;
+                    } else {
+                        long wait = throttle.changed(now);
+                        post = wait == 0;
+                        if (wait > 0) {
+                            dueNanos = now + wait;
+                        }
+                        if (!post && waitingSinceNanos == Long.MAX_VALUE) {
+                            waitingSinceNanos = now;
+                        }
+                    }
+                }
+                if (post) {
+                    posts++;
+                    postedTexts = lastTexts;
+                    if (waitingSinceNanos != Long.MAX_VALUE) {
+                        maxWait = Math.max(maxWait, now - waitingSinceNanos);
+                        waitingSinceNanos = Long.MAX_VALUE;
+                    }
+                    window[windowEnd++ % window.length] = now;
+                    while (window[windowStart % window.length] <= now - 60 * SECOND) {
+                        windowStart++;
+                    }
+                    maxPerMinute = Math.max(maxPerMinute, windowEnd - windowStart);
+                }
+            }
+        }
+        if (dueNanos != Long.MAX_VALUE && throttle.due(dueNanos)) {
+            posts++;
+            postedTexts = lastTexts;
+        }
+        Result result = new Result();
+        result.postsPerMinute = posts * 60.0 * SECOND / DURATION_NANOS;
+        result.maxPerMinute = maxPerMinute;
+        result.maxWaitNanos = maxWait;
+        result.lastPosted = postedTexts.equals(lastTexts);
+        return result;
+    }
+
+    public static final class Result {
+        public double postsPerMinute;
+        /** Most posts within any 60 s */
+        public int maxPerMinute;
+        /** Longest a change waited to be posted */
+        public long maxWaitNanos;
+        /** Whether the last texts were posted last */
+        public boolean lastPosted;
+    }
+}
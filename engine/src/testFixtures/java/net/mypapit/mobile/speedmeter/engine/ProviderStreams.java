@@ -0,0 +1,206 @@
+package net.mypapit.mobile.speedmeter.engine;
+
+import net.mypapit.mobile.speedmeter.engine.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Simulated location provider streams, and three ways of choosing fixes from them: the
+ * receiver alone, every fix from every provider as it comes, and the {@link ProviderArbiter}.
+ * Streams:
+ * <ul>
+ * <li>a cold start, where the receiver takes 32 s to its first fix, network fixes come every
+ * 5 s from 1.5 s on, and a cached fix five minutes old comes first;</li>
+ * <li>a drive through an urban canyon, where the receiver's accuracy degrades to 40-80 m for a
+ * minute and it loses the fix for 15 s of that, while a fused provider keeps coming at
+ * 8-12 m;</li>
+ * <li>two providers of the same accuracy, each fix seen again through the passive provider.</li>
+ * </ul>
+ */
+public final class ProviderStreams {
+
+    public static final long SECOND = 1000000000L;
+    private static final long STEP_NANOS = 100000000L;
+    /** Network fixes every 5 s, a second old on arrival, keep the display this fresh */
+    private static final long FRESH_NANOS = 6 * SECOND;
+
+    public static final int RECEIVER_ONLY = 0;
+    public static final int EVERY_FIX = 1;
+    public static final int ARBITER = 2;
+    public static final String[] STRATEGIES = {"receiver only", "every fix", "arbiter"};
+
+    private ProviderStreams() {
+    }
+
+    /**
+     * Shows the fixes one strategy takes from a stream, sampling the display every 100 ms.
+     */
+    public static Result run(List<Event> stream, int strategy) {
+        List<Event> events = new ArrayList<>(stream);
+        Collections.sort(events, (a, b) -> Long.compare(a.arrivalNanos, b.arrivalNanos));
+        long end = events.get(events.size() - 1).arrivalNanos + SECOND;
+        Metrics metrics = new Metrics();
+        ProviderArbiter arbiter = new ProviderArbiter(metrics);
+        arbiter.setSchedule(SECOND, 0L);
+        arbiter.start(0L);
+        Result result = new Result();
+        Fix shown = null;
+        long lastTaken = Long.MIN_VALUE;
+        int next = 0;
+        long fresh = 0;
+        double accuracySum = 0.0;
+        long speedSteps = 0;
+        for (long t = 0; t <= end; t += STEP_NANOS) {
+            while (next < events.size() && events.get(next).arrivalNanos <= t) {
+                Event event = events.get(next++);
+                boolean take;
+                if (strategy == RECEIVER_ONLY) {
+                    take = event.source == ProviderArbiter.GPS && !event.copy && event.fix.elapsedNanos > lastTaken;
+                } else if (strategy == EVERY_FIX) {
+                    take = event.fix.elapsedNanos > lastTaken;
+                } else {
+                    take = arbiter.offer(event.source, event.fix, event.arrivalNanos);
+                }
+                if (take) {
+                    if (event.fix.elapsedNanos <= lastTaken) {
+                        result.repeats++;
+                    }
+                    if (shown == null) {
+                        result.firstNanos = event.arrivalNanos;
+                    } else if (event.source != result.lastSource) {
+                        result.switches++;
+                    }
+                    shown = event.fix;
+                    lastTaken = event.fix.elapsedNanos;
+                    result.lastSource = event.source;
+                    result.fixes++;
+                }
+            }
+            if (shown == null || t - shown.elapsedNanos > FRESH_NANOS) {
+                if (shown != null) {
+                    result.blindNanos += STEP_NANOS;
+                }
+            } else {
+                fresh++;
+                accuracySum += shown.accuracy;
+                if (shown.hasSpeed) {
+                    speedSteps++;
+                }
+            }
+        }
+        if (shown == null) {
+            result.firstNanos = Long.MAX_VALUE;
+        }
+        result.meanAccuracy = accuracySum / fresh;
+        result.speedShare = (double) speedSteps / fresh;
+        result.stale = metrics.counter(ProviderArbiter.STALE).get();
+        result.ttffCount = metrics.histogram(ProviderArbiter.TTFF).getCount();
+        return result;
+    }
+
+    /**
+     * Receiver from 32 s at 1 Hz and 5 m; network every 5 s from 1.5 s at 30 m without a speed,
+     * its fixes a second old on arrival; a cached fix first.
+     */
+    public static List<Event> coldStart() {
+        List<Event> events = new ArrayList<>();
+        events.add(new Event(ProviderArbiter.NETWORK, 200000000L, -300 * SECOND, 50.0f, false));
+        for (long t = 32 * SECOND; t <= 120 * SECOND; t += SECOND) {
+            events.add(new Event(ProviderArbiter.GPS, t + 100000000L, t, 5.0f, true));
+        }
+        for (long t = 500000000L; t <= 120 * SECOND; t += 5 * SECOND) {
+            events.add(new Event(ProviderArbiter.NETWORK, t + SECOND, t, 30.0f, false));
+        }
+        return events;
+    }
+
+    /**
+     * Five minutes at 1 Hz: the receiver at 3-5 m, but 40-80 m from 100 s to 160 s and without
+     * a fix from 120 s to 135 s; fused at 8-12 m with a speed; network every 5 s at 25 m.
+     */
+    public static List<Event> canyon() {
+        Random random = new Random(21L);
+        List<Event> events = new ArrayList<>();
+        for (long t = 0; t <= 300 * SECOND; t += SECOND) {
+            boolean inCanyon = t >= 100 * SECOND && t < 160 * SECOND;
+            boolean lost = t >= 120 * SECOND && t < 135 * SECOND;
+            if (!lost) {
+                float accuracy = inCanyon ? 40.0f + 40.0f * random.nextFloat() : 3.0f + 2.0f * random.nextFloat();
+                events.add(new Event(ProviderArbiter.GPS, t + 100000000L, t, accuracy, true));
+            }
+            long fusedNanos = t + 500000000L;
+            events.add(new Event(ProviderArbiter.FUSED, fusedNanos + 200000000L, fusedNanos,
+                    8.0f + 4.0f * random.nextFloat(), true));
+            if (t % (5 * SECOND) == 0) {
+                events.add(new Event(ProviderArbiter.NETWORK, t + 1400000000L, t + 1200000000L, 25.0f, false));
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Ten minutes of receiver and fused fixes alike at 5 +/- 2 m, each fix also delivered
+     * through the passive provider 50 ms later.
+     */
+    public static List<Event> flapping() {
+        Random random = new Random(22L);
+        List<Event> events = new ArrayList<>();
+        for (long t = 0; t <= 600 * SECOND; t += SECOND) {
+            for (int source = ProviderArbiter.GPS; source <= ProviderArbiter.FUSED; source++) {
+                long fixNanos = t + source * 500000000L;
+                float accuracy = 5.0f + 2.0f * (float) random.nextGaussian();
+                Event event = new Event(source, fixNanos + 100000000L, fixNanos, Math.max(1.0f, accuracy), true);
+                events.add(event);
+                events.add(event.copy(50000000L));
+            }
+        }
+        return events;
+    }
+
+    /**
+     * A fix as a provider delivers it.
+     */
+    public static final class Event {
+        final int source;
+        final long arrivalNanos;
+        final Fix fix;
+        /** Seen again through the passive provider */
+        boolean copy;
+
+        Event(int source, long arrivalNanos, long fixNanos, float accuracy, boolean hasSpeed) {
+            this.source = source;
+            this.arrivalNanos = arrivalNanos;
+            fix = new Fix().set(fixNanos, 1500000000000L + fixNanos / 1000000L, 3.14, 101.69,
+                    hasSpeed ? 12.0f : Float.NaN, Float.NaN, accuracy);
+        }
+
+        Event copy(long delayNanos) {
+            Event copy = new Event(source, arrivalNanos + delayNanos, fix.elapsedNanos, fix.accuracy, fix.hasSpeed);
+            copy.copy = true;
+            return copy;
+        }
+    }
+
+    /**
+     * What the display showed.
+     */
+    public static final class Result {
+        /** Arrival of the first fix shown, Long.MAX_VALUE if none */
+        public long firstNanos;
+        /** Time after the first fix without one younger than 6 s */
+        public long blindNanos;
+        /** Fraction of the fresh time with a speed */
+        public double speedShare;
+        public double meanAccuracy;
+        public int switches;
+        public int fixes;
+        /** Fixes taken that were not newer than the last */
+        public int repeats;
+        public int lastSource = -1;
+        public long stale;
+        public long ttffCount;
+    }
+}
@@ -0,0 +1,181 @@
+package net.mypapit.mobile.speedmeter.engine.history;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs the app's trip history schema and statements, {@link TripTable}, over JDBC, as the app
+ * runs them on SQLite, with synthetic trips to fill it.
+ */
+public final class TripDatabase {
+
+    private TripDatabase() {
+    }
+
+    /**
+     * Sets a database up as the app opens it: write-ahead logging, whose default sync level is
+     * NORMAL, with the table and its index, and without auto-commit.
+     */
+    public static void create(Connection db) throws SQLException {
+        try (Statement statement = db.createStatement()) {
+            statement.execute("PRAGMA journal_mode=WAL");
+            statement.execute("PRAGMA synchronous=NORMAL");
+            statement.execute(TripTable.CREATE);
+            statement.execute(TripTable.CREATE_DISTANCE_INDEX);
+        }
+        db.setAutoCommit(false);
+    }
+
+    /**
+     * @param routes polylines to give the trips in turn
+     * @return trips half an hour to a day apart, of whole hundreds of meters so that distances
+     *         tie and the start time has to order them
+     */
+    public static TripSummary[] trips(int count, List<String> routes, long seed) {
+        Random random = new Random(seed);
+        TripSummary[] trips = new TripSummary[count];
+        long time = 1400000000000L;
+        for (int i = 0; i < count; i++) {
+            TripSummary trip = new TripSummary();
+            time += 1800000L + (long) (random.nextDouble() * 86400000L);
+            trip.startTime = time;
+            trip.movingMillis = 60000L + (long) (random.nextDouble() * 7200000L);
+            trip.stoppedMillis = (long) (random.nextDouble() * 600000L);
+            trip.endTime = time + trip.movingMillis + trip.stoppedMillis;
+            trip.distance = 100.0 * Math.round(trip.movingMillis / 1000.0 * (5.0 + random.nextDouble() * 25.0) / 100.0);
+            trip.averageSpeed = (float) (trip.distance / (trip.movingMillis / 1000.0));
+            trip.maxSpeed = trip.averageSpeed * 1.5f;
+            trip.p95Speed = trip.averageSpeed * 1.3f;
+            trip.minLatitude = 3.0;
+            trip.minLongitude = 101.0;
+            trip.maxLatitude = 3.1;
+            trip.maxLongitude = 101.1;
+            trip.polyline = routes.get(i % routes.size());
+            trip.points = trip.polyline.length() / 5;
+            trips[i] = trip;
+        }
+        return trips;
+    }
+
+    /**
+     * Binds a trip to {@link TripTable#UPSERT}.
+     */
+    public static void bind(PreparedStatement upsert, TripSummary trip) throws SQLException {
+        upsert.setLong(1, trip.startTime);
+        upsert.setLong(2, trip.endTime);
+        upsert.setDouble(3, trip.distance);
+        upsert.setLong(4, trip.movingMillis);
+        upsert.setLong(5, trip.stoppedMillis);
+        upsert.setDouble(6, trip.maxSpeed);
+        upsert.setDouble(7, trip.averageSpeed);
+        bindOptional(upsert, 8, trip.p95Speed);
+        bindOptional(upsert, 9, trip.minLatitude);
+        bindOptional(upsert, 10, trip.minLongitude);
+        bindOptional(upsert, 11, trip.maxLatitude);
+        bindOptional(upsert, 12, trip.maxLongitude);
+        upsert.setInt(13, trip.points);
+        upsert.setString(14, trip.polyline);
+    }
+
+    private static void bindOptional(PreparedStatement statement, int index, double value) throws SQLException {
+        if (Double.isNaN(value)) {
+            statement.setNull(index, Types.REAL);
+        } else {
+            statement.setDouble(index, value);
+        }
+    }
+
+    public static int count(Connection db) throws SQLException {
+        try (Statement statement = db.createStatement();
+             ResultSet rows = statement.executeQuery("SELECT COUNT(*) FROM " + TripTable.TABLE)) {
+            rows.next();
+            return rows.getInt(1);
+        }
+    }
+
+    /**
+     * @return the query plan of a statement, a line per step
+     */
+    public static String plan(Connection db, String query, int arguments) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (PreparedStatement statement = db.prepareStatement("EXPLAIN QUERY PLAN " + query)) {
+            for (int i = 1; i <= arguments; i++) {
+                statement.setLong(i, 1000L);
+            }
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    plan.append(rows.getString(rows.getMetaData().getColumnCount())).append('\n');
+                }
+            }
+        }
+        return plan.toString();
+    }
+
+    /**
+     * Reads a page as the history screen does, from the last trip of the one before.
+     *
+     * @param page       {@link TripTable#PAGE_BY_DISTANCE} or {@link TripTable#PAGE_BY_TIME}
+     * @param after      last trip of the previous page, null for the first page
+     * @param startTimes receives the start times of the trips read
+     * @param last       receives the last trip read
+     * @return number of trips read
+     */
+    public static int readPage(PreparedStatement page, boolean byDistance, TripSummary after, int size,
+                               long[] startTimes, int offset, TripSummary last) throws SQLException {
+        if (byDistance) {
+            double distance = after != null ? after.distance : Double.MAX_VALUE;
+            page.setDouble(1, distance);
+            page.setDouble(2, distance);
+            page.setLong(3, after != null ? after.startTime : Long.MAX_VALUE);
+            page.setInt(4, size);
+        } else {
+            page.setLong(1, after != null ? after.startTime : Long.MAX_VALUE);
+            page.setInt(2, size);
+        }
+        int read = 0;
+        try (ResultSet rows = page.executeQuery()) {
+            TripTable.Row columns = new ResultSetRow(rows);
+            while (rows.next()) {
+                TripTable.readTotals(columns, 1, last);
+                if (offset + read < startTimes.length) {
+                    startTimes[offset + read] = last.startTime;
+                }
+                read++;
+            }
+        }
+        return read;
+    }
+
+    private static final class ResultSetRow implements TripTable.Row {
+        private final ResultSet rows;
+
+        ResultSetRow(ResultSet rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        public long getLong(int column) {
+            try {
+                return rows.getLong(column);
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public double getDouble(int column) {
+            try {
+                double value = rows.getDouble(column);
+                return rows.wasNull() ? Double.NaN : value;
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package net.mypapit.mobile.speedmeter.engine.telemetry;
+
+import net.mypapit.mobile.speedmeter.engine.Snapshot;
+import net.mypapit.mobile.speedmeter.engine.metrics.LatencyHistogram;
+import net.mypapit.mobile.speedmeter.engine.metrics.Metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedSelectorException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a {@link TelemetryPublisher} on the loopback interface with a TCP and a UDP
+ * {@link TelemetryClient}, and a third TCP client with a small receive buffer that reads
+ * nothing until publishing ends. The speed of each snapshot published carries its sequence
+ * number, for the readers to check.
+ */
+public final class LoopbackRun {
+
+    private static final int STALLED_RECEIVE_BUFFER_BYTES = 4096;
+
+    public Reader tcp;
+    public Reader udp;
+    public Reader stalled;
+    /** Wall and CPU time of each publish */
+    public final LatencyHistogram publishCost = new LatencyHistogram();
+    public final LatencyHistogram publishCpu = new LatencyHistogram();
+    public long elapsedNanos;
+    public long published;
+    /** Frames the ring dropped, and frames dropped for slow clients */
+    public long dropped;
+    public long lagging;
+
+    private LoopbackRun() {
+    }
+
+    /**
+     * @param intervalNanos between publishes, 0 to publish as fast as one thread can
+     */
+    public static LoopbackRun run(long intervalNanos, long durationNanos) throws IOException, InterruptedException {
+        Metrics metrics = new Metrics();
+        TelemetryPublisher publisher = new TelemetryPublisher(metrics);
+        publisher.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), publisher.getLocalPort());
+        LoopbackRun result = new LoopbackRun();
+        result.tcp = new Reader(TelemetryClient.tcp(address), false);
+        result.udp = new Reader(TelemetryClient.udp(address), true);
+        result.stalled = new Reader(TelemetryClient.tcp(address, STALLED_RECEIVE_BUFFER_BYTES), false);
+        while (metrics.counter(TelemetryPublisher.SUBSCRIBED).get() < 3) {
+            Thread.sleep(10);
+        }
+        result.tcp.start();
+        result.udp.start();
+
+        Snapshot snapshot = new Snapshot();
+        snapshot.bearing = 90.0f;
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long start = System.nanoTime();
+        long next = start;
+        long published = 0;
+        long now;
+        while ((now = System.nanoTime()) - start < durationNanos) {
+            if (intervalNanos > 0) {
+                if (now < next) {
+                    LockSupport.parkNanos(next - now);
+                    continue;
+                }
+                next += intervalNanos;
+            }
+            snapshot.speed = published++ % 65536;
+            snapshot.elapsedNanos = now;
+            long before = System.nanoTime();
+            long beforeCpu = threads.getCurrentThreadCpuTime();
+            publisher.publish(snapshot, before);
+            result.publishCpu.record(threads.getCurrentThreadCpuTime() - beforeCpu);
+            result.publishCost.record(System.nanoTime() - before);
+        }
+        result.elapsedNanos = System.nanoTime() - start;
+        // let the I/O thread hand out what is left before the stalled client starts reading
+        Thread.sleep(200);
+        result.stalled.start();
+        Thread.sleep(500);
+        publisher.close();
+        result.tcp.join(5000);
+        result.stalled.join(5000);
+        result.udp.client.close();
+        result.udp.join(5000);
+
+        result.dropped = metrics.counter(TelemetryPublisher.DROPPED).get();
+        result.published = metrics.counter(TelemetryPublisher.PUBLISHED).get();
+        result.lagging = metrics.counter(TelemetryPublisher.LAGGING).get();
+        return result;
+    }
+
+    /**
+     * Reads frames on its own thread until the connection ends, checking their sequence and
+     * contents and timing each from its publish.
+     */
+    public static final class Reader extends Thread {
+        final TelemetryClient client;
+        private final boolean udp;
+        public final LatencyHistogram latency = new LatencyHistogram();
+        public volatile long count;
+        /** Frames skipped in the sequence */
+        public volatile long lost;
+        /** Whether every frame read decoded to what was published, in order */
+        public volatile boolean intact = true;
+        public volatile Exception error;
+
+        Reader(TelemetryClient client, boolean udp) {
+            this.client = client;
+            this.udp = udp;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            TelemetryFrame frame = new TelemetryFrame();
+            long expected = -1;
+            try {
+                while (client.read(frame)) {
+                    latency.record(System.nanoTime() - frame.publishNanos);
+                    if (expected >= 0 && frame.sequence != expected) {
+                        intact &= frame.sequence > expected;
+                        lost += frame.sequence - expected;
+                    }
+                    expected = frame.sequence + 1L;
+                    intact &= frame.speed == frame.sequence % 65536 && frame.bearing == 90.0f
+                            && frame.fixNanos <= frame.publishNanos;
+                    count++;
+                }
+            } catch (IOException | ClosedSelectorException e) {
+                // the UDP client is closed to end it; a TCP client should not fail
+                if (!udp) {
+                    error = e;
+                    intact = false;
+                }
+            } finally {
+                try {
+                    client.close();
+                } catch (IOException e) {
+                    // already closed
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package net.mypapit.mobile.speedmeter.engine.timing;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Laps of a stadium-shaped circuit, two 600 m straights joined by turns of 80 m radius,
+ * driven counter-clockwise: 25 m/s through the turns, up to 55 m/s halfway down the straights,
+ * each lap a little faster or slower than the last. The drive is integrated in 1 ms steps, which
+ * gives the true time of every gate crossing, and sampled into fixes whose positions carry a
+ * slowly wandering error, as receivers do.
+ */
+public final class Circuit {
+
+    public static final double LATITUDE = 2.7608;
+    public static final double LONGITUDE = 101.7382;
+    public static final double STRAIGHT = 600.0;
+    public static final double RADIUS = 80.0;
+    public static final double LENGTH = 2 * STRAIGHT + 2 * Math.PI * RADIUS;
+    /**
+     * Meters along the lap of the start/finish gate, halfway down the first straight, and of
+     * the split gates, halfway through the turns
+     */
+    public static final double[] GATES = {
+            STRAIGHT / 2, STRAIGHT + Math.PI * RADIUS / 2, 2 * STRAIGHT + 1.5 * Math.PI * RADIUS
+    };
+
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180.0;
+    private static final long STEP_NANOS = 1000000L;
+    private static final double TURN_SPEED = 25.0;
+    private static final double STRAIGHT_SPEED = 55.0;
+    /** Typical position error per axis, in meters */
+    public static final double NOISE = 1.5;
+    /** Correlation of the position error from one second to the next */
+    private static final double NOISE_CORRELATION = 0.9;
+
+    public final int size;
+    public final long[] nanos;
+    public final double[] latitudes;
+    public final double[] longitudes;
+    public final float[] speeds;
+    public final float[] bearings;
+    /** True crossings in order: time and gate index */
+    public final int crossings;
+    public final long[] crossingNanos;
+    public final int[] crossingGates;
+
+    /**
+     * Drives a number of laps, starting on the first straight before the start/finish gate.
+     *
+     * @param noise standard deviation of the position error per axis, in meters
+     */
+    public Circuit(int laps, double rateHz, double noise, long seed) {
+        Random lapRandom = new Random(seed);
+        Random noiseRandom = new Random(seed + 1);
+        long intervalNanos = (long) (1e9 / rateHz);
+        double end = GATES[0] + laps * LENGTH + 50.0;
+        int capacity = (int) (end / TURN_SPEED * rateHz) + 2;
+        long[] fixNanos = new long[capacity];
+        double[] fixLatitudes = new double[capacity];
+        double[] fixLongitudes = new double[capacity];
+        float[] fixSpeeds = new float[capacity];
+        float[] fixBearings = new float[capacity];
+        long[] trueNanos = new long[laps * GATES.length + 2];
+        int[] trueGates = new int[trueNanos.length];
+        int fixes = 0;
+        int crossed = 0;
+        double[] point = new double[3];
+        double factor = 1.0;
+        int lap = -1;
+        // position error, east and north
+        double errorEast = 0.0;
+        double errorNorth = 0.0;
+        double correlation = Math.pow(NOISE_CORRELATION, 1.0 / rateHz);
+        double innovation = noise * Math.sqrt(1 - correlation * correlation);
+        double distance = 0.0;
+        long t = 0L;
+        while (distance < end) {
+            double along = distance % LENGTH;
+            if ((int) (distance / LENGTH) != lap) {
+                lap = (int) (distance / LENGTH);
+                factor = 1.0 + lapRandom.nextGaussian() * 0.01;
+            }
+            double next = distance + speed(along) * factor * STEP_NANOS / 1e9;
+            for (int g = 0; g < GATES.length; g++) {
+                double gate = GATES[g] + Math.floor((next - GATES[g]) / LENGTH) * LENGTH;
+                if (gate > distance && gate <= next && crossed < trueNanos.length) {
+                    trueNanos[crossed] = t + Math.round((gate - distance) / (next - distance) * STEP_NANOS);
+                    trueGates[crossed++] = g;
+                }
+            }
+            distance = next;
+            t += STEP_NANOS;
+            if (t % intervalNanos == 0 && fixes < capacity) {
+                // first-order autoregressive error, as correlated per fix as the rate makes it
+                errorEast = errorEast * correlation + noiseRandom.nextGaussian() * innovation;
+                errorNorth = errorNorth * correlation + noiseRandom.nextGaussian() * innovation;
+                position(distance % LENGTH, point);
+                fixNanos[fixes] = t;
+                fixLatitudes[fixes] = LATITUDE + (point[1] + errorNorth) / METERS_PER_DEGREE;
+                fixLongitudes[fixes] = LONGITUDE + (point[0] + errorEast) / lonMeters();
+                fixSpeeds[fixes] = (float) (speed(distance % LENGTH) * factor);
+                fixBearings[fixes] = (float) point[2];
+                fixes++;
+            }
+        }
+        size = fixes;
+        nanos = Arrays.copyOf(fixNanos, fixes);
+        latitudes = Arrays.copyOf(fixLatitudes, fixes);
+        longitudes = Arrays.copyOf(fixLongitudes, fixes);
+        speeds = Arrays.copyOf(fixSpeeds, fixes);
+        bearings = Arrays.copyOf(fixBearings, fixes);
+        crossings = crossed;
+        crossingNanos = Arrays.copyOf(trueNanos, crossed);
+        crossingGates = Arrays.copyOf(trueGates, crossed);
+    }
+
+    /**
+     * Adds the start/finish and split gates, 30 m wide, square to the track.
+     */
+    public static void addGates(GateIndex gates) {
+        double[] point = new double[3];
+        for (int g = 0; g < GATES.length; g++) {
+            position(GATES[g] % LENGTH, point);
+            gates.addAcross(g == 0 ? GateIndex.START_FINISH : GateIndex.SPLIT,
+                    LATITUDE + point[1] / METERS_PER_DEGREE, LONGITUDE + point[0] / lonMeters(),
+                    point[2], GateIndex.DEFAULT_WIDTH);
+        }
+    }
+
+    /**
+     * Adds gates 30 m wide at random positions and directions in a square around the circuit.
+     *
+     * @param side of the square, in meters
+     */
+    public static void addRandomGates(GateIndex gates, int count, double side, long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < count; i++) {
+            double east = (random.nextDouble() - 0.5) * side;
+            double north = (random.nextDouble() - 0.5) * side;
+            gates.addAcross(GateIndex.SPLIT, LATITUDE + north / METERS_PER_DEGREE, LONGITUDE + east / lonMeters(),
+                    random.nextDouble() * 360.0, GateIndex.DEFAULT_WIDTH);
+        }
+    }
+
+    public Fix fix(int i, Fix fix) {
+        fix.set(nanos[i], 1500000000000L + nanos[i] / 1000000L, latitudes[i], longitudes[i], speeds[i],
+                bearings[i], 3.0f);
+        return fix;
+    }
+
+    public static double lonMeters() {
+        return METERS_PER_DEGREE * Math.cos(Math.toRadians(LATITUDE));
+    }
+
+    private static double speed(double along) {
+        double u;
+        if (along < STRAIGHT) {
+            u = along;
+        } else if (along >= STRAIGHT + Math.PI * RADIUS && along < 2 * STRAIGHT + Math.PI * RADIUS) {
+            u = along - STRAIGHT - Math.PI * RADIUS;
+        } else {
+            return TURN_SPEED;
+        }
+        return TURN_SPEED + (STRAIGHT_SPEED - TURN_SPEED) * Math.sin(Math.PI * u / STRAIGHT);
+    }
+
+    /**
+     * @param point receives east and north in meters from the start of the first straight,
+     *              and the bearing in degrees
+     */
+    private static void position(double along, double[] point) {
+        double turn = Math.PI * RADIUS;
+        if (along < STRAIGHT) {
+            point[0] = along;
+            point[1] = 0.0;
+            point[2] = 90.0;
+        } else if (along < STRAIGHT + turn) {
+            double phi = (along - STRAIGHT) / RADIUS;
+            point[0] = STRAIGHT + RADIUS * Math.sin(phi);
+            point[1] = RADIUS - RADIUS * Math.cos(phi);
+            point[2] = Math.toDegrees(Math.atan2(Math.cos(phi), Math.sin(phi)));
+        } else if (along < 2 * STRAIGHT + turn) {
+            point[0] = STRAIGHT - (along - STRAIGHT - turn);
+            point[1] = 2 * RADIUS;
+            point[2] = 270.0;
+        } else {
+            double phi = (along - 2 * STRAIGHT - turn) / RADIUS;
+            point[0] = -RADIUS * Math.sin(phi);
+            point[1] = RADIUS + RADIUS * Math.cos(phi);
+            point[2] = Math.toDegrees(Math.atan2(-Math.cos(phi), -Math.sin(phi)));
+        }
+        point[2] = (point[2] + 360.0) % 360.0;
+    }
+}
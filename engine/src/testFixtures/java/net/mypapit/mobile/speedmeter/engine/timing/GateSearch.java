@@ -0,0 +1,63 @@
+package net.mypapit.mobile.speedmeter.engine.timing;
+
+/**
+ * Tests a step against every gate of a {@link GateIndex} the textbook way, on a flat
+ * projection around the {@link Circuit}, to check and time the index against.
+ */
+public final class GateSearch {
+
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180.0;
+
+    private final int size;
+    private final double[] x1;
+    private final double[] y1;
+    private final double[] x2;
+    private final double[] y2;
+
+    public GateSearch(GateIndex gates) {
+        size = gates.size();
+        x1 = new double[size];
+        y1 = new double[size];
+        x2 = new double[size];
+        y2 = new double[size];
+        for (int g = 0; g < size; g++) {
+            x1[g] = x(gates.getLongitude1(g));
+            y1[g] = y(gates.getLatitude1(g));
+            x2[g] = x(gates.getLongitude2(g));
+            y2[g] = y(gates.getLatitude2(g));
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return whether the step between two positions crosses gate {@code g} to its left
+     */
+    public boolean crosses(int g, double latitude1, double longitude1, double latitude2, double longitude2) {
+        double px = x(longitude1);
+        double py = y(latitude1);
+        double rx = x(longitude2) - px;
+        double ry = y(latitude2) - py;
+        double ax = x1[g] - px;
+        double ay = y1[g] - py;
+        double bx = x2[g] - px;
+        double by = y2[g] - py;
+        // the step starts right of the gate, ends on or left of it, and the gate's end
+        // points lie on either side of the step
+        double startSide = ax * by - ay * bx;
+        double endSide = (bx - ax) * (ry - ay) - (by - ay) * (rx - ax);
+        double aSide = rx * ay - ry * ax;
+        double bSide = rx * by - ry * bx;
+        return startSide < 0.0 && endSide >= 0.0 && !(aSide > 0.0 && bSide > 0.0) && !(aSide < 0.0 && bSide < 0.0);
+    }
+
+    private static double x(double longitude) {
+        return (longitude - Circuit.LONGITUDE) * Circuit.lonMeters();
+    }
+
+    private static double y(double latitude) {
+        return (latitude - Circuit.LATITUDE) * METERS_PER_DEGREE;
+    }
+}
@@ -0,0 +1,252 @@
+package net.mypapit.mobile.speedmeter.engine.timing;
+
+import net.mypapit.mobile.speedmeter.engine.Fix;
+import net.mypapit.mobile.speedmeter.engine.FixBatch;
+import net.mypapit.mobile.speedmeter.engine.SpeedUnit;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Synthetic performance runs from a standstill, launched at a random point between two fixes:
+ * at constant acceleration, which the interpolation between fixes models exactly, and with
+ * the acceleration falling off with speed as a car's does, optionally with noise on the speed.
+ * Targets are 0-100 km/h, 0-60 mph, the eighth and the quarter mile; runs are timed by a
+ * {@link PerformanceTimer} and by reading the times at the fixes, for comparison.
+ */
+public final class LaunchRuns {
+
+    public static final long SECOND = 1000000000L;
+    /** Standing still before the launch */
+    public static final double STANDING_SECONDS = 3.0;
+    /** Speed noise of a good receiver at speed, 1 sigma, m/s */
+    public static final double SPEED_NOISE = 0.1;
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180.0;
+
+    public static final float[] SPEEDS = {100.0f / 3.6f, 60.0f / SpeedUnit.multiplier(SpeedUnit.MPH)};
+    public static final double[] DISTANCES = {PerformanceTimer.EIGHTH_MILE, PerformanceTimer.QUARTER_MILE};
+    /** Speed and distance targets, then the quarter mile trap speed */
+    public static final int TARGETS = SPEEDS.length + DISTANCES.length;
+
+    private LaunchRuns() {
+    }
+
+    public static PerformanceTimer newTimer() {
+        PerformanceTimer timer = new PerformanceTimer();
+        timer.setTargets(SPEEDS, DISTANCES);
+        return timer;
+    }
+
+    /**
+     * Times runs of a profile.
+     *
+     * @return errors of every run
+     */
+    public static Errors measure(Profile profile, double rateHz, double noise, int runs) {
+        Random random = new Random(24L);
+        Errors errors = new Errors(runs);
+        double[][] interpolated = errors.interpolated;
+        double[][] atFixes = errors.atFixes;
+        PerformanceTimer timer = newTimer();
+        FixBatch fixes = new FixBatch(1024);
+        for (int run = 0; run < runs; run++) {
+            double launch = STANDING_SECONDS + random.nextDouble() / rateHz;
+            generate(profile, rateHz, launch, noise, random, fixes);
+            timer.arm();
+            for (int i = 0; i < fixes.size(); i++) {
+                timer.update(fixes.get(i));
+            }
+            timer.disarm();
+            for (int t = 0; t < TARGETS; t++) {
+                double truth = t < SPEEDS.length ? profile.timeToSpeed(SPEEDS[t])
+                        : profile.timeToDistance(DISTANCES[t - SPEEDS.length]);
+                long nanos = t < SPEEDS.length ? timer.getSpeedNanos(t) : timer.getDistanceNanos(t - SPEEDS.length);
+                interpolated[t][run] = nanos == PerformanceTimer.NONE ? Double.POSITIVE_INFINITY
+                        : Math.abs(nanos / 1e6 - truth * 1e3);
+                atFixes[t][run] = Math.abs(readAtFixes(fixes, t) / 1e6 - truth * 1e3);
+            }
+            double trap = profile.speedAt(profile.timeToDistance(DISTANCES[1]));
+            interpolated[TARGETS][run] = Math.abs(timer.getTrapSpeed(1) - trap) * 1e3;
+            atFixes[TARGETS][run] = Math.abs(trapAtFixes(fixes) - trap) * 1e3;
+        }
+        for (int t = 0; t <= TARGETS; t++) {
+            Arrays.sort(interpolated[t]);
+            Arrays.sort(atFixes[t]);
+        }
+        return errors;
+    }
+
+    /**
+     * @return the time of a target read at the first fix past it, from the last fix at a
+     *         standstill, as a timer without interpolation would
+     */
+    private static long readAtFixes(FixBatch fixes, int target) {
+        long start = Long.MIN_VALUE;
+        double distance = 0.0;
+        for (int i = 0; i < fixes.size(); i++) {
+            Fix fix = fixes.get(i);
+            if (fix.speed < PerformanceTimer.STANDSTILL_SPEED && start == Long.MIN_VALUE) {
+                continue;
+            }
+            if (start == Long.MIN_VALUE) {
+                start = fixes.get(i - 1).elapsedNanos;
+            } else {
+                Fix previous = fixes.get(i - 1);
+                distance += 0.5 * (previous.speed + fix.speed) * (fix.elapsedNanos - previous.elapsedNanos) / 1e9;
+            }
+            if (target < SPEEDS.length ? fix.speed >= SPEEDS[target] : distance >= DISTANCES[target - SPEEDS.length]) {
+                return fix.elapsedNanos - start;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private static double trapAtFixes(FixBatch fixes) {
+        double distance = 0.0;
+        for (int i = 1; i < fixes.size(); i++) {
+            Fix previous = fixes.get(i - 1);
+            Fix fix = fixes.get(i);
+            distance += 0.5 * (previous.speed + fix.speed) * (fix.elapsedNanos - previous.elapsedNanos) / 1e9;
+            if (distance >= DISTANCES[1]) {
+                return fix.speed;
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Fills a batch with the fixes of a run: standing still, then launched at {@code launch}
+     * seconds until past the quarter mile.
+     */
+    public static void generate(Profile profile, double rateHz, double launch, double noise, Random random,
+                                FixBatch fixes) {
+        fixes.clear();
+        double end = launch + profile.timeToDistance(DISTANCES[1]) + 2.0;
+        long interval = Math.round(SECOND / rateHz);
+        for (long nanos = SECOND; nanos / 1e9 <= end; nanos += interval) {
+            double t = nanos / 1e9 - launch;
+            double speed = t <= 0 ? 0.0 : profile.speedAt(t);
+            double distance = t <= 0 ? 0.0 : profile.distanceAt(t);
+            if (noise > 0) {
+                // receivers report no motion at a standstill as a few cm/s
+                speed = t <= 0 ? Math.abs(random.nextGaussian() * 0.05) : speed + random.nextGaussian() * noise;
+            }
+            fixes.add().set(nanos, 1700000000000L + nanos / 1000000L, 3.0 + distance / METERS_PER_DEGREE,
+                    101.0, (float) Math.max(0.0, speed), 0.0f, 3.0f);
+        }
+    }
+
+    /**
+     * Errors of each run, sorted, per target and for the trap speed last. Times are in ms, the
+     * trap speed in mm/s.
+     */
+    public static final class Errors {
+        /** Of the times the {@link PerformanceTimer} interpolated */
+        public final double[][] interpolated;
+        /** Of the times read at the first fix past each target */
+        public final double[][] atFixes;
+
+        Errors(int runs) {
+            interpolated = new double[TARGETS + 1][runs];
+            atFixes = new double[TARGETS + 1][runs];
+        }
+
+        /**
+         * @return largest interpolated error of the time targets within a fraction of the runs
+         */
+        public double interpolatedTime(double fraction) {
+            double worst = 0.0;
+            for (int t = 0; t < TARGETS; t++) {
+                double[] runs = interpolated[t];
+                worst = Math.max(worst, runs[Math.min(runs.length - 1, (int) (runs.length * fraction))]);
+            }
+            return worst;
+        }
+    }
+
+    /**
+     * Speed and distance over time from the launch.
+     */
+    public interface Profile {
+        double speedAt(double t);
+
+        double distanceAt(double t);
+
+        double timeToSpeed(double speed);
+
+        double timeToDistance(double distance);
+    }
+
+    public static final class ConstantAcceleration implements Profile {
+        private final double a;
+
+        public ConstantAcceleration(double a) {
+            this.a = a;
+        }
+
+        @Override
+        public double speedAt(double t) {
+            return a * t;
+        }
+
+        @Override
+        public double distanceAt(double t) {
+            return 0.5 * a * t * t;
+        }
+
+        @Override
+        public double timeToSpeed(double speed) {
+            return speed / a;
+        }
+
+        @Override
+        public double timeToDistance(double distance) {
+            return Math.sqrt(2.0 * distance / a);
+        }
+    }
+
+    /**
+     * Acceleration falling linearly with speed, from {@code a0} at rest to none at
+     * {@code vmax}: v(t) = vmax (1 - e^(-t a0 / vmax)).
+     */
+    public static final class FallingAcceleration implements Profile {
+        private final double a0;
+        private final double vmax;
+
+        public FallingAcceleration(double a0, double vmax) {
+            this.a0 = a0;
+            this.vmax = vmax;
+        }
+
+        @Override
+        public double speedAt(double t) {
+            return vmax * (1.0 - Math.exp(-t * a0 / vmax));
+        }
+
+        @Override
+        public double distanceAt(double t) {
+            double tau = vmax / a0;
+            return vmax * (t - tau * (1.0 - Math.exp(-t / tau)));
+        }
+
+        @Override
+        public double timeToSpeed(double speed) {
+            return -vmax / a0 * Math.log(1.0 - speed / vmax);
+        }
+
+        @Override
+        public double timeToDistance(double distance) {
+            double lo = 0.0;
+            double hi = 1000.0;
+            for (int i = 0; i < 100; i++) {
+                double mid = 0.5 * (lo + hi);
+                if (distanceAt(mid) < distance) {
+                    lo = mid;
+                } else {
+                    hi = mid;
+                }
+            }
+            return 0.5 * (lo + hi);
+        }
+    }
+}
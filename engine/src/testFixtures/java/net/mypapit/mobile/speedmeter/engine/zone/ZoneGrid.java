@@ -0,0 +1,110 @@
+package net.mypapit.mobile.speedmeter.engine.zone;
+
+import java.util.Random;
+
+/**
+ * A synthetic city for zone tests and benchmarks: a square grid of streets 100 m apart, split into one
+ * segment per block, with 50 km/h streets, an 80 km/h avenue every tenth street and a
+ * 110 km/h highway every fiftieth. Also generates positions on and off its streets.
+ */
+public final class ZoneGrid {
+
+    public static final double ORIGIN_LATITUDE = 3.0;
+    public static final double ORIGIN_LONGITUDE = 101.5;
+    private static final double METERS_PER_DEGREE = 6371008.8 * Math.PI / 180.0;
+    private static final double SPACING = 100.0;
+
+    private final int blocks;
+    private final double latStep;
+    private final double lonStep;
+
+    /**
+     * @param blocks blocks along each side; the grid has 2 * blocks * (blocks + 1) segments
+     */
+    public ZoneGrid(int blocks) {
+        this.blocks = blocks;
+        latStep = SPACING / METERS_PER_DEGREE;
+        lonStep = SPACING / (METERS_PER_DEGREE * Math.cos(Math.toRadians(ORIGIN_LATITUDE)));
+    }
+
+    public ZoneBuilder build() {
+        ZoneBuilder builder = new ZoneBuilder();
+        for (int street = 0; street <= blocks; street++) {
+            float limit = limit(street);
+            for (int block = 0; block < blocks; block++) {
+                // east-west, then north-south
+                builder.add(lat(street), lon(block), lat(street), lon(block + 1), limit);
+                builder.add(lat(block), lon(street), lat(block + 1), lon(street), limit);
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * @return limit of a street in meters/second
+     */
+    public static float limit(int street) {
+        return (street % 50 == 0 ? 110 : street % 10 == 0 ? 80 : 50) / 3.6f;
+    }
+
+    /**
+     * @return latitude, longitude pairs anywhere within the grid
+     */
+    public double[] randomPositions(long seed, int count) {
+        Random random = new Random(seed);
+        double[] positions = new double[count * 2];
+        for (int i = 0; i < count; i++) {
+            positions[2 * i] = lat(random.nextDouble() * blocks);
+            positions[2 * i + 1] = lon(random.nextDouble() * blocks);
+        }
+        return positions;
+    }
+
+    /**
+     * @return latitude, longitude pairs of a drive along the streets at 15 m per fix with 3 m
+     *         of position noise, turning at random junctions
+     */
+    public double[] drivePositions(long seed, int count) {
+        Random random = new Random(seed);
+        double[] positions = new double[count * 2];
+        // position in blocks, and the direction of travel along the grid
+        double row = blocks / 2;
+        double column = blocks / 2;
+        int dRow = 0;
+        int dColumn = 1;
+        double step = 15.0 / SPACING;
+        for (int i = 0; i < count; i++) {
+            double nextRow = row + dRow * step;
+            double nextColumn = column + dColumn * step;
+            if (Math.floor(nextRow) != Math.floor(row) || Math.floor(nextColumn) != Math.floor(column)) {
+                // at a junction
+                row = Math.rint(dRow != 0 ? nextRow : row);
+                column = Math.rint(dColumn != 0 ? nextColumn : column);
+                if (random.nextInt(3) == 0 || row <= 1 || column <= 1 || row >= blocks - 1 || column >= blocks - 1) {
+                    int turn = random.nextBoolean() ? 1 : -1;
+                    int swap = dRow;
+                    dRow = dColumn * turn;
+                    dColumn = -swap * turn;
+                    if (row + dRow < 1 || row + dRow > blocks - 1 || column + dColumn < 1 || column + dColumn > blocks - 1) {
+                        dRow = -dRow;
+                        dColumn = -dColumn;
+                    }
+                }
+            } else {
+                row = nextRow;
+                column = nextColumn;
+            }
+            positions[2 * i] = lat(row) + random.nextGaussian() * 3.0 / METERS_PER_DEGREE;
+            positions[2 * i + 1] = lon(column) + random.nextGaussian() * 3.0 / METERS_PER_DEGREE;
+        }
+        return positions;
+    }
+
+    private double lat(double row) {
+        return ORIGIN_LATITUDE + row * latStep;
+    }
+
+    private double lon(double column) {
+        return ORIGIN_LONGITUDE + column * lonStep;
+    }
+}